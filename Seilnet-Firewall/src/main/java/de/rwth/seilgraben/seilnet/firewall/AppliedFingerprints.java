@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.esotericsoftware.minlog.Log;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+
+/**
+ * Remembers a fingerprint (see {@link RulesetCodec#fingerprint(FirewallVlanRuleset)}) of the ruleset
+ * that was last applied successfully to each VLAN, so that after a restart, VLANs whose stored
+ * ruleset has already been applied do not have to be applied again.
+ * <p>
+ * The file is replaced after every change, but not forced to disk: a lost update can only make the
+ * daemon reapply a VLAN, or trust a VLAN whose kernel state was lost in the same crash anyway, which
+ * is why the kernel state is verified as well, see
+ * {@link FirewallController.FirewallRulesetListener#verifyApplied(Collection)}.
+ * <p>
+ * Thread-safe. The file is written without holding the lock that guards the fingerprints, and saves
+ * that wait for a running one are coalesced: the first of them writes the changes of all.
+ *
+ * @author Felix Kirchmann
+ */
+class AppliedFingerprints
+{
+	private final File				file, temp;
+	/**
+	 * Held while the file is written, since all saves share the temporary file.
+	 */
+	private final Object				saveLock		= new Object();
+
+	// All fields below are guarded by this
+	/**
+	 * VLAN ID -&gt; fingerprint.
+	 */
+	private final Map<Integer, Long>	fingerprints	= new HashMap<>();
+	/**
+	 * Counts the changes, to tell whether the file is up to date.
+	 */
+	private long						changes			= 0, savedChanges = 0;
+
+	/**
+	 * Reads the fingerprints that were saved before. If there are none or they are unreadable, all
+	 * VLANs are considered unknown.
+	 */
+	AppliedFingerprints(File rulesFolder)
+	{
+		this.file = new File(rulesFolder, Constants.RULES_APPLIED_FILENAME);
+		this.temp = new File(rulesFolder, Constants.RULES_APPLIED_TEMP_FILENAME);
+		if (!file.exists()) { return; }
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			int count = in.readInt();
+			for (int i = 0; i < count; i++)
+			{
+				fingerprints.put(in.readInt(), in.readLong());
+			}
+		}
+		catch (IOException e)
+		{
+			Log.warn(LogCategory.FIREWALL, "Failed to read " + file.getName() + ", all VLANs will be reapplied.", e);
+			fingerprints.clear();
+		}
+	}
+
+	/**
+	 * @return Whether the given ruleset is the one that was last applied successfully to its VLAN.
+	 */
+	synchronized boolean isApplied(FirewallVlanRuleset ruleset)
+	{
+		Long fingerprint = fingerprints.get(ruleset.getVlan());
+		return fingerprint != null && fingerprint == RulesetCodec.fingerprint(ruleset);
+	}
+
+	synchronized void put(FirewallVlanRuleset ruleset)
+	{
+		fingerprints.put(ruleset.getVlan(), RulesetCodec.fingerprint(ruleset));
+		changes++;
+	}
+
+	/**
+	 * Marks the VLAN's state as unknown.
+	 */
+	synchronized void remove(int vlan)
+	{
+		fingerprints.remove(vlan);
+		changes++;
+	}
+
+	/**
+	 * Writes the fingerprints, unless a concurrent save already wrote all changes made so far.
+	 */
+	void save() throws IOException
+	{
+		synchronized (saveLock)
+		{
+			Map<Integer, Long> snapshot;
+			long snapshotChanges;
+			synchronized (this)
+			{
+				if (savedChanges == changes) { return; }
+				snapshot = new HashMap<>(fingerprints);
+				snapshotChanges = changes;
+			}
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+			{
+				out.writeInt(snapshot.size());
+				for (Map.Entry<Integer, Long> entry : snapshot.entrySet())
+				{
+					out.writeInt(entry.getKey());
+					out.writeLong(entry.getValue());
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			synchronized (this)
+			{
+				savedChanges = snapshotChanges;
+			}
+		}
+	}
+}
@@ -16,9 +16,38 @@ public class Constants
 	public static String	STANDARD_CONFIG_LOCATION	= "./firewall-config.properties";
 	public static String	DEFAULT_CONFIG_CLASSPATH	= "firewall-default-config.properties";
 														
-	public static String	RULES_FILENAME				= "rules.xml";
-	public static String	RULES_BACKUP_FILENAME		= "rules.backup.xml";
-	public static String	RULES_TEMP_FILENAME			= "rules.temp.xml";
+	public static String	RULES_FILENAME				= "rules.bin";
+	public static String	RULES_BACKUP_FILENAME		= "rules.backup.bin";
+	public static String	RULES_TEMP_FILENAME			= "rules.temp.bin";
+	/**
+	 * The rules files of older versions, see {@link RulesetStore}.
+	 */
+	public static String	RULES_XML_FILENAME			= "rules.xml";
+	public static String	RULES_XML_BACKUP_FILENAME	= "rules.backup.xml";
+	public static String	RULES_JOURNAL_FILENAME		= "rules.journal";
+	/**
+	 * Fingerprints of the rulesets that were last applied successfully, see
+	 * {@link AppliedFingerprints}.
+	 */
+	public static String	RULES_APPLIED_FILENAME		= "rules.applied";
+	public static String	RULES_APPLIED_TEMP_FILENAME	= "rules.applied.temp";
+	/**
+	 * Once the ruleset journal is larger than this (in bytes), it is compacted into a new snapshot.
+	 */
+	public static final long	RULES_JOURNAL_COMPACTION_SIZE	= 4 * 1024 * 1024;
 
+	/**
+	 * The default debounce interval of the lease file, and the delay before retrying a failed read.
+	 */
 	public static Duration LEASE_FILE_READ_INTERVAL		= Duration.ofMillis(250);
+	/**
+	 * The lease file is read at most this long after it was first modified, even if it keeps being
+	 * modified.
+	 */
+	public static Duration LEASE_FILE_MAX_DELAY			= Duration.ofSeconds(5);
+
+	/**
+	 * How many finished ruleset submissions are remembered, so that their status can be queried.
+	 */
+	public static final int	RULESET_SUBMISSIONS_RETAINED	= 1000;
 }
@@ -7,7 +7,6 @@ package de.rwth.seilgraben.seilnet.firewall;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -15,53 +14,85 @@ import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.util.Iterator;
-import java.util.List;
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 import com.esotericsoftware.minlog.Log;
 
 import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList;
-import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHost;
-import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHostListBuilder;
-import de.rwth.seilgraben.seilnet.util.Func;
-import de.rwth.seilgraben.seilnet.util.MacAddress;
-import lombok.Cleanup;
-import lombok.Getter;
 import lombok.SneakyThrows;
 
 /**
+ * Watches the dnsmasq lease file and keeps the list of hosts in it up to date. Bursts of writes to
+ * the file are coalesced: it is only read once it has not been modified for the debounce interval
+ * (but at most {@link Constants#LEASE_FILE_MAX_DELAY} after the first write), and only the lines
+ * that changed are parsed, see {@link DnsmasqLeaseParser}. The listener receives the hosts that
+ * were added or removed per VLAN.
  *
  * @author Felix Kirchmann
  */
 public class DnsmasqDhcpHostMonitor
 {
-	@Getter
+	/**
+	 * Built from the parser on demand, <code>null</code> after a change.
+	 */
 	private volatile NetworkHostList	hosts;
+	private final DnsmasqLeaseParser	parser	= new DnsmasqLeaseParser();
 	private final Path					leaseFilePath;
 	private final Path					leaseFolderPath;
+	private final Duration				debounce;
 	
 	private final WatcherThread			watcher;
 	private final EventNotifierThread	eventNotifier;
 	
 	public DnsmasqDhcpHostMonitor(File leaseFile) throws IOException
+	{
+		this(leaseFile, Constants.LEASE_FILE_READ_INTERVAL);
+	}
+	
+	/**
+	 * @param debounce
+	 *            How long the lease file must remain unmodified before it is read.
+	 */
+	public DnsmasqDhcpHostMonitor(File leaseFile, Duration debounce) throws IOException
 	{
 		leaseFilePath = leaseFile.toPath().normalize();
 		leaseFolderPath = leaseFilePath.getParent();
+		this.debounce = debounce;
 		
+		eventNotifier = new EventNotifierThread();
 		readHosts();
 		
 		WatchService watchService = leaseFolderPath.getFileSystem().newWatchService();
 		leaseFolderPath.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY);
 		
-		eventNotifier = new EventNotifierThread();
-		watcher = new WatcherThread(watchService, eventNotifier);
+		watcher = new WatcherThread(watchService);
+	}
+	
+	public NetworkHostList getHosts()
+	{
+		NetworkHostList current = hosts;
+		if (current != null) { return current; }
+		synchronized (parser)
+		{
+			if (hosts == null)
+			{
+				hosts = parser.toHostList();
+			}
+			return hosts;
+		}
 	}
 	
+	/**
+	 * The listener first receives all current hosts as added.
+	 */
 	public void setListener(NetworkHostListener listener)
 	{
-		eventNotifier.setListener(listener);
+		synchronized (parser)
+		{
+			eventNotifier.setListener(listener, new HostListChange(getHosts().listHosts(), Collections.emptyMap()));
+		}
 	}
 	
 	public void halt()
@@ -72,48 +103,25 @@ public class DnsmasqDhcpHostMonitor
 	
 	private void readHosts() throws IOException
 	{
-		try
+		synchronized (parser)
 		{
-			NetworkHostListBuilder builder = NetworkHostList.builder();
-			@Cleanup Stream<String> stream = Files.lines(leaseFilePath);
-			Iterator<String> it = stream.iterator();
-			while (it.hasNext())
+			HostListChange change = parser.update(leaseFilePath);
+			if (!change.isEmpty())
 			{
-				String line = it.next();
-				if (line.trim().length() == 0) return;
-				String[] split = line.split(Pattern.quote(" "));
-				try
-				{
-					MacAddress mac = new MacAddress(split[1]);
-					int vlan = Func.getVlan(split[2]);
-					String name = split[3];
-					
-					NetworkHost host = new NetworkHost(name, mac);
-					builder.vlanHosts(vlan, host);
-				}
-				catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e)
-				{
-					throw new IOException("Lease file contains unrecognized line \"" + line + "\"", e);
-				}
+				hosts = null;
+				eventNotifier.notifyChange(change);
 			}
-			hosts = builder.build();
-		}
-		catch (UncheckedIOException e)
-		{
-			throw e.getCause();
 		}
 	}
 	
 	private class WatcherThread extends Thread
 	{
-		private boolean						run	= true;
-		private final WatchService			watchService;
-		private final EventNotifierThread	eventNotifier;
+		private volatile boolean	run	= true;
+		private final WatchService	watchService;
 		
-		private WatcherThread(WatchService watchService, EventNotifierThread eventNotifier)
+		private WatcherThread(WatchService watchService)
 		{
 			this.watchService = watchService;
-			this.eventNotifier = eventNotifier;
 			
 			this.setDaemon(true);
 			this.setName("DnsmasqDhcp-WatcherThread");
@@ -128,10 +136,13 @@ public class DnsmasqDhcpHostMonitor
 			{
 				while (run)
 				{
-					WatchKey watchKey;
+					boolean leaseFileChanged;
 					try
 					{
-						watchKey = watchService.take();
+						WatchKey watchKey = watchService.take();
+						leaseFileChanged = isLeaseFileChanged(watchKey);
+						if (!reset(watchKey)) return;
+						if (leaseFileChanged && !awaitQuiet()) return;
 					}
 					catch (ClosedWatchServiceException e)
 					{
@@ -143,35 +154,15 @@ public class DnsmasqDhcpHostMonitor
 						Log.error(LogCategory.FIREWALL, "WatcherThread interrupted", e);
 						return;
 					}
-					List<WatchEvent<?>> events = watchKey.pollEvents();
-					boolean leaseFileChanged = false;
-					for (WatchEvent<?> event : events)
-					{
-						try
-						{
-							if (Files.isSameFile(leaseFolderPath.resolve((Path) event.context()), leaseFilePath))
-							{
-								leaseFileChanged = true;
-								break;
-							}
-						}
-						catch (IOException e)
-						{
-							Log.warn(LogCategory.FIREWALL,
-									"WatcherThread could not check if the lease file got changed", e);
-						}
-					}
-					// Once a change is detected, the file might still be in the process of being modified
+					// The file might still be in the process of being modified even though it was quiet for a while
 					// This loop waits and retries until the file has been read successfully
 					while (leaseFileChanged && Files.exists(leaseFilePath))
 					{
-						Thread.sleep(Constants.LEASE_FILE_READ_INTERVAL.toMillis());
 						try
 						{
 							readHosts();
 							// Successful read (no IOException)? OK, all changes processed
 							leaseFileChanged = false;
-							eventNotifier.notifyEvent();
 						}
 						catch (IOException e)
 						{
@@ -180,12 +171,6 @@ public class DnsmasqDhcpHostMonitor
 							Thread.sleep(Constants.LEASE_FILE_READ_INTERVAL.toMillis());
 						}
 					}
-					if (!watchKey.reset())
-					{
-						if (run) Log.warn(LogCategory.FIREWALL,
-								"The WatchKey is no longer valid. Was the file moved or deleted?");
-						return;
-					}
 				}
 			}
 			finally
@@ -194,6 +179,56 @@ public class DnsmasqDhcpHostMonitor
 			}
 		}
 		
+		/**
+		 * Waits until the lease file has not been modified for the debounce interval, or until
+		 * {@link Constants#LEASE_FILE_MAX_DELAY} has passed.
+		 *
+		 * @return <code>false</code> if the folder cannot be watched anymore.
+		 */
+		private boolean awaitQuiet() throws InterruptedException
+		{
+			long now = System.nanoTime();
+			long quietAt = now + debounce.toNanos();
+			long deadline = now + Constants.LEASE_FILE_MAX_DELAY.toNanos();
+			while (true)
+			{
+				long wait = Math.min(quietAt, deadline) - System.nanoTime();
+				if (wait <= 0) return true;
+				WatchKey watchKey = watchService.poll(wait, TimeUnit.NANOSECONDS);
+				if (watchKey == null) return true;
+				if (isLeaseFileChanged(watchKey))
+				{
+					quietAt = System.nanoTime() + debounce.toNanos();
+				}
+				if (!reset(watchKey)) return false;
+			}
+		}
+		
+		private boolean isLeaseFileChanged(WatchKey watchKey)
+		{
+			for (WatchEvent<?> event : watchKey.pollEvents())
+			{
+				// Events were lost, the lease file may have been among them
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) return true;
+				try
+				{
+					if (Files.isSameFile(leaseFolderPath.resolve((Path) event.context()), leaseFilePath)) return true;
+				}
+				catch (IOException e)
+				{
+					Log.warn(LogCategory.FIREWALL, "WatcherThread could not check if the lease file got changed", e);
+				}
+			}
+			return false;
+		}
+		
+		private boolean reset(WatchKey watchKey)
+		{
+			if (watchKey.reset()) return true;
+			if (run) Log.warn(LogCategory.FIREWALL, "The WatchKey is no longer valid. Was the file moved or deleted?");
+			return false;
+		}
+		
 		public void halt()
 		{
 			run = false;
@@ -210,11 +245,13 @@ public class DnsmasqDhcpHostMonitor
 	
 	private class EventNotifierThread extends Thread
 	{
-		private volatile NetworkHostListener	listener			= null;
-		
-		private volatile boolean				notifyEvent			= false;
-		private volatile boolean				notifyEventOverflow	= false;
-		private boolean							run					= true;
+		// Guarded by this
+		private NetworkHostListener	listener	= null;
+		/**
+		 * The changes since the listener was last notified, merged into one, or <code>null</code>.
+		 */
+		private HostListChange		pending		= null;
+		private boolean				run			= true;
 		
 		private EventNotifierThread()
 		{
@@ -226,60 +263,50 @@ public class DnsmasqDhcpHostMonitor
 		@Override
 		public void run()
 		{
-			NetworkHostList lastHosts = null;
-			NetworkHostList newHosts = null;
-			NetworkHostListener currentListener;
-			while (run)
+			while (true)
 			{
+				NetworkHostListener currentListener;
+				HostListChange change;
 				synchronized (this)
 				{
-					try
+					while (run && (listener == null || pending == null))
 					{
-						this.wait();
-					}
-					catch (InterruptedException e)
-					{
-						Log.error(LogCategory.FIREWALL, "EventNotifierThread interrupted", e);
+						try
+						{
+							this.wait();
+						}
+						catch (InterruptedException e)
+						{
+							Log.error(LogCategory.FIREWALL, "EventNotifierThread interrupted", e);
+						}
 					}
-					currentListener = this.listener;
-					newHosts = hosts;
+					if (!run) return;
+					currentListener = listener;
+					change = pending;
+					pending = null;
 				}
-				if (notifyEvent && currentListener != null && !newHosts.equals(lastHosts))
+				try
 				{
-					try
-					{
-						currentListener.hostsUpdated(DnsmasqDhcpHostMonitor.this);
-					}
-					catch (Exception e)
-					{
-						Log.warn(LogCategory.FIREWALL, "NetworkHostListListener threw an exception", e);
-					}
-					synchronized (this)
-					{
-						lastHosts = newHosts;
-						notifyEvent = notifyEventOverflow;
-						notifyEventOverflow = false;
-					}
+					currentListener.hostsChanged(DnsmasqDhcpHostMonitor.this, change);
+				}
+				catch (Exception e)
+				{
+					Log.warn(LogCategory.FIREWALL, "NetworkHostListListener threw an exception", e);
 				}
 			}
 		}
 		
-		public synchronized void setListener(NetworkHostListener listener)
+		public synchronized void setListener(NetworkHostListener listener, HostListChange initial)
 		{
 			this.listener = listener;
-			notifyEvent();
+			this.pending = listener != null ? initial : null;
+			this.notify();
 		}
 		
-		public synchronized void notifyEvent()
+		public synchronized void notifyChange(HostListChange change)
 		{
-			if (notifyEvent)
-			{
-				notifyEventOverflow = true;
-			}
-			else
-			{
-				notifyEvent = true;
-			}
+			if (listener == null) return;
+			pending = pending == null ? change : pending.merge(change);
 			this.notify();
 		}
 		
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList;
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHost;
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHostListBuilder;
+import de.rwth.seilgraben.seilnet.util.Func;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Reads the dnsmasq lease file incrementally. The lines of the previous read are kept, hashed, so
+ * only lines that are new since then are parsed, and only the hosts of new or vanished lines are
+ * compared. Each line has the format <code>&lt;expiry&gt; &lt;MAC&gt; &lt;IPv4&gt; &lt;name&gt; ...</code>;
+ * empty lines are skipped.
+ * <p>
+ * Renewing a lease rewrites its line with a new expiry time, so a host is only reported as added or
+ * removed if no other line refers to it anymore, see {@link #hostCounts}.
+ * <p>
+ * Not thread-safe, the caller must synchronize.
+ *
+ * @author Felix Kirchmann
+ */
+class DnsmasqLeaseParser
+{
+	/**
+	 * Line -&gt; the lease it describes, as of the previous read.
+	 */
+	private Map<String, Lease>								lines		= new HashMap<>();
+	/**
+	 * VLAN ID -&gt; host -&gt; the number of lines that refer to that host.
+	 */
+	private final Map<Integer, Map<NetworkHost, Integer>>	hostCounts	= new HashMap<>();
+
+	/**
+	 * Reads the file and updates the host list. If the file contains an unrecognized line (e.g.
+	 * because it is being written), nothing is changed.
+	 *
+	 * @return The hosts that were added or removed since the previous read.
+	 */
+	HostListChange update(Path leaseFile) throws IOException
+	{
+		Map<String, Lease> newLines = new HashMap<>(lines.size() * 4 / 3 + 16);
+		try (BufferedReader in = Files.newBufferedReader(leaseFile, StandardCharsets.UTF_8))
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				if (line.trim().isEmpty())
+				{
+					continue;
+				}
+				Lease lease = lines.get(line);
+				newLines.put(line, lease != null ? lease : parse(line));
+			}
+		}
+
+		Map<Integer, Set<NetworkHost>> added = new HashMap<>(), removed = new HashMap<>();
+		for (Map.Entry<String, Lease> entry : lines.entrySet())
+		{
+			if (!newLines.containsKey(entry.getKey()))
+			{
+				Lease lease = entry.getValue();
+				Map<NetworkHost, Integer> vlanHosts = hostCounts.get(lease.vlan);
+				if (vlanHosts.merge(lease.host, -1, Integer::sum) == 0)
+				{
+					vlanHosts.remove(lease.host);
+					if (vlanHosts.isEmpty())
+					{
+						hostCounts.remove(lease.vlan);
+					}
+					removed.computeIfAbsent(lease.vlan, vlan -> new HashSet<>()).add(lease.host);
+				}
+			}
+		}
+		for (Map.Entry<String, Lease> entry : newLines.entrySet())
+		{
+			if (!lines.containsKey(entry.getKey()))
+			{
+				Lease lease = entry.getValue();
+				if (hostCounts.computeIfAbsent(lease.vlan, vlan -> new HashMap<>()).merge(lease.host, 1,
+						Integer::sum) == 1)
+				{
+					// A renewed lease removes and adds the same host
+					Set<NetworkHost> vlanRemoved = removed.get(lease.vlan);
+					if (vlanRemoved == null || !vlanRemoved.remove(lease.host))
+					{
+						added.computeIfAbsent(lease.vlan, vlan -> new HashSet<>()).add(lease.host);
+					}
+				}
+			}
+		}
+		lines = newLines;
+		return new HostListChange(added, removed);
+	}
+
+	NetworkHostList toHostList()
+	{
+		NetworkHostListBuilder builder = NetworkHostList.builder();
+		for (Map.Entry<Integer, Map<NetworkHost, Integer>> entry : hostCounts.entrySet())
+		{
+			builder.vlanHosts(entry.getKey(), entry.getValue().keySet().toArray(new NetworkHost[0]));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Splits the line at single spaces without a regular expression, since this is called for
+	 * every line of a new lease file.
+	 */
+	private static Lease parse(String line) throws IOException
+	{
+		int macStart = line.indexOf(' ') + 1;
+		int ipStart = line.indexOf(' ', macStart) + 1;
+		int nameStart = ipStart > 0 ? line.indexOf(' ', ipStart) + 1 : 0;
+		int nameEnd = nameStart > 0 ? line.indexOf(' ', nameStart) : -1;
+		if (macStart == 0 || ipStart == 0 || nameStart == 0) { throw new IOException(
+				"Lease file contains unrecognized line \"" + line + "\""); }
+		try
+		{
+			MacAddress mac = new MacAddress(line.substring(macStart, ipStart - 1));
+			int vlan = Func.getVlan(line.substring(ipStart, nameStart - 1));
+			String name = nameEnd >= 0 ? line.substring(nameStart, nameEnd) : line.substring(nameStart);
+			return new Lease(vlan, new NetworkHost(name, mac));
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException("Lease file contains unrecognized line \"" + line + "\"", e);
+		}
+	}
+
+	@RequiredArgsConstructor
+	@EqualsAndHashCode
+	private static class Lease
+	{
+		private final int			vlan;
+		private final NetworkHost	host;
+	}
+}
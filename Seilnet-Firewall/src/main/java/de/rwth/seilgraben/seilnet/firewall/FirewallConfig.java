@@ -27,8 +27,9 @@ public class FirewallConfig extends Config
 		super(configFile, defaultConfig);
 	}
 	
-	private int		logLevel, listenPort;
-	private String	initScript, vlanRulesetScript, listenAddr, apiKey, apiHostsPushUrl, dnsmasqLeaseFile,
+	private int		logLevel, listenPort, rulesetWorkers, dnsmasqLeaseDebounceMillis;
+	private boolean	vlanRulesetScriptBatch, vlanRulesetScriptDelta;
+	private String	initScript, vlanRulesetScript, vlanVerifyScript, listenAddr, apiKey, apiHostsPushUrl, dnsmasqLeaseFile,
 			rulesetStorageFolder;
 	
 	@Override
@@ -43,11 +44,20 @@ public class FirewallConfig extends Config
 			apiHostsPushUrl = option("api_hosts_push_url");
 		}
 		dnsmasqLeaseFile = option("dnsmasq_lease_file");
+		dnsmasqLeaseDebounceMillis = optionIntNonNegative("dnsmasq_lease_debounce_ms");
 		rulesetStorageFolder = option("ruleset_storage_folder");
 		if (hasOption("exec_init"))
 		{
 			initScript = option("exec_init");
 		}
 		vlanRulesetScript = option("exec_vlan");
+		vlanRulesetScriptBatch = optionBool("exec_vlan_batch");
+		vlanRulesetScriptDelta = optionBool("exec_vlan_delta");
+		if (hasOption("exec_vlan_verify"))
+		{
+			vlanVerifyScript = option("exec_vlan_verify");
+		}
+		rulesetWorkers = optionInt("ruleset_workers");
+		if (rulesetWorkers < 1) { throw new InvalidConfigurationException("ruleset_workers", "Must be at least 1"); }
 	}
 }
@@ -6,14 +6,14 @@
 package de.rwth.seilgraben.seilnet.firewall;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
 
 import com.esotericsoftware.minlog.Log;
 
@@ -21,7 +21,6 @@ import de.rwth.seilgraben.seilnet.firewall.shared.FirewallApi;
 import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset;
 import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
 import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList;
-import de.rwth.seilgraben.seilnet.firewall.shared.SharedXStream;
 import lombok.Synchronized;
 
 /**
@@ -30,125 +29,193 @@ import lombok.Synchronized;
  */
 public class FirewallController implements FirewallApi
 {
-	private final File							rules, rulesTemp, rulesBackup;
+	private final RulesetStore					store;
 	
-	private Map<Integer, FirewallVlanRuleset>	vlanRulesets;
+	private final Map<Integer, FirewallVlanRuleset>	vlanRulesets;
 	
-	private final FirewallRulesetListener		listener;
+	private final RulesetWorkerPool				workerPool;
 	
-	public FirewallController(File rulesFolder, FirewallRulesetListener listener) throws IOException
+	/**
+	 * Loads the stored rulesets and reapplies those that may not be in place anymore, i.e. those
+	 * that were not the last ones applied successfully by a previous run, or whose kernel state
+	 * could not be verified by the listener.
+	 * 
+	 * @param workers
+	 *            How many VLANs may be configured in parallel.
+	 */
+	public FirewallController(File rulesFolder, FirewallRulesetListener listener, int workers) throws IOException
 	{
-		this.rules = new File(rulesFolder, Constants.RULES_FILENAME);
-		this.rulesBackup = new File(rulesFolder, Constants.RULES_BACKUP_FILENAME);
-		this.rulesTemp = new File(rulesFolder, Constants.RULES_TEMP_FILENAME);
-		this.listener = listener;
+		this.store = new RulesetStore(rulesFolder);
+		this.vlanRulesets = store.load();
+		AppliedFingerprints fingerprints = new AppliedFingerprints(rulesFolder);
 		
-		if (rules.isDirectory() || rulesBackup
-				.isDirectory()) { throw new IOException("Rules or backup rules file must not be a drectory"); }
-		
-		if (!rules.exists())
+		List<FirewallVlanRuleset> unchanged = new ArrayList<>();
+		for (FirewallVlanRuleset ruleset : vlanRulesets.values())
 		{
-			if (rulesBackup.exists())
-			{
-				Log.info(LogCategory.FIREWALL, "Main rules file non-existent, using backup.");
-				loadRulesFile(rulesBackup);
-			}
-			else
+			if (fingerprints.isApplied(ruleset))
 			{
-				Log.info(LogCategory.FIREWALL, "No rules found, using empty initial ruleset.");
-				vlanRulesets = new HashMap<>();
+				unchanged.add(ruleset);
 			}
 		}
-		else
+		Set<Integer> verified = Collections.emptySet();
+		if (!unchanged.isEmpty())
 		{
 			try
 			{
-				loadRulesFile(rules);
+				verified = listener.verifyApplied(unchanged);
 			}
-			catch (IOException e)
+			catch (IOException | RuntimeException e)
 			{
-				Log.warn(LogCategory.FIREWALL, "Failed to load main rules file. Attempting to load backup.", e);
-				loadRulesFile(rulesBackup);
+				Log.warn(LogCategory.FIREWALL, "Failed to verify the applied rulesets, reapplying all VLANs.", e);
 			}
 		}
-		
-		for (Entry<Integer, FirewallVlanRuleset> ruleset : vlanRulesets.entrySet())
+		List<FirewallVlanRuleset> inPlace = new ArrayList<>();
+		List<FirewallVlanRuleset> reapply = new ArrayList<>();
+		for (FirewallVlanRuleset ruleset : vlanRulesets.values())
 		{
-			try
+			if (verified.contains(ruleset.getVlan()) && fingerprints.isApplied(ruleset))
 			{
-				listener.onRulesetActivated(ruleset.getValue());
+				inPlace.add(ruleset);
 			}
-			catch (Exception e)
+			else
 			{
-				Log.error(LogCategory.FIREWALL, "Failed to activate stored Ruleset for VLAN ID " + ruleset.getKey(), e);
+				reapply.add(ruleset);
 			}
 		}
+		Log.info(LogCategory.FIREWALL, inPlace.size() + " VLAN rulesets are still in place, reapplying "
+				+ reapply.size() + ".");
+		
+		this.workerPool = new RulesetWorkerPool(listener, workers, fingerprints);
+		workerPool.markApplied(inPlace);
+		// Failures are logged by the worker pool
+		workerPool.submit(reapply);
 	}
 	
-	@SuppressWarnings("unchecked")
-	private void loadRulesFile(File ruleFile) throws IOException
+	public static interface FirewallRulesetListener
 	{
-		try
+		public void onRulesetActivated(FirewallRuleset ruleset) throws IOException;
+		
+		/**
+		 * Activates several rulesets at once, e.g. all VLANs changed by one request. By default,
+		 * activates them one at a time.
+		 */
+		public default void onRulesetsActivated(Collection<? extends FirewallRuleset> rulesets) throws IOException
 		{
-			vlanRulesets = (Map<Integer, FirewallVlanRuleset>) SharedXStream.INSTANCE.fromXML(ruleFile);
+			for (FirewallRuleset ruleset : rulesets)
+			{
+				onRulesetActivated(ruleset);
+			}
 		}
-		catch (ClassCastException e)
+		
+		/**
+		 * Applies several VLAN rulesets, given as the differences to the rulesets applied before. This
+		 * is what the worker pool calls. By default, the differences are ignored and the current
+		 * rulesets are passed to {@link #onRulesetsActivated(Collection)}.
+		 */
+		public default void onRulesetsChanged(Collection<VlanRulesetChange> changes) throws IOException
 		{
-			throw new IOException("Invalid object type stored on disk", e);
+			List<FirewallVlanRuleset> rulesets = new ArrayList<>(changes.size());
+			for (VlanRulesetChange change : changes)
+			{
+				rulesets.add(change.getCurrent());
+			}
+			onRulesetsActivated(rulesets);
 		}
-	}
-	
-	private void writeRules() throws IOException
-	{
-		try (OutputStream out = new FileOutputStream(rulesTemp))
+		
+		/**
+		 * @return Whether {@link #onRulesetsActivated(Collection)} is faster than activating the
+		 *         rulesets one at a time. If not, they are spread across all workers instead.
+		 */
+		public default boolean isBatching()
 		{
-			SharedXStream.INSTANCE.toXML(vlanRulesets, out);
+			return false;
+		}
+		
+		/**
+		 * Checks the live state of VLANs whose stored rulesets were already applied successfully
+		 * before the daemon was restarted. VLANs that are not confirmed are applied again. By
+		 * default, no VLAN is confirmed, since the state may have been reset in the meantime, e.g. by
+		 * a reboot or the init script.
+		 * 
+		 * @return The IDs of the VLANs whose rulesets are still in place.
+		 */
+		public default Set<Integer> verifyApplied(Collection<FirewallVlanRuleset> rulesets) throws IOException
+		{
+			return Collections.emptySet();
 		}
-		Files.move(rulesTemp.toPath(), rules.toPath(), StandardCopyOption.REPLACE_EXISTING,
-				StandardCopyOption.ATOMIC_MOVE);
-		Files.copy(rules.toPath(), rulesBackup.toPath(), StandardCopyOption.REPLACE_EXISTING);
 	}
 	
-	public static interface FirewallRulesetListener
+	@Override
+	public void activate(FirewallRuleset ... rulesets)
 	{
-		public void onRulesetActivated(FirewallRuleset ruleset) throws IOException;
+		submit(rulesets);
 	}
 	
-	@Override
+	/**
+	 * Stores the given rulesets and queues those for activation that are not applied already,
+	 * without waiting for them to be activated. A ruleset whose last activation failed is activated
+	 * again, even if it is unchanged.
+	 * 
+	 * @return The ID to query the activation's progress with, see {@link #getStatus(long)}.
+	 */
 	@Synchronized
-	public void activate(FirewallRuleset ... rulesets)
+	public long submit(FirewallRuleset ... rulesets)
 	{
+		// Only the latest ruleset of each VLAN is stored and activated
+		Map<Integer, FirewallVlanRuleset> changed = new LinkedHashMap<>();
+		Map<Integer, FirewallVlanRuleset> activate = new LinkedHashMap<>();
 		for (FirewallRuleset ruleset : rulesets)
 		{
 			if (ruleset instanceof FirewallVlanRuleset)
 			{
 				FirewallVlanRuleset vlanRuleset = (FirewallVlanRuleset) ruleset;
-				// Don't do anything if the VLAN rulset is unchanged
-				if (vlanRuleset.equals(vlanRulesets.get(vlanRuleset.getVlan())))
+				int vlan = vlanRuleset.getVlan();
+				changed.remove(vlan);
+				activate.remove(vlan);
+				boolean unchanged = vlanRuleset.equals(vlanRulesets.get(vlan));
+				// Don't do anything if the VLAN rulset is unchanged and was applied successfully
+				if (unchanged && workerPool.isApplied(vlanRuleset))
 				{
 					Log.debug(LogCategory.FIREWALL,
-							"Ruleset for VLAN " + vlanRuleset.getVlan() + " has not changed, script not executed.");
+							"Ruleset for VLAN " + vlan + " has not changed, script not executed.");
 				}
 				else
 				{
-					vlanRulesets.put(vlanRuleset.getVlan(), vlanRuleset);
-					try
+					if (!unchanged)
 					{
-						listener.onRulesetActivated(ruleset);
-						writeRules();
-					}
-					catch (IOException e)
-					{
-						throw new RuntimeException(e);
+						changed.put(vlan, vlanRuleset);
 					}
+					activate.put(vlan, vlanRuleset);
 				}
 			}
 			else
 			{
 				throw new IllegalArgumentException("Unsupported ruleset type");
 			}
-			
 		}
+		if (!changed.isEmpty())
+		{
+			// Only once the changes are stored, so that a failure leaves no trace of them
+			try
+			{
+				store.append(changed.values(), vlanRulesets);
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+			vlanRulesets.putAll(changed);
+		}
+		return workerPool.submit(activate.values());
+	}
+	
+	/**
+	 * @return The progress of a {@link #submit(FirewallRuleset...)} call, or <code>null</code> if the
+	 *         ID is unknown.
+	 */
+	RulesetWorkerPool.Status getStatus(long id)
+	{
+		return workerPool.getStatus(id);
 	}
 	
 	@Override
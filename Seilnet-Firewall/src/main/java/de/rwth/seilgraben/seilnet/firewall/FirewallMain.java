@@ -8,6 +8,7 @@ package de.rwth.seilgraben.seilnet.firewall;
 import java.io.File;
 import java.io.IOException;
 import java.lang.ProcessBuilder.Redirect;
+import java.time.Duration;
 
 import com.esotericsoftware.minlog.Log;
 
@@ -87,11 +88,13 @@ public class FirewallMain
 			}
 		}
 		
-		FirewallRulesetListener listener = new FirewallRulesetExecListener(config.getVlanRulesetScript());
+		FirewallRulesetListener listener = new FirewallRulesetExecListener(config.getVlanRulesetScript(),
+				config.isVlanRulesetScriptBatch(), config.isVlanRulesetScriptDelta(), config.getVlanVerifyScript());
 		
-		FirewallController manager = new FirewallController(rulesFolder, listener);
+		FirewallController manager = new FirewallController(rulesFolder, listener, config.getRulesetWorkers());
 		
-		hostsMonitor = new DnsmasqDhcpHostMonitor(new File(config.getDnsmasqLeaseFile()));
+		hostsMonitor = new DnsmasqDhcpHostMonitor(new File(config.getDnsmasqLeaseFile()),
+				Duration.ofMillis(config.getDnsmasqLeaseDebounceMillis()));
 		if (config.getApiHostsPushUrl() != null)
 		{
 			hostsMonitor.setListener(new HttpRestNetworkHostListener(config.getApiHostsPushUrl(), config.getApiKey()));
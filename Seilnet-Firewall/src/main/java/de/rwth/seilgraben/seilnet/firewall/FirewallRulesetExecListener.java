@@ -5,10 +5,20 @@
 
 package de.rwth.seilgraben.seilnet.firewall;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.ProcessBuilder.Redirect;
+import java.net.Inet4Address;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import de.rwth.seilgraben.seilnet.firewall.FirewallController.FirewallRulesetListener;
 import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset;
@@ -16,78 +26,254 @@ import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRu
 import de.rwth.seilgraben.seilnet.util.MacAddress;
 
 /**
+ * Runs the <code>exec_vlan</code> script to apply rulesets. By default, the script is run once per
+ * VLAN, with the VLAN's ruleset as parameters. In batch mode, the script is run once per
+ * activation, with the parameter {@value #BATCH_PARAMETER}, and reads one VLAN per line from its
+ * standard input. Each line contains the same values as the parameters in the default mode,
+ * separated by single spaces.
+ * <p>
+ * In delta mode, the values of each ruleset (parameters or line) start with a keyword instead:
+ * <ul>
+ * <li><code>full</code>, followed by the usual five values. Used if the VLAN's current state is
+ * unknown (e.g. after a restart) or if it switches between allowing any and only some hosts.</li>
+ * <li><code>delta</code>, followed by the VLAN ID, the admin net access, the IPv4 address and the
+ * DNS server (each <code>-</code> if unchanged), the comma-separated MAC addresses that were added
+ * and those that were removed (each <code>none</code> if empty). E.g.
+ * <code>delta 101 - - - 00:11:22:33:44:55 none</code></li>
+ * </ul>
+ * <p>
+ * If a verification script (<code>exec_vlan_verify</code>) is configured, it is run once at startup
+ * for the VLANs whose stored rulesets were already applied before the restart. It reads one line per
+ * VLAN in the batch format from its standard input and writes the IDs of the VLANs whose rulesets
+ * are still in place to its standard output, one per line. All other VLANs are applied again.
  *
  * @author Felix Kirchmann
  */
 public class FirewallRulesetExecListener implements FirewallRulesetListener
 {
-	private final String vlanExec;
+	public static final String	BATCH_PARAMETER	= "--batch";
+	private static final String	UNCHANGED		= "-";
+	
+	private final String		vlanExec, verifyExec;
+	private final boolean		batch, delta;
 	
 	public FirewallRulesetExecListener(String vlanExec)
+	{
+		this(vlanExec, false, false);
+	}
+	
+	/**
+	 * @param batch
+	 *            If <code>true</code>, the script supports the batch mode and is run once for all
+	 *            VLANs activated together.
+	 * @param delta
+	 *            If <code>true</code>, the script supports the delta mode, i.e. only receives the
+	 *            changes since the previous ruleset of a VLAN.
+	 */
+	public FirewallRulesetExecListener(String vlanExec, boolean batch, boolean delta)
+	{
+		this(vlanExec, batch, delta, null);
+	}
+	
+	/**
+	 * @param verifyExec
+	 *            The verification script, or <code>null</code> to reapply all VLANs at startup.
+	 */
+	public FirewallRulesetExecListener(String vlanExec, boolean batch, boolean delta, String verifyExec)
 	{
 		this.vlanExec = vlanExec;
+		this.batch = batch;
+		this.delta = delta;
+		this.verifyExec = verifyExec;
 	}
 	
 	@Override
 	public void onRulesetActivated(FirewallRuleset ruleset) throws IOException
 	{
-		Process process = null;
-		if (ruleset instanceof FirewallVlanRuleset)
+		List<String> command = new ArrayList<>();
+		command.add(vlanExec);
+		command.addAll(toParameters(ruleset));
+		waitFor(startProcess(command));
+	}
+	
+	@Override
+	public boolean isBatching()
+	{
+		return batch;
+	}
+	
+	@Override
+	public void onRulesetsActivated(Collection<? extends FirewallRuleset> rulesets) throws IOException
+	{
+		if (!batch)
 		{
-			FirewallVlanRuleset vlan = (FirewallVlanRuleset) ruleset;
-			List<String> command = new ArrayList<>();
-			command.add(vlanExec);
-			// VLAN ID
-			command.add(Integer.toString(vlan.getVlan()));
-			// VLAN: Can it access the admin net?
-			command.add(Boolean.toString(vlan.isAccessAdminNet()));
-			// VLAN's IPv4 Address
-			if (vlan.getInetIPv4() != null)
-			{
-				command.add(vlan.getInetIPv4().getHostAddress());
-			}
-			else
-			{
-				command.add("none");
-			}
-			// VLAN's DNS Server IPv4 Address
-			if (vlan.getInetDnsIPv4() != null)
-			{
-				command.add(vlan.getInetDnsIPv4().getHostAddress());
-			}
-			else
-			{
-				command.add("none");
-			}
-			// VLAN: Devices allowed internet access (can also be none or any)
-			if(vlan.isAllowAllHosts())
+			FirewallRulesetListener.super.onRulesetsActivated(rulesets);
+			return;
+		}
+		List<List<String>> parameters = new ArrayList<>(rulesets.size());
+		for (FirewallRuleset ruleset : rulesets)
+		{
+			parameters.add(toParameters(ruleset));
+		}
+		runBatch(parameters);
+	}
+	
+	@Override
+	public void onRulesetsChanged(Collection<VlanRulesetChange> changes) throws IOException
+	{
+		if (!delta)
+		{
+			FirewallRulesetListener.super.onRulesetsChanged(changes);
+			return;
+		}
+		List<List<String>> parameters = new ArrayList<>(changes.size());
+		for (VlanRulesetChange change : changes)
+		{
+			parameters.add(toParameters(change));
+		}
+		if (batch)
+		{
+			runBatch(parameters);
+		}
+		else
+		{
+			for (List<String> vlanParameters : parameters)
 			{
-				command.add("any");
+				List<String> command = new ArrayList<>();
+				command.add(vlanExec);
+				command.addAll(vlanParameters);
+				waitFor(startProcess(command));
 			}
-			else if(vlan.getAllowedHosts().size() == 0)
+		}
+	}
+	
+	@Override
+	public Set<Integer> verifyApplied(Collection<FirewallVlanRuleset> rulesets) throws IOException
+	{
+		if (verifyExec == null) { return Collections.emptySet(); }
+		
+		Process process = new ProcessBuilder(verifyExec).redirectError(Redirect.INHERIT).start();
+		// The output is at most one short line per VLAN, so the script cannot block on a full pipe
+		// while the input is still being written
+		try (Writer stdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII))
+		{
+			for (FirewallVlanRuleset ruleset : rulesets)
 			{
-				command.add("none");
+				stdin.write(String.join(" ", toParameters(ruleset)));
+				stdin.write('\n');
 			}
-			else
+		}
+		Set<Integer> verified = new HashSet<>();
+		try (BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream(),
+				StandardCharsets.US_ASCII)))
+		{
+			String line;
+			while ((line = stdout.readLine()) != null)
 			{
-				StringBuilder sb = new StringBuilder(vlan.getAllowedHosts().size() * 18);
-				for (MacAddress mac : vlan.getAllowedHosts())
+				line = line.trim();
+				if (line.isEmpty())
+				{
+					continue;
+				}
+				try
+				{
+					verified.add(Integer.parseInt(line));
+				}
+				catch (NumberFormatException e)
 				{
-					if (sb.length() > 0)
-					{
-						sb.append(',');
-					}
-					sb.append(mac.toString());
+					throw new IOException("Verification script returned an invalid VLAN ID: " + line);
 				}
-				command.add(sb.toString());
 			}
-			process = startProcess(command);
 		}
-		else
+		waitFor(process);
+		return verified;
+	}
+	
+	/**
+	 * Runs the script once, with one line of parameters per VLAN on its standard input.
+	 */
+	private void runBatch(List<List<String>> parameters) throws IOException
+	{
+		if (parameters.isEmpty()) { return; }
+		
+		List<String> command = new ArrayList<>();
+		command.add(vlanExec);
+		command.add(BATCH_PARAMETER);
+		Process process = startProcess(command);
+		try (Writer stdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII))
 		{
-			throw new IllegalArgumentException("Unsupported ruleset type");
+			for (List<String> vlanParameters : parameters)
+			{
+				stdin.write(String.join(" ", vlanParameters));
+				stdin.write('\n');
+			}
 		}
-		
+		waitFor(process);
+	}
+	
+	private static List<String> toParameters(VlanRulesetChange change)
+	{
+		List<String> parameters = new ArrayList<>();
+		if (change.isFull())
+		{
+			parameters.add("full");
+			parameters.addAll(toParameters(change.getCurrent()));
+			return parameters;
+		}
+		FirewallVlanRuleset vlan = change.getCurrent();
+		parameters.add("delta");
+		parameters.add(Integer.toString(vlan.getVlan()));
+		parameters.add(change.isAccessAdminNetChanged() ? Boolean.toString(vlan.isAccessAdminNet()) : UNCHANGED);
+		parameters.add(change.isInetIPv4Changed() ? toParameter(vlan.getInetIPv4()) : UNCHANGED);
+		parameters.add(change.isInetDnsIPv4Changed() ? toParameter(vlan.getInetDnsIPv4()) : UNCHANGED);
+		parameters.add(toParameter(change.getAddedHosts()));
+		parameters.add(toParameter(change.getRemovedHosts()));
+		return parameters;
+	}
+	
+	private static List<String> toParameters(FirewallRuleset ruleset)
+	{
+		if (!(ruleset instanceof FirewallVlanRuleset)) { throw new IllegalArgumentException("Unsupported ruleset type"); }
+		FirewallVlanRuleset vlan = (FirewallVlanRuleset) ruleset;
+		List<String> parameters = new ArrayList<>();
+		// VLAN ID
+		parameters.add(Integer.toString(vlan.getVlan()));
+		// VLAN: Can it access the admin net?
+		parameters.add(Boolean.toString(vlan.isAccessAdminNet()));
+		// VLAN's IPv4 Address
+		parameters.add(toParameter(vlan.getInetIPv4()));
+		// VLAN's DNS Server IPv4 Address
+		parameters.add(toParameter(vlan.getInetDnsIPv4()));
+		// VLAN: Devices allowed internet access (can also be none or any)
+		parameters.add(vlan.isAllowAllHosts() ? "any" : toParameter(vlan.getAllowedHosts()));
+		return parameters;
+	}
+	
+	private static String toParameter(Inet4Address address)
+	{
+		return address != null ? address.getHostAddress() : "none";
+	}
+	
+	/**
+	 * @return The comma-separated MAC addresses, or "none".
+	 */
+	private static String toParameter(Set<MacAddress> macs)
+	{
+		if (macs.isEmpty()) { return "none"; }
+		StringBuilder sb = new StringBuilder(macs.size() * 18);
+		for (MacAddress mac : macs)
+		{
+			if (sb.length() > 0)
+			{
+				sb.append(',');
+			}
+			sb.append(mac.toString());
+		}
+		return sb.toString();
+	}
+	
+	private static void waitFor(Process process) throws IOException
+	{
 		try
 		{
 			int result = process.waitFor();
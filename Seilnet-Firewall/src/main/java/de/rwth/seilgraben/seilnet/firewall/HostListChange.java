@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHost;
+import lombok.Getter;
+
+/**
+ * The hosts that appeared in or disappeared from each VLAN between two versions of the host list,
+ * see {@link NetworkHostListener#hostsChanged(DnsmasqDhcpHostMonitor, HostListChange)}. VLANs
+ * without changes are not contained. Immutable.
+ *
+ * @author Felix Kirchmann
+ */
+@Getter
+public class HostListChange
+{
+	public static final HostListChange				EMPTY	= new HostListChange(Collections.emptyMap(),
+			Collections.emptyMap());
+
+	/**
+	 * VLAN ID -&gt; the hosts that are in the VLAN now, but were not before.
+	 */
+	private final Map<Integer, Set<NetworkHost>>	addedHosts;
+	/**
+	 * VLAN ID -&gt; the hosts that were in the VLAN before, but are not anymore.
+	 */
+	private final Map<Integer, Set<NetworkHost>>	removedHosts;
+
+	/**
+	 * The given maps are copied.
+	 */
+	public HostListChange(Map<Integer, Set<NetworkHost>> addedHosts, Map<Integer, Set<NetworkHost>> removedHosts)
+	{
+		this.addedHosts = copy(addedHosts);
+		this.removedHosts = copy(removedHosts);
+	}
+
+	public boolean isEmpty()
+	{
+		return addedHosts.isEmpty() && removedHosts.isEmpty();
+	}
+
+	/**
+	 * @return The change from the version before this change to the version after the given one,
+	 *         i.e. a host that is removed by this change and added again by the given one (or vice
+	 *         versa) is not contained at all.
+	 */
+	public HostListChange merge(HostListChange next)
+	{
+		Map<Integer, Set<NetworkHost>> added = new HashMap<>(), removed = new HashMap<>();
+		putDifference(added, this.addedHosts, next.removedHosts);
+		putDifference(added, next.addedHosts, this.removedHosts);
+		putDifference(removed, this.removedHosts, next.addedHosts);
+		putDifference(removed, next.removedHosts, this.addedHosts);
+		return new HostListChange(added, removed);
+	}
+
+	/**
+	 * Adds <code>a - b</code> to the result, per VLAN.
+	 */
+	private static void putDifference(Map<Integer, Set<NetworkHost>> result, Map<Integer, Set<NetworkHost>> a,
+			Map<Integer, Set<NetworkHost>> b)
+	{
+		for (Map.Entry<Integer, Set<NetworkHost>> entry : a.entrySet())
+		{
+			Set<NetworkHost> difference = new HashSet<>(entry.getValue());
+			difference.removeAll(b.getOrDefault(entry.getKey(), Collections.emptySet()));
+			if (!difference.isEmpty())
+			{
+				result.computeIfAbsent(entry.getKey(), vlan -> new HashSet<>()).addAll(difference);
+			}
+		}
+	}
+
+	private static Map<Integer, Set<NetworkHost>> copy(Map<Integer, Set<NetworkHost>> map)
+	{
+		Map<Integer, Set<NetworkHost>> copy = new HashMap<>(map.size() * 4 / 3 + 1);
+		for (Map.Entry<Integer, Set<NetworkHost>> entry : map.entrySet())
+		{
+			if (!entry.getValue().isEmpty())
+			{
+				copy.put(entry.getKey(), Collections.unmodifiableSet(new HashSet<>(entry.getValue())));
+			}
+		}
+		return Collections.unmodifiableMap(copy);
+	}
+}
@@ -10,7 +10,6 @@ import org.eclipse.jetty.http.HttpStatus;
 import com.esotericsoftware.minlog.Log;
 import com.google.gson.Gson;
 
-import de.rwth.seilgraben.seilnet.firewall.shared.FirewallApi;
 import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset;
 import de.rwth.seilgraben.seilnet.firewall.shared.SharedXStream;
 import de.rwth.seilgraben.seilnet.util.Func;
@@ -27,9 +26,9 @@ public class HttpApi
 {
 	private final static Gson	GSON	= new Gson();
 	private boolean				started	= true;
-	private FirewallApi			api		= null;
+	private FirewallController	api		= null;
 	
-	public HttpApi(@NonNull String ip, int port, @NonNull String apiKey, @NonNull FirewallApi api)
+	public HttpApi(@NonNull String ip, int port, @NonNull String apiKey, @NonNull FirewallController api)
 	{
 		this.api = api;
 		Spark.ipAddress(ip);
@@ -47,6 +46,7 @@ public class HttpApi
 			return GSON.toJson(api.getHosts());
 		});
 		Spark.post("/api/firewall/rules", rules);
+		Spark.get("/api/firewall/rules/:id", rulesStatus);
 		started = true;
 	}
 	
@@ -58,11 +58,12 @@ public class HttpApi
 	}
 	
 	Route rules = (request, response) -> {
+		long id;
 		try
 		{
 			FirewallRuleset[] rulesets = (FirewallRuleset[]) SharedXStream.INSTANCE.fromXML(request.body());
 			Log.debug("Got " + rulesets.length + " rules");
-			api.activate(rulesets);
+			id = api.submit(rulesets);
 		}
 		catch (RuntimeException e)
 		{
@@ -70,7 +71,24 @@ public class HttpApi
 			response.status(HttpStatus.INTERNAL_SERVER_ERROR_500);
 			return Func.object2string(e);
 		}
-		response.status(HttpStatus.OK_200);
-		return "OK";
+		// The rules are activated in the background, their progress can be queried with the ID
+		response.status(HttpStatus.ACCEPTED_202);
+		return Long.toString(id);
+	};
+	
+	Route rulesStatus = (request, response) -> {
+		RulesetWorkerPool.Status status = null;
+		try
+		{
+			status = api.getStatus(Long.parseLong(request.params("id")));
+		}
+		catch (NumberFormatException e)
+		{}
+		if (status == null)
+		{
+			response.status(HttpStatus.NOT_FOUND_404);
+			return "Unknown ID";
+		}
+		return GSON.toJson(status);
 	};
 }
@@ -5,25 +5,49 @@
 
 package de.rwth.seilgraben.seilnet.firewall;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
 
 import com.esotericsoftware.minlog.Log;
 import com.google.gson.Gson;
 
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostListUpdate;
+
 /**
+ * Pushes host list changes to the master daemon as gzip-compressed {@link NetworkHostListUpdate}s,
+ * which are posted to the configured URL plus {@value #DELTA_PATH}. The first update after startup,
+ * and any update after the master daemon reported a missing one (status 409), is a full snapshot.
+ * Master daemons that do not know the delta URL (status 404) receive the whole host list on every
+ * change instead, as before.
  *
  * @author Felix Kirchmann
  */
 public class HttpRestNetworkHostListener implements NetworkHostListener
 {
-	private final static Gson	GSON	= new Gson();
-	private final String		url, key;
+	public static final String	DELTA_PATH	= "/delta";
+	
+	private final static Gson	GSON		= new Gson();
+	private final String		url, deltaUrl, key;
+	
+	private final long			epoch			= new SecureRandom().nextLong();
+	// Guarded by this
+	private long				sequence		= 0;
+	private boolean				deltasSupported	= true;
 	
 	public HttpRestNetworkHostListener(String url, String key)
 	{
 		this.url = url;
+		this.deltaUrl = (url.endsWith("/") ? url.substring(0, url.length() - 1) : url) + DELTA_PATH;
 		this.key = key;
 	}
 	
@@ -32,36 +56,115 @@ public class HttpRestNetworkHostListener implements NetworkHostListener
 	{
 		try
 		{
-			HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-			connection.setRequestMethod("POST");
-			connection.setRequestProperty("Key", key);
-			connection.setDoOutput(true);
-			connection.setDoInput(true);
-			byte[] payload = GSON.toJson(source.getHosts()).getBytes("UTF-8");
-			connection.setFixedLengthStreamingMode(payload.length);
-			connection.getOutputStream().write(payload);
-			connection.getOutputStream().flush();
-			
-			int responseCode = connection.getResponseCode();
-			if (responseCode == 200)
+			checkResponse(post(url, GSON.toJson(source.getHosts()), false));
+		}
+		catch (IOException e)
+		{
+			logFailure(e);
+		}
+	}
+	
+	@Override
+	public synchronized void hostsChanged(DnsmasqDhcpHostMonitor source, HostListChange change)
+	{
+		if (!deltasSupported)
+		{
+			hostsUpdated(source);
+			return;
+		}
+		try
+		{
+			// The first update is a snapshot, since the master daemon does not know this epoch yet
+			int responseCode = sequence == 0 ? 409
+					: post(deltaUrl, GSON.toJson(new NetworkHostListUpdate(epoch, ++sequence, false,
+							change.getAddedHosts(), change.getRemovedHosts())), true);
+			if (responseCode == 409) // Conflict: the master daemon missed an update, or has not received one yet
 			{
-				return;
+				// Changes that have not been delivered yet may already be part of the snapshot, which
+				// is harmless, since applying them again does not change anything
+				responseCode = post(deltaUrl, GSON.toJson(new NetworkHostListUpdate(epoch, ++sequence, true,
+						source.getHosts().listHosts(), Collections.emptyMap())), true);
 			}
-			else if (responseCode == 401) // Unauthorized
+			if (responseCode == 404) // Not Found, sent by master daemons without delta support
 			{
-				throw new IOException("Incorrect API Key");
+				Log.info(LogCategory.FIREWALL, deltaUrl + " not found, sending the full host list on every change.");
+				deltasSupported = false;
+				hostsUpdated(source);
+				return;
 			}
-			else
+			checkResponse(responseCode);
+		}
+		catch (IOException e)
+		{
+			// The next delta will reveal the gap, so the master daemon will receive a snapshot then
+			logFailure(e);
+		}
+	}
+	
+	/**
+	 * Reads and closes the response, so that the connection can be reused for the next request.
+	 *
+	 * @return The response code.
+	 */
+	private int post(String target, String json, boolean gzip) throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (Writer writer = new OutputStreamWriter(gzip ? new GZIPOutputStream(buffer) : buffer,
+				StandardCharsets.UTF_8))
+		{
+			writer.write(json);
+		}
+		byte[] payload = buffer.toByteArray();
+		
+		HttpURLConnection connection = (HttpURLConnection) new URL(target).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Key", key);
+		if (gzip)
+		{
+			connection.setRequestProperty("Content-Encoding", "gzip");
+		}
+		connection.setDoOutput(true);
+		connection.setDoInput(true);
+		connection.setFixedLengthStreamingMode(payload.length);
+		try (OutputStream out = connection.getOutputStream())
+		{
+			out.write(payload);
+		}
+		
+		int responseCode = connection.getResponseCode();
+		try (InputStream response = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream())
+		{
+			if (response != null)
 			{
-				throw new IOException("Host Update URL returned unknown status code " + responseCode);
+				byte[] discard = new byte[1024];
+				while (response.read(discard) >= 0)
+				{}
 			}
 		}
-		catch (IOException e)
+		return responseCode;
+	}
+	
+	private static void checkResponse(int responseCode) throws IOException
+	{
+		if (responseCode == 200)
+		{
+			return;
+		}
+		else if (responseCode == 401 || responseCode == 403) // Unauthorized, Forbidden
 		{
-			Log.warn(
-					"Could not transmit hosts list update. "
-							+ "This warning can safely be ignored if the Seilnet Main daemon has not been started yet.",
-					e);
+			throw new IOException("Incorrect API Key");
 		}
+		else
+		{
+			throw new IOException("Host Update URL returned unknown status code " + responseCode);
+		}
+	}
+	
+	private static void logFailure(IOException e)
+	{
+		Log.warn(
+				"Could not transmit hosts list update. "
+						+ "This warning can safely be ignored if the Seilnet Main daemon has not been started yet.",
+				e);
 	}
 }
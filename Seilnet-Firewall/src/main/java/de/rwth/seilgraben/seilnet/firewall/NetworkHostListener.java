@@ -12,4 +12,15 @@ package de.rwth.seilgraben.seilnet.firewall;
 public interface NetworkHostListener
 {
 	public void hostsUpdated(DnsmasqDhcpHostMonitor source);
+	
+	/**
+	 * Called instead of {@link #hostsUpdated(DnsmasqDhcpHostMonitor)}, with the hosts that were
+	 * added or removed since the previous call. The first call after the listener was set contains
+	 * all hosts as added. By default, the change is ignored and
+	 * {@link #hostsUpdated(DnsmasqDhcpHostMonitor)} is called.
+	 */
+	public default void hostsChanged(DnsmasqDhcpHostMonitor source, HostListChange change)
+	{
+		hostsUpdated(source);
+	}
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+
+/**
+ * Compact binary encoding of {@link FirewallVlanRuleset}s, which is much faster to read than XML.
+ * All numbers are big-endian:
+ *
+ * <pre>
+ * header:  magic "SNRS" (4 bytes), format version (1 byte), number of rulesets (int)
+ * ruleset: VLAN ID (int), flags (1 byte), external IPv4 (4 bytes), DNS IPv4 (4 bytes),
+ *          number of allowed hosts (int), one 6 byte MAC address per allowed host
+ * </pre>
+ *
+ * The IPv4 fields are always present. If the ruleset has no such address, the corresponding flag
+ * is not set and the field is zero.
+ *
+ * @author Felix Kirchmann
+ */
+final class RulesetCodec
+{
+	private static final byte[]	MAGIC				= { 'S', 'N', 'R', 'S' };
+	private static final byte	VERSION				= 1;
+	private static final int	HEADER_SIZE			= MAGIC.length + 1 + 4;
+	private static final int	FIXED_RULESET_SIZE	= 4 + 1 + 4 + 4 + 4;
+	private static final int	MAC_SIZE			= 6;
+
+	private static final int	FLAG_ACCESS_ADMIN_NET	= 1;
+	private static final int	FLAG_ALLOW_ALL_HOSTS	= 1 << 1;
+	private static final int	FLAG_INET_IPV4			= 1 << 2;
+	private static final int	FLAG_INET_DNS_IPV4		= 1 << 3;
+
+	private RulesetCodec()
+	{}
+
+	/**
+	 * @return Whether the given data starts like an encoded ruleset list. Does not change the
+	 *         buffer's position.
+	 */
+	static boolean isEncoded(ByteBuffer data)
+	{
+		if (data.remaining() < MAGIC.length) { return false; }
+		for (int i = 0; i < MAGIC.length; i++)
+		{
+			if (data.get(data.position() + i) != MAGIC[i]) { return false; }
+		}
+		return true;
+	}
+
+	static byte[] encode(Collection<FirewallVlanRuleset> rulesets)
+	{
+		int size = HEADER_SIZE;
+		for (FirewallVlanRuleset ruleset : rulesets)
+		{
+			size += FIXED_RULESET_SIZE + ruleset.getAllowedHosts().size() * MAC_SIZE;
+		}
+		ByteBuffer out = ByteBuffer.allocate(size);
+		out.put(MAGIC);
+		out.put(VERSION);
+		out.putInt(rulesets.size());
+		for (FirewallVlanRuleset ruleset : rulesets)
+		{
+			putFixed(out, ruleset);
+			for (MacAddress mac : ruleset.getAllowedHosts())
+			{
+				out.put(mac.getMac());
+			}
+		}
+		return out.array();
+	}
+
+	/**
+	 * @return A hash of the ruleset's content, which does not depend on the order in which the
+	 *         allowed hosts are stored.
+	 */
+	static long fingerprint(FirewallVlanRuleset ruleset)
+	{
+		long[] macs = ruleset.getAllowedHosts().stream().mapToLong(MacAddress::toLong).sorted().toArray();
+		ByteBuffer out = ByteBuffer.allocate(FIXED_RULESET_SIZE + macs.length * 8);
+		putFixed(out, ruleset);
+		for (long mac : macs)
+		{
+			out.putLong(mac);
+		}
+		try
+		{
+			return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(out.array())).getLong();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform is required to support SHA-256
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Writes everything but the allowed hosts themselves.
+	 */
+	private static void putFixed(ByteBuffer out, FirewallVlanRuleset ruleset)
+	{
+		int flags = (ruleset.isAccessAdminNet() ? FLAG_ACCESS_ADMIN_NET : 0)
+				| (ruleset.isAllowAllHosts() ? FLAG_ALLOW_ALL_HOSTS : 0)
+				| (ruleset.getInetIPv4() != null ? FLAG_INET_IPV4 : 0)
+				| (ruleset.getInetDnsIPv4() != null ? FLAG_INET_DNS_IPV4 : 0);
+		out.putInt(ruleset.getVlan());
+		out.put((byte) flags);
+		putIPv4(out, ruleset.getInetIPv4());
+		putIPv4(out, ruleset.getInetDnsIPv4());
+		out.putInt(ruleset.getAllowedHosts().size());
+	}
+
+	/**
+	 * Reads rulesets from the buffer's position up to its limit.
+	 *
+	 * @throws IOException
+	 *             If the data is not a complete ruleset list of a known version.
+	 */
+	static List<FirewallVlanRuleset> decode(ByteBuffer in) throws IOException
+	{
+		if (!isEncoded(in)) { throw new IOException("Not a binary ruleset file"); }
+		try
+		{
+			in.position(in.position() + MAGIC.length);
+			byte version = in.get();
+			if (version != VERSION) { throw new IOException("Unsupported binary ruleset format version " + version); }
+			int count = in.getInt();
+			if (count < 0 || count > in.remaining() / FIXED_RULESET_SIZE) { throw new IOException(
+					"Invalid number of rulesets: " + count); }
+			List<FirewallVlanRuleset> rulesets = new ArrayList<>(count);
+			byte[] ipv4 = new byte[4];
+			for (int i = 0; i < count; i++)
+			{
+				int vlan = in.getInt();
+				int flags = in.get();
+				Inet4Address inetIPv4 = getIPv4(in, ipv4, (flags & FLAG_INET_IPV4) != 0);
+				Inet4Address inetDnsIPv4 = getIPv4(in, ipv4, (flags & FLAG_INET_DNS_IPV4) != 0);
+				int hosts = in.getInt();
+				if (hosts < 0 || hosts > in.remaining() / MAC_SIZE) { throw new IOException(
+						"Invalid number of allowed hosts for VLAN " + vlan + ": " + hosts); }
+				Set<MacAddress> allowedHosts = new HashSet<>(hosts * 4 / 3 + 1);
+				for (int j = 0; j < hosts; j++)
+				{
+					byte[] mac = new byte[MAC_SIZE];
+					in.get(mac);
+					allowedHosts.add(new MacAddress(mac));
+				}
+				rulesets.add(new FirewallVlanRuleset(vlan, (flags & FLAG_ACCESS_ADMIN_NET) != 0, inetIPv4,
+						inetDnsIPv4, (flags & FLAG_ALLOW_ALL_HOSTS) != 0, allowedHosts));
+			}
+			if (in.hasRemaining()) { throw new IOException(in.remaining() + " unexpected bytes after the rulesets"); }
+			return rulesets;
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException("Truncated binary ruleset data", e);
+		}
+	}
+
+	private static void putIPv4(ByteBuffer out, Inet4Address address)
+	{
+		if (address == null)
+		{
+			out.putInt(0);
+		}
+		else
+		{
+			out.put(address.getAddress());
+		}
+	}
+
+	private static Inet4Address getIPv4(ByteBuffer in, byte[] buffer, boolean present)
+	{
+		in.get(buffer);
+		if (!present) { return null; }
+		try
+		{
+			return (Inet4Address) InetAddress.getByAddress(buffer);
+		}
+		catch (UnknownHostException e)
+		{
+			// Only thrown for addresses of illegal length
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.esotericsoftware.minlog.Log;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+import de.rwth.seilgraben.seilnet.firewall.shared.SharedXStream;
+
+/**
+ * Stores the VLAN rulesets on disk, as a snapshot of all rulesets plus a journal of the changes
+ * since the snapshot was written.
+ * <p>
+ * Each call to {@link #append(Collection, Map)} appends one record with all changed rulesets to the
+ * journal and forces it to disk, so a batch of changes costs one small write and one fsync, no
+ * matter how many VLANs there are. Each record is prefixed with its length and followed by a CRC32
+ * checksum, so a record that was only partially written before a crash is recognized and discarded
+ * as a whole. If writing a record fails, the journal is truncated back to where the record started.
+ * Once the journal grows beyond {@link Constants#RULES_JOURNAL_COMPACTION_SIZE}, the
+ * full state is written to a new snapshot and the journal is emptied.
+ * <p>
+ * Snapshots and records are encoded with {@link RulesetCodec}, and snapshots are read through a
+ * memory-mapped file. If there is no snapshot yet, the rules file of older versions (see
+ * {@link Constants#RULES_XML_FILENAME}) is migrated once. Replaying a record that is already part of
+ * the snapshot is harmless, since records contain complete rulesets.
+ * <p>
+ * Not thread-safe, the caller must synchronize.
+ *
+ * @author Felix Kirchmann
+ */
+class RulesetStore
+{
+	private final File			snapshot, snapshotTemp, snapshotBackup, journal, xmlRules, xmlRulesBackup;
+	private FileChannel			journalChannel;
+	/**
+	 * Set if a failed record could not be removed from the journal. Records appended after it would
+	 * not be replayed, so no further records are accepted.
+	 */
+	private IOException			journalBroken;
+
+	RulesetStore(File rulesFolder) throws IOException
+	{
+		this.snapshot = new File(rulesFolder, Constants.RULES_FILENAME);
+		this.snapshotBackup = new File(rulesFolder, Constants.RULES_BACKUP_FILENAME);
+		this.snapshotTemp = new File(rulesFolder, Constants.RULES_TEMP_FILENAME);
+		this.journal = new File(rulesFolder, Constants.RULES_JOURNAL_FILENAME);
+		this.xmlRules = new File(rulesFolder, Constants.RULES_XML_FILENAME);
+		this.xmlRulesBackup = new File(rulesFolder, Constants.RULES_XML_BACKUP_FILENAME);
+
+		if (snapshot.isDirectory() || snapshotBackup.isDirectory() || journal
+				.isDirectory()) { throw new IOException("Rules, backup rules or journal file must not be a drectory"); }
+	}
+
+	/**
+	 * Reads the snapshot and replays the journal. Must be called once, before
+	 * {@link #append(Collection, Map)}.
+	 *
+	 * @return VLAN ID -&gt; the latest stored ruleset of that VLAN.
+	 */
+	Map<Integer, FirewallVlanRuleset> load() throws IOException
+	{
+		Map<Integer, FirewallVlanRuleset> vlanRulesets;
+		boolean migrate = false;
+		if (snapshot.exists() || snapshotBackup.exists())
+		{
+			vlanRulesets = readSnapshot(snapshot, snapshotBackup, RulesetStore::readBinary);
+		}
+		else if (xmlRules.exists() || xmlRulesBackup.exists())
+		{
+			// One-time migration. The XML files are left in place, but not read anymore.
+			vlanRulesets = readSnapshot(xmlRules, xmlRulesBackup, RulesetStore::readXml);
+			migrate = true;
+		}
+		else
+		{
+			Log.info(LogCategory.FIREWALL, "No rules found, using empty initial ruleset.");
+			vlanRulesets = new HashMap<>();
+		}
+
+		long validLength = replayJournal(vlanRulesets);
+		journalChannel = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if (journalChannel.size() > validLength)
+		{
+			Log.warn(LogCategory.FIREWALL, "Discarding " + (journalChannel.size() - validLength)
+					+ " bytes of an incomplete ruleset journal record.");
+			journalChannel.truncate(validLength);
+		}
+		journalChannel.position(validLength);
+		if (validLength > 0 || migrate)
+		{
+			compact(vlanRulesets);
+		}
+		if (migrate)
+		{
+			Log.info(LogCategory.FIREWALL, "Migrated " + vlanRulesets.size() + " VLAN rulesets from "
+					+ xmlRules.getName() + " to " + snapshot.getName() + ". The XML files are not used anymore.");
+		}
+		return vlanRulesets;
+	}
+
+	/**
+	 * Durably stores the given changed rulesets. Returns once they have been forced to disk. If an
+	 * exception is thrown, the changes have not been stored.
+	 *
+	 * @param previous
+	 *            All rulesets as they were before the change. Together with the changed ones, they
+	 *            are written to a new snapshot if the journal has grown too large.
+	 */
+	void append(Collection<FirewallVlanRuleset> changed, Map<Integer, FirewallVlanRuleset> previous)
+			throws IOException
+	{
+		if (changed.isEmpty()) { return; }
+		if (journalBroken != null) { throw new IOException("The ruleset journal contains a failed record",
+				journalBroken); }
+		byte[] payload = RulesetCodec.encode(changed);
+
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		ByteBuffer record = ByteBuffer.allocate(payload.length + 12);
+		record.putInt(payload.length);
+		record.put(payload);
+		record.putLong(crc.getValue());
+		record.flip();
+		long start = journalChannel.position();
+		try
+		{
+			while (record.hasRemaining())
+			{
+				journalChannel.write(record);
+			}
+			journalChannel.force(false);
+		}
+		catch (IOException e)
+		{
+			try
+			{
+				journalChannel.truncate(start);
+				journalChannel.position(start);
+				journalChannel.force(false);
+			}
+			catch (IOException truncateException)
+			{
+				e.addSuppressed(truncateException);
+				journalBroken = e;
+			}
+			throw e;
+		}
+
+		if (journalChannel.size() > Constants.RULES_JOURNAL_COMPACTION_SIZE)
+		{
+			Map<Integer, FirewallVlanRuleset> all = new HashMap<>(previous);
+			for (FirewallVlanRuleset ruleset : changed)
+			{
+				all.put(ruleset.getVlan(), ruleset);
+			}
+			try
+			{
+				compact(all);
+			}
+			catch (IOException e)
+			{
+				// The record is stored already, so the journal is simply compacted with the next one
+				Log.warn(LogCategory.FIREWALL, "Failed to compact the ruleset journal.", e);
+			}
+		}
+	}
+
+	/**
+	 * Writes all rulesets to a new snapshot, then empties the journal. If the process dies in
+	 * between, the journal is simply replayed onto the new snapshot.
+	 */
+	private void compact(Map<Integer, FirewallVlanRuleset> all) throws IOException
+	{
+		try (FileOutputStream out = new FileOutputStream(snapshotTemp))
+		{
+			out.write(RulesetCodec.encode(all.values()));
+			out.getFD().sync();
+		}
+		Files.move(snapshotTemp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		Files.copy(snapshot.toPath(), snapshotBackup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		journalChannel.truncate(0);
+		journalChannel.position(0);
+		journalChannel.force(false);
+		Log.debug(LogCategory.FIREWALL, "Compacted the ruleset journal into a snapshot of " + all.size() + " VLANs.");
+	}
+
+	private static interface SnapshotReader
+	{
+		Map<Integer, FirewallVlanRuleset> read(File file) throws IOException;
+	}
+
+	/**
+	 * Reads the main snapshot, or the backup if the main snapshot is missing or unreadable.
+	 */
+	private static Map<Integer, FirewallVlanRuleset> readSnapshot(File main, File backup, SnapshotReader reader)
+			throws IOException
+	{
+		if (!main.exists())
+		{
+			Log.info(LogCategory.FIREWALL, "Main rules file non-existent, using backup.");
+			return reader.read(backup);
+		}
+		try
+		{
+			return reader.read(main);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			Log.warn(LogCategory.FIREWALL, "Failed to load main rules file. Attempting to load backup.", e);
+			return reader.read(backup);
+		}
+	}
+
+	/**
+	 * Maps the file into memory instead of copying it into a buffer first.
+	 */
+	private static Map<Integer, FirewallVlanRuleset> readBinary(File file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			return toMap(RulesetCodec.decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+		}
+	}
+
+	/**
+	 * Reads the XML format used before {@link RulesetCodec}.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<Integer, FirewallVlanRuleset> readXml(File file) throws IOException
+	{
+		try
+		{
+			return (Map<Integer, FirewallVlanRuleset>) SharedXStream.INSTANCE.fromXML(file);
+		}
+		catch (ClassCastException e)
+		{
+			throw new IOException("Invalid object type stored on disk", e);
+		}
+	}
+
+	private static Map<Integer, FirewallVlanRuleset> toMap(Collection<FirewallVlanRuleset> rulesets)
+	{
+		Map<Integer, FirewallVlanRuleset> map = new HashMap<>(rulesets.size() * 4 / 3 + 1);
+		for (FirewallVlanRuleset ruleset : rulesets)
+		{
+			map.put(ruleset.getVlan(), ruleset);
+		}
+		return map;
+	}
+
+	/**
+	 * Applies all complete records of the journal to the given rulesets, in one pass.
+	 *
+	 * @return The length of the journal's valid prefix, i.e. the offset after the last complete
+	 *         record.
+	 */
+	private long replayJournal(Map<Integer, FirewallVlanRuleset> vlanRulesets) throws IOException
+	{
+		if (!journal.exists()) { return 0; }
+		long validLength = 0;
+		int records = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal))))
+		{
+			while (true)
+			{
+				byte[] payload;
+				long checksum;
+				try
+				{
+					int length = in.readInt();
+					if (length < 0 || length > journal.length() - validLength) { break; }
+					payload = new byte[length];
+					in.readFully(payload);
+					checksum = in.readLong();
+				}
+				catch (EOFException e)
+				{
+					break;
+				}
+				CRC32 crc = new CRC32();
+				crc.update(payload);
+				if (crc.getValue() != checksum) { break; }
+
+				Collection<FirewallVlanRuleset> changed;
+				try
+				{
+					ByteBuffer buffer = ByteBuffer.wrap(payload);
+					// Records written before the binary format contain XML
+					changed = RulesetCodec.isEncoded(buffer) ? RulesetCodec.decode(buffer)
+							: Arrays.asList((FirewallVlanRuleset[]) SharedXStream.INSTANCE
+									.fromXML(new ByteArrayInputStream(payload)));
+				}
+				catch (IOException | RuntimeException e)
+				{
+					Log.warn(LogCategory.FIREWALL, "Unreadable ruleset journal record, ignoring the rest of the journal.", e);
+					break;
+				}
+				for (FirewallVlanRuleset ruleset : changed)
+				{
+					vlanRulesets.put(ruleset.getVlan(), ruleset);
+				}
+				validLength += payload.length + 12;
+				records++;
+			}
+		}
+		if (records > 0)
+		{
+			Log.info(LogCategory.FIREWALL, "Replayed " + records + " ruleset journal records.");
+		}
+		return validLength;
+	}
+}
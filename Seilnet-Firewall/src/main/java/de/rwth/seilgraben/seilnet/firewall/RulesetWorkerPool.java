@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.esotericsoftware.minlog.Log;
+
+import de.rwth.seilgraben.seilnet.firewall.FirewallController.FirewallRulesetListener;
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+
+/**
+ * Applies VLAN rulesets on a pool of worker threads, so that different VLANs are configured in
+ * parallel and the caller does not have to wait for the firewall scripts.
+ * <p>
+ * Rulesets of the same VLAN are never applied concurrently. If a VLAN receives a new ruleset while
+ * an older one is still waiting, the older one is dropped, so the latest ruleset always wins. Each
+ * call to {@link #submit(Collection)} is tracked by an ID, see {@link #getStatus(long)}, which is
+ * unique across restarts of the daemon.
+ * <p>
+ * Rulesets are passed to the listener as {@link VlanRulesetChange}s relative to the ruleset that
+ * was last applied successfully, which is not necessarily the last stored one, since stored
+ * rulesets may be superseded before they are applied. Successfully applied rulesets are also
+ * recorded in the {@link AppliedFingerprints}, so that they survive a restart.
+ *
+ * @author Felix Kirchmann
+ */
+class RulesetWorkerPool
+{
+	public enum State
+	{
+		PENDING, DONE, FAILED
+	}
+
+	/**
+	 * The progress of one submission. Immutable.
+	 */
+	@Value
+	public static class Status
+	{
+		long				id;
+		State				state;
+		/**
+		 * The VLANs whose rulesets have not been applied yet.
+		 */
+		Set<Integer>		pendingVlans;
+		/**
+		 * VLAN ID -&gt; error message.
+		 */
+		Map<Integer, String>	failures;
+	}
+
+	private final FirewallRulesetListener		listener;
+	private final int							workers;
+	private final AppliedFingerprints			fingerprints;
+	private final ExecutorService				executor;
+
+	// All fields below are guarded by this
+	/**
+	 * VLAN ID -&gt; the latest ruleset that has not been started yet.
+	 */
+	private final Map<Integer, Task>			waiting		= new LinkedHashMap<>();
+	private final Set<Integer>					running		= new HashSet<>();
+	/**
+	 * VLAN ID -&gt; the ruleset that was last applied successfully. Missing if the VLAN's state is
+	 * unknown, so that the next ruleset is applied in full.
+	 */
+	private final Map<Integer, FirewallVlanRuleset>	applied		= new HashMap<>();
+	private int									busyWorkers	= 0;
+	/**
+	 * Random per run and part of every ID, so that IDs of a previous run are not mistaken for
+	 * submissions of this one after a restart.
+	 */
+	private final int							epoch		= new SecureRandom().nextInt();
+	private int									sequence	= 0;
+	private final Map<Long, Submission>			submissions	= new LinkedHashMap<Long, Submission>()
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Submission> eldest)
+		{
+			return size() > Constants.RULESET_SUBMISSIONS_RETAINED && eldest.getValue().outstanding.isEmpty();
+		}
+	};
+
+	RulesetWorkerPool(FirewallRulesetListener listener, int workers, AppliedFingerprints fingerprints)
+	{
+		if (workers < 1) { throw new IllegalArgumentException("At least one worker is required"); }
+		this.listener = listener;
+		this.workers = workers;
+		this.fingerprints = fingerprints;
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(workers, runnable -> {
+			Thread thread = new Thread(runnable, "RulesetWorker-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queues the given rulesets and returns immediately.
+	 *
+	 * @return The ID to query the progress with, see {@link #getStatus(long)}.
+	 */
+	synchronized long submit(Collection<FirewallVlanRuleset> rulesets)
+	{
+		Submission submission = new Submission((long) epoch << 32 | Integer.toUnsignedLong(++sequence));
+		submissions.put(submission.id, submission);
+		for (FirewallVlanRuleset ruleset : rulesets)
+		{
+			submission.outstanding.add(ruleset.getVlan());
+			Task superseded = waiting.put(ruleset.getVlan(), new Task(ruleset, submission));
+			if (superseded != null)
+			{
+				// Not a failure, the VLAN will be configured by the newer ruleset
+				superseded.submission.outstanding.remove(ruleset.getVlan());
+			}
+		}
+		dispatch();
+		return submission.id;
+	}
+
+	/**
+	 * Records rulesets that are known to be applied already, e.g. by a previous run of the daemon,
+	 * without applying them. Subsequent rulesets of these VLANs are passed as changes to them.
+	 */
+	synchronized void markApplied(Collection<FirewallVlanRuleset> rulesets)
+	{
+		for (FirewallVlanRuleset ruleset : rulesets)
+		{
+			applied.put(ruleset.getVlan(), ruleset);
+		}
+	}
+
+	/**
+	 * @return Whether the given ruleset is the one that was last applied successfully to its VLAN.
+	 *         After a failed activation, this is not the case until the VLAN is applied again.
+	 */
+	synchronized boolean isApplied(FirewallVlanRuleset ruleset)
+	{
+		return ruleset.equals(applied.get(ruleset.getVlan()));
+	}
+
+	/**
+	 * @return The progress of the given submission, or <code>null</code> if it is unknown. Only the
+	 *         latest {@value Constants#RULESET_SUBMISSIONS_RETAINED} finished submissions are kept.
+	 */
+	synchronized Status getStatus(long id)
+	{
+		Submission submission = submissions.get(id);
+		if (submission == null) { return null; }
+		State state = !submission.outstanding.isEmpty() ? State.PENDING
+				: submission.failures.isEmpty() ? State.DONE : State.FAILED;
+		return new Status(id, state, Collections.unmodifiableSet(new TreeSet<>(submission.outstanding)),
+				Collections.unmodifiableMap(new TreeMap<>(submission.failures)));
+	}
+
+	/**
+	 * Hands waiting rulesets to idle workers. Must be called while holding this object's monitor.
+	 */
+	private void dispatch()
+	{
+		while (busyWorkers < workers)
+		{
+			int ready = 0;
+			for (Integer vlan : waiting.keySet())
+			{
+				if (!running.contains(vlan))
+				{
+					ready++;
+				}
+			}
+			if (ready == 0) { return; }
+			// A batching listener gets an equal share of the VLANs per worker, otherwise one at a time
+			int idleWorkers = workers - busyWorkers;
+			int chunkSize = listener.isBatching() ? (ready + idleWorkers - 1) / idleWorkers : 1;
+
+			List<Task> chunk = new ArrayList<>(chunkSize);
+			for (Iterator<Task> it = waiting.values().iterator(); it.hasNext() && chunk.size() < chunkSize;)
+			{
+				Task task = it.next();
+				if (!running.contains(task.ruleset.getVlan()))
+				{
+					it.remove();
+					running.add(task.ruleset.getVlan());
+					chunk.add(task);
+				}
+			}
+			busyWorkers++;
+			executor.execute(() -> apply(chunk));
+		}
+	}
+
+	private void apply(List<Task> chunk)
+	{
+		List<VlanRulesetChange> changes = new ArrayList<>(chunk.size());
+		synchronized (this)
+		{
+			for (Task task : chunk)
+			{
+				changes.add(new VlanRulesetChange(applied.get(task.ruleset.getVlan()), task.ruleset));
+			}
+		}
+		String error = null;
+		try
+		{
+			listener.onRulesetsChanged(changes);
+		}
+		catch (Exception e)
+		{
+			Log.error(LogCategory.FIREWALL, "Failed to activate rulesets for VLAN IDs " + vlans(chunk), e);
+			error = String.valueOf(e.getMessage());
+		}
+		finally
+		{
+			finish(chunk, error);
+		}
+	}
+
+	private void finish(List<Task> chunk, String error)
+	{
+		synchronized (this)
+		{
+			for (Task task : chunk)
+			{
+				int vlan = task.ruleset.getVlan();
+				running.remove(vlan);
+				if (error == null)
+				{
+					applied.put(vlan, task.ruleset);
+					fingerprints.put(task.ruleset);
+				}
+				else
+				{
+					// The script may have been interrupted halfway, so the next ruleset is applied in full
+					applied.remove(vlan);
+					fingerprints.remove(vlan);
+				}
+				if (task.submission.outstanding.remove(vlan) && error != null)
+				{
+					task.submission.failures.put(vlan, error);
+				}
+			}
+			busyWorkers--;
+			dispatch();
+		}
+		// Outside of the lock, so that the other workers are not held up by the file system
+		try
+		{
+			fingerprints.save();
+		}
+		catch (IOException e)
+		{
+			// Only means that these VLANs are reapplied after a restart
+			Log.warn(LogCategory.FIREWALL, "Failed to save the fingerprints of the applied rulesets.", e);
+		}
+	}
+
+	private static List<Integer> vlans(List<Task> tasks)
+	{
+		List<Integer> vlans = new ArrayList<>(tasks.size());
+		for (Task task : tasks)
+		{
+			vlans.add(task.ruleset.getVlan());
+		}
+		return vlans;
+	}
+
+	@RequiredArgsConstructor
+	private static class Task
+	{
+		private final FirewallVlanRuleset	ruleset;
+		private final Submission			submission;
+	}
+
+	@RequiredArgsConstructor
+	private static class Submission
+	{
+		private final long					id;
+		private final Set<Integer>			outstanding	= new HashSet<>();
+		private final Map<Integer, String>	failures	= new LinkedHashMap<>();
+	}
+}
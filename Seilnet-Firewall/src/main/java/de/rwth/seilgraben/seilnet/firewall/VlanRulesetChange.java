@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * The difference between the ruleset that was last applied to a VLAN and the one that is to be
+ * applied now, see {@link FirewallController.FirewallRulesetListener#onRulesetsChanged(java.util.Collection)}.
+ * Immutable.
+ *
+ * @author Felix Kirchmann
+ */
+@Getter
+public class VlanRulesetChange
+{
+	/**
+	 * The ruleset that was last applied successfully, or <code>null</code> if the VLAN's current
+	 * state is unknown, e.g. after a restart or a failed activation. The whole ruleset must be
+	 * applied then.
+	 */
+	private final FirewallVlanRuleset	previous;
+	private final FirewallVlanRuleset	current;
+	/**
+	 * The MAC addresses that are allowed now, but were not allowed by {@link #previous}.
+	 */
+	private final Set<MacAddress>		addedHosts;
+	/**
+	 * The MAC addresses that were allowed by {@link #previous}, but are not allowed anymore.
+	 */
+	private final Set<MacAddress>		removedHosts;
+
+	public VlanRulesetChange(FirewallVlanRuleset previous, @NonNull FirewallVlanRuleset current)
+	{
+		if (previous != null && previous.getVlan() != current.getVlan()) { throw new IllegalArgumentException(
+				"Rulesets of different VLANs"); }
+		this.previous = previous;
+		this.current = current;
+		if (previous == null)
+		{
+			this.addedHosts = Collections.unmodifiableSet(current.getAllowedHosts());
+			this.removedHosts = Collections.emptySet();
+		}
+		else
+		{
+			this.addedHosts = Collections.unmodifiableSet(difference(current.getAllowedHosts(), previous.getAllowedHosts()));
+			this.removedHosts = Collections.unmodifiableSet(difference(previous.getAllowedHosts(), current.getAllowedHosts()));
+		}
+	}
+
+	public int getVlan()
+	{
+		return current.getVlan();
+	}
+
+	/**
+	 * @return Whether the whole ruleset must be applied, i.e. whether there is no previous ruleset
+	 *         or whether the VLAN switched between allowing all hosts and allowing only some.
+	 */
+	public boolean isFull()
+	{
+		return previous == null || previous.isAllowAllHosts() != current.isAllowAllHosts();
+	}
+
+	public boolean isAccessAdminNetChanged()
+	{
+		return isFull() || previous.isAccessAdminNet() != current.isAccessAdminNet();
+	}
+
+	public boolean isInetIPv4Changed()
+	{
+		return isFull() || !Objects.equals(previous.getInetIPv4(), current.getInetIPv4());
+	}
+
+	public boolean isInetDnsIPv4Changed()
+	{
+		return isFull() || !Objects.equals(previous.getInetDnsIPv4(), current.getInetDnsIPv4());
+	}
+
+	private static Set<MacAddress> difference(Set<MacAddress> a, Set<MacAddress> b)
+	{
+		Set<MacAddress> result = new HashSet<>(a);
+		result.removeAll(b);
+		return result;
+	}
+}
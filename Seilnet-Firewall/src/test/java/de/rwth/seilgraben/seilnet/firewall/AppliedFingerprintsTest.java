@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.esotericsoftware.minlog.Log;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+
+/**
+ * @author Felix Kirchmann
+ */
+public class AppliedFingerprintsTest
+{
+	@Rule
+	public TemporaryFolder	folder	= new TemporaryFolder();
+
+	private File			rulesFolder;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		Log.set(Log.LEVEL_NONE);
+		rulesFolder = folder.newFolder("rules");
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception
+	{
+		AppliedFingerprints fingerprints = new AppliedFingerprints(rulesFolder);
+		assertFalse(fingerprints.isApplied(ruleset(101, 0)));
+		fingerprints.put(ruleset(101, 0));
+		fingerprints.put(ruleset(102, 0));
+		fingerprints.put(ruleset(103, 0));
+		fingerprints.remove(103);
+		assertTrue(fingerprints.isApplied(ruleset(101, 0)));
+		assertFalse(fingerprints.isApplied(ruleset(101, 1)));
+		fingerprints.save();
+		// Not saved
+		fingerprints.put(ruleset(102, 1));
+
+		AppliedFingerprints loaded = new AppliedFingerprints(rulesFolder);
+		assertTrue(loaded.isApplied(ruleset(101, 0)));
+		assertTrue(loaded.isApplied(ruleset(102, 0)));
+		assertFalse(loaded.isApplied(ruleset(102, 1)));
+		assertFalse(loaded.isApplied(ruleset(103, 0)));
+		assertFalse(new File(rulesFolder, Constants.RULES_APPLIED_TEMP_FILENAME).exists());
+	}
+
+	/**
+	 * A save without changes since the last one does not write the file again.
+	 */
+	@Test
+	public void testSaveWithoutChanges() throws Exception
+	{
+		AppliedFingerprints fingerprints = new AppliedFingerprints(rulesFolder);
+		File file = new File(rulesFolder, Constants.RULES_APPLIED_FILENAME);
+		fingerprints.save();
+		assertFalse(file.exists());
+		fingerprints.put(ruleset(101, 0));
+		fingerprints.save();
+		assertTrue(file.delete());
+		fingerprints.save();
+		assertFalse(file.exists());
+		fingerprints.remove(101);
+		fingerprints.save();
+		assertTrue(file.exists());
+	}
+
+	@Test
+	public void testUnreadableFile() throws Exception
+	{
+		AppliedFingerprints fingerprints = new AppliedFingerprints(rulesFolder);
+		fingerprints.put(ruleset(101, 0));
+		fingerprints.put(ruleset(102, 0));
+		fingerprints.save();
+		File file = new File(rulesFolder, Constants.RULES_APPLIED_FILENAME);
+		byte[] saved = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(saved, saved.length - 1));
+
+		// Rather than trusting the readable part, all VLANs are unknown
+		AppliedFingerprints loaded = new AppliedFingerprints(rulesFolder);
+		assertFalse(loaded.isApplied(ruleset(101, 0)));
+		assertFalse(loaded.isApplied(ruleset(102, 0)));
+	}
+
+	/**
+	 * Saves from several threads must not interfere with each other, and once all of them have
+	 * returned, the file contains every change.
+	 */
+	@Test
+	public void testConcurrentSaves() throws Exception
+	{
+		AppliedFingerprints fingerprints = new AppliedFingerprints(rulesFolder);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int vlan = 100; vlan < 300; vlan++)
+		{
+			FirewallVlanRuleset ruleset = ruleset(vlan, vlan % 3);
+			futures.add(executor.submit(() -> {
+				fingerprints.put(ruleset);
+				fingerprints.save();
+				return null;
+			}));
+		}
+		for (Future<?> future : futures)
+		{
+			future.get();
+		}
+		executor.shutdown();
+
+		AppliedFingerprints loaded = new AppliedFingerprints(rulesFolder);
+		for (int vlan = 100; vlan < 300; vlan++)
+		{
+			assertTrue("VLAN " + vlan, loaded.isApplied(ruleset(vlan, vlan % 3)));
+		}
+		assertEquals(4 + 200 * 12, new File(rulesFolder, Constants.RULES_APPLIED_FILENAME).length());
+	}
+
+	private static FirewallVlanRuleset ruleset(int vlan, int version)
+	{
+		return new FirewallVlanRuleset(vlan, false, null, null, false, Collections.singleton(
+				new MacAddress(new byte[] { 2, 0, 0, (byte) (vlan >> 8), (byte) vlan, (byte) version })));
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Measures reading a dnsmasq lease file of 20,000 leases across 150 VLANs, the first time and again
+ * after typical changes. Not part of the regular test run, start it with
+ * <code>mvn test -Dtest=DnsmasqLeaseBenchmark</code>.
+ *
+ * @author Felix Kirchmann
+ */
+public class DnsmasqLeaseBenchmark
+{
+	private static final int	LEASES	= 20_000;
+	private static final int	VLANS	= 150;
+	private static final int	RUNS	= 30;
+
+	@Rule
+	public TemporaryFolder		folder	= new TemporaryFolder();
+
+	private interface Measured
+	{
+		void run() throws Exception;
+	}
+
+	@Test
+	public void benchmark() throws Exception
+	{
+		List<String> leases = new ArrayList<>(LEASES);
+		for (int i = 0; i < LEASES; i++)
+		{
+			leases.add(lease(i, 1700000000));
+		}
+		Path initial = write("initial", leases);
+		List<String> renewals = new ArrayList<>(leases);
+		for (int i = 0; i < 50; i++)
+		{
+			renewals.set(i * 400, lease(i * 400, 1700003600));
+		}
+		Path renewed = write("renewed", renewals);
+		List<String> changes = new ArrayList<>(leases.subList(5, LEASES));
+		for (int i = 0; i < 10; i++)
+		{
+			changes.add(lease(LEASES + i, 1700000000));
+		}
+		Path changed = write("changed", changes);
+
+		double firstRead = measure(() -> new DnsmasqLeaseParser().update(initial));
+		DnsmasqLeaseParser parser = new DnsmasqLeaseParser();
+		parser.update(initial);
+		double hostList = measure(parser::toHostList);
+		assertEquals(VLANS, parser.toHostList().listHosts().size());
+		assertTrue(parser.update(renewed).isEmpty());
+		HostListChange change = parser.update(changed);
+		assertEquals(10, change.getAddedHosts().values().stream().mapToInt(Set::size).sum());
+		assertEquals(5, change.getRemovedHosts().values().stream().mapToInt(Set::size).sum());
+		parser.update(initial);
+		// Every run reads the other file, so each read sees the same amount of changes
+		Path[] next = { renewed, initial };
+		double renewalRead = measure(() -> {
+			parser.update(next[0]);
+			next[0] = next[0] == renewed ? initial : renewed;
+		});
+		next[0] = changed;
+		double changedRead = measure(() -> {
+			parser.update(next[0]);
+			next[0] = next[0] == changed ? initial : changed;
+		});
+
+		System.out.println("Reading " + LEASES + " leases across " + VLANS + " VLANs (" + Files.size(initial)
+				+ " bytes), median ms: first read " + firstRead + ", building the host list " + hostList
+				+ ", re-read after 50 renewals " + renewalRead + ", re-read with 10 added and 5 removed hosts "
+				+ changedRead);
+	}
+
+	private static String lease(int i, long expiry)
+	{
+		int vlan = 100 + i % VLANS;
+		String mac = String.format("02:00:00:%02x:%02x:%02x", (i >> 16) & 0xff, (i >> 8) & 0xff, i & 0xff);
+		return expiry + " " + mac + " 10.0." + vlan + "." + (i / VLANS % 250 + 2) + " host-" + i + " 01:" + mac;
+	}
+
+	private Path write(String name, List<String> lines) throws Exception
+	{
+		Path file = folder.newFile(name).toPath();
+		Files.write(file, lines, StandardCharsets.UTF_8);
+		return file;
+	}
+
+	/**
+	 * @return The median duration in milliseconds, after as many runs for warm-up.
+	 */
+	private static double measure(Measured measured) throws Exception
+	{
+		long[] nanos = new long[RUNS];
+		for (int i = 0; i < RUNS * 2; i++)
+		{
+			long start = System.nanoTime();
+			measured.run();
+			if (i >= RUNS)
+			{
+				nanos[i - RUNS] = System.nanoTime() - start;
+			}
+		}
+		Arrays.sort(nanos);
+		return nanos[RUNS / 2] / 1_000_000.0;
+	}
+}
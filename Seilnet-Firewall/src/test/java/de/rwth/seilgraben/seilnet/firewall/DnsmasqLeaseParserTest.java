@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHost;
+
+/**
+ * @author Felix Kirchmann
+ */
+public class DnsmasqLeaseParserTest
+{
+	private static final String	ALICE	= "1700000000 02:00:00:00:01:01 10.0.101.2 alice 01:02:00:00:00:01:01";
+	private static final String	BOB		= "1700000000 02:00:00:00:01:02 10.0.101.3 bob *";
+	private static final String	CAROL	= "1700000000 02:00:00:00:02:01 10.0.102.2 carol";
+
+	@Rule
+	public TemporaryFolder		folder	= new TemporaryFolder();
+
+	private Path				leaseFile;
+	private DnsmasqLeaseParser	parser;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		leaseFile = folder.newFile("dnsmasq.leases").toPath();
+		parser = new DnsmasqLeaseParser();
+	}
+
+	private HostListChange read(String... lines) throws IOException
+	{
+		Files.write(leaseFile, Arrays.asList(lines), StandardCharsets.UTF_8);
+		return parser.update(leaseFile);
+	}
+
+	/**
+	 * @return The hosts as "VLAN:name", sorted.
+	 */
+	private static String hosts(Map<Integer, Set<NetworkHost>> hosts)
+	{
+		Set<String> names = new TreeSet<>();
+		hosts.forEach((vlan, vlanHosts) -> vlanHosts.forEach(host -> names.add(vlan + ":" + host.getName())));
+		return names.toString();
+	}
+
+	@Test
+	public void testFirstRead() throws Exception
+	{
+		HostListChange change = read(ALICE, "", BOB, CAROL);
+		assertEquals("[101:alice, 101:bob, 102:carol]", hosts(change.getAddedHosts()));
+		assertTrue(change.getRemovedHosts().isEmpty());
+		assertEquals("[101:alice, 101:bob, 102:carol]", hosts(parser.toHostList().listHosts()));
+	}
+
+	@Test
+	public void testAddedAndRemoved() throws Exception
+	{
+		read(ALICE, BOB);
+		HostListChange change = read(BOB, CAROL);
+		assertEquals("[102:carol]", hosts(change.getAddedHosts()));
+		assertEquals("[101:alice]", hosts(change.getRemovedHosts()));
+		assertEquals("[101:bob, 102:carol]", hosts(parser.toHostList().listHosts()));
+		assertTrue(read(BOB, CAROL).isEmpty());
+	}
+
+	/**
+	 * A renewal rewrites the line with a new expiry time, which does not change the hosts.
+	 */
+	@Test
+	public void testRenewal() throws Exception
+	{
+		read(ALICE, BOB, CAROL);
+		assertTrue(read(ALICE.replace("1700000000", "1700003600"), BOB, CAROL).isEmpty());
+		assertEquals("[101:alice, 101:bob, 102:carol]", hosts(parser.toHostList().listHosts()));
+		// The renewed line is the one that refers to the host now
+		assertEquals("[101:alice]", hosts(read(BOB, CAROL).getRemovedHosts()));
+	}
+
+	/**
+	 * A host is only removed once no line refers to it anymore.
+	 */
+	@Test
+	public void testDuplicateLines() throws Exception
+	{
+		String renewed = ALICE.replace("1700000000", "1700003600");
+		assertEquals("[101:alice, 101:bob]", hosts(read(ALICE, ALICE, renewed, BOB).getAddedHosts()));
+		assertTrue(read(ALICE, BOB).isEmpty());
+		assertTrue(read(renewed, renewed, BOB).isEmpty());
+		assertEquals("[101:alice]", hosts(read(BOB).getRemovedHosts()));
+		assertEquals("[101:bob]", hosts(parser.toHostList().listHosts()));
+	}
+
+	@Test
+	public void testUnparseableLine() throws Exception
+	{
+		read(ALICE, BOB);
+		for (String invalid : new String[] { "1700000000 02:00:00:00:02:01", "1700000000 02:00:00:00:02 10.0.102.2 x",
+				"1700000000 02:00:00:00:02:01 10.0.x.2 x" })
+		{
+			try
+			{
+				read(BOB, CAROL, invalid);
+				fail("Accepted \"" + invalid + "\"");
+			}
+			catch (IOException e)
+			{}
+		}
+		// Neither the hosts nor the lines of the previous read have changed
+		assertEquals("[101:alice, 101:bob]", hosts(parser.toHostList().listHosts()));
+		assertTrue(read(ALICE, BOB).isEmpty());
+		HostListChange change = read(BOB, CAROL);
+		assertEquals("[102:carol]", hosts(change.getAddedHosts()));
+		assertEquals("[101:alice]", hosts(change.getRemovedHosts()));
+	}
+}
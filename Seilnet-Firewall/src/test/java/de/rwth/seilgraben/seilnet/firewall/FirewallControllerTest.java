@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.esotericsoftware.minlog.Log;
+
+import de.rwth.seilgraben.seilnet.firewall.FirewallController.FirewallRulesetListener;
+import de.rwth.seilgraben.seilnet.firewall.RulesetWorkerPool.State;
+import de.rwth.seilgraben.seilnet.firewall.RulesetWorkerPool.Status;
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset;
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+
+/**
+ * @author Felix Kirchmann
+ */
+public class FirewallControllerTest
+{
+	private static final long		TIMEOUT_MS	= 10_000;
+
+	@Rule
+	public TemporaryFolder			folder		= new TemporaryFolder();
+
+	private File					rulesFolder;
+	/**
+	 * The rulesets passed to the listener, including the failed ones.
+	 */
+	private final List<FirewallRuleset>	activated	= new CopyOnWriteArrayList<>();
+	private final AtomicInteger		failures	= new AtomicInteger();
+
+	private final FirewallRulesetListener	listener	= ruleset -> {
+		activated.add(ruleset);
+		if (failures.getAndDecrement() > 0)
+		{
+			throw new IOException("Script failed");
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception
+	{
+		// The failures are expected
+		Log.set(Log.LEVEL_NONE);
+		rulesFolder = folder.newFolder("rules");
+	}
+
+	@Test
+	public void testUnchangedRulesetNotApplied() throws Exception
+	{
+		FirewallController controller = new FirewallController(rulesFolder, listener, 2);
+		FirewallVlanRuleset ruleset = ruleset(101);
+		assertEquals(State.DONE, await(controller, controller.submit(ruleset)).getState());
+		assertEquals(State.DONE, await(controller, controller.submit(ruleset)).getState());
+		assertEquals(1, activated.size());
+	}
+
+	/**
+	 * The client resends a VLAN whose activation failed, with the same ruleset that is already
+	 * stored. It must be applied again instead of being skipped as unchanged.
+	 */
+	@Test
+	public void testResendAfterFailure() throws Exception
+	{
+		FirewallController controller = new FirewallController(rulesFolder, listener, 2);
+		FirewallVlanRuleset ruleset = ruleset(101);
+		failures.set(1);
+		Status failed = await(controller, controller.submit(ruleset, ruleset(102)));
+		assertEquals(State.FAILED, failed.getState());
+		assertEquals(1, failed.getFailures().size());
+		int failedVlan = failed.getFailures().keySet().iterator().next();
+		FirewallVlanRuleset resent = failedVlan == 101 ? ruleset : ruleset(102);
+
+		assertEquals(State.DONE, await(controller, controller.submit(resent)).getState());
+		assertEquals(3, activated.size());
+		assertEquals(resent, activated.get(2));
+		// Now it was applied, so it is skipped
+		assertEquals(State.DONE, await(controller, controller.submit(resent)).getState());
+		assertEquals(3, activated.size());
+	}
+
+	/**
+	 * After a restart, the client may still poll an ID of the previous run, which must not refer to
+	 * a submission of this run.
+	 */
+	@Test
+	public void testIdsOfPreviousRunUnknown() throws Exception
+	{
+		FirewallController controller = new FirewallController(rulesFolder, listener, 2);
+		long id = controller.submit(ruleset(101));
+		await(controller, id);
+		FirewallController restarted = new FirewallController(rulesFolder, listener, 2);
+		assertNull(restarted.getStatus(id));
+		long restartedId = restarted.submit(ruleset(102));
+		assertNotEquals(id, restartedId);
+		assertNull(restarted.getStatus(id));
+		assertEquals(State.DONE, await(restarted, restartedId).getState());
+	}
+
+	private static Status await(FirewallController controller, long id) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		Status status = controller.getStatus(id);
+		assertNotNull(status);
+		while (status.getState() == State.PENDING && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+			status = controller.getStatus(id);
+		}
+		return status;
+	}
+
+	private static FirewallVlanRuleset ruleset(int vlan)
+	{
+		return new FirewallVlanRuleset(vlan, false, null, null, false, Collections.emptySet());
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+
+/**
+ * @author Felix Kirchmann
+ */
+public class RulesetCodecTest
+{
+	private static List<FirewallVlanRuleset> rulesets() throws Exception
+	{
+		Set<MacAddress> hosts = new HashSet<>(Arrays.asList(new MacAddress("00:11:22:33:44:55"),
+				new MacAddress("ff:ee:dd:cc:bb:aa")));
+		return Arrays.asList(
+				new FirewallVlanRuleset(101, false, null, null, false, Collections.emptySet()),
+				new FirewallVlanRuleset(102, true, ipv4("134.130.1.2"), ipv4("134.130.1.3"), false, hosts),
+				new FirewallVlanRuleset(4094, false, ipv4("255.255.255.255"), null, true, hosts),
+				new FirewallVlanRuleset(1, true, null, ipv4("0.0.0.1"), true, Collections.emptySet()));
+	}
+
+	private static Inet4Address ipv4(String address) throws Exception
+	{
+		return (Inet4Address) InetAddress.getByName(address);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		byte[] encoded = RulesetCodec.encode(rulesets());
+		assertTrue(RulesetCodec.isEncoded(ByteBuffer.wrap(encoded)));
+		assertEquals(rulesets(), RulesetCodec.decode(ByteBuffer.wrap(encoded)));
+		assertEquals(Collections.emptyList(), RulesetCodec.decode(ByteBuffer.wrap(RulesetCodec.encode(
+				Collections.emptyList()))));
+	}
+
+	/**
+	 * Decoding starts at the buffer's position, e.g. within a journal record.
+	 */
+	@Test
+	public void testDecodeAtPosition() throws Exception
+	{
+		byte[] encoded = RulesetCodec.encode(rulesets());
+		ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 3);
+		buffer.position(3);
+		buffer.put(encoded);
+		buffer.position(3);
+		assertEquals(rulesets(), RulesetCodec.decode(buffer));
+	}
+
+	@Test
+	public void testTruncated() throws Exception
+	{
+		byte[] encoded = RulesetCodec.encode(rulesets());
+		for (int length = 0; length < encoded.length; length++)
+		{
+			assertInvalid(Arrays.copyOf(encoded, length));
+		}
+	}
+
+	@Test
+	public void testTrailingBytes() throws Exception
+	{
+		byte[] encoded = RulesetCodec.encode(rulesets());
+		assertInvalid(Arrays.copyOf(encoded, encoded.length + 1));
+	}
+
+	@Test
+	public void testWrongVersion() throws Exception
+	{
+		byte[] encoded = RulesetCodec.encode(rulesets());
+		encoded[4] = 2;
+		assertEquals("Unsupported binary ruleset format version 2", assertInvalid(encoded).getMessage());
+	}
+
+	@Test
+	public void testNotEncoded() throws Exception
+	{
+		byte[] xml = "<map/>".getBytes("UTF-8");
+		assertFalse(RulesetCodec.isEncoded(ByteBuffer.wrap(xml)));
+		assertInvalid(xml);
+	}
+
+	@Test
+	public void testFingerprint() throws Exception
+	{
+		FirewallVlanRuleset ruleset = rulesets().get(1);
+		List<MacAddress> hosts = Arrays.asList(new MacAddress("00:11:22:33:44:55"),
+				new MacAddress("ff:ee:dd:cc:bb:aa"));
+		FirewallVlanRuleset reordered = new FirewallVlanRuleset(102, true, ruleset.getInetIPv4(),
+				ruleset.getInetDnsIPv4(), false, new LinkedHashSet<>(hosts));
+		Collections.reverse(hosts);
+		FirewallVlanRuleset reversed = new FirewallVlanRuleset(102, true, ruleset.getInetIPv4(),
+				ruleset.getInetDnsIPv4(), false, new LinkedHashSet<>(hosts));
+		assertEquals(RulesetCodec.fingerprint(reordered), RulesetCodec.fingerprint(reversed));
+		assertTrue(RulesetCodec.fingerprint(ruleset) != RulesetCodec.fingerprint(rulesets().get(2)));
+	}
+
+	private static IOException assertInvalid(byte[] data)
+	{
+		try
+		{
+			RulesetCodec.decode(ByteBuffer.wrap(data));
+		}
+		catch (IOException e)
+		{
+			return e;
+		}
+		fail("Decoded " + data.length + " invalid bytes");
+		return null;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.esotericsoftware.minlog.Log;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+import de.rwth.seilgraben.seilnet.firewall.shared.SharedXStream;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+
+/**
+ * Compares loading 1,000 VLAN rulesets of 20 allowed hosts each from the binary snapshot and from
+ * the XML file of older versions. Not part of the regular test run, start it with
+ * <code>mvn test -Dtest=RulesetLoadBenchmark</code>.
+ *
+ * @author Felix Kirchmann
+ */
+public class RulesetLoadBenchmark
+{
+	private static final int	VLANS		= 1000;
+	private static final int	HOSTS		= 20;
+	private static final int	WARMUP		= 10;
+	private static final int	LOADS		= 30;
+
+	@Rule
+	public TemporaryFolder		folder		= new TemporaryFolder();
+
+	@Test
+	public void benchmark() throws Exception
+	{
+		Log.set(Log.LEVEL_WARN);
+		Map<Integer, FirewallVlanRuleset> rulesets = new HashMap<>();
+		for (int vlan = 100; vlan < 100 + VLANS; vlan++)
+		{
+			Set<MacAddress> hosts = new HashSet<>();
+			for (int i = 0; i < HOSTS; i++)
+			{
+				hosts.add(new MacAddress(new byte[] { 2, 0, 0, (byte) (vlan >> 8), (byte) vlan, (byte) i }));
+			}
+			rulesets.put(vlan, new FirewallVlanRuleset(vlan, vlan % 10 == 0, (Inet4Address) InetAddress
+					.getByAddress(new byte[] { (byte) 134, (byte) 130, (byte) (vlan >> 8), (byte) vlan }), null,
+					false, hosts));
+		}
+
+		File binaryFolder = folder.newFolder("binary");
+		File binary = new File(binaryFolder, Constants.RULES_FILENAME);
+		Files.write(binary.toPath(), RulesetCodec.encode(rulesets.values()));
+		File xml = folder.newFile(Constants.RULES_XML_FILENAME);
+		try (OutputStream out = new FileOutputStream(xml))
+		{
+			SharedXStream.INSTANCE.toXML(rulesets, out);
+		}
+		assertEquals(rulesets, new RulesetStore(binaryFolder).load());
+		assertEquals(rulesets, SharedXStream.INSTANCE.fromXML(xml));
+
+		System.out.println("Loading " + VLANS + " VLANs with " + HOSTS + " hosts each: binary (" + binary.length()
+				+ " bytes) " + measure(() -> new RulesetStore(binaryFolder).load()) + " ms, XML (" + xml.length()
+				+ " bytes) " + measure(() -> SharedXStream.INSTANCE.fromXML(xml)) + " ms");
+	}
+
+	/**
+	 * @return The median duration in milliseconds.
+	 */
+	private static double measure(Callable<?> load) throws Exception
+	{
+		for (int i = 0; i < WARMUP; i++)
+		{
+			load.call();
+		}
+		long[] nanos = new long[LOADS];
+		for (int i = 0; i < LOADS; i++)
+		{
+			long start = System.nanoTime();
+			load.call();
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		return nanos[LOADS / 2] / 1_000_000.0;
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.esotericsoftware.minlog.Log;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+
+/**
+ * Checks that the stored rulesets survive a crash at any point: loading must restore exactly the
+ * rulesets of the last batch that was completely forced to disk.
+ *
+ * @author Felix Kirchmann
+ */
+public class RulesetStoreTest
+{
+	@Rule
+	public TemporaryFolder									folder			= new TemporaryFolder();
+
+	private File											rulesFolder;
+	/**
+	 * The stored rulesets after each batch, the first entry being the rulesets of the snapshot.
+	 */
+	private final List<Map<Integer, FirewallVlanRuleset>>	states			= new ArrayList<>();
+	/**
+	 * The journal's length after each batch.
+	 */
+	private final List<Long>								syncedLengths	= new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		Log.set(Log.LEVEL_ERROR);
+		rulesFolder = folder.newFolder("rules");
+		RulesetStore store = new RulesetStore(rulesFolder);
+		Map<Integer, FirewallVlanRuleset> state = store.load();
+		List<FirewallVlanRuleset> initial = Arrays.asList(ruleset(101, 0), ruleset(102, 0), ruleset(103, 0));
+		store.append(initial, state);
+		initial.forEach(ruleset -> state.put(ruleset.getVlan(), ruleset));
+
+		// Loading again replays the journal and compacts it into a snapshot
+		store = new RulesetStore(rulesFolder);
+		assertEquals(state, store.load());
+		states.add(new HashMap<>(state));
+		syncedLengths.add(journal(rulesFolder).length());
+		for (int batch = 1; batch <= 5; batch++)
+		{
+			List<FirewallVlanRuleset> changed = Arrays.asList(ruleset(101 + batch % 3, batch),
+					ruleset(200 + batch, batch));
+			store.append(changed, state);
+			changed.forEach(ruleset -> state.put(ruleset.getVlan(), ruleset));
+			states.add(new HashMap<>(state));
+			syncedLengths.add(journal(rulesFolder).length());
+		}
+	}
+
+	@Test
+	public void testJournalCutAtEveryOffset() throws Exception
+	{
+		byte[] journal = Files.readAllBytes(journal(rulesFolder).toPath());
+		for (int cut = 0; cut <= journal.length; cut++)
+		{
+			File crashed = copyRulesFolder();
+			Files.write(journal(crashed).toPath(), Arrays.copyOf(journal, cut));
+
+			int synced = 0;
+			while (synced + 1 < syncedLengths.size() && syncedLengths.get(synced + 1) <= cut)
+			{
+				synced++;
+			}
+			assertEquals("Journal cut after " + cut + " bytes", states.get(synced), new RulesetStore(crashed).load());
+		}
+	}
+
+	@Test
+	public void testJournalWithGarbage() throws Exception
+	{
+		File crashed = copyRulesFolder();
+		// Preallocated, but never written
+		Files.write(journal(crashed).toPath(), new byte[64], StandardOpenOption.APPEND);
+		assertEquals(last(), new RulesetStore(crashed).load());
+	}
+
+	/**
+	 * The process died during a compaction, after the new snapshot was written but before the
+	 * journal was emptied.
+	 */
+	@Test
+	public void testCrashBeforeJournalEmptied() throws Exception
+	{
+		File crashed = copyRulesFolder();
+		Files.write(new File(crashed, Constants.RULES_FILENAME).toPath(), RulesetCodec.encode(last().values()));
+		assertEquals(last(), new RulesetStore(crashed).load());
+	}
+
+	/**
+	 * The process died during a compaction, while the new snapshot was written.
+	 */
+	@Test
+	public void testCrashWhileSnapshotWritten() throws Exception
+	{
+		File crashed = copyRulesFolder();
+		byte[] snapshot = RulesetCodec.encode(last().values());
+		Files.write(new File(crashed, Constants.RULES_TEMP_FILENAME).toPath(),
+				Arrays.copyOf(snapshot, snapshot.length / 2));
+		assertEquals(last(), new RulesetStore(crashed).load());
+	}
+
+	/**
+	 * Each successful load compacts the journal, so loading again must not change anything.
+	 */
+	@Test
+	public void testLoadTwice() throws Exception
+	{
+		File crashed = copyRulesFolder();
+		assertEquals(last(), new RulesetStore(crashed).load());
+		assertEquals(0, journal(crashed).length());
+		assertEquals(last(), new RulesetStore(crashed).load());
+	}
+
+	private Map<Integer, FirewallVlanRuleset> last()
+	{
+		return states.get(states.size() - 1);
+	}
+
+	private File copyRulesFolder() throws IOException
+	{
+		File copy = folder.newFolder();
+		for (File file : rulesFolder.listFiles())
+		{
+			Files.copy(file.toPath(), new File(copy, file.getName()).toPath());
+		}
+		return copy;
+	}
+
+	private static File journal(File rulesFolder)
+	{
+		return new File(rulesFolder, Constants.RULES_JOURNAL_FILENAME);
+	}
+
+	private static FirewallVlanRuleset ruleset(int vlan, int version)
+	{
+		Set<MacAddress> hosts = new HashSet<>();
+		for (int i = 0; i <= version; i++)
+		{
+			hosts.add(new MacAddress(new byte[] { 0, 0x11, 0x22, (byte) vlan, (byte) version, (byte) i }));
+		}
+		return new FirewallVlanRuleset(vlan, version % 2 == 1, null, null, false, Collections.unmodifiableSet(hosts));
+	}
+}
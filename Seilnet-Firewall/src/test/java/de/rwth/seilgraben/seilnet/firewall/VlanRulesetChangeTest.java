@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+
+/**
+ * @author Felix Kirchmann
+ */
+public class VlanRulesetChangeTest
+{
+	private static final MacAddress	ALICE	= new MacAddress(new byte[] { 2, 0, 0, 0, 0, 1 });
+	private static final MacAddress	BOB		= new MacAddress(new byte[] { 2, 0, 0, 0, 0, 2 });
+	private static final MacAddress	CAROL	= new MacAddress(new byte[] { 2, 0, 0, 0, 0, 3 });
+
+	@Test
+	public void testWithoutPrevious() throws Exception
+	{
+		FirewallVlanRuleset current = ruleset(101, false, ipv4("134.130.1.2"), false, ALICE, BOB);
+		VlanRulesetChange change = new VlanRulesetChange(null, current);
+		assertTrue(change.isFull());
+		assertTrue(change.isAccessAdminNetChanged());
+		assertTrue(change.isInetIPv4Changed());
+		assertTrue(change.isInetDnsIPv4Changed());
+		assertEquals(hosts(ALICE, BOB), change.getAddedHosts());
+		assertTrue(change.getRemovedHosts().isEmpty());
+		assertEquals(101, change.getVlan());
+	}
+
+	@Test
+	public void testHostsChanged() throws Exception
+	{
+		FirewallVlanRuleset previous = ruleset(101, false, ipv4("134.130.1.2"), false, ALICE, BOB);
+		FirewallVlanRuleset current = ruleset(101, false, ipv4("134.130.1.2"), false, BOB, CAROL);
+		VlanRulesetChange change = new VlanRulesetChange(previous, current);
+		assertFalse(change.isFull());
+		assertFalse(change.isAccessAdminNetChanged());
+		assertFalse(change.isInetIPv4Changed());
+		assertFalse(change.isInetDnsIPv4Changed());
+		assertEquals(hosts(CAROL), change.getAddedHosts());
+		assertEquals(hosts(ALICE), change.getRemovedHosts());
+		assertTrue(new VlanRulesetChange(current, current).getAddedHosts().isEmpty());
+		assertTrue(new VlanRulesetChange(current, current).getRemovedHosts().isEmpty());
+	}
+
+	@Test
+	public void testSettingsChanged() throws Exception
+	{
+		FirewallVlanRuleset previous = ruleset(101, false, ipv4("134.130.1.2"), false, ALICE);
+		VlanRulesetChange change = new VlanRulesetChange(previous,
+				ruleset(101, true, ipv4("134.130.1.3"), false, ALICE));
+		assertFalse(change.isFull());
+		assertTrue(change.isAccessAdminNetChanged());
+		assertTrue(change.isInetIPv4Changed());
+		assertFalse(change.isInetDnsIPv4Changed());
+
+		change = new VlanRulesetChange(previous, ruleset(101, false, null, false, ALICE));
+		assertFalse(change.isAccessAdminNetChanged());
+		assertTrue(change.isInetIPv4Changed());
+	}
+
+	/**
+	 * Switching between allowing all hosts and allowing only some replaces the whole ruleset.
+	 */
+	@Test
+	public void testAllowAllHostsChanged() throws Exception
+	{
+		FirewallVlanRuleset previous = ruleset(101, false, null, false, ALICE);
+		VlanRulesetChange change = new VlanRulesetChange(previous, ruleset(101, false, null, true));
+		assertTrue(change.isFull());
+		assertTrue(change.isAccessAdminNetChanged());
+		assertTrue(change.isInetIPv4Changed());
+		assertTrue(change.isInetDnsIPv4Changed());
+		assertTrue(change.getAddedHosts().isEmpty());
+		assertEquals(hosts(ALICE), change.getRemovedHosts());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentVlans() throws Exception
+	{
+		new VlanRulesetChange(ruleset(101, false, null, false), ruleset(102, false, null, false));
+	}
+
+	private static FirewallVlanRuleset ruleset(int vlan, boolean accessAdminNet, Inet4Address inetIPv4,
+			boolean allowAllHosts, MacAddress... allowedHosts)
+	{
+		return new FirewallVlanRuleset(vlan, accessAdminNet, inetIPv4, null, allowAllHosts, hosts(allowedHosts));
+	}
+
+	private static Set<MacAddress> hosts(MacAddress... hosts)
+	{
+		return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(hosts)));
+	}
+
+	private static Inet4Address ipv4(String address) throws Exception
+	{
+		return (Inet4Address) InetAddress.getByName(address);
+	}
+}
@@ -11,10 +11,12 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 
 import com.esotericsoftware.minlog.Log;
 import com.google.gson.Gson;
@@ -23,6 +25,8 @@ import de.rwth.seilgraben.seilnet.firewall.shared.FirewallApi;
 import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset;
 import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
 import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList;
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHost;
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostListUpdate;
 import de.rwth.seilgraben.seilnet.firewall.shared.SharedXStream;
 import de.rwth.seilgraben.seilnet.util.Func;
 import lombok.NonNull;
@@ -41,15 +45,30 @@ import lombok.Synchronized;
 public class FirewallClient implements FirewallApi
 {
 	private static final Gson						GSON			= new Gson();
+	/**
+	 * How often the status of rulesets that the firewall activates in the background is polled.
+	 */
+	static final long								STATUS_POLL_MS	= 200;
+	/**
+	 * How often the ruleset of a VLAN is sent again after the firewall failed to apply it.
+	 */
+	static final int								RULESET_RETRIES	= 3;
 	
 	private final FirewallClientThread				thread			= new FirewallClientThread();
 	private final Object							monitor			= new Object();
 	private final Map<Integer, FirewallVlanRuleset>	vlanRulesets	= new HashMap<>();
 	private final List<FirewallRuleset>				queue			= new ArrayList<>();
-	private volatile boolean						paused			= false;
+	/**
+	 * VLAN ID -&gt; how often its latest ruleset has failed to apply.
+	 */
+	private final Map<Integer, Integer>				failedAttempts	= new HashMap<>();
+	/**
+	 * The number of batches that have been started, but not finished yet.
+	 */
+	private int										batchDepth		= 0;
 	private final String							baseUrl;
 	private final String							key;
-	private volatile NetworkHostList				hosts;
+	private final NetworkHostIndex					hosts			= new NetworkHostIndex();
 	
 	public FirewallClient(String host, int port, String key) throws IOException
 	{
@@ -70,8 +89,9 @@ public class FirewallClient implements FirewallApi
 		{
 			try (InputStream response = connection.getInputStream();)
 			{
-				updateHosts(GSON.fromJson(Func.readInputStream(response), NetworkHostList.class));
-				if (hosts == null) { throw new IOException("Firewall returned null hosts list"); }
+				NetworkHostList newHosts = GSON.fromJson(Func.readInputStream(response), NetworkHostList.class);
+				if (newHosts == null) { throw new IOException("Firewall returned null hosts list"); }
+				updateHosts(newHosts);
 			}
 		}
 		else if (responseCode == 401) // Unauthorized
@@ -86,13 +106,33 @@ public class FirewallClient implements FirewallApi
 	
 	public void updateHosts(@NonNull NetworkHostList newHosts)
 	{
-		this.hosts = newHosts;
+		hosts.replace(newHosts);
+	}
+	
+	/**
+	 * Applies a change pushed by the firewall.
+	 * 
+	 * @return <code>false</code> if an earlier update is missing, i.e. the firewall must send a full
+	 *         update.
+	 */
+	public boolean updateHosts(@NonNull NetworkHostListUpdate update)
+	{
+		return hosts.apply(update);
 	}
 	
+	/**
+	 * Builds a copy of all hosts if they changed since the last call. Use
+	 * {@link #listVlanHosts(int)} to look up a single VLAN.
+	 */
 	@Override
 	public NetworkHostList getHosts()
 	{
-		return hosts;
+		return hosts.toHostList();
+	}
+	
+	public Set<NetworkHost> listVlanHosts(int vlan)
+	{
+		return hosts.listVlanHosts(vlan);
 	}
 	
 	public void stop()
@@ -130,7 +170,7 @@ public class FirewallClient implements FirewallApi
 				// Wait for a new rule to be put into the outgoing queue 
 				synchronized (monitor)
 				{
-					while (paused || queue.isEmpty())
+					while (batchDepth > 0 || queue.isEmpty())
 					{
 						monitor.wait();
 						if (!run) { return; }
@@ -148,7 +188,18 @@ public class FirewallClient implements FirewallApi
 					SharedXStream.INSTANCE.toXML(rulesets, os);
 				}
 				int responseCode = connection.getResponseCode();
-				if (responseCode == 200) // OK
+				if (responseCode == 202) // Accepted, the firewall activates the rules in the background
+				{
+					String responseBody;
+					try (InputStream response = connection.getInputStream(); Scanner scanner = new Scanner(response))
+					{
+						responseBody = scanner.useDelimiter("\\A").next();
+					}
+					Log.debug("Firewall accepted " + rulesets.length + " rulesets, status at " + baseUrl + "/rules/"
+							+ responseBody);
+					if (!awaitActivation(responseBody.trim(), rulesets)) { return; }
+				}
+				else if (responseCode == 200) // OK, sent by firewalls that activate the rules synchronously
 				{
 					String responseBody;
 					try (InputStream response = connection.getInputStream(); Scanner scanner = new Scanner(response))
@@ -173,6 +224,117 @@ public class FirewallClient implements FirewallApi
 				}
 			}
 		}
+		
+		/**
+		 * Polls the status of rulesets that the firewall accepted until it has applied all of them,
+		 * then queues the rulesets of the VLANs that failed again.
+		 * 
+		 * @return <code>false</code> if the client has been stopped meanwhile.
+		 */
+		private boolean awaitActivation(String id, FirewallRuleset[] rulesets) throws IOException,
+				InterruptedException
+		{
+			while (true)
+			{
+				synchronized (monitor)
+				{
+					long end = System.currentTimeMillis() + STATUS_POLL_MS;
+					for (long remaining; run && (remaining = end - System.currentTimeMillis()) > 0;)
+					{
+						monitor.wait(remaining);
+					}
+					if (!run) { return false; }
+				}
+				HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/rules/" + id).openConnection();
+				connection.setRequestProperty("Key", key);
+				int responseCode = connection.getResponseCode();
+				if (responseCode == 404) // Not Found, the firewall re-applies its stored rulesets after a restart
+				{
+					Log.warn("Firewall no longer knows the rulesets " + id + ", it has probably been restarted");
+					return true;
+				}
+				else if (responseCode != 200)
+				{
+					Log.error("Firewall returned unknown status code " + responseCode + " for the rulesets " + id);
+					return true;
+				}
+				ActivationStatus status;
+				try (InputStream response = connection.getInputStream())
+				{
+					status = GSON.fromJson(Func.readInputStream(response), ActivationStatus.class);
+				}
+				if (status == null) { throw new IOException("Firewall returned null status for the rulesets " + id); }
+				if (!"PENDING".equals(status.state))
+				{
+					activated(rulesets, status.failures == null ? Collections.emptyMap() : status.failures);
+					return true;
+				}
+			}
+		}
+		
+		/**
+		 * Queues the rulesets of failed VLANs again, unless a newer ruleset for the VLAN is queued
+		 * already or the ruleset has failed too often.
+		 * 
+		 * @param failures
+		 *            VLAN ID -&gt; error message.
+		 */
+		private void activated(FirewallRuleset[] rulesets, Map<Integer, String> failures)
+		{
+			synchronized (monitor)
+			{
+				for (FirewallRuleset ruleset : rulesets)
+				{
+					if (!(ruleset instanceof FirewallVlanRuleset))
+					{
+						continue;
+					}
+					FirewallVlanRuleset vlanRuleset = (FirewallVlanRuleset) ruleset;
+					int vlan = vlanRuleset.getVlan();
+					String error = failures.get(vlan);
+					if (vlanRulesets.containsKey(vlan))
+					{
+						if (error != null)
+						{
+							Log.warn("Firewall could not apply the ruleset of VLAN " + vlan
+									+ ", a newer one is queued: " + error);
+						}
+						continue;
+					}
+					if (error == null)
+					{
+						failedAttempts.remove(vlan);
+						continue;
+					}
+					int attempts = failedAttempts.merge(vlan, 1, Integer::sum);
+					if (attempts > RULESET_RETRIES)
+					{
+						Log.error("Firewall could not apply the ruleset of VLAN " + vlan + ", giving up after "
+								+ RULESET_RETRIES + " retries: " + error);
+						failedAttempts.remove(vlan);
+						continue;
+					}
+					Log.warn("Firewall could not apply the ruleset of VLAN " + vlan + ", sending it again: " + error);
+					vlanRulesets.put(vlan, vlanRuleset);
+					queue.add(vlanRuleset);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The response to <code>GET /api/firewall/rules/&lt;id&gt;</code>.
+	 */
+	private static class ActivationStatus
+	{
+		/**
+		 * PENDING, DONE or FAILED.
+		 */
+		private String					state;
+		/**
+		 * VLAN ID -&gt; error message.
+		 */
+		private Map<Integer, String>	failures;
 	}
 	
 	/**
@@ -189,6 +351,7 @@ public class FirewallClient implements FirewallApi
 				// If there is an older ruleset for the same VLAN in the queue, remove it
 				FirewallVlanRuleset fwRuleset = (FirewallVlanRuleset) ruleset;
 				FirewallVlanRuleset previous = vlanRulesets.put(fwRuleset.getVlan(), fwRuleset);
+				failedAttempts.remove(fwRuleset.getVlan());
 				if (previous != null)
 				{
 					queue.remove(previous);
@@ -205,6 +368,9 @@ public class FirewallClient implements FirewallApi
 	 * batch is complete, the caller must call {@link #finishBatch()} to cause the queue to be sent
 	 * to the firewall. This will also allow any later rulesets to be sent to the firewall.
 	 * <br>
+	 * Batches can be nested, e.g. when {@link FirewallManager#updateAllRules()} runs during another
+	 * batch. The queue is only sent once the outermost batch is finished.
+	 * <br>
 	 * <b>Important:</b> To prevent a situation in which {@link #startBatch()} is called but
 	 * {@link #finishBatch()} is not (which would cause all rulesets to be cached in the client
 	 * forever), use a finally block:
@@ -220,8 +386,7 @@ public class FirewallClient implements FirewallApi
 	@Synchronized("monitor")
 	public void startBatch()
 	{
-		if (paused == true) { return; }
-		paused = true;
+		batchDepth++;
 	}
 	
 	/**
@@ -230,8 +395,10 @@ public class FirewallClient implements FirewallApi
 	@Synchronized("monitor")
 	public void finishBatch()
 	{
-		if (!paused) { return; }
-		paused = false;
-		monitor.notifyAll();
+		if (batchDepth == 0) { throw new IllegalStateException("No batch has been started"); }
+		if (--batchDepth == 0)
+		{
+			monitor.notifyAll();
+		}
 	}
 }
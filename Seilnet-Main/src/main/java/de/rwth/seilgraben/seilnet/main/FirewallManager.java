@@ -6,8 +6,6 @@
 package de.rwth.seilgraben.seilnet.main;
 
 import java.util.HashSet;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset;
 import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
@@ -15,10 +13,9 @@ import de.rwth.seilgraben.seilnet.main.db.Database;
 import de.rwth.seilgraben.seilnet.main.config.Permission;
 import de.rwth.seilgraben.seilnet.main.db.Room;
 import de.rwth.seilgraben.seilnet.main.db.User;
+import de.rwth.seilgraben.seilnet.main.db.UserSnapshot;
 import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent.AuthResult;
-import de.rwth.seilgraben.seilnet.util.MacAddress;
 import lombok.NonNull;
-import lombok.Synchronized;
 
 /**
  * Creates Firewall ruleset from Database Rooms / Users and send
@@ -39,39 +36,51 @@ public class FirewallManager
 	/**
 	 * For debugging
 	 */
-	@Synchronized("db")
 	public void customRule(FirewallRuleset ruleset)
 	{
 		client.activate(ruleset);
 	}
 	
-	@Synchronized("db")
+	/**
+	 * Recomputes the ruleset of the given room's VLAN. Holds the room's lock, so that rulesets of the
+	 * same room are always handed to the {@link FirewallClient} in the order they were computed.
+	 */
 	public void updateRules(Room room)
 	{
 		if (room.getVlan() == null) { return; }
 		
+		synchronized (db.getLocks().forRoom(room.getId()))
+		{
+			updateRulesLocked(room);
+		}
+	}
+	
+	private void updateRulesLocked(Room room)
+	{
 		User tenant = room.getCurrentUser();
+		// A single snapshot, so that all values are consistent even if the tenant is modified meanwhile
+		UserSnapshot snapshot = tenant == null ? null : tenant.getSnapshot();
 		FirewallVlanRuleset ruleset;
-		if (tenant == null || tenant.canLogin() != AuthResult.OK)
+		if (snapshot == null || snapshot.canLogin() != AuthResult.OK)
 		{
 			ruleset = new FirewallVlanRuleset(room.getVlan(),  false, null, null, false, new HashSet<>());
 		}
 		else
 		{
-			Set<MacAddress> allowedHosts = tenant.getAssignedDevices().stream().map(device -> device.getMacAddress())
-					.collect(Collectors.toSet());
 			ruleset = new FirewallVlanRuleset(room.getVlan(),
-					tenant.hasPermission(Permission.ACCESS_ADMIN_NET),
-					tenant.getAssignedNatIPv4(),
-					tenant.isAdblock() ? SeilnetMain.getConfig().getAdblockDnsServer() : null,
-					tenant.hasPermission(Permission.DEVICE_REGISTRATION_NOT_NECESSARY),
-					allowedHosts
+					snapshot.hasPermission(Permission.ACCESS_ADMIN_NET),
+					snapshot.getNatIPv4(),
+					snapshot.isAdblock() ? SeilnetMain.getConfig().getAdblockDnsServer() : null,
+					snapshot.hasPermission(Permission.DEVICE_REGISTRATION_NOT_NECESSARY),
+					new HashSet<>(snapshot.getAssignedMacAddresses())
 			);
 		}
 		client.activate(ruleset);
 	}
 	
-	@Synchronized("db")
+	/**
+	 * Recomputes the rulesets of all rooms. Only one room is locked at a time.
+	 */
 	public void updateAllRules()
 	{
 		try
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList;
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHost;
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHostListBuilder;
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostListUpdate;
+
+/**
+ * The hosts reported by the firewall, kept up to date by applying its
+ * {@link NetworkHostListUpdate}s in place. Each VLAN's host set is immutable and replaced when the
+ * VLAN changes, so an update only copies the VLANs it touches, and reads need no lock.
+ *
+ * @author Felix Kirchmann
+ */
+class NetworkHostIndex
+{
+	private final Map<Integer, Set<NetworkHost>>	vlanHosts	= new ConcurrentHashMap<>();
+	/**
+	 * Built on demand, <code>null</code> after a change.
+	 */
+	private volatile NetworkHostList				hostList;
+
+	// Guarded by this
+	/**
+	 * Whether {@link #epoch} and {@link #sequence} describe the last update that was applied. Not
+	 * the case initially or after {@link #replace(NetworkHostList)}.
+	 */
+	private boolean									synced		= false;
+	private long									epoch, sequence;
+
+	/**
+	 * Replaces all hosts with a list that is not part of the update sequence, so that the next
+	 * update must be a full one.
+	 */
+	synchronized void replace(NetworkHostList hosts)
+	{
+		replaceAll(hosts.listHosts());
+		synced = false;
+		hostList = hosts;
+	}
+
+	/**
+	 * @return <code>false</code> if the update does not directly follow the previously applied
+	 *         one and is not a full update. It is not applied then.
+	 */
+	synchronized boolean apply(NetworkHostListUpdate update)
+	{
+		if (update.isFull())
+		{
+			replaceAll(update.getAddedHosts());
+		}
+		else if (synced && update.getEpoch() == epoch && update.getSequence() == sequence + 1)
+		{
+			for (Integer vlan : union(update.getAddedHosts().keySet(), update.getRemovedHosts().keySet()))
+			{
+				Set<NetworkHost> hosts = new HashSet<>(vlanHosts.getOrDefault(vlan, Collections.emptySet()));
+				hosts.removeAll(update.getRemovedHosts().getOrDefault(vlan, Collections.emptySet()));
+				hosts.addAll(update.getAddedHosts().getOrDefault(vlan, Collections.emptySet()));
+				put(vlan, hosts);
+			}
+		}
+		else
+		{
+			return false;
+		}
+		synced = true;
+		epoch = update.getEpoch();
+		sequence = update.getSequence();
+		hostList = null;
+		return true;
+	}
+
+	Set<NetworkHost> listVlanHosts(int vlan)
+	{
+		return vlanHosts.getOrDefault(vlan, Collections.emptySet());
+	}
+
+	NetworkHostList toHostList()
+	{
+		NetworkHostList current = hostList;
+		if (current != null) { return current; }
+		synchronized (this)
+		{
+			if (hostList == null)
+			{
+				NetworkHostListBuilder builder = NetworkHostList.builder();
+				for (Map.Entry<Integer, Set<NetworkHost>> entry : vlanHosts.entrySet())
+				{
+					builder.vlanHosts(entry.getKey(), entry.getValue().toArray(new NetworkHost[0]));
+				}
+				hostList = builder.build();
+			}
+			return hostList;
+		}
+	}
+
+	/**
+	 * Replaces VLAN by VLAN instead of clearing the index first, so that readers never see an
+	 * empty index in between.
+	 */
+	private void replaceAll(Map<Integer, Set<NetworkHost>> hosts)
+	{
+		vlanHosts.keySet().retainAll(hosts.keySet());
+		for (Map.Entry<Integer, Set<NetworkHost>> entry : hosts.entrySet())
+		{
+			put(entry.getKey(), new HashSet<>(entry.getValue()));
+		}
+	}
+
+	private void put(int vlan, Set<NetworkHost> hosts)
+	{
+		if (hosts.isEmpty())
+		{
+			vlanHosts.remove(vlan);
+		}
+		else
+		{
+			vlanHosts.put(vlan, Collections.unmodifiableSet(hosts));
+		}
+	}
+
+	private static Set<Integer> union(Set<Integer> a, Set<Integer> b)
+	{
+		Set<Integer> union = new HashSet<>(a);
+		union.addAll(b);
+		return union;
+	}
+}
@@ -9,9 +9,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Inet4Address;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import de.rwth.seilgraben.seilnet.main.MailSender.SmtpSecurity;
+import de.rwth.seilgraben.seilnet.main.db.AuthEventWriter.BackpressurePolicy;
+import de.rwth.seilgraben.seilnet.main.db.DatabaseDialect;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent.AuthResult;
 import de.rwth.seilgraben.seilnet.util.Config;
 import lombok.Getter;
 
@@ -31,17 +36,26 @@ public class SeilnetConfig extends Config
 	}
 
 	private Inet4Address	adblockDnsServer;
-	private int				logLevel, oldIpRetentionDays, webListenPort, smtpPort, firewallPort;
+	private int				logLevel, oldIpRetentionDays, webListenPort, smtpPort, firewallPort,
+			authEventQueueSize, authEventBatchSize, authEventFlushIntervalMs, authEventSampleRate,
+			mysqlPoolMaxSize, mysqlPoolMinIdle, mysqlConnectionTimeoutMs, mysqlIdleTimeoutMs, mysqlMaxLifetimeMs,
+			mysqlLeakDetectionThresholdMs, mysqlPrepStmtCacheSize, mysqlPrepStmtCacheSqlLimit,
+			mysqlReplicaMaxLagMs, mysqlReplicaPoolMaxSize;
 	private String			webListenAddr, webExtUrl,
 			webRadiusUser, webRadiusPassword, webRadiusUidiotSSID,
 			smtpHost, smtpSender, smtpUser,	smtpPassword,
 			firewallApiKey, firewallAddr,
 			mysqlHost, mysqlDatabase,mysqlUser, mysqlPass,
+			mysqlReplicaHost, mysqlReplicaDatabase, mysqlReplicaUser, mysqlReplicaPass,
 			webDebugAutoLogin, webXRealIPTrusted;
 	private Pattern			webRadiusRoomSSIDRegex;
-	private File			webDataDirectory;
-	private boolean			webDebugShowStacktrace;
+	private File			webDataDirectory, authEventArchiveDirectory;
+	private boolean			webDebugShowStacktrace, mysqlCachePrepStmts, mysqlUseServerPrepStmts,
+			mysqlRewriteBatchedStatements;
 	private SmtpSecurity	smtpEncryption;
+	private BackpressurePolicy	authEventBackpressure;
+	private DatabaseDialect		databaseDialect;
+	private Map<AuthResult, Integer>	authEventRetentionDays;
 							
 	@Override
 	protected void loadOptions() throws InvalidConfigurationException
@@ -50,6 +64,29 @@ public class SeilnetConfig extends Config
 		oldIpRetentionDays = optionIntNonNegative("old_ip_retention_days");
 		adblockDnsServer = hasOption("adblock_dns_server") ? optionInet4Address("adblock_dns_server") : null;
 
+		// Optional, so that existing configuration files keep working
+		authEventQueueSize = optionPositive("auth_event_queue_size", 10000);
+		authEventBatchSize = optionPositive("auth_event_batch_size", 200);
+		authEventFlushIntervalMs = optionPositive("auth_event_flush_interval_ms", 1000);
+		authEventBackpressure = hasOption("auth_event_backpressure")
+				? optionEnum("auth_event_backpressure", BackpressurePolicy.class) : BackpressurePolicy.BLOCK;
+		authEventSampleRate = optionPositive("auth_event_sample_rate", 10);
+		authEventRetentionDays = new EnumMap<>(AuthResult.class);
+		for (AuthResult result : AuthResult.values())
+		{
+			String name = "auth_event_retention_days_" + result.name().toLowerCase(CONFIG_LOCALE);
+			if (!hasOption(name))
+			{
+				name = "auth_event_retention_days";
+			}
+			if (hasOption(name))
+			{
+				authEventRetentionDays.put(result, optionPositive(name, 0));
+			}
+		}
+		authEventArchiveDirectory = hasOption("auth_event_archive_directory")
+				? new File(option("auth_event_archive_directory")) : null;
+
 		webListenAddr = option("web_listen_addr");
 		webListenPort = optionPort("web_listen_port");
 		webExtUrl = option("web_ext_url");
@@ -78,13 +115,47 @@ public class SeilnetConfig extends Config
 		smtpUser = option("smtp_user");
 		smtpPassword = option("smtp_pass");
 		
+		databaseDialect = hasOption("database_dialect") ? optionEnum("database_dialect", DatabaseDialect.class)
+				: DatabaseDialect.MYSQL;
 		mysqlHost = option("mysql_host");
 		mysqlDatabase = option("mysql_database");
 		mysqlUser = option("mysql_user");
 		mysqlPass = hasOption("mysql_pass") ? option("mysql_pass") : null;
+		mysqlPoolMaxSize = optionPositive("mysql_pool_max_size", 10);
+		mysqlPoolMinIdle = optionNonNegative("mysql_pool_min_idle", mysqlPoolMaxSize);
+		mysqlConnectionTimeoutMs = optionPositive("mysql_connection_timeout_ms", 30000);
+		mysqlIdleTimeoutMs = optionNonNegative("mysql_idle_timeout_ms", 600000);
+		mysqlMaxLifetimeMs = optionNonNegative("mysql_max_lifetime_ms", 1800000);
+		mysqlLeakDetectionThresholdMs = optionNonNegative("mysql_leak_detection_threshold_ms", 0);
+		mysqlCachePrepStmts = hasOption("mysql_cache_prep_stmts") ? optionBool("mysql_cache_prep_stmts") : true;
+		mysqlPrepStmtCacheSize = optionNonNegative("mysql_prep_stmt_cache_size", 250);
+		mysqlPrepStmtCacheSqlLimit = optionNonNegative("mysql_prep_stmt_cache_sql_limit", 2048);
+		mysqlUseServerPrepStmts = hasOption("mysql_use_server_prep_stmts") ? optionBool("mysql_use_server_prep_stmts")
+				: true;
+		mysqlRewriteBatchedStatements = hasOption("mysql_rewrite_batched_statements")
+				? optionBool("mysql_rewrite_batched_statements") : true;
+		mysqlReplicaHost = hasOption("mysql_replica_host") ? option("mysql_replica_host") : null;
+		mysqlReplicaDatabase = hasOption("mysql_replica_database") ? option("mysql_replica_database") : mysqlDatabase;
+		mysqlReplicaUser = hasOption("mysql_replica_user") ? option("mysql_replica_user") : mysqlUser;
+		mysqlReplicaPass = hasOption("mysql_replica_pass") ? option("mysql_replica_pass") : mysqlPass;
+		mysqlReplicaMaxLagMs = optionNonNegative("mysql_replica_max_lag_ms", 5000);
+		mysqlReplicaPoolMaxSize = optionPositive("mysql_replica_pool_max_size", 5);
 
 		firewallAddr = option("firewall_addr");
 		firewallPort = optionPort("firewall_port");
 		firewallApiKey = option("firewall_api_key");
 	}
+	
+	private int optionNonNegative(String name, int defaultValue) throws InvalidConfigurationException
+	{
+		return hasOption(name) ? optionIntNonNegative(name) : defaultValue;
+	}
+	
+	private int optionPositive(String name, int defaultValue) throws InvalidConfigurationException
+	{
+		if (!hasOption(name)) { return defaultValue; }
+		int value = optionInt(name);
+		if (value < 1) { throw new InvalidConfigurationException(name, "must be positive"); }
+		return value;
+	}
 }
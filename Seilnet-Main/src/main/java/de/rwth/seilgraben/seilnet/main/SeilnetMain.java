@@ -8,8 +8,7 @@ package de.rwth.seilgraben.seilnet.main;
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.EnumSet;
 
 import com.esotericsoftware.minlog.Log;
 
@@ -24,7 +23,9 @@ import de.rwth.seilgraben.seilnet.main.db.User;
 import de.rwth.seilgraben.seilnet.main.web.WebServer;
 import de.rwth.seilgraben.seilnet.util.Config.InvalidConfigurationException;
 import de.rwth.seilgraben.seilnet.util.Func;
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
 
 /**
  *
@@ -32,13 +33,17 @@ import lombok.Getter;
  */
 public class SeilnetMain
 {
+	// The setters are used by the tests, which do not run main()
 	@Getter
+	@Setter(AccessLevel.PACKAGE)
 	private static SeilnetConfig	config;
 	
 	@Getter
+	@Setter(AccessLevel.PACKAGE)
 	private static FirewallClient	firewallClient;
 	
 	@Getter
+	@Setter(AccessLevel.PACKAGE)
 	private static FirewallManager	firewallManager;
 	
 	@Getter
@@ -89,6 +94,7 @@ public class SeilnetMain
 		DatabaseExt db = new DatabaseExt(config.getMysqlHost(), config.getMysqlDatabase(), config.getMysqlUser(),
 				config.getMysqlPass());
 		db.test();
+		Runtime.getRuntime().addShutdownHook(new Thread(db::close, "DatabaseShutdown"));
 		
 		Log.info("Connecting to firewall...");
 		firewallClient = new FirewallClient(config.getFirewallAddr(), config.getFirewallPort(),
@@ -125,7 +131,7 @@ public class SeilnetMain
 				{
 				}
 				Group admins = db.getGroupByName("Administrators");
-				admins.setPermissions(new HashSet<Permission>(Arrays.asList(Permission.values())));
+				admins.setPermissions(EnumSet.allOf(Permission.class));
 				user.addToGroup(admins);
 			}
 		}
@@ -85,6 +85,13 @@ public class Constants
 
 	public static final LocalTime			DAILY_DYNAMIC_IP_CHANGE_TIME	= LocalTime.of(5, 0, 0);
 
+	/**
+	 * Number of lock stripes per kind of database object (rooms, users, groups).
+	 *
+	 * @see de.rwth.seilgraben.seilnet.main.db.LockManager
+	 */
+	public static final int					DB_LOCK_STRIPES					= 64;
+
 	public static final String				PATH_PREFIX						= "/seilnet";
 	public static final String				ADMIN_PATH_PREFIX				= "/admin";
 	public static final String				MAIL_PATH_PREFIX				= "/mail";
@@ -122,6 +129,8 @@ public class Constants
 	public static final Duration			DEVICE_SELF_REGISTRATION_LIMIT_TIMEFRAME
 																			= Duration.ofMinutes(20);
 
+	public static final int					USER_SEARCH_MAX_RESULTS			= 20;
+
 	public static final Map<String, String>	WEB_CONSTANTS;
 	public static final Map<String, String>	MIME_MAPPING;
 	
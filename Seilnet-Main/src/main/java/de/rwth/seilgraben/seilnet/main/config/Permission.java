@@ -88,11 +88,16 @@ public enum Permission implements I18nEnum
 	public static List<Permission> valuesInDisplayOrder() { return displayOrder; }
 
 	public final int id;
+	/**
+	 * The bit of this permission in a bitmask, see {@link #encodeBitmask(Collection)}.
+	 */
+	public final long bit;
 	
 	private Permission(int id)
 	{
-		if (id > 63) { throw new IllegalArgumentException(); }
+		if (id < 0 || id > 63) { throw new IllegalArgumentException(); }
 		this.id = id;
+		this.bit = 1L << id;
 	}
 	
 	public static Permission forId(int id)
@@ -104,12 +109,12 @@ public enum Permission implements I18nEnum
 		return null;
 	}
 	
-	public static Set<Permission> decodeBitmask(long permissionsBitmask)
+	public static EnumSet<Permission> decodeBitmask(long permissionsBitmask)
 	{
-		Set<Permission> permissions = new HashSet<>(Permission.values().length);
+		EnumSet<Permission> permissions = EnumSet.noneOf(Permission.class);
 		for (Permission p : Permission.values())
 		{
-			if ((permissionsBitmask & (1 << p.id)) != 0)
+			if ((permissionsBitmask & p.bit) != 0)
 			{
 				permissions.add(p);
 			}
@@ -117,13 +122,24 @@ public enum Permission implements I18nEnum
 		return permissions;
 	}
 	
-	public static long encodeBitmask(Set<Permission> permissions)
+	public static long encodeBitmask(Collection<Permission> permissions)
 	{
 		long result = 0;
 		for (Permission p : permissions)
 		{
-			result |= 1 << p.id;
+			result |= p.bit;
 		}
 		return result;
 	}
+	
+	/**
+	 * Like {@link EnumSet#copyOf(Collection)}, but also accepts empty collections that are not an
+	 * {@link EnumSet}.
+	 */
+	public static EnumSet<Permission> copyOf(Collection<Permission> permissions)
+	{
+		EnumSet<Permission> copy = EnumSet.noneOf(Permission.class);
+		copy.addAll(permissions);
+		return copy;
+	}
 }
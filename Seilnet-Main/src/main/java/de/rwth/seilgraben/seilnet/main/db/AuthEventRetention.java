@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import javax.sql.DataSource;
+
+import com.esotericsoftware.minlog.Log;
+
+import de.rwth.seilgraben.seilnet.main.LogCategory;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent.AuthResult;
+
+/**
+ * Deletes authentication events once their retention period has passed. The retention period can
+ * be configured per {@link AuthResult}, e.g. to keep failed logins for a shorter time than
+ * successful ones.
+ * <p>
+ * Events are deleted in chunks, so that no single statement locks the table for long. The chunks
+ * are read in the order of the <code>(Auth_Result, Time)</code> index, continuing after the last
+ * event of the previous chunk, so that each chunk is a range scan of that index. If an archive
+ * directory is configured, events are appended to one gzip-compressed CSV file per month
+ * before they are deleted.
+ *
+ * @author Felix Kirchmann
+ */
+class AuthEventRetention
+{
+	private static final int				CHUNK_SIZE	= 5000;
+
+	private final DataSource				dataSource;
+	private final Map<AuthResult, Integer>	retentionDays;
+	private final File						archiveDirectory;
+
+	/**
+	 * @param retentionDays
+	 *            For how many days events are kept, per result. Events with a result that is not
+	 *            contained in the map are kept forever.
+	 * @param archiveDirectory
+	 *            Where to archive events before deleting them, or <code>null</code> to not archive
+	 *            them.
+	 */
+	AuthEventRetention(DataSource dataSource, Map<AuthResult, Integer> retentionDays, File archiveDirectory)
+	{
+		this.dataSource = dataSource;
+		this.retentionDays = retentionDays;
+		this.archiveDirectory = archiveDirectory;
+	}
+
+	/**
+	 * Deletes (and archives) all events whose retention period has passed.
+	 */
+	void run() throws SQLException, IOException
+	{
+		for (Map.Entry<AuthResult, Integer> retention : retentionDays.entrySet())
+		{
+			Instant threshold = Instant.now().minus(retention.getValue(), ChronoUnit.DAYS);
+			long start = System.currentTimeMillis();
+			ChunkPosition position = new ChunkPosition();
+			int deleted = 0;
+			do
+			{
+				deleted += deleteChunk(retention.getKey(), threshold, position);
+			}
+			while (position.selected == CHUNK_SIZE);
+			if (deleted > 0)
+			{
+				Log.debug(LogCategory.DB, "Deleted " + deleted + " " + retention.getKey()
+						+ " authentication events older than " + retention.getValue() + " days in "
+						+ (System.currentTimeMillis() - start) + " ms");
+			}
+		}
+	}
+
+	/**
+	 * The last event of the previous chunk, in <code>(Time, ID)</code> order.
+	 */
+	private static class ChunkPosition
+	{
+		private Timestamp	time;
+		private long		id;
+		private int			selected;
+	}
+
+	/**
+	 * Deletes the next chunk of events after the given position, and advances the position.
+	 *
+	 * @return The number of deleted events.
+	 */
+	private int deleteChunk(AuthResult result, Instant threshold, ChunkPosition position)
+			throws SQLException, IOException
+	{
+		try (Connection connection = dataSource.getConnection())
+		{
+			List<Long> ids = new ArrayList<>(CHUNK_SIZE);
+			Map<YearMonth, StringBuilder> archive = new LinkedHashMap<>();
+			try (PreparedStatement select = connection.prepareStatement(
+					"SELECT ID, Time, User_ID, Auth_Type, Auth_Result, Client_Info FROM Authentication_Events"
+							+ " WHERE Auth_Result = ? AND Time < ?"
+							+ (position.time == null ? "" : " AND (Time > ? OR (Time = ? AND ID > ?))")
+							+ " ORDER BY Time, ID LIMIT " + CHUNK_SIZE))
+			{
+				select.setString(1, result.name());
+				select.setTimestamp(2, Timestamp.from(threshold));
+				if (position.time != null)
+				{
+					select.setTimestamp(3, position.time);
+					select.setTimestamp(4, position.time);
+					select.setLong(5, position.id);
+				}
+				try (ResultSet rows = select.executeQuery())
+				{
+					while (rows.next())
+					{
+						ids.add(rows.getLong(1));
+						position.time = rows.getTimestamp(2);
+						position.id = rows.getLong(1);
+						if (archiveDirectory != null)
+						{
+							Instant time = position.time.toInstant();
+							archive.computeIfAbsent(YearMonth.from(time.atZone(ZoneId.systemDefault())),
+									month -> new StringBuilder()).append(rows.getLong(1)).append(',')
+									.append(time).append(',').append(rows.getObject(3) == null ? "" : rows.getInt(3))
+									.append(',').append(rows.getString(4)).append(',').append(rows.getString(5))
+									.append(',').append(csvQuote(rows.getString(6))).append('\n');
+						}
+					}
+				}
+			}
+			position.selected = ids.size();
+			if (ids.isEmpty()) { return 0; }
+
+			// Archive before deleting, so that a failure can not lose events
+			for (Map.Entry<YearMonth, StringBuilder> month : archive.entrySet())
+			{
+				appendToArchive(month.getKey(), month.getValue().toString());
+			}
+			try (PreparedStatement delete = connection.prepareStatement("DELETE FROM Authentication_Events WHERE ID IN ("
+					+ ids.stream().map(String::valueOf).collect(Collectors.joining(",")) + ")"))
+			{
+				return delete.executeUpdate();
+			}
+		}
+	}
+
+	/**
+	 * Appends the given CSV lines to the month's archive. Each call appends a separate gzip member;
+	 * concatenated members form a valid gzip file.
+	 */
+	private void appendToArchive(YearMonth month, String lines) throws IOException
+	{
+		if (!(archiveDirectory.isDirectory() || archiveDirectory.mkdirs())) { throw new IOException(
+				"Could not create the archive directory " + archiveDirectory.getAbsolutePath()); }
+		File file = new File(archiveDirectory, "authentication-events-" + month + ".csv.gz");
+		try (Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file, true)),
+				StandardCharsets.UTF_8))
+		{
+			out.write(lines);
+		}
+	}
+
+	private static String csvQuote(String value)
+	{
+		if (value == null) { return ""; }
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import javax.sql.DataSource;
+
+import com.esotericsoftware.minlog.Log;
+
+import de.rwth.seilgraben.seilnet.main.LogCategory;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Writes {@link DBAuthenticationEvent}s to the database asynchronously. Events are collected in a
+ * bounded queue and written by a background thread using multi-row <code>INSERT</code>s, either
+ * once a batch is full or once the flush interval has passed. What happens when the queue is full
+ * is determined by the {@link BackpressurePolicy}.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Felix Kirchmann
+ */
+public class AuthEventWriter
+{
+	public enum BackpressurePolicy
+	{
+		/**
+		 * The logging thread waits until there is room in the queue. No events are lost.
+		 */
+		BLOCK,
+		/**
+		 * The oldest queued event is dropped to make room for the new one.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Only every n-th event that arrives while the queue is full is kept (replacing the oldest
+		 * queued event), all others are dropped.
+		 */
+		SAMPLE
+	}
+
+	private static final String							INSERT_PREFIX	= "INSERT INTO Authentication_Events "
+			+ "(User_ID, Time, Client_Info, Auth_Type, Auth_Result) VALUES ";
+	private static final String							INSERT_ROW		= "(?, ?, ?, ?, ?)";
+
+	private final DataSource							dataSource;
+	private final BlockingQueue<DBAuthenticationEvent>	queue;
+	private final int									batchSize;
+	private final long									flushIntervalMillis;
+	private final BackpressurePolicy					policy;
+	private final int									sampleRate;
+
+	/**
+	 * Held while a batch is being written, so that {@link #snapshotPending(Predicate)} never misses
+	 * an event that has been taken from the queue but not been written yet.
+	 */
+	private final Object								flushLock		= new Object();
+	/**
+	 * The highest ID of the events that have been written, or that existed when this writer was
+	 * created. Only modified while holding {@link #flushLock}.
+	 */
+	private volatile long								lastWrittenId;
+	private final Object								signal			= new Object();
+	private final Thread								thread;
+	private volatile boolean							running			= true;
+
+	private final AtomicLong							enqueued		= new AtomicLong();
+	private final AtomicLong							flushed			= new AtomicLong();
+	private final AtomicLong							dropped			= new AtomicLong();
+	private final AtomicLong							failed			= new AtomicLong();
+	private final AtomicLong							overflows		= new AtomicLong();
+
+	AuthEventWriter(DataSource dataSource, int queueSize, int batchSize, long flushIntervalMillis,
+			BackpressurePolicy policy, int sampleRate) throws SQLException
+	{
+		this.dataSource = dataSource;
+		try (Connection connection = dataSource.getConnection();
+				Statement statement = connection.createStatement();
+				ResultSet result = statement.executeQuery("SELECT MAX(ID) FROM Authentication_Events"))
+		{
+			lastWrittenId = result.next() ? result.getLong(1) : 0;
+		}
+		this.queue = new ArrayBlockingQueue<>(queueSize);
+		this.batchSize = batchSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.policy = policy;
+		this.sampleRate = Math.max(1, sampleRate);
+
+		thread = new Thread(this::run, "AuthEventWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues an event for writing. After {@link #close()}, the event is written immediately.
+	 */
+	void write(DBAuthenticationEvent event)
+	{
+		if (!running)
+		{
+			List<DBAuthenticationEvent> batch = new ArrayList<>(1);
+			batch.add(event);
+			synchronized (flushLock)
+			{
+				insert(batch);
+			}
+			return;
+		}
+		if (!enqueue(event)) { return; }
+		enqueued.incrementAndGet();
+		if (queue.size() >= batchSize)
+		{
+			synchronized (signal)
+			{
+				signal.notifyAll();
+			}
+		}
+	}
+
+	private boolean enqueue(DBAuthenticationEvent event)
+	{
+		if (queue.offer(event)) { return true; }
+		switch (policy)
+		{
+			case BLOCK:
+				try
+				{
+					queue.put(event);
+					return true;
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					dropped.incrementAndGet();
+					return false;
+				}
+			case SAMPLE:
+				if (overflows.getAndIncrement() % sampleRate != 0)
+				{
+					dropped.incrementAndGet();
+					return false;
+				}
+				replaceOldest(event);
+				return true;
+			case DROP_OLDEST:
+			default:
+				replaceOldest(event);
+				return true;
+		}
+	}
+
+	private void replaceOldest(DBAuthenticationEvent event)
+	{
+		while (!queue.offer(event))
+		{
+			if (queue.poll() != null)
+			{
+				dropped.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * The events that had not been written at some point in time, see
+	 * {@link AuthEventWriter#snapshotPending(Predicate)}.
+	 */
+	@Getter
+	@RequiredArgsConstructor
+	static class PendingEvents
+	{
+		/**
+		 * In the order in which they were queued.
+		 */
+		private final List<DBAuthenticationEvent>	events;
+		/**
+		 * All events up to this ID had been written. Events that are written later get higher IDs.
+		 */
+		private final long							lastWrittenId;
+	}
+
+	/**
+	 * Lists the queued events that match the given filter. Together with the events in the database
+	 * whose ID is at most {@link PendingEvents#getLastWrittenId()}, these are exactly the events
+	 * logged so far (except for failed writes). The database is not accessed, so the flush lock is
+	 * only held briefly.
+	 */
+	PendingEvents snapshotPending(Predicate<DBAuthenticationEvent> filter)
+	{
+		synchronized (flushLock)
+		{
+			List<DBAuthenticationEvent> pending = new ArrayList<>();
+			for (DBAuthenticationEvent event : queue)
+			{
+				if (filter.test(event))
+				{
+					pending.add(event);
+				}
+			}
+			return new PendingEvents(pending, lastWrittenId);
+		}
+	}
+
+	/**
+	 * Stops accepting new events into the queue, writes all queued events and waits for the
+	 * background thread to finish.
+	 */
+	public void close()
+	{
+		running = false;
+		synchronized (signal)
+		{
+			signal.notifyAll();
+		}
+		try
+		{
+			thread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		// Events that were still blocked in enqueue() when the background thread finished
+		while (flushBatch() > 0)
+		{}
+	}
+
+	private void run()
+	{
+		while (true)
+		{
+			try
+			{
+				synchronized (signal)
+				{
+					if (running && queue.size() < batchSize)
+					{
+						signal.wait(flushIntervalMillis);
+					}
+				}
+			}
+			catch (InterruptedException e)
+			{
+				running = false;
+			}
+			boolean stopping = !running;
+			// Keep going while full batches are available, e.g. after a burst of events
+			while (flushBatch() == batchSize)
+			{}
+			if (stopping && queue.isEmpty())
+			{
+				break;
+			}
+		}
+		Log.debug(LogCategory.DB, "Authentication event writer stopped. " + getStatus());
+	}
+
+	private int flushBatch()
+	{
+		synchronized (flushLock)
+		{
+			List<DBAuthenticationEvent> batch = new ArrayList<>(batchSize);
+			queue.drainTo(batch, batchSize);
+			if (!batch.isEmpty())
+			{
+				insert(batch);
+			}
+			return batch.size();
+		}
+	}
+
+	/**
+	 * Must be called while holding {@link #flushLock}.
+	 */
+	private void insert(List<DBAuthenticationEvent> batch)
+	{
+		StringBuilder sql = new StringBuilder(INSERT_PREFIX);
+		for (int i = 0; i < batch.size(); i++)
+		{
+			sql.append(i == 0 ? "" : ", ").append(INSERT_ROW);
+		}
+		try (Connection connection = dataSource.getConnection();
+				PreparedStatement statement = connection.prepareStatement(sql.toString(), new String[] { "ID" }))
+		{
+			int param = 1;
+			for (DBAuthenticationEvent event : batch)
+			{
+				if (event.getUser() == null)
+				{
+					statement.setNull(param++, Types.INTEGER);
+				}
+				else
+				{
+					statement.setInt(param++, event.getUser().getId());
+				}
+				statement.setTimestamp(param++, Timestamp.from(event.getTime()));
+				statement.setString(param++, event.getClientInfo());
+				statement.setString(param++, event.getAuthType().name());
+				statement.setString(param++, event.getAuthResult().name());
+			}
+			statement.executeUpdate();
+			flushed.addAndGet(batch.size());
+			long maxId = lastWrittenId;
+			try (ResultSet keys = statement.getGeneratedKeys())
+			{
+				while (keys.next())
+				{
+					maxId = Math.max(maxId, keys.getLong(1));
+				}
+			}
+			lastWrittenId = maxId;
+		}
+		catch (SQLException e)
+		{
+			failed.addAndGet(batch.size());
+			Log.warn(LogCategory.DB, "Could not write " + batch.size() + " authentication events", e);
+		}
+	}
+
+	public int getQueued()
+	{
+		return queue.size();
+	}
+
+	public long getEnqueued()
+	{
+		return enqueued.get();
+	}
+
+	public long getFlushed()
+	{
+		return flushed.get();
+	}
+
+	public long getDropped()
+	{
+		return dropped.get();
+	}
+
+	public long getFailed()
+	{
+		return failed.get();
+	}
+
+	public String getStatus()
+	{
+		return "Queued: " + getQueued() + ", enqueued: " + getEnqueued() + ", flushed: " + getFlushed()
+				+ ", dropped: " + getDropped() + ", failed: " + getFailed();
+	}
+}
@@ -5,24 +5,26 @@
 
 package de.rwth.seilgraben.seilnet.main.db;
 
+import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.SecureRandom;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalUnit;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import com.esotericsoftware.minlog.Log;
 import com.j256.ormlite.jdbc.DataSourceConnectionSource;
@@ -30,6 +32,7 @@ import com.j256.ormlite.support.ConnectionSource;
 import com.zaxxer.hikari.HikariDataSource;
 import de.rwth.seilgraben.seilnet.main.DailyTaskExecutor;
 import de.rwth.seilgraben.seilnet.main.LogCategory;
+import de.rwth.seilgraben.seilnet.main.SeilnetConfig;
 import de.rwth.seilgraben.seilnet.main.SeilnetMain;
 import de.rwth.seilgraben.seilnet.main.config.Constants;
 import de.rwth.seilgraben.seilnet.main.config.Permission;
@@ -38,17 +41,22 @@ import liquibase.Contexts;
 import liquibase.Liquibase;
 import liquibase.database.jvm.JdbcConnection;
 import liquibase.exception.LiquibaseException;
-import liquibase.resource.ClassLoaderResourceAccessor;
 import org.cache2k.Cache;
 import org.cache2k.CacheBuilder;
 import org.cache2k.CacheSource;
 
+import com.j256.ormlite.dao.BaseDaoImpl;
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.misc.TransactionManager;
 import com.j256.ormlite.dao.DaoManager;
 import com.j256.ormlite.dao.GenericRawResults;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
 import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
 import com.j256.ormlite.stmt.PreparedQuery;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.UpdateBuilder;
 
 import de.rwth.seilgraben.seilnet.main.SimpleTaskSchedulerService;
 import de.rwth.seilgraben.seilnet.main.SimpleTaskSchedulerService.TaskIDRunnable;
@@ -87,23 +95,42 @@ public class Database
 		 * NOTE: Both the connection source, the JDBC Driver and the Database must support threading
 		 * / concurrent operations
 		 */
-		jdbcUrl = "jdbc:mysql://" + host + "/"
-				+ databaseName + "?" + "user=" + username + ((password != null) ? ("&password=" + password) : "");
+		SeilnetConfig config = SeilnetMain.getConfig();
+		dialect = config.getDatabaseDialect();
+		// The credentials are passed to the pool separately, so that they do not appear in the URL (and thus in logs)
+		jdbcUrl = dialect.jdbcUrl(host, databaseName);
 
 		HikariDataSource ds = new HikariDataSource();
 		ds.setJdbcUrl(jdbcUrl);
+		ds.setUsername(username);
+		if (password != null)
+		{
+			ds.setPassword(password);
+		}
+		ds.setPoolName("Seilnet");
+		ds.setMaximumPoolSize(config.getMysqlPoolMaxSize());
+		ds.setMinimumIdle(config.getMysqlPoolMinIdle());
+		ds.setConnectionTimeout(config.getMysqlConnectionTimeoutMs());
+		ds.setIdleTimeout(config.getMysqlIdleTimeoutMs());
+		ds.setMaxLifetime(config.getMysqlMaxLifetimeMs());
+		ds.setLeakDetectionThreshold(config.getMysqlLeakDetectionThresholdMs());
+		dialect.configure(ds, config);
+		ds.setMetricsTrackerFactory(poolMetrics);
+		poolMetrics.setDataSource(ds);
 		this.dataSource = ds;
 
 		try(Connection connection = ds.getConnection()) {
-			Liquibase liquibase = new Liquibase(Constants.DB_CHANGELOG_CLASSPATH, new ClassLoaderResourceAccessor(),
+			Liquibase liquibase = new Liquibase(Constants.DB_CHANGELOG_CLASSPATH, dialect.changelogResourceAccessor(),
 					new JdbcConnection(connection));
 			//liquibase.changeLogSync(null, new PrintWriter(System.out));
 			liquibase.update((Contexts) null);
 		} catch (LiquibaseException e) {
 			throw new SQLException(e);
 		}
+		// Only now, since the heartbeat needs the Replication_Heartbeat table
+		readReplica = config.getMysqlReplicaHost() == null ? null : createReadReplica(config, dialect, ds);
 
-		ConnectionSource connectionSource = new DataSourceConnectionSource(ds, jdbcUrl);
+		ConnectionSource connectionSource = new DataSourceConnectionSource(dialect.ormDataSource(ds), jdbcUrl);
 
 		userDao = DaoManager.createDao(connectionSource, DBUser.class);
 		groupDao = DaoManager.createDao(connectionSource, DBGroup.class);
@@ -114,14 +141,17 @@ public class Database
 		roomDao = DaoManager.createDao(connectionSource, DBRoom.class);
 		userRoomDao = DaoManager.createDao(connectionSource, DBUserRoomAssignment.class);
 		authEventDao = DaoManager.createDao(connectionSource, DBAuthenticationEvent.class);
+		authEventWriter = new AuthEventWriter(ds, config.getAuthEventQueueSize(), config.getAuthEventBatchSize(),
+				config.getAuthEventFlushIntervalMs(), config.getAuthEventBackpressure(),
+				config.getAuthEventSampleRate());
+		authEventRetention = new AuthEventRetention(ds, config.getAuthEventRetentionDays(),
+				config.getAuthEventArchiveDirectory());
 		
+		// A User that is being loaded is not visible to other threads yet, so no lock is required here
 		CacheSource<Integer, User> userCacheSource = (id) -> {
-			synchronized (this)
-			{
-				DBUser dbu = userDao.queryForId(id);
-				if (dbu == null) { return null; }
-				return new User(this, dbu);
-			}
+			DBUser dbu = userDao.queryForId(id);
+			if (dbu == null) { return null; }
+			return new User(this, dbu);
 		};
 		userCache = CacheBuilder.newCache(Integer.class, User.class).source(userCacheSource).build();
 
@@ -147,21 +177,26 @@ public class Database
 			}
 		});
 
-				rooms = new HashMap<>();
-		roomsByNumber = new HashMap<>();
-		roomUsers = new HashMap<>();
+		List<Room> loadedRooms = new ArrayList<>();
 		for (DBRoom dbRoom : roomDao.queryForAll())
 		{
-			Room room = new Room(this, dbRoom);
-			rooms.put(room.getId(), room);
-			roomsByNumber.put(room.getRoomNumber(), room);
+			loadedRooms.add(new Room(this, dbRoom));
 		}
+		roomCatalog = new RoomCatalog(loadedRooms);
+		loadRoomOccupancies(null).forEach(roomOccupancy::set);
+		warmUpUserCache();
+		loadMacAddressIndex();
+		loadUserSearchIndex();
+		ipv4Pool = new IPv4Pool(random);
+		reloadIPv4Pool();
 
 		dynamicIPv4AssignmentExecutor
                 //= new DailyTaskExecutor(LocalTime.now().plusSeconds(20),() -> {
                 = new DailyTaskExecutor(Constants.DAILY_DYNAMIC_IP_CHANGE_TIME, () -> {
+                    this.reloadIPv4Pool();
                     this.reassignDynamicNatIpv4s();
                     this.cleanup();
+                    this.cleanupAuthEvents();
                 });
 		
 		synchronized (this)
@@ -177,13 +212,33 @@ public class Database
 	}
 	protected final String						jdbcUrl;
 	protected final DataSource					dataSource;
+	@Getter
+	private final DatabaseDialect				dialect;
+	@Getter
+	private final PoolMetrics					poolMetrics	= new PoolMetrics();
+	/**
+	 * <code>null</code> if no read replica is configured.
+	 */
+	@Getter
+	private final ReadReplica					readReplica;
+	@Getter
+	private final LockManager					locks	= new LockManager();
 	
 	final Cache<Integer, User>					userCache;
 	final Map<Integer, Group>					groups;
 	final Map<String, Group>					groupsByName;
-	final Map<Integer, Room>					rooms;
-	final Map<String, Room>						roomsByNumber;
-	final Map<Room, User>						roomUsers;
+	/**
+	 * Replaced (while holding the database's lock) whenever a room is created or renumbered.
+	 */
+	volatile RoomCatalog						roomCatalog	= RoomCatalog.EMPTY;
+	final RoomOccupancyIndex					roomOccupancy	= new RoomOccupancyIndex();
+	final IPv4Pool								ipv4Pool;
+	final MacAddressIndex						macAddressIndex	= new MacAddressIndex();
+	final UserSearchIndex						searchIndex		= new UserSearchIndex();
+	@Getter
+	private final AuthEventWriter				authEventWriter;
+	private final AuthEventRetention			authEventRetention;
+	private final UserGraphLoader				userGraphLoader	= new UserGraphLoader(this);
 	
 	final Dao<DBUser, Integer>					userDao;
 	final Dao<DBGroup, Integer>					groupDao;
@@ -199,7 +254,7 @@ public class Database
 	final DailyTaskExecutor						dynamicIPv4AssignmentExecutor;
 
 	/**
-	 * Must only be used within synchronzed {}
+	 * Shared by the IPv4 pool and the dynamic IPv4 reassignment. SecureRandom is thread-safe.
 	 */
 	final Random random							= new SecureRandom();
 
@@ -246,43 +301,190 @@ public class Database
 	{
 		return userCache.get(id);
 	}
-
-	@SneakyThrows
-	synchronized public User getUserByMacAddress(@NonNull MacAddress macAddress)
-	{
-		String sql = "SELECT User_ID FROM User_Devices WHERE MAC_Address = '" + macAddress.toString() + "'" +
-				" AND Assigned_To is NULL" +
-				" ORDER BY Assigned_From DESC" +
-				" LIMIT 1";
-		GenericRawResults<String[]> results = userDeviceDao.queryRaw(sql);
-		Log.trace("Query: {}", sql);
-		Log.trace("Columns: {}", Arrays.toString(results.getColumnNames()));
-		try {
-			String[] firstResult = results.getFirstResult();
-			if (firstResult == null || firstResult.length == 0) {
-				return null;
+	
+	/**
+	 * Equivalent to calling {@link #getUserByID(int)} for each ID, but loads all users that are not
+	 * cached yet in a few set-based queries. Users that do not exist are skipped.
+	 */
+	public List<User> getUsersByID(Collection<Integer> ids)
+	{
+		preloadUsers(ids);
+		List<User> users = new ArrayList<>(ids.size());
+		for (int id : ids)
+		{
+			User user = userCache.get(id);
+			if (user != null)
+			{
+				users.add(user);
 			}
-			return getUserByID(Integer.parseInt(firstResult[0]));
-		} finally {
-			results.close();
 		}
+		return users;
+	}
+	
+	/**
+	 * Loads all given users that are not cached yet into the user cache, using a fixed number of
+	 * queries per batch of users instead of several queries per user.
+	 */
+	@SneakyThrows(SQLException.class)
+	public void preloadUsers(Collection<Integer> ids)
+	{
+		Set<Integer> missing = new HashSet<>();
+		for (int id : ids)
+		{
+			if (userCache.peek(id) == null)
+			{
+				missing.add(id);
+			}
+		}
+		if (missing.isEmpty()) { return; }
+		// If another thread has loaded a user in the meantime, its instance is kept
+		userGraphLoader.load(missing).forEach(userCache::putIfAbsent);
+	}
+	
+	/**
+	 * Loads all current tenants into the user cache, since they are needed right after startup,
+	 * e.g. to generate the firewall rules.
+	 */
+	private void warmUpUserCache()
+	{
+		long start = System.currentTimeMillis();
+		Set<Integer> tenantIds = new HashSet<>();
+		for (RoomOccupancyIndex.Occupancy occupancy : roomOccupancy.snapshot().values())
+		{
+			if (occupancy.getMainTenantId() != null)
+			{
+				tenantIds.add(occupancy.getMainTenantId());
+			}
+			if (occupancy.getSubtenantId() != null)
+			{
+				tenantIds.add(occupancy.getSubtenantId());
+			}
+		}
+		preloadUsers(tenantIds);
+		Log.info(LogCategory.DB, "Preloaded " + tenantIds.size() + " tenants in "
+				+ (System.currentTimeMillis() - start) + " ms");
 	}
 
+	/**
+	 * @return The user the given MAC address is currently assigned to. If several users have
+	 *         registered it, the one who registered it most recently. <code>null</code> if the MAC
+	 *         address is not assigned to any user.
+	 */
+	@SneakyThrows(SQLException.class)
+	public User getUserByMacAddress(@NonNull MacAddress macAddress)
+	{
+		Integer userId = macAddressIndex.getUserId(macAddress);
+		if (userId != null) { return getUserByID(userId); }
+		
+		// Not in the index, fall back to the database in case the device was added manually
+		try (GenericRawResults<Object[]> results = userDeviceDao.queryRaw(
+				"SELECT ID, User_ID FROM User_Devices WHERE MAC_Address = ? AND Assigned_To IS NULL"
+						+ " ORDER BY ID DESC LIMIT 1",
+				new DataType[] { DataType.INTEGER, DataType.INTEGER }, macAddress.toString()))
+		{
+			Object[] firstResult = results.getFirstResult();
+			if (firstResult == null) { return null; }
+			macAddressIndex.add(macAddress, (Integer) firstResult[0], (Integer) firstResult[1]);
+			return getUserByID((Integer) firstResult[1]);
+		}
+		catch (IOException e)
+		{
+			throw new SQLException(e);
+		}
+	}
+	
+	@SneakyThrows(SQLException.class)
+	private void loadMacAddressIndex()
+	{
+		try (GenericRawResults<Object[]> results = userDeviceDao.queryRaw(
+				"SELECT ID, User_ID, MAC_Address FROM User_Devices WHERE Assigned_To IS NULL",
+				new DataType[] { DataType.INTEGER, DataType.INTEGER, DataType.STRING }))
+		{
+			for (Object[] row : results)
+			{
+				macAddressIndex.add(new MacAddress((String) row[2]), (Integer) row[0], (Integer) row[1]);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new SQLException(e);
+		}
+		Log.debug(LogCategory.DB, "MAC address index: " + macAddressIndex.size() + " addresses");
+	}
+	
+	/**
+	 * Adds all users to the search index. From then on, users update their entries themselves, see
+	 * {@link User#publishSnapshot()}.
+	 */
+	@SneakyThrows(SQLException.class)
+	private void loadUserSearchIndex()
+	{
+		long start = System.currentTimeMillis();
+		Map<Integer, List<String>> deviceNames = new HashMap<>();
+		Map<Integer, List<MacAddress>> macAddresses = new HashMap<>();
+		try (GenericRawResults<Object[]> results = userDeviceDao.queryRaw(
+				"SELECT User_ID, Name, MAC_Address FROM User_Devices WHERE Assigned_To IS NULL",
+				new DataType[] { DataType.INTEGER, DataType.STRING, DataType.STRING }))
+		{
+			for (Object[] row : results)
+			{
+				deviceNames.computeIfAbsent((Integer) row[0], id -> new ArrayList<>()).add((String) row[1]);
+				macAddresses.computeIfAbsent((Integer) row[0], id -> new ArrayList<>())
+						.add(new MacAddress((String) row[2]));
+			}
+		}
+		catch (IOException e)
+		{
+			throw new SQLException(e);
+		}
+		try (GenericRawResults<Object[]> results = userDao.queryRaw(
+				"SELECT u.ID, u.First_Name, u.Last_Name, u.Email, u.Phone, u.Matriculation_Number, u.TIM_Username,"
+						+ " r.Room_Nr FROM Users u"
+						+ " LEFT JOIN User_Room_Assignments a ON a.ID = u.Room_Assignment_ID"
+						+ " LEFT JOIN Rooms r ON r.ID = a.Room_ID",
+				new DataType[] { DataType.INTEGER, DataType.STRING, DataType.STRING, DataType.STRING,
+						DataType.STRING, DataType.STRING, DataType.STRING, DataType.STRING }))
+		{
+			for (Object[] row : results)
+			{
+				int userId = (Integer) row[0];
+				searchIndex.addIfAbsent(userId,
+						UserSearchIndex.document((String) row[1], (String) row[2], (String) row[3], (String) row[4],
+								(String) row[5], (String) row[6], (String) row[7], deviceNames.get(userId),
+								macAddresses.get(userId)));
+			}
+		}
+		catch (IOException e)
+		{
+			throw new SQLException(e);
+		}
+		Log.info(LogCategory.DB, "Indexed " + searchIndex.size() + " users for searching in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+	
+	/**
+	 * Called for every RADIUS authentication, so only the user's ID is queried, using the index on
+	 * <code>Email</code>. The user itself is usually cached already, see {@link #getUserByID(int)}.
+	 */
 	@SneakyThrows
-	synchronized public User getUserByEmail(String email)
+	public User getUserByEmail(String email)
 	{
-		Map<String, Object> queryFields = new HashMap<>();
-		queryFields.put("Email", email);
-		List<DBUser> results = userDao.queryForFieldValuesArgs(queryFields);
-		if (results.isEmpty()) { return null; }
-		if (results.size() > 1) { throw new SQLException(
+		List<Integer> ids = new ArrayList<>(1);
+		try (GenericRawResults<Object[]> results = userDao.queryRaw("SELECT ID FROM Users WHERE Email = ?",
+				new DataType[] { DataType.INTEGER }, email))
+		{
+			for (Object[] row : results)
+			{
+				ids.add((Integer) row[0]);
+			}
+		}
+		if (ids.isEmpty()) { return null; }
+		if (ids.size() > 1) { throw new SQLException(
 				"Multiple users with the same E-Mail \"" + email + "\" exist in the database"); }
-		DBUser dbu = results.get(0);
-		userCache.putIfAbsent(dbu.getId(), new User(this, dbu));
-		return userCache.get(dbu.getId());
+		return getUserByID(ids.get(0));
 	}
 	
-	synchronized public User createUser(@NonNull String firstName, @NonNull String lastName, @NonNull String email,
+	public User createUser(@NonNull String firstName, @NonNull String lastName, @NonNull String email,
 			@NonNull Locale locale) throws EMailInUseException
 	{
 		User user = new User(this, firstName, lastName, email, locale);
@@ -290,12 +492,22 @@ public class Database
 		return userCache.get(user.getId());
 	}
 	
-	synchronized public User createUser(@NonNull String firstName, @NonNull String lastName, @NonNull String email,
+	public User createUser(@NonNull String firstName, @NonNull String lastName, @NonNull String email,
 			@NonNull Locale locale, @NonNull Room room, Instant leaseExpiration, boolean subtenant)
 			throws EMailInUseException, RoomAlreadyAssignedException, RoomWithoutMainTenantException,
 			SubTenantExpiresAfterMainTenantException, NoFreeIPv4Exception
 	{
-		if (this.getFreeIPv4() == null) { throw new NoFreeIPv4Exception(); }
+		synchronized (locks.forRoom(room.getId()))
+		{
+			return createUserInRoom(firstName, lastName, email, locale, room, leaseExpiration, subtenant);
+		}
+	}
+	
+	private User createUserInRoom(String firstName, String lastName, String email, Locale locale, Room room,
+			Instant leaseExpiration, boolean subtenant) throws EMailInUseException, RoomAlreadyAssignedException,
+			RoomWithoutMainTenantException, SubTenantExpiresAfterMainTenantException, NoFreeIPv4Exception
+	{
+		if (!this.hasFreeIPv4()) { throw new NoFreeIPv4Exception(); }
 		User currentUser = room.getCurrentUser();
 		if ((currentUser != null && currentUser.getRoomAssignment().isSubtenant())
 				|| (currentUser != null && !subtenant)) { throw new RoomAlreadyAssignedException(room, currentUser); }
@@ -324,57 +536,20 @@ public class Database
 	}
 	
 	/**
-	 * Performs a fulltext search for users in the database. Only the ID and full names of found
-	 * users are returned, this improves performance since it does not require entire {@link User}
-	 * objects (with several foreign fields) to be retrieved from the database. Additionally, if a
-	 * valid room number is entered as the query, then the room's tenant is included as the first
-	 * result.
+	 * Searches for users by their name, room number, e-mail address, phone number, matriculation
+	 * number, TIM username, or the names and MAC addresses of their devices, see
+	 * {@link UserSearchIndex}. Does not require any SQL query.
 	 * 
-	 * @param nameQuery
-	 *            The search query.
-	 * @return A Map with one entry per search result. The key is the user's ID, the password the
-	 *         user's full name.
+	 * @param query
+	 *            The search query. Every word of it must be found in a result.
+	 * @param limit
+	 *            The maximum number of results.
+	 * @return A Map with one entry per search result, best match first. The key is the user's ID, the
+	 *         value the user's full name.
 	 */
-	@SneakyThrows
-	public Map<Integer, String> searchUsers(String nameQuery)
+	public Map<Integer, String> searchUsers(@NonNull String query, int limit)
 	{
-		String[] split = nameQuery.split(Pattern.quote(" "));
-		StringBuilder query = new StringBuilder();
-		for (int i = 0; i < split.length; i++)
-		{
-			query.append('+'); // Prefixing each word with a + will require every word of the search query to be present in a result
-			query.append(split[i]);
-			query.append('*'); // Appending an * to the query allows a keyword like "Ayu" to find the user "Ayudita"
-			if (i < split.length - 1)
-			{
-				query.append(' '); // Only add a space if there is another keyword after this one
-			}
-		}
-		GenericRawResults<String[]> results = userDao.queryRaw("SELECT Id, First_Name, Last_Name FROM Users "
-				+ "WHERE MATCH(First_Name,Last_Name) AGAINST (? IN BOOLEAN MODE)", query.toString());
-		Map<Integer, String> searchResults = new HashMap<>();
-		try {
-			synchronized (this) {
-				Room room = getRoomByNumber(nameQuery.trim());
-				if (room != null) {
-					User tenant = room.getCurrentUser();
-					if (tenant != null) {
-						User main = room.getMainTenant();
-						if (!main.equals(tenant)) {
-							searchResults.put(main.getId(), main.getFullName());
-						}
-						searchResults.put(tenant.getId(), tenant.getFullName());
-					}
-
-				}
-			}
-			for (String[] result : results) {
-				searchResults.put(Integer.parseInt(result[0]), result[1] + " " + result[2]);
-			}
-		} finally {
-			results.close();
-		}
-		return searchResults;
+		return searchIndex.search(query, limit);
 	}
 	
 	synchronized public Group getGroupByID(int id)
@@ -400,30 +575,129 @@ public class Database
 		return new ArrayList<Group>(groups.values());
 	}
 	
-	synchronized public Room getRoomByID(int id)
+	public Room getRoomByID(int id)
 	{
-		return rooms.get(id);
+		return roomCatalog.getById(id);
 	}
 	
-	synchronized public Room getRoomByNumber(String roomNumber)
+	public Room getRoomByNumber(String roomNumber)
+	{
+		return roomCatalog.getByNumber(roomNumber);
+	}
+	
+	/**
+	 * @return The room with the given VLAN, or <code>null</code> if there is none. If several rooms
+	 *         share the VLAN, the one with the lowest room number.
+	 */
+	public Room getRoomByVlan(int vlan)
 	{
-		return roomsByNumber.get(roomNumber);
+		return roomCatalog.getByVlan(vlan);
 	}
 	
 	synchronized public Room createRoom(@NonNull String roomNumber) throws RoomNumberInUseException
 	{
 		Room room = new Room(this, roomNumber);
-		rooms.put(room.getId(), room);
-		roomsByNumber.put(room.getRoomNumber(), room);
+		roomCatalog = roomCatalog.with(room);
 		return room;
 	}
 	
-	synchronized public Set<Room> listRooms()
+	/**
+	 * Does not lock or copy, the rooms are read from an immutable snapshot.
+	 * 
+	 * @return All rooms, sorted by room number (see {@link Room#compareTo(Room)}). The list is
+	 *         unmodifiable.
+	 */
+	public List<Room> listRooms()
 	{
-		return new HashSet<Room>(rooms.values());
+		return roomCatalog.list();
+	}
+	
+	/**
+	 * Reads the active room assignments from the database.
+	 * 
+	 * @param roomId
+	 *            The room whose assignments to read, or <code>null</code> to read those of all rooms.
+	 * @return The occupancy of every room that has at least one active assignment.
+	 */
+	@SneakyThrows(SQLException.class)
+	private Map<Integer, RoomOccupancyIndex.Occupancy> loadRoomOccupancies(Integer roomId)
+	{
+		String sql = "SELECT Room_ID, User_ID, Subtenant FROM User_Room_Assignments WHERE Assigned_To IS NULL";
+		String[] args = roomId == null ? new String[0] : new String[] { roomId.toString() };
+		if (roomId != null)
+		{
+			sql += " AND Room_ID = ?";
+		}
+		Map<Integer, Integer> mainTenants = new HashMap<>();
+		Map<Integer, Integer> subtenants = new HashMap<>();
+		try (GenericRawResults<Object[]> results = userRoomDao.queryRaw(sql,
+				new DataType[] { DataType.INTEGER, DataType.INTEGER, DataType.BOOLEAN }, args))
+		{
+			for (Object[] row : results)
+			{
+				Map<Integer, Integer> tenants = (Boolean) row[2] ? subtenants : mainTenants;
+				Integer previous = tenants.put((Integer) row[0], (Integer) row[1]);
+				if (previous != null)
+				{
+					Log.warn(LogCategory.DB, "Room ID " + row[0] + " has multiple active "
+							+ ((Boolean) row[2] ? "subtenants" : "main tenants") + " (user IDs " + previous + ", "
+							+ row[1] + ")");
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new SQLException(e);
+		}
+		Map<Integer, RoomOccupancyIndex.Occupancy> occupancies = new HashMap<>();
+		Set<Integer> occupiedRooms = new HashSet<>(mainTenants.keySet());
+		occupiedRooms.addAll(subtenants.keySet());
+		for (Integer occupiedRoom : occupiedRooms)
+		{
+			occupancies.put(occupiedRoom,
+					new RoomOccupancyIndex.Occupancy(mainTenants.get(occupiedRoom), subtenants.get(occupiedRoom)));
+		}
+		return occupancies;
+	}
+	
+	/**
+	 * Compares the in-memory room occupancy index against the active room assignments stored in the
+	 * database. Each room is locked while it is being compared, so concurrent lease changes do not
+	 * cause false alarms.
+	 * 
+	 * @param repair
+	 *            If <code>true</code>, mismatching index entries are replaced by the database's state.
+	 * @return One human-readable description per room whose index entry does not match the database.
+	 *         Empty if the index is consistent.
+	 */
+	public List<String> checkRoomOccupancies(boolean repair)
+	{
+		List<String> mismatches = new ArrayList<>();
+		for (Room room : listRooms())
+		{
+			synchronized (locks.forRoom(room.getId()))
+			{
+				RoomOccupancyIndex.Occupancy stored = loadRoomOccupancies(room.getId()).get(room.getId());
+				RoomOccupancyIndex.Occupancy indexed = roomOccupancy.get(room.getId());
+				if (!Objects.equals(stored, indexed))
+				{
+					mismatches.add("Room " + room.getRoomNumber() + " (ID " + room.getId() + "): index has ["
+							+ indexed + "], database has [" + stored + "]");
+					if (repair)
+					{
+						roomOccupancy.set(room.getId(), stored);
+					}
+				}
+			}
+		}
+		if (!mismatches.isEmpty())
+		{
+			Log.warn(LogCategory.DB, "Room occupancy index is inconsistent" + (repair ? " (repaired)" : "") + ": "
+					+ String.join("; ", mismatches));
+		}
+		return mismatches;
 	}
 	
-	@SneakyThrows
 	public void logAuthEvent(User user, @NonNull String clientInfo, @NonNull AuthType type, @NonNull AuthResult result)
 	{
 		DBAuthenticationEvent event = new DBAuthenticationEvent();
@@ -435,8 +709,56 @@ public class Database
 		event.setClientInfo(clientInfo);
 		event.setAuthType(type);
 		event.setAuthResult(result);
-		// Does not need to be synchronized, since it is one single SQL INSERT with no side-effects
-		authEventDao.create(event);
+		authEventWriter.write(event);
+	}
+	
+	/**
+	 * Writes all queued authentication events to the database. Called on shutdown.
+	 */
+	public void close()
+	{
+		authEventWriter.close();
+		Log.info(LogCategory.DB, "Authentication events: " + authEventWriter.getStatus());
+		if (readReplica != null)
+		{
+			readReplica.close();
+		}
+	}
+	
+	private static ReadReplica createReadReplica(SeilnetConfig config, DatabaseDialect dialect, DataSource primary)
+			throws SQLException
+	{
+		HikariDataSource replica = new HikariDataSource();
+		replica.setJdbcUrl(dialect.jdbcUrl(config.getMysqlReplicaHost(), config.getMysqlReplicaDatabase()));
+		replica.setUsername(config.getMysqlReplicaUser());
+		if (config.getMysqlReplicaPass() != null)
+		{
+			replica.setPassword(config.getMysqlReplicaPass());
+		}
+		replica.setPoolName("Seilnet-Replica");
+		replica.setReadOnly(true);
+		replica.setMaximumPoolSize(config.getMysqlReplicaPoolMaxSize());
+		replica.setMinimumIdle(config.getMysqlReplicaPoolMaxSize());
+		replica.setConnectionTimeout(config.getMysqlConnectionTimeoutMs());
+		dialect.configure(replica, config);
+		// Do not fail on startup if the replica is down, reads will go to the primary instead
+		replica.setInitializationFailTimeout(-1);
+		return new ReadReplica(primary, replica, config.getMysqlReplicaMaxLagMs());
+	}
+	
+	/**
+	 * Returns a DAO for read-only queries that may see slightly stale data, e.g. for admin pages.
+	 * If a read replica is configured and its replication lag is below
+	 * <code>mysql_replica_max_lag_ms</code>, the DAO queries the replica, otherwise the primary.
+	 * <p>
+	 * The returned DAO must not be used to modify data, and its results must not be used to decide
+	 * on modifications.
+	 */
+	@SneakyThrows(SQLException.class)
+	<T> Dao<T, Integer> readOnlyDao(Dao<T, Integer> dao)
+	{
+		if (readReplica == null || !readReplica.isUsable()) { return dao; }
+		return DaoManager.createDao(readReplica.getConnectionSource(), dao.getDataClass());
 	}
 	
 	public static class EMailInUseException extends Exception
@@ -484,104 +806,258 @@ public class Database
 	}
 	
 	/**
-	 * @return A DBIPv4Address that is not currently assigned to any user, or <code>null</code> if
-	 *         no such address exists.
+	 * @return Whether at least one NAT IPv4 address is free.
 	 */
-	public synchronized DBIPv4Address getFreeIPv4()
+	public boolean hasFreeIPv4()
+	{
+		return countFreeIPv4() > 0;
+	}
+	
+	private int countFreeIPv4()
 	{
-		List<DBIPv4Address> freeIPv4s = listFreeIPv4();
-		if (freeIPv4s.isEmpty()) { return null; }
-		return freeIPv4s.get(ThreadLocalRandom.current().nextInt(0, freeIPv4s.size()));
+		if (ipv4Pool.getFreeCount() == 0)
+		{
+			// Addresses are added to the database manually, so check whether there are new ones
+			reloadIPv4Pool();
+		}
+		return ipv4Pool.getFreeCount();
+	}
+	
+	public IPv4Pool getIPv4Pool()
+	{
+		return ipv4Pool;
+	}
+	
+	/**
+	 * Reserves a random free NAT IPv4 address, see {@link IPv4Pool#reserve()}.
+	 * 
+	 * @return The reservation, or <code>null</code> if no address is free.
+	 */
+	IPv4Pool.Reservation reserveIPv4()
+	{
+		IPv4Pool.Reservation reservation = ipv4Pool.reserve();
+		if (reservation == null && countFreeIPv4() > 0)
+		{
+			reservation = ipv4Pool.reserve();
+		}
+		return reservation;
+	}
+	
+	/**
+	 * Re-reads the free NAT IPv4 addresses from the database. Needed since addresses are added to
+	 * or deleted from the database manually.
+	 */
+	@SneakyThrows(SQLException.class)
+	public void reloadIPv4Pool()
+	{
+		List<Integer> freeIds = new ArrayList<>();
+		int size = 0;
+		try (GenericRawResults<Object[]> results = IPv4Dao.queryRaw(
+				// ORMLite maps NULL to 0 in raw results, so the check for NULL is done by the database
+				"SELECT ID, Current_Assignment_ID IS NULL FROM IPv4_Addresses WHERE Deleted = FALSE",
+				new DataType[] { DataType.INTEGER, DataType.BOOLEAN }))
+		{
+			for (Object[] row : results)
+			{
+				size++;
+				if ((Boolean) row[1])
+				{
+					freeIds.add((Integer) row[0]);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new SQLException(e);
+		}
+		ipv4Pool.load(freeIds, size);
+		Log.debug(LogCategory.DB, "IPv4 pool: " + freeIds.size() + " of " + size + " addresses free");
 	}
 
 	@SneakyThrows(SQLException.class)
-	private synchronized List<DBIPv4Address> listFreeIPv4()
+	private List<DBIPv4Address> listFreeIPv4()
 	{
-		return IPv4Dao.queryBuilder().where().isNull("Current_Assignment_ID").and()
-				.eq("Deleted", false).query();
+		int[] freeIds = ipv4Pool.listFree();
+		if (freeIds.length == 0) { return new ArrayList<>(); }
+		return IPv4Dao.queryBuilder().where().in("ID", Arrays.stream(freeIds).boxed().toArray()).query();
 	}
 
-	@SneakyThrows(User.IPAlreadyAssignedException.class)
-	private synchronized void reassignDynamicNatIpv4s()
+	void reassignDynamicNatIpv4s()
 	{
 		Log.debug(LogCategory.DB, "Starting IPv4 Reassignment");
-		List<User> users = listRooms().stream()
+		List<User> candidates = listRooms().stream()
 				.map(Room::getCurrentUser)
-				.filter(user -> user != null && user.getAssignedNatIPv4() != null && user.isNatIPv4Dynamic())
+				.filter(user -> user != null && user.isNatIPv4Dynamic())
+				.collect(Collectors.toList());
+		// Only modifies users, so RADIUS authentications and firewall updates can continue in the meantime
+		locks.runWithAllUserLocks(() -> reassignDynamicNatIpv4s(candidates));
+		Log.trace(LogCategory.DB, "Triggering rules update");
+		SeilnetMain.getFirewallManager().updateAllRules();
+		Log.debug(LogCategory.DB, "Dynamic IPv4 Reassignment Done");
+	}
+
+	/**
+	 * Must be called while holding all user locks. Since addresses are only reserved while holding
+	 * a user lock, this guarantees that no other thread takes addresses out of the pool meanwhile.
+	 */
+	@SneakyThrows(SQLException.class)
+	private void reassignDynamicNatIpv4s(List<User> candidates)
+	{
+		List<User> users = candidates.stream()
+				.filter(user -> user.getAssignedNatIPv4() != null)
 				.collect(Collectors.toList());
 		Log.trace(LogCategory.DB, users.size() + " users need a new IP");
 		if(users.size() == 0) { return; } // Nothing to do.
 
-		List<DBIPv4Address> newIPs = Stream.concat(
-				users.stream().map(User::getAssignedNatIPv4DB),
-				listFreeIPv4().stream()
-			).collect(Collectors.toList());
+		Map<Integer, DBIPv4Address> addresses = new HashMap<>();
+		int[] currentIds = new int[users.size()];
+		for (int i = 0; i < users.size(); i++)
+		{
+			DBIPv4Address current = users.get(i).getAssignedNatIPv4DB();
+			currentIds[i] = current.getId();
+			addresses.put(current.getId(), current);
+		}
+		List<DBIPv4Address> free = listFreeIPv4();
+		free.forEach(address -> addresses.put(address.getId(), address));
 
 		Log.trace(LogCategory.DB, "Calculating new IP assignment");
-		boolean everyUserHasNewIP;
-		do
+		int[] newIds;
+		try
 		{
-			Collections.shuffle(newIPs, random);
+			newIds = IPv4Rotation.rotate(currentIds, free.stream().mapToInt(DBIPv4Address::getId).toArray(), random);
+		}
+		catch (IllegalStateException e)
+		{
+			Log.warn(LogCategory.DB, "Skipping dynamic IPv4 reassignment: " + e.getMessage());
+			return;
+		}
+
+		Log.trace(LogCategory.DB, "Reassigning IPs");
+		Instant now = Instant.now();
+		writeIPv4Rotation(users, newIds, now);
 
-			everyUserHasNewIP = true;
-			for(int i = 0; i < users.size(); i++)
+		// Update the in-memory objects only once the transaction has been committed
+		Map<Integer, DBUserIPv4Assignment> newAssignments = new HashMap<>();
+		for (UserGraphLoader.Row<DBUserIPv4Assignment> row : UserGraphLoader.query(userIPv4Dao, "User_ID",
+				users.stream().map(User::getId).collect(Collectors.toList())))
+		{
+			if (row.getObject().getAssignedTo() == null)
 			{
-				if(users.get(i).getAssignedNatIPv4DB().getId() == newIPs.get(i).getId())
-				{
-					everyUserHasNewIP = false;
-					break;
-				}
+				newAssignments.put(row.getForeignId("User_ID"), row.getObject());
 			}
-		} while(!everyUserHasNewIP);
-
-		Log.trace(LogCategory.DB, "Reassigning IPs");
-		for(int i = 0; i < users.size(); i++) {
-			users.get(i).unassignNatIPv4(false);
 		}
-		for(int i = 0; i < users.size(); i++) {
-			users.get(i).assignNatIPv4(newIPs.get(i), false);
+		for (int i = 0; i < users.size(); i++)
+		{
+			DBUser dbUser = users.get(i).dbObject;
+			DBUserIPv4Assignment oldAssignment = dbUser.getNatIPv4Assignment();
+			oldAssignment.setAssignedTo(now);
+			oldAssignment.getAddress().setAssignment(null);
 		}
-		Log.trace(LogCategory.DB, "Triggering rules update");
-		SeilnetMain.getFirewallManager().updateAllRules();
-		Log.debug(LogCategory.DB, "Dynamic IPv4 Reassignment Done");
+		for (int i = 0; i < users.size(); i++)
+		{
+			DBUser dbUser = users.get(i).dbObject;
+			DBUserIPv4Assignment newAssignment = newAssignments.get(dbUser.getId());
+			DBIPv4Address newAddress = addresses.get(newIds[i]);
+			newAssignment.setUser(dbUser);
+			newAssignment.setAddress(newAddress);
+			newAddress.setAssignment(newAssignment);
+			dbUser.setNatIPv4Assignment(newAssignment);
+			users.get(i).publishSnapshot();
+		}
+		reloadIPv4Pool();
 	}
 
-	private void cleanup()
+	/**
+	 * Ends the users' current NAT IPv4 assignments and creates the new ones using JDBC batches,
+	 * all within a single transaction.
+	 */
+	private void writeIPv4Rotation(List<User> users, int[] newIds, Instant now) throws SQLException
 	{
-		try
+		try (Connection connection = dataSource.getConnection())
 		{
-		    // This need not be synchronized, as expired IPv4
-		    List<DBUserIPv4Assignment> assignmentsToDelete = this.userIPv4Dao.queryBuilder().where()
-					.isNotNull("Assigned_To")
-					.and()
-					.le("Assigned_To",
-							Instant.now().minus(SeilnetMain.getConfig().getOldIpRetentionDays(), ChronoUnit.DAYS))
-					.query();
-
-			synchronized (this) {
-                // Filter assignmentsToDelete to not remove assignemts from users with UNLIMITED_DATA_RETENTION
-                new ArrayList<>(assignmentsToDelete).stream()
-                        .map(assignment -> assignment.getUser().getId())
-                        .distinct()
-                        .map(this::getUserByID)
-                        .filter(user -> user.hasPermission(Permission.UNLIMITED_DATA_RETENTION))
-                        .map(User::getId)
-                        .forEach(user -> {
-                            assignmentsToDelete.removeIf(assignment -> assignment.getUser().getId() == user);
-                        });
-            }
-
-            Log.debug(LogCategory.DB, "Cleaning up " + assignmentsToDelete.size() + " old IPv4 assignments");
-			assignmentsToDelete.forEach(assignment ->
-                    Log.trace(LogCategory.DB, " -> deleting " + assignment.getId() + " (of user "
-                            + assignment.getUser().getId() + ": "
-                            + assignment.getUser().getFirstName() + " " + assignment.getUser().getLastName() + ") "
-                            + assignment.getAddress().getAddress().toString() + " : "
-                            + assignment.getAssignedFrom() + " - " + assignment.getAssignedTo()
-                    ));
+			connection.setAutoCommit(false);
+			try
+			{
+				try (PreparedStatement endAssignment = connection.prepareStatement(
+						"UPDATE User_IPv4_Assignments SET Assigned_To = ? WHERE ID = ?");
+						PreparedStatement clearAddress = connection.prepareStatement(
+								"UPDATE IPv4_Addresses SET Current_Assignment_ID = NULL WHERE ID = ?");
+						PreparedStatement createAssignment = connection.prepareStatement(
+								"INSERT INTO User_IPv4_Assignments (User_ID, IP_ID) VALUES (?, ?)"))
+				{
+					for (int i = 0; i < users.size(); i++)
+					{
+						DBUserIPv4Assignment oldAssignment = users.get(i).dbObject.getNatIPv4Assignment();
+						endAssignment.setTimestamp(1, Timestamp.from(now));
+						endAssignment.setInt(2, oldAssignment.getId());
+						endAssignment.addBatch();
+						clearAddress.setInt(1, oldAssignment.getAddress().getId());
+						clearAddress.addBatch();
+						createAssignment.setInt(1, users.get(i).getId());
+						createAssignment.setInt(2, newIds[i]);
+						createAssignment.addBatch();
+					}
+					endAssignment.executeBatch();
+					clearAddress.executeBatch();
+					createAssignment.executeBatch();
+				}
+				// Link the new assignments, which are now the only open assignments of these users
+				String userIds = users.stream().map(user -> Integer.toString(user.getId()))
+						.collect(Collectors.joining(","));
+				try (Statement link = connection.createStatement())
+				{
+					dialect.linkOpenIPv4Assignments(link, userIds);
+				}
+				connection.commit();
+			}
+			catch (SQLException | RuntimeException e)
+			{
+				connection.rollback();
+				throw e;
+			}
+		}
+	}
 
-            userIPv4Dao.delete(assignmentsToDelete);
-            Log.debug(LogCategory.DB,"Old IPv4 assignments cleanup complete.");
+	/**
+	 * Maximum number of old IPv4 assignments deleted by a single statement in {@link #cleanup()}.
+	 */
+	private static final int CLEANUP_CHUNK_SIZE = 5000;
+	
+	/**
+	 * Deletes IPv4 assignments that ended more than <code>old_ip_retention_days</code> ago, except
+	 * those of users with {@link Permission#UNLIMITED_DATA_RETENTION} (directly or via a group).
+	 * Rows are deleted in chunks, so that no single statement holds row locks for long.
+	 */
+	void cleanup()
+	{
+		long retentionBitmask = Permission.encodeBitmask(EnumSet.of(Permission.UNLIMITED_DATA_RETENTION));
+		// This need not be synchronized, as expired IPv4 assignments are never modified
+		String sql = "DELETE FROM User_IPv4_Assignments"
+				+ " WHERE Assigned_To IS NOT NULL AND Assigned_To <= ?"
+				+ " AND User_ID NOT IN (SELECT ID FROM Users WHERE " + dialect.bitAnd("Permissions", "?") + " != 0)"
+				+ " AND User_ID NOT IN (SELECT ug.User_ID FROM User_Groups ug JOIN `Groups` g ON g.ID = ug.Group_ID"
+				+ " WHERE " + dialect.bitAnd("g.Permissions", "?") + " != 0)"
+				+ " LIMIT " + CLEANUP_CHUNK_SIZE;
+		Instant threshold = Instant.now().minus(SeilnetMain.getConfig().getOldIpRetentionDays(), ChronoUnit.DAYS);
+		long start = System.currentTimeMillis();
+		long deleted = 0;
+		try (Connection connection = dataSource.getConnection();
+				PreparedStatement delete = connection.prepareStatement(sql))
+		{
+			delete.setTimestamp(1, Timestamp.from(threshold));
+			delete.setLong(2, retentionBitmask);
+			delete.setLong(3, retentionBitmask);
+			int chunk;
+			do
+			{
+				chunk = delete.executeUpdate();
+				deleted += chunk;
+				Log.trace(LogCategory.DB, "Deleted " + deleted + " old IPv4 assignments so far ("
+						+ rowsPerSecond(deleted, start) + " rows/s)");
+			}
+			while (chunk == CLEANUP_CHUNK_SIZE);
+			Log.debug(LogCategory.DB, "Old IPv4 assignments cleanup complete: deleted " + deleted + " in "
+					+ (System.currentTimeMillis() - start) + " ms (" + rowsPerSecond(deleted, start) + " rows/s)");
 
 			/*
 			TODO: Delete old users
@@ -594,12 +1070,36 @@ public class Database
 			this.userGroupDao.queryBuilder().where().eq("User_ID", 1234).query().isEmpty();*/
 		}
 		catch(SQLException e) {
-			Log.warn(LogCategory.DB, "Database cleanup failed", e);
+			Log.warn(LogCategory.DB, "Database cleanup failed after deleting " + deleted
+					+ " old IPv4 assignments", e);
+		}
+	}
+	
+	private static long rowsPerSecond(long rows, long startMillis)
+	{
+		return rows * 1000 / Math.max(1, System.currentTimeMillis() - startMillis);
+	}
+	
+	private void cleanupAuthEvents()
+	{
+		try
+		{
+			authEventRetention.run();
+		}
+		catch (SQLException | IOException e)
+		{
+			Log.warn(LogCategory.DB, "Authentication event cleanup failed", e);
 		}
 	}
 	
 	public abstract static class DatabaseObject<T>
 	{
+		/**
+		 * The change scopes opened by the current thread, see {@link #beginChanges()}
+		 */
+		private static final ThreadLocal<Map<DatabaseObject<?>, PendingChanges>>	changeScopes	= ThreadLocal
+				.withInitial(IdentityHashMap::new);
+		
 		protected final Database		db;
 		protected final Dao<T, Integer>	dao;
 		protected final T				dbObject;
@@ -613,15 +1113,196 @@ public class Database
 		
 		public abstract int getId();
 		
+		/**
+		 * @return The monitor that guards modifications of this object, see {@link LockManager}.
+		 */
+		protected Object getLock()
+		{
+			return this;
+		}
+		
+		/**
+		 * Opens a change scope on this object for the current thread. Until the scope is closed, all
+		 * modifications made by this thread are only recorded. Closing the scope then writes the changed
+		 * columns with one SQL UPDATE inside one transaction, followed by at most one firewall rule
+		 * update. Scopes may be nested, only closing the outermost one commits the changes.
+		 * <p>
+		 * Must be used with try-with-resources, e.g.
+		 * 
+		 * <pre>
+		 * try (ChangeScope changes = user.beginChanges())
+		 * {
+		 * 	user.setFirstName(firstName);
+		 * 	user.setPhone(phone);
+		 * }
+		 * </pre>
+		 * 
+		 * The changes are committed even if the block throws an exception, since the in-memory state
+		 * has already been modified at that point. Other threads are not affected by the scope; their
+		 * modifications are written immediately, as usual. The calling thread must not hold any lock
+		 * when closing the scope.
+		 */
+		public ChangeScope beginChanges()
+		{
+			changeScopes.get().computeIfAbsent(this, o -> new PendingChanges()).depth++;
+			return new ChangeScope(this);
+		}
+		
+		public static final class ChangeScope implements AutoCloseable
+		{
+			private final DatabaseObject<?>	object;
+			private boolean					closed	= false;
+			
+			private ChangeScope(DatabaseObject<?> object)
+			{
+				this.object = object;
+			}
+			
+			@Override
+			public void close()
+			{
+				if (closed) { return; }
+				closed = true;
+				object.endChanges();
+			}
+		}
+		
+		private static class PendingChanges
+		{
+			int					depth			= 0;
+			boolean				allColumns		= false;
+			final Set<String>	fieldNames		= new LinkedHashSet<>();
+			Runnable			firewallUpdate	= null;
+		}
+		
+		private PendingChanges getPendingChanges()
+		{
+			return changeScopes.get().get(this);
+		}
+		
+		@SneakyThrows(SQLException.class)
+		private void endChanges()
+		{
+			Map<DatabaseObject<?>, PendingChanges> scopes = changeScopes.get();
+			PendingChanges pending = scopes.get(this);
+			if (--pending.depth > 0) { return; }
+			scopes.remove(this);
+			
+			synchronized (getLock())
+			{
+				if (pending.allColumns)
+				{
+					write(null, true);
+				}
+				else if (!pending.fieldNames.isEmpty())
+				{
+					write(pending.fieldNames, true);
+				}
+			}
+			if (pending.firewallUpdate != null)
+			{
+				pending.firewallUpdate.run();
+			}
+		}
+		
+		/**
+		 * Writes this entire object to the database, or records that it needs to be written if the
+		 * current thread has an open change scope. Callers are responsible for holding this object's
+		 * lock, see {@link LockManager}.
+		 */
 		@SneakyThrows
 		protected void update()
 		{
-			// TODO (performance): figure out how to do batch updates
-			// i.e. change multiple fields and then do a final SQL UPDATE, instead of one UPDATE per field
-			synchronized (db)
+			PendingChanges pending = getPendingChanges();
+			if (pending != null)
+			{
+				pending.allColumns = true;
+				return;
+			}
+			write(null, false);
+		}
+		
+		/**
+		 * Like {@link #update()}, but only writes the columns of the given fields.
+		 * 
+		 * @param fieldNames
+		 *            The names of the Java fields (not the columns) of the ORM object that were modified.
+		 */
+		@SneakyThrows
+		protected void update(String... fieldNames)
+		{
+			PendingChanges pending = getPendingChanges();
+			if (pending != null)
+			{
+				Collections.addAll(pending.fieldNames, fieldNames);
+				return;
+			}
+			write(Arrays.asList(fieldNames), false);
+		}
+		
+		/**
+		 * Runs the given firewall rule update right away, or once the current thread's change scope
+		 * on this object has been committed. In the latter case, only the most recently given update is
+		 * run, so it must recompute the rules from scratch.
+		 */
+		protected void updateFirewallRulesAfterCommit(@NonNull Runnable firewallUpdate)
+		{
+			PendingChanges pending = getPendingChanges();
+			if (pending != null)
+			{
+				pending.firewallUpdate = firewallUpdate;
+				return;
+			}
+			firewallUpdate.run();
+		}
+		
+		/**
+		 * @param fieldNames
+		 *            The fields whose columns to write, or <code>null</code> to write all of them.
+		 */
+		private void write(Collection<String> fieldNames, boolean transaction) throws SQLException
+		{
+			Callable<Integer> statement = () -> {
+				if (fieldNames == null) { return dao.update(dbObject); }
+				UpdateBuilder<T, Integer> updateBuilder = dao.updateBuilder();
+				for (String fieldName : fieldNames)
+				{
+					FieldType fieldType = getFieldType(fieldName);
+					updateBuilder.updateColumnValue(fieldType.getColumnName(),
+							new SelectArg(fieldType.getColumnName(), fieldType.extractJavaFieldValue(dbObject)));
+				}
+				updateBuilder.where().idEq(getId());
+				return updateBuilder.update();
+			};
+			try
+			{
+				if (transaction)
+				{
+					TransactionManager.callInTransaction(dao.getConnectionSource(), statement);
+				}
+				else
+				{
+					statement.call();
+				}
+			}
+			catch (SQLException e)
+			{
+				throw e;
+			}
+			catch (Exception e)
+			{
+				throw new SQLException(e);
+			}
+		}
+		
+		private FieldType getFieldType(String fieldName)
+		{
+			for (FieldType fieldType : ((BaseDaoImpl<T, Integer>) dao).getTableInfo().getFieldTypes())
 			{
-				dao.update(dbObject);
+				if (fieldType.getFieldName().equals(fieldName)) { return fieldType; }
 			}
+			throw new IllegalArgumentException(
+					"Unknown field \"" + fieldName + "\" in " + dao.getDataClass().getSimpleName());
 		}
 		
 		@Override
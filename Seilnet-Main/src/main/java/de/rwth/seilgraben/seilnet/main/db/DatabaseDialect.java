@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import de.rwth.seilgraben.seilnet.main.SeilnetConfig;
+import de.rwth.seilgraben.seilnet.main.config.Constants;
+import liquibase.resource.AbstractResource;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import liquibase.resource.Resource;
+import liquibase.resource.ResourceAccessor;
+import liquibase.util.StreamUtil;
+
+/**
+ * The database engines that {@link Database} can run on. Everything that can not be expressed in
+ * SQL that all of them understand is implemented here, everything else (including the Liquibase
+ * changelog) is shared.
+ *
+ * @author Felix Kirchmann
+ */
+public enum DatabaseDialect
+{
+	/**
+	 * MySQL or MariaDB. This is what production installations use.
+	 */
+	MYSQL
+	{
+		@Override
+		String jdbcUrl(String host, String database)
+		{
+			return "jdbc:mysql://" + host + "/" + database;
+		}
+
+		@Override
+		void configure(HikariDataSource ds, SeilnetConfig config)
+		{
+			// See https://github.com/brettwooldridge/HikariCP/wiki/MySQL-Configuration
+			ds.addDataSourceProperty("cachePrepStmts", config.isMysqlCachePrepStmts());
+			ds.addDataSourceProperty("prepStmtCacheSize", config.getMysqlPrepStmtCacheSize());
+			ds.addDataSourceProperty("prepStmtCacheSqlLimit", config.getMysqlPrepStmtCacheSqlLimit());
+			ds.addDataSourceProperty("useServerPrepStmts", config.isMysqlUseServerPrepStmts());
+			// Turns JDBC batches (e.g. in the dynamic IPv4 rotation) into multi-row statements
+			ds.addDataSourceProperty("rewriteBatchedStatements", config.isMysqlRewriteBatchedStatements());
+		}
+
+		@Override
+		String bitAnd(String a, String b)
+		{
+			return "(" + a + " & " + b + ")";
+		}
+
+		@Override
+		void linkOpenIPv4Assignments(Statement statement, String userIds) throws SQLException
+		{
+			statement.executeUpdate("UPDATE Users u JOIN User_IPv4_Assignments a ON a.User_ID = u.ID"
+					+ " AND a.Assigned_To IS NULL SET u.NAT_IPv4_Assignment_ID = a.ID WHERE u.ID IN (" + userIds + ")");
+			statement.executeUpdate("UPDATE IPv4_Addresses i JOIN User_IPv4_Assignments a ON a.IP_ID = i.ID"
+					+ " AND a.Assigned_To IS NULL SET i.Current_Assignment_ID = a.ID WHERE a.User_ID IN (" + userIds
+					+ ")");
+		}
+	},
+	/**
+	 * The embedded H2 database in its MySQL compatibility mode, e.g. for benchmarks or for trying
+	 * out Seilnet without a database server. <code>mysql_database</code> is the H2 database name,
+	 * e.g. <code>mem:seilnet</code> or <code>file:./data/seilnet</code>, the host is ignored.
+	 * <p>
+	 * The tests use H2. Other builds only contain it if the <code>h2</code> Maven profile is active.
+	 */
+	H2
+	{
+		@Override
+		String jdbcUrl(String host, String database)
+		{
+			// Lower-case, case-insensitive identifiers match how MySQL treats the unquoted names in the
+			// changelog and the quoted names used by ORMLite. DB_CLOSE_DELAY keeps in-memory databases
+			// alive while the connection pool is empty.
+			return "jdbc:h2:" + database + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE"
+					+ ";NON_KEYWORDS=GROUPS;DB_CLOSE_DELAY=-1";
+		}
+
+		@Override
+		void configure(HikariDataSource ds, SeilnetConfig config)
+		{}
+
+		@Override
+		DataSource ormDataSource(DataSource dataSource)
+		{
+			// H2 returns all columns with a default value as generated keys, while ORMLite expects only
+			// the ID. So instead of RETURN_GENERATED_KEYS, explicitly request the ID column.
+			return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+					new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+						Object result = invoke(dataSource, method, args);
+						if (!(result instanceof Connection)) { return result; }
+						Connection connection = (Connection) result;
+						return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+								new Class<?>[] { Connection.class }, (connectionProxy, connectionMethod, connectionArgs) -> {
+									if (connectionMethod.getName().equals("prepareStatement") && connectionArgs.length == 2
+											&& Integer.valueOf(Statement.RETURN_GENERATED_KEYS).equals(connectionArgs[1]))
+									{
+										return connection.prepareStatement((String) connectionArgs[0], new String[] { "ID" });
+									}
+									return invoke(connection, connectionMethod, connectionArgs);
+								});
+					});
+		}
+
+		@Override
+		String adaptChangelog(String changelog)
+		{
+			// H2 has no fulltext index. It is not used anymore anyway (see UserSearchIndex), and dropped later.
+			changelog = FULLTEXT_INDEX.matcher(changelog).replaceAll("");
+			changelog = DROP_FULLTEXT_INDEX.matcher(changelog).replaceAll("DROP INDEX IF EXISTS $1;");
+			// H2 only allows one change per ALTER TABLE statement
+			Matcher alter = MULTI_ALTER_TABLE.matcher(changelog);
+			StringBuffer adapted = new StringBuffer();
+			while (alter.find())
+			{
+				StringBuilder statements = new StringBuilder();
+				for (String change : ALTER_TABLE_CHANGE_SEPARATOR.split(alter.group(2)))
+				{
+					statements.append("ALTER TABLE ").append(alter.group(1)).append(' ').append(change).append(";\n");
+				}
+				alter.appendReplacement(adapted, Matcher.quoteReplacement(statements.toString()));
+			}
+			alter.appendTail(adapted);
+			return adapted.toString();
+		}
+
+		@Override
+		String bitAnd(String a, String b)
+		{
+			// Parameters need an explicit type, otherwise H2 can not choose the variant of BITAND
+			return "BITAND(" + a + ", CAST(" + b + " AS BIGINT))";
+		}
+
+		@Override
+		void linkOpenIPv4Assignments(Statement statement, String userIds) throws SQLException
+		{
+			statement.executeUpdate("MERGE INTO Users u USING (SELECT ID, User_ID FROM User_IPv4_Assignments"
+					+ " WHERE Assigned_To IS NULL AND User_ID IN (" + userIds + ")) a ON u.ID = a.User_ID"
+					+ " WHEN MATCHED THEN UPDATE SET NAT_IPv4_Assignment_ID = a.ID");
+			statement.executeUpdate("MERGE INTO IPv4_Addresses i USING (SELECT ID, IP_ID FROM User_IPv4_Assignments"
+					+ " WHERE Assigned_To IS NULL AND User_ID IN (" + userIds + ")) a ON i.ID = a.IP_ID"
+					+ " WHEN MATCHED THEN UPDATE SET Current_Assignment_ID = a.ID");
+		}
+	};
+
+	private static final Pattern	FULLTEXT_INDEX					= Pattern
+			.compile(",\\s*FULLTEXT INDEX \\w+ \\([^)]*\\)");
+	private static final Pattern	DROP_FULLTEXT_INDEX				= Pattern.compile("DROP INDEX (Fx_\\w+) ON \\w+;");
+	private static final Pattern	MULTI_ALTER_TABLE				= Pattern.compile("ALTER TABLE (\\w+)\\s+(ADD [^;]*);");
+	private static final Pattern	ALTER_TABLE_CHANGE_SEPARATOR	= Pattern.compile(",\\s*(?=ADD\\s)");
+
+	/**
+	 * @return The JDBC URL, without credentials.
+	 */
+	abstract String jdbcUrl(String host, String database);
+
+	/**
+	 * Applies driver-specific settings to a connection pool.
+	 */
+	abstract void configure(HikariDataSource ds, SeilnetConfig config);
+
+	/**
+	 * @return The data source that ORMLite should use, based on the connection pool.
+	 */
+	DataSource ormDataSource(DataSource dataSource)
+	{
+		return dataSource;
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable
+	{
+		try
+		{
+			return method.invoke(target, args);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Adapts the Liquibase changelog to this database, if it uses syntax that this database does not
+	 * understand. The changelog itself must stay unchanged, since Liquibase would otherwise reject
+	 * existing MySQL databases because of changed checksums.
+	 */
+	String adaptChangelog(String changelog)
+	{
+		return changelog;
+	}
+
+	/**
+	 * @return A resource accessor that provides the changelog, adapted with
+	 *         {@link #adaptChangelog(String)}.
+	 */
+	// javac warns because ClassLoaderResourceAccessor.close() is declared to throw Exception
+	@SuppressWarnings("try")
+	ResourceAccessor changelogResourceAccessor()
+	{
+		return new ClassLoaderResourceAccessor()
+		{
+			@Override
+			public List<Resource> getAll(String path) throws IOException
+			{
+				List<Resource> resources = super.getAll(path);
+				if (resources == null || !path.equals(Constants.DB_CHANGELOG_CLASSPATH)) { return resources; }
+				return resources.stream().map(AdaptedResource::new).collect(Collectors.toList());
+			}
+		};
+	}
+
+	private class AdaptedResource extends AbstractResource
+	{
+		private final Resource original;
+
+		AdaptedResource(Resource original)
+		{
+			super(original.getPath(), original.getUri());
+			this.original = original;
+		}
+
+		@Override
+		public InputStream openInputStream() throws IOException
+		{
+			String changelog;
+			try (InputStream in = original.openInputStream())
+			{
+				changelog = StreamUtil.readStreamAsString(in, StandardCharsets.UTF_8.name());
+			}
+			return new ByteArrayInputStream(adaptChangelog(changelog).getBytes(StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public boolean exists()
+		{
+			return original.exists();
+		}
+
+		@Override
+		public Resource resolve(String other)
+		{
+			return original.resolve(other);
+		}
+
+		@Override
+		public Resource resolveSibling(String other)
+		{
+			return original.resolveSibling(other);
+		}
+	}
+
+	/**
+	 * @return An SQL expression for the bitwise AND of the two given SQL expressions.
+	 */
+	abstract String bitAnd(String a, String b);
+
+	/**
+	 * Sets the NAT IPv4 assignment of the given users, and the current assignment of their addresses,
+	 * to the users' open (i.e. not ended) IPv4 assignments.
+	 *
+	 * @param userIds
+	 *            A comma-separated list of user IDs.
+	 */
+	abstract void linkOpenIPv4Assignments(Statement statement, String userIds) throws SQLException;
+}
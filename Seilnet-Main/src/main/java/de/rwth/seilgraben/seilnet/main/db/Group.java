@@ -5,17 +5,22 @@
 
 package de.rwth.seilgraben.seilnet.main.db;
 
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.field.DataType;
+
 import de.rwth.seilgraben.seilnet.main.SeilnetMain;
 import de.rwth.seilgraben.seilnet.main.config.Permission;
 import de.rwth.seilgraben.seilnet.main.db.Database.DatabaseObject;
 import de.rwth.seilgraben.seilnet.main.db.Database.DatabaseObjectDeletedException;
 import de.rwth.seilgraben.seilnet.main.db.Database.GroupNameInUseException;
 import de.rwth.seilgraben.seilnet.main.db.orm.DBGroup;
-import de.rwth.seilgraben.seilnet.main.db.orm.DBUserGroupAssignment;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.SneakyThrows;
@@ -28,19 +33,18 @@ import lombok.Synchronized;
 public class Group extends DatabaseObject<DBGroup>
 {
 	@Getter
-	private boolean			deleted	= false;
-	private final Object	dbLock;
+	private volatile boolean	deleted	= false;
+	private final Object		dbLock;
 							
 	Group(Database db, @NonNull DBGroup dbGroup)
 	{
 		super(db, db.groupDao, dbGroup);
-		dbLock = db;
+		dbLock = db.getLocks().forGroup(dbGroup.getId());
 	}
 	
 	Group(Database db, @NonNull String name) throws GroupNameInUseException
 	{
 		super(db, db.groupDao, new DBGroup());
-		dbLock = db;
 		dbObject.setName(name);
 		
 		synchronized (db)
@@ -57,6 +61,8 @@ public class Group extends DatabaseObject<DBGroup>
 				throw new RuntimeException(e);
 			}
 		}
+		// The ID (and therefore the lock stripe) is only known once the group has been created
+		dbLock = db.getLocks().forGroup(dbObject.getId());
 	}
 	
 	@Override
@@ -65,18 +71,27 @@ public class Group extends DatabaseObject<DBGroup>
 		return dbObject.getId();
 	}
 	
+	@Override
+	protected Object getLock()
+	{
+		return dbLock;
+	}
+	
 	@Synchronized("dbLock")
 	public void setName(@NonNull String name) throws GroupNameInUseException
 	{
 		if (deleted) { throw new DatabaseObjectDeletedException(); }
 		if (name.equals(dbObject.getName())) { return; }
 		
-		Group existingGroup = db.groupsByName.get(name);
-		if (existingGroup != null) { throw new Database.GroupNameInUseException(existingGroup); }
-		db.groupsByName.remove(dbObject.getName());
-		dbObject.setName(name);
-		db.groupsByName.put(name, this);
-		update();
+		synchronized (db)
+		{
+			Group existingGroup = db.groupsByName.get(name);
+			if (existingGroup != null) { throw new Database.GroupNameInUseException(existingGroup); }
+			db.groupsByName.remove(dbObject.getName());
+			dbObject.setName(name);
+			db.groupsByName.put(name, this);
+		}
+		update("name");
 	}
 	
 	public String getName()
@@ -96,7 +111,7 @@ public class Group extends DatabaseObject<DBGroup>
 	{
 		if (deleted) { throw new DatabaseObjectDeletedException(); }
 		dbObject.setShowMailingList(showMailingList);
-		update();
+		update("showMailingList");
 	}
 	
 	public String getEmail()
@@ -110,53 +125,86 @@ public class Group extends DatabaseObject<DBGroup>
 	{
 		if (deleted) { throw new DatabaseObjectDeletedException(); }
 		dbObject.setEmail(email);
-		update();
+		update("email");
 	}
 	
-	@Synchronized("dbLock")
 	public void setPermissions(@NonNull Set<Permission> permissions)
 	{
-		if (deleted) { throw new DatabaseObjectDeletedException(); }
-		dbObject.setPermissions(new HashSet<Permission>(permissions));
-		update();
-		updateFirewallRules(listMembers());
+		synchronized (dbLock)
+		{
+			if (deleted) { throw new DatabaseObjectDeletedException(); }
+			dbObject.setPermissions(Permission.copyOf(permissions));
+			update("permissions");
+		}
+		// A user added concurrently has either seen the new permissions or is listed here
+		Set<User> members = listMembers();
+		for (User member : members)
+		{
+			member.refreshSnapshot();
+		}
+		updateFirewallRulesAfterCommit(() -> updateFirewallRules(members));
 	}
 	
-	@Synchronized("dbLock")
+	/*
+	 * Does not need to be synchronized, the permission set is never modified, only replaced.
+	 */
 	public Set<Permission> getPermissions()
 	{
 		if (deleted) { throw new DatabaseObjectDeletedException(); }
-		return new HashSet<Permission>(dbObject.getPermissions());
+		return Permission.copyOf(dbObject.getPermissions());
 	}
-	
+
+	/**
+	 * @return The permissions as a bitmask, see {@link Permission#encodeBitmask(java.util.Collection)}.
+	 *         Deleted groups have no permissions.
+	 */
+	long getPermissionMask()
+	{
+		return deleted ? 0 : Permission.encodeBitmask(dbObject.getPermissions());
+	}
+
 	DBGroup getDbGroup()
 	{
 		return dbObject;
 	}
 	
 	public Set<User> listMembers()
+	{
+		return listMembers(false);
+	}
+	
+	/**
+	 * @param allowStale
+	 *            If <code>true</code>, the members may be read from the read replica and thus be
+	 *            slightly out of date (see {@link Database#readOnlyDao(com.j256.ormlite.dao.Dao)}).
+	 *            Must be <code>false</code> if the result is used to modify data, e.g. the firewall.
+	 */
+	public Set<User> listMembers(boolean allowStale)
 	{
 		if (deleted) { throw new DatabaseObjectDeletedException(); }
 		
-		synchronized (db)
+		// Does not need to be synchronized, since it only performs a single SQL statement. Users are
+		// resolved without holding this group's lock, since loading them may acquire user locks.
+		List<Integer> userIds = new ArrayList<>();
+		try (GenericRawResults<Object[]> results = (allowStale ? db.readOnlyDao(db.userGroupDao) : db.userGroupDao).queryRaw(
+				"SELECT User_ID FROM User_Groups WHERE Group_ID = ?", new DataType[] { DataType.INTEGER },
+				Integer.toString(getId())))
 		{
-			try
-			{
-				Set<User> users = new HashSet<>();
-				for (DBUserGroupAssignment assignment : db.userGroupDao.queryForEq("Group_ID", getId()))
-				{
-					users.add(db.getUserByID(assignment.getUser().getId()));
-				}
-				return users;
-			}
-			catch (SQLException e)
+			for (Object[] row : results)
 			{
-				throw new RuntimeException(e);
+				userIds.add((Integer) row[0]);
 			}
 		}
+		catch (SQLException | IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+		return new HashSet<>(db.getUsersByID(userIds));
 	}
 
-	@Synchronized("dbLock")
+	/**
+	 * Must not be called while holding this group's lock, see {@link LockManager}.
+	 */
 	private void updateFirewallRules(Set<User> users)
 	{
 		users.stream()
@@ -166,23 +214,27 @@ public class Group extends DatabaseObject<DBGroup>
 				.forEach(SeilnetMain.getFirewallManager()::updateRules);
 	}
 	
-	@Synchronized("dbLock")
 	@SneakyThrows
 	public void delete()
 	{
-		if (deleted) { throw new DatabaseObjectDeletedException(); }
-		Set<User> members = listMembers();
-		deleted = true;
+		Set<User> members;
+		synchronized (dbLock)
+		{
+			members = listMembers();
+			deleted = true;
+		}
 		
+		// Removing a member updates that member's firewall rules, too
 		for (User member : members)
 		{
 			member.removeFromGroup(this);
 		}
 		
-		db.groupsByName.remove(dbObject.getName());
-		db.groups.remove(dbObject.getId());
-		db.groupDao.delete(dbObject);
-
-		updateFirewallRules(members);
+		synchronized (db)
+		{
+			db.groupsByName.remove(dbObject.getName());
+			db.groups.remove(dbObject.getId());
+			db.groupDao.delete(dbObject);
+		}
 	}
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import lombok.Getter;
+
+/**
+ * In-memory pool of the IDs of all NAT IPv4 addresses that are not deleted. Each address is either
+ * free, reserved or assigned. Free addresses are kept in a dense array with a reverse index, so
+ * picking a random free address, releasing an address and checking whether an address is free all
+ * take constant time.
+ * <p>
+ * Addresses are handed out in two steps: {@link #reserve()} atomically takes a free address out of
+ * the pool, so no other caller can obtain it. Once the address has been assigned in the database,
+ * the reservation is {@link Reservation#commit() committed}, or {@link Reservation#cancel()
+ * cancelled} if the assignment failed.
+ * <p>
+ * This class is thread-safe. Its monitor is a leaf in the lock ordering described in
+ * {@link LockManager}.
+ *
+ * @author Felix Kirchmann
+ */
+public class IPv4Pool
+{
+	private final Random		random;
+
+	private int[]				free		= new int[16];
+	private int					freeCount	= 0;
+	/**
+	 * Maps an address ID to its index in {@link #free}, or -1 if the address is not free.
+	 */
+	private int[]				positions	= new int[0];
+	private final Set<Integer>	reserved	= new HashSet<>();
+	private int					size		= 0;
+
+	IPv4Pool(Random random)
+	{
+		this.random = random;
+	}
+
+	/**
+	 * Replaces the pool's contents. Addresses that are currently reserved stay reserved.
+	 *
+	 * @param freeIds
+	 *            The IDs of all addresses that are not deleted and not assigned.
+	 * @param size
+	 *            The number of addresses that are not deleted.
+	 */
+	synchronized void load(Collection<Integer> freeIds, int size)
+	{
+		Arrays.fill(positions, -1);
+		freeCount = 0;
+		for (int id : freeIds)
+		{
+			if (!reserved.contains(id))
+			{
+				addFree(id);
+			}
+		}
+		this.size = size;
+	}
+
+	/**
+	 * Reserves a random free address.
+	 *
+	 * @return The reservation, or <code>null</code> if no address is free.
+	 */
+	public synchronized Reservation reserve()
+	{
+		if (freeCount == 0) { return null; }
+		int id = free[random.nextInt(freeCount)];
+		removeFree(id);
+		reserved.add(id);
+		return new Reservation(id);
+	}
+
+	/**
+	 * Reserves the given address.
+	 *
+	 * @return The reservation, or <code>null</code> if the address is not free.
+	 */
+	public synchronized Reservation reserve(int id)
+	{
+		if (!isFree(id)) { return null; }
+		removeFree(id);
+		reserved.add(id);
+		return new Reservation(id);
+	}
+
+	/**
+	 * Returns a previously assigned address to the pool.
+	 */
+	public synchronized void release(int id)
+	{
+		if (isFree(id) || reserved.contains(id)) { return; }
+		addFree(id);
+	}
+
+	public synchronized boolean isFree(int id)
+	{
+		return id >= 0 && id < positions.length && positions[id] >= 0;
+	}
+
+	/**
+	 * @return The IDs of all currently free addresses.
+	 */
+	public synchronized int[] listFree()
+	{
+		return Arrays.copyOf(free, freeCount);
+	}
+
+	public synchronized int getFreeCount()
+	{
+		return freeCount;
+	}
+
+	public synchronized int getReservedCount()
+	{
+		return reserved.size();
+	}
+
+	/**
+	 * @return The number of addresses that are not deleted, whether free, reserved or assigned.
+	 */
+	public synchronized int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * @return The fraction of addresses that are not free, between 0 and 1.
+	 */
+	public synchronized double getUtilization()
+	{
+		return size == 0 ? 1 : 1 - (double) freeCount / size;
+	}
+
+	private void addFree(int id)
+	{
+		if (id >= positions.length)
+		{
+			int oldLength = positions.length;
+			positions = Arrays.copyOf(positions, Math.max(id + 1, oldLength * 2));
+			Arrays.fill(positions, oldLength, positions.length, -1);
+		}
+		if (freeCount == free.length)
+		{
+			free = Arrays.copyOf(free, free.length * 2);
+		}
+		free[freeCount] = id;
+		positions[id] = freeCount;
+		freeCount++;
+	}
+
+	private void removeFree(int id)
+	{
+		// Move the last free address into the removed address' slot
+		int index = positions[id];
+		int lastId = free[--freeCount];
+		free[index] = lastId;
+		positions[lastId] = index;
+		positions[id] = -1;
+	}
+
+	/**
+	 * A reserved address, which must either be committed or cancelled exactly once.
+	 */
+	public class Reservation
+	{
+		@Getter
+		private final int	id;
+		private boolean		done	= false;
+
+		private Reservation(int id)
+		{
+			this.id = id;
+		}
+
+		/**
+		 * Marks the address as assigned.
+		 */
+		public void commit()
+		{
+			synchronized (IPv4Pool.this)
+			{
+				if (done) { throw new IllegalStateException("Reservation already completed"); }
+				done = true;
+				reserved.remove(id);
+			}
+		}
+
+		/**
+		 * Returns the address to the pool.
+		 */
+		public void cancel()
+		{
+			synchronized (IPv4Pool.this)
+			{
+				if (done) { throw new IllegalStateException("Reservation already completed"); }
+				done = true;
+				reserved.remove(id);
+				addFree(id);
+			}
+		}
+
+		/**
+		 * Removes the address from the pool without returning it, e.g. because the database shows
+		 * that it is not actually free.
+		 */
+		public void discard()
+		{
+			commit();
+		}
+	}
+}
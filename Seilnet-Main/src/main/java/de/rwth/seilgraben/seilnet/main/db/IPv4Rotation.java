@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.util.Random;
+
+/**
+ * Computes the daily dynamic NAT IPv4 rotation: every user receives a different address than the
+ * one they currently have, chosen from the users' current addresses and the free addresses.
+ *
+ * @author Felix Kirchmann
+ */
+class IPv4Rotation
+{
+	private IPv4Rotation()
+	{}
+
+	/**
+	 * Shuffles all candidate addresses once, then resolves each user that got their own address
+	 * back by swapping with the next position. Such a swap never creates a new conflict, since all
+	 * addresses are distinct. This takes linear time and is practically uniform, since there is on
+	 * average less than one conflict to resolve.
+	 *
+	 * @param currentIds
+	 *            The ID of each user's current address. Must be distinct.
+	 * @param freeIds
+	 *            The IDs of all free addresses. Must be distinct from <code>currentIds</code>.
+	 * @return The ID of each user's new address, in the same order as <code>currentIds</code>.
+	 * @throws IllegalStateException
+	 *             If there is exactly one user and no free address, so no rotation is possible.
+	 */
+	static int[] rotate(int[] currentIds, int[] freeIds, Random random)
+	{
+		int users = currentIds.length;
+		int total = users + freeIds.length;
+		if (users == 0) { return new int[0]; }
+		if (total < 2) { throw new IllegalStateException(
+				"Cannot rotate the address of a single user without any free address"); }
+
+		int[] candidates = new int[total];
+		System.arraycopy(currentIds, 0, candidates, 0, users);
+		System.arraycopy(freeIds, 0, candidates, users, freeIds.length);
+		for (int i = total - 1; i > 0; i--)
+		{
+			int j = random.nextInt(i + 1);
+			int swap = candidates[i];
+			candidates[i] = candidates[j];
+			candidates[j] = swap;
+		}
+		for (int i = 0; i < users; i++)
+		{
+			if (candidates[i] == currentIds[i])
+			{
+				int j = (i + 1) % total;
+				candidates[i] = candidates[j];
+				candidates[j] = currentIds[i];
+			}
+		}
+		int[] result = new int[users];
+		System.arraycopy(candidates, 0, result, 0, users);
+		return result;
+	}
+}
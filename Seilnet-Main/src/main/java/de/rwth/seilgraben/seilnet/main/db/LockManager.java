@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import de.rwth.seilgraben.seilnet.main.config.Constants;
+
+/**
+ * Hands out the monitors that guard modifications of {@link Room}s, {@link User}s and {@link Group}s.
+ * Instead of one monitor per object, each kind of object has a fixed number of lock stripes, and an
+ * object is mapped to a stripe by its ID. Operations on unrelated rooms / users therefore run in
+ * parallel, while the number of monitors stays constant.
+ * <p>
+ * Reading a {@link DatabaseObject} does not require any lock. Locks are only needed to make a
+ * sequence of modifications (and the checks that precede them) atomic.
+ * <p>
+ * <b>Lock ordering</b>: to prevent deadlocks, locks must always be acquired in the following order:
+ * <ol>
+ * <li>Room stripe ({@link #forRoom(int)}), at most one per thread</li>
+ * <li>User stripe ({@link #forUser(int)}), at most one per thread, except when all of them are
+ * acquired in ascending order via {@link #runWithAllUserLocks(Runnable)}</li>
+ * <li>Group stripe ({@link #forGroup(int)}), at most one per thread</li>
+ * <li>The {@link IPv4Pool}'s monitor, which is only held internally by its methods</li>
+ * <li>The {@link Database} monitor, which only guards the room and group registries. No other lock
+ * may be acquired while holding it, except for the next one.</li>
+ * <li>The {@link UserSearchIndex}'s monitor, which is only held internally by its methods</li>
+ * </ol>
+ * It is fine to skip a level, but never to acquire a lock of a higher level while holding one of a
+ * lower level. In particular, firewall rule updates (which take the room lock) must only be
+ * triggered after user and group locks have been released.
+ *
+ * @author Felix Kirchmann
+ */
+public class LockManager
+{
+	private final Object[]	roomStripes		= createStripes(Constants.DB_LOCK_STRIPES);
+	private final Object[]	userStripes		= createStripes(Constants.DB_LOCK_STRIPES);
+	private final Object[]	groupStripes	= createStripes(Constants.DB_LOCK_STRIPES);
+
+	LockManager()
+	{}
+
+	public Object forRoom(int roomId)
+	{
+		return roomStripes[Math.floorMod(roomId, roomStripes.length)];
+	}
+
+	public Object forUser(int userId)
+	{
+		return userStripes[Math.floorMod(userId, userStripes.length)];
+	}
+
+	public Object forGroup(int groupId)
+	{
+		return groupStripes[Math.floorMod(groupId, groupStripes.length)];
+	}
+
+	/**
+	 * Runs the given task while holding every user stripe. This is only meant for rare operations
+	 * that modify many users at once, such as the daily dynamic IPv4 reassignment. The calling thread
+	 * must not hold any user or group lock.
+	 */
+	public void runWithAllUserLocks(Runnable task)
+	{
+		runWithStripes(userStripes, 0, task);
+	}
+
+	private static void runWithStripes(Object[] stripes, int index, Runnable task)
+	{
+		if (index == stripes.length)
+		{
+			task.run();
+			return;
+		}
+		synchronized (stripes[index])
+		{
+			runWithStripes(stripes, index + 1, task);
+		}
+	}
+
+	private static Object[] createStripes(int count)
+	{
+		Object[] stripes = new Object[count];
+		for (int i = 0; i < count; i++)
+		{
+			stripes[i] = new Object();
+		}
+		return stripes;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * In-memory index of the currently assigned {@link User.Device}s by MAC address, so that looking up
+ * the user a MAC address belongs to (e.g. for every WiFi association in UIDIoT mode) does not
+ * require an SQL query. MAC addresses are keyed by {@link MacAddress#toLong()}.
+ * <p>
+ * The same MAC address may be assigned to several users at once. In that case, the most recently
+ * assigned device wins; since device IDs are generated in ascending order, that is the device with
+ * the highest ID.
+ * <p>
+ * The index may be read and modified without any external lock.
+ *
+ * @author Felix Kirchmann
+ */
+class MacAddressIndex
+{
+	private final Map<Long, List<ActiveDevice>> devices = new ConcurrentHashMap<>();
+	
+	/**
+	 * @return The ID of the user the MAC address is assigned to, or <code>null</code> if the index
+	 *         does not contain it.
+	 */
+	Integer getUserId(MacAddress macAddress)
+	{
+		List<ActiveDevice> active = devices.get(macAddress.toLong());
+		if (active == null) { return null; }
+		ActiveDevice latest = null;
+		for (ActiveDevice device : active)
+		{
+			if (latest == null || device.deviceId > latest.deviceId)
+			{
+				latest = device;
+			}
+		}
+		return latest.userId;
+	}
+	
+	void add(MacAddress macAddress, int deviceId, int userId)
+	{
+		devices.compute(macAddress.toLong(), (mac, active) -> {
+			List<ActiveDevice> updated = active == null ? new ArrayList<>(1) : new ArrayList<>(active);
+			updated.removeIf(device -> device.deviceId == deviceId);
+			updated.add(new ActiveDevice(deviceId, userId));
+			return Collections.unmodifiableList(updated);
+		});
+	}
+	
+	void remove(MacAddress macAddress, int deviceId)
+	{
+		devices.computeIfPresent(macAddress.toLong(), (mac, active) -> {
+			List<ActiveDevice> updated = new ArrayList<>(active);
+			updated.removeIf(device -> device.deviceId == deviceId);
+			return updated.isEmpty() ? null : Collections.unmodifiableList(updated);
+		});
+	}
+	
+	int size()
+	{
+		return devices.size();
+	}
+	
+	@RequiredArgsConstructor
+	private static class ActiveDevice
+	{
+		private final int	deviceId;
+		private final int	userId;
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Collects statistics about the database connection pool: the current number of active and idle
+ * connections, the number of threads waiting for a connection, and a histogram of how long it took
+ * to acquire a connection.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Felix Kirchmann
+ */
+public class PoolMetrics implements MetricsTrackerFactory, IMetricsTracker
+{
+	/**
+	 * Upper bounds (exclusive) of the acquire time histogram's buckets, in microseconds. The last
+	 * bucket counts everything above the last bound.
+	 */
+	private static final long[]		ACQUIRE_BUCKETS_MICROS	= { 100, 1_000, 10_000, 100_000, 1_000_000 };
+	private static final String[]	ACQUIRE_BUCKET_LABELS	= { "<0.1ms", "<1ms", "<10ms", "<100ms", "<1s",
+			">=1s" };
+
+	private final AtomicLongArray	acquireHistogram		= new AtomicLongArray(ACQUIRE_BUCKETS_MICROS.length + 1);
+	private final AtomicLong		timeouts				= new AtomicLong();
+	private final AtomicLong		created					= new AtomicLong();
+	private volatile HikariDataSource	dataSource;
+
+	PoolMetrics()
+	{}
+
+	void setDataSource(HikariDataSource dataSource)
+	{
+		this.dataSource = dataSource;
+	}
+
+	@Override
+	public IMetricsTracker create(String poolName, PoolStats poolStats)
+	{
+		return this;
+	}
+
+	@Override
+	public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos)
+	{
+		long micros = TimeUnit.NANOSECONDS.toMicros(elapsedAcquiredNanos);
+		int bucket = 0;
+		while (bucket < ACQUIRE_BUCKETS_MICROS.length && micros >= ACQUIRE_BUCKETS_MICROS[bucket])
+		{
+			bucket++;
+		}
+		acquireHistogram.incrementAndGet(bucket);
+	}
+
+	@Override
+	public void recordConnectionTimeout()
+	{
+		timeouts.incrementAndGet();
+	}
+
+	@Override
+	public void recordConnectionCreatedMillis(long connectionCreatedMillis)
+	{
+		created.incrementAndGet();
+	}
+
+	@Override
+	public void close()
+	{}
+
+	public int getActiveConnections()
+	{
+		HikariPoolMXBean pool = getPool();
+		return pool == null ? 0 : pool.getActiveConnections();
+	}
+
+	public int getIdleConnections()
+	{
+		HikariPoolMXBean pool = getPool();
+		return pool == null ? 0 : pool.getIdleConnections();
+	}
+
+	public int getTotalConnections()
+	{
+		HikariPoolMXBean pool = getPool();
+		return pool == null ? 0 : pool.getTotalConnections();
+	}
+
+	public int getThreadsAwaitingConnection()
+	{
+		HikariPoolMXBean pool = getPool();
+		return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+	}
+
+	public int getMaximumPoolSize()
+	{
+		HikariDataSource ds = dataSource;
+		return ds == null ? 0 : ds.getMaximumPoolSize();
+	}
+
+	public long getConnectionTimeouts()
+	{
+		return timeouts.get();
+	}
+
+	public long getConnectionsCreated()
+	{
+		return created.get();
+	}
+
+	/**
+	 * @return The number of connection acquisitions per time bucket, e.g. "&lt;1ms" -&gt; 42.
+	 */
+	public Map<String, Long> getAcquireTimeHistogram()
+	{
+		Map<String, Long> histogram = new LinkedHashMap<>();
+		for (int i = 0; i < ACQUIRE_BUCKET_LABELS.length; i++)
+		{
+			histogram.put(ACQUIRE_BUCKET_LABELS[i], acquireHistogram.get(i));
+		}
+		return histogram;
+	}
+
+	private HikariPoolMXBean getPool()
+	{
+		HikariDataSource ds = dataSource;
+		return ds == null ? null : ds.getHikariPoolMXBean();
+	}
+}
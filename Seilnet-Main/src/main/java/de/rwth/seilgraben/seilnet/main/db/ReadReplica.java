@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import com.esotericsoftware.minlog.Log;
+import com.j256.ormlite.jdbc.DataSourceConnectionSource;
+import com.j256.ormlite.support.ConnectionSource;
+import com.zaxxer.hikari.HikariDataSource;
+
+import de.rwth.seilgraben.seilnet.main.LogCategory;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * A read replica of the primary database, used for read-only queries that may see slightly stale
+ * data (see {@link Database#readOnlyDao(com.j256.ormlite.dao.Dao)}).
+ * <p>
+ * The replication lag is measured with a heartbeat: once per second, the current time is written to
+ * the <code>Replication_Heartbeat</code> table on the primary and then read back from the replica.
+ * Since both timestamps are taken by this process, clock differences between the database servers
+ * do not matter. If the lag exceeds the configured maximum, or the replica can not be reached, the
+ * replica is considered unusable and all reads go to the primary until it has caught up.
+ *
+ * @author Felix Kirchmann
+ */
+public class ReadReplica
+{
+	private static final long					HEARTBEAT_INTERVAL_MILLIS	= 1000;
+
+	private final DataSource					primary;
+	private final HikariDataSource				replica;
+	@Getter(AccessLevel.PACKAGE)
+	private final ConnectionSource				connectionSource;
+	@Getter
+	private final long							maxLagMillis;
+	private final ScheduledExecutorService		heartbeat;
+
+	/**
+	 * The lag measured by the last heartbeat, or -1 if the replica could not be checked.
+	 */
+	@Getter
+	private volatile long						lagMillis					= -1;
+
+	ReadReplica(DataSource primary, HikariDataSource replica, long maxLagMillis) throws SQLException
+	{
+		this.primary = primary;
+		this.replica = replica;
+		this.maxLagMillis = maxLagMillis;
+		this.connectionSource = new DataSourceConnectionSource(replica, replica.getJdbcUrl());
+
+		heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "ReplicationHeartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		heartbeat.scheduleWithFixedDelay(this::beat, 0, HEARTBEAT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return Whether read-only queries should currently be sent to the replica.
+	 */
+	public boolean isUsable()
+	{
+		long lag = lagMillis;
+		return lag >= 0 && lag <= maxLagMillis;
+	}
+
+	private void beat()
+	{
+		boolean wasUsable = isUsable();
+		try
+		{
+			try (Connection connection = primary.getConnection();
+					PreparedStatement write = connection
+							.prepareStatement("UPDATE Replication_Heartbeat SET Time = ? WHERE ID = 1"))
+			{
+				write.setTimestamp(1, Timestamp.from(Instant.now()));
+				write.executeUpdate();
+			}
+			try (Connection connection = replica.getConnection();
+					PreparedStatement read = connection
+							.prepareStatement("SELECT Time FROM Replication_Heartbeat WHERE ID = 1");
+					ResultSet result = read.executeQuery())
+			{
+				lagMillis = result.next()
+						? Math.max(0, Instant.now().toEpochMilli() - result.getTimestamp(1).getTime())
+						: -1;
+			}
+		}
+		catch (SQLException | RuntimeException e)
+		{
+			lagMillis = -1;
+			if (wasUsable)
+			{
+				Log.warn(LogCategory.DB, "Replication heartbeat failed", e);
+			}
+		}
+		if (wasUsable != isUsable())
+		{
+			Log.info(LogCategory.DB, "Read replica is now " + (isUsable() ? "used" : "not used")
+					+ " for reads (lag: " + (lagMillis < 0 ? "unknown" : lagMillis + " ms") + ")");
+		}
+	}
+
+	void close()
+	{
+		heartbeat.shutdownNow();
+		replica.close();
+	}
+}
@@ -6,12 +6,10 @@
 package de.rwth.seilgraben.seilnet.main.db;
 
 import java.sql.SQLException;
-import java.util.List;
 
 import de.rwth.seilgraben.seilnet.main.db.Database.DatabaseObject;
 import de.rwth.seilgraben.seilnet.main.db.Database.RoomNumberInUseException;
 import de.rwth.seilgraben.seilnet.main.db.orm.DBRoom;
-import de.rwth.seilgraben.seilnet.main.db.orm.DBUserRoomAssignment;
 import lombok.NonNull;
 
 /**
@@ -32,7 +30,7 @@ public class Room extends DatabaseObject<DBRoom>implements Comparable<Room>
 		
 		synchronized (db)
 		{
-			Room existingRoom = db.roomsByNumber.get(roomNumber);
+			Room existingRoom = db.roomCatalog.getByNumber(roomNumber);
 			if (existingRoom != null) { throw new Database.RoomNumberInUseException(existingRoom); }
 			try
 			{
@@ -51,17 +49,30 @@ public class Room extends DatabaseObject<DBRoom>implements Comparable<Room>
 		return dbObject.getId();
 	}
 	
+	@Override
+	protected Object getLock()
+	{
+		return db.getLocks().forRoom(getId());
+	}
+	
 	public void setRoomNumber(@NonNull String roomNumber) throws RoomNumberInUseException
 	{
 		if (roomNumber.equals(dbObject.getRoomNumber())) { return; }
 		synchronized (db)
 		{
-			Room existingRoom = db.roomsByNumber.get(roomNumber);
+			Room existingRoom = db.roomCatalog.getByNumber(roomNumber);
 			if (existingRoom != null) { throw new Database.RoomNumberInUseException(existingRoom); }
-			db.roomsByNumber.remove(dbObject.getRoomNumber());
 			dbObject.setRoomNumber(roomNumber);
-			db.roomsByNumber.put(roomNumber, this);
-			update();
+			update("roomNumber");
+			db.roomCatalog = db.roomCatalog.with(this);
+		}
+		// The room number is part of the tenants' search index entries
+		for (User tenant : new User[] { getMainTenant(), getCurrentUser() })
+		{
+			if (tenant != null)
+			{
+				tenant.refreshSnapshot();
+			}
 		}
 	}
 	
@@ -72,8 +83,11 @@ public class Room extends DatabaseObject<DBRoom>implements Comparable<Room>
 	
 	public void setDescription(String info)
 	{
-		dbObject.setDescription(info);
-		update();
+		synchronized (db.getLocks().forRoom(getId()))
+		{
+			dbObject.setDescription(info);
+			update("description");
+		}
 	}
 	
 	public String getDescription()
@@ -108,34 +122,14 @@ public class Room extends DatabaseObject<DBRoom>implements Comparable<Room>
 		return getUser(false);
 	}
 	
+	/**
+	 * Looks up a tenant in the room occupancy index, which does not require an SQL query.
+	 */
 	private User getUser(boolean subtenantAllowed)
 	{
-		synchronized (db)
-		{
-			try
-			{
-				List<DBUserRoomAssignment> assignments = db.userRoomDao.queryBuilder().where()
-						.eq("Room_ID", dbObject.getId()).and().isNull("Assigned_To").query();
-				if (assignments.size() > 2)
-				{
-					throw new RuntimeException("Room ID " + dbObject.getId() + " is assigned to " + assignments.size()
-							+ " users simultaneously!");
-				}
-				else if (assignments.isEmpty()) { return null; }
-				
-				for (DBUserRoomAssignment assignment : assignments)
-				{
-					if ((subtenantAllowed == assignment.isSubtenant())
-							|| assignments.size() == 1) { return db.getUserByID(assignment.getUser().getId()); }
-				}
-				throw new RuntimeException("Room ID " + dbObject.getId() + " is assigned to " + assignments.size()
-						+ " main tenants simultaneously!");
-			}
-			catch (SQLException e)
-			{
-				throw new RuntimeException(e);
-			}
-		}
+		Integer userId = subtenantAllowed ? db.roomOccupancy.getCurrentUserId(getId())
+				: db.roomOccupancy.getMainTenantId(getId());
+		return userId == null ? null : db.getUserByID(userId);
 	}
 	
 	@Override
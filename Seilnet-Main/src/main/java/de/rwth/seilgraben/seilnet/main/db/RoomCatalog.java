@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable catalog of all {@link Room}s, sorted by room number (see {@link Room#compareTo(Room)})
+ * and indexed by ID, room number and VLAN. Rooms are rarely created or renumbered, so instead of
+ * locking on every read, {@link Database} publishes a new catalog whenever that happens.
+ *
+ * @author Felix Kirchmann
+ */
+final class RoomCatalog
+{
+	static final RoomCatalog		EMPTY	= new RoomCatalog(Collections.emptyList());
+
+	private final List<Room>			rooms;
+	private final Map<Integer, Room>	byId		= new HashMap<>();
+	private final Map<String, Room>		byNumber	= new HashMap<>();
+	private final Map<Integer, Room>	byVlan		= new HashMap<>();
+
+	/**
+	 * Must be called while holding the {@link Database}'s lock, so that the room numbers do not change
+	 * while the catalog is built.
+	 */
+	RoomCatalog(Collection<Room> rooms)
+	{
+		List<Room> sorted = new ArrayList<>(rooms);
+		Collections.sort(sorted);
+		this.rooms = Collections.unmodifiableList(sorted);
+		for (Room room : sorted)
+		{
+			byId.put(room.getId(), room);
+			byNumber.put(room.getRoomNumber(), room);
+			// VLANs are not unique in the database. If they are shared, the first room by number wins.
+			if (room.getVlan() != null)
+			{
+				byVlan.putIfAbsent(room.getVlan(), room);
+			}
+		}
+	}
+
+	/**
+	 * @return A new catalog that additionally contains the given room, or contains it with its
+	 *         current room number.
+	 */
+	RoomCatalog with(Room room)
+	{
+		Map<Integer, Room> updated = new HashMap<>(byId);
+		updated.put(room.getId(), room);
+		return new RoomCatalog(updated.values());
+	}
+
+	/**
+	 * @return All rooms, sorted by room number. The list is unmodifiable.
+	 */
+	List<Room> list()
+	{
+		return rooms;
+	}
+
+	Room getById(int id)
+	{
+		return byId.get(id);
+	}
+
+	Room getByNumber(String roomNumber)
+	{
+		return byNumber.get(roomNumber);
+	}
+
+	Room getByVlan(int vlan)
+	{
+		return byVlan.get(vlan);
+	}
+}
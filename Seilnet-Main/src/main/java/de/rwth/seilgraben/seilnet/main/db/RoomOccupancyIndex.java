@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * In-memory index of the currently active {@link User} &lt;-&gt; {@link Room} assignments, so that
+ * looking up a room's tenants does not require an SQL query. The index may be read without any
+ * lock, but must only be modified while holding the room's lock (see {@link LockManager}).
+ *
+ * @author Felix Kirchmann
+ */
+class RoomOccupancyIndex
+{
+	private final Map<Integer, Occupancy> occupancies = new ConcurrentHashMap<>();
+
+	/**
+	 * @return The user ID of the room's main tenant, or <code>null</code> if the room is empty.
+	 */
+	Integer getMainTenantId(int roomId)
+	{
+		Occupancy occupancy = occupancies.get(roomId);
+		if (occupancy == null) { return null; }
+		return occupancy.getMainTenantId() != null ? occupancy.getMainTenantId() : occupancy.getSubtenantId();
+	}
+
+	/**
+	 * @return The user ID of the room's subtenant if there is one, otherwise that of its main tenant,
+	 *         or <code>null</code> if the room is empty.
+	 */
+	Integer getCurrentUserId(int roomId)
+	{
+		Occupancy occupancy = occupancies.get(roomId);
+		return occupancy == null ? null : occupancy.getCurrentUserId();
+	}
+
+	void assign(int roomId, int userId, boolean subtenant)
+	{
+		occupancies.compute(roomId, (id, occupancy) -> {
+			if (occupancy == null) { occupancy = new Occupancy(null, null); }
+			return subtenant ? new Occupancy(occupancy.getMainTenantId(), userId)
+					: new Occupancy(userId, occupancy.getSubtenantId());
+		});
+	}
+
+	void unassign(int roomId, int userId)
+	{
+		occupancies.computeIfPresent(roomId, (id, occupancy) -> {
+			Integer mainTenantId = occupancy.getMainTenantId();
+			Integer subtenantId = occupancy.getSubtenantId();
+			if (mainTenantId != null && mainTenantId == userId) { mainTenantId = null; }
+			if (subtenantId != null && subtenantId == userId) { subtenantId = null; }
+			return mainTenantId == null && subtenantId == null ? null : new Occupancy(mainTenantId, subtenantId);
+		});
+	}
+
+	/**
+	 * Replaces the entry for a single room, or removes it if <code>occupancy</code> is
+	 * <code>null</code>.
+	 */
+	void set(int roomId, Occupancy occupancy)
+	{
+		if (occupancy == null)
+		{
+			occupancies.remove(roomId);
+		}
+		else
+		{
+			occupancies.put(roomId, occupancy);
+		}
+	}
+
+	Occupancy get(int roomId)
+	{
+		return occupancies.get(roomId);
+	}
+
+	Map<Integer, Occupancy> snapshot()
+	{
+		return Collections.unmodifiableMap(new HashMap<>(occupancies));
+	}
+
+	/**
+	 * The tenants of a single room. If only one user is assigned to a room, that user is considered
+	 * its main tenant, even if the assignment is flagged as a subtenancy.
+	 */
+	@RequiredArgsConstructor
+	@Getter
+	@EqualsAndHashCode
+	static class Occupancy
+	{
+		private final Integer	mainTenantId;
+		private final Integer	subtenantId;
+
+		Integer getCurrentUserId()
+		{
+			return subtenantId != null ? subtenantId : mainTenantId;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "main tenant: " + mainTenantId + ", subtenant: " + subtenantId;
+		}
+	}
+}
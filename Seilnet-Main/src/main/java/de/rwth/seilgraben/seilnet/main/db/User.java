@@ -10,6 +10,8 @@ import java.sql.SQLException;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
@@ -25,6 +27,7 @@ import de.rwth.seilgraben.seilnet.main.config.Constants;
 import de.rwth.seilgraben.seilnet.main.LogCategory;
 import de.rwth.seilgraben.seilnet.main.SeilnetMain;
 import de.rwth.seilgraben.seilnet.main.config.Permission;
+import de.rwth.seilgraben.seilnet.main.db.AuthEventWriter.PendingEvents;
 import de.rwth.seilgraben.seilnet.main.db.Database.DatabaseObject;
 import de.rwth.seilgraben.seilnet.main.db.Database.EMailInUseException;
 import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent;
@@ -37,7 +40,6 @@ import de.rwth.seilgraben.seilnet.main.db.orm.DBUserIPv4Assignment;
 import de.rwth.seilgraben.seilnet.main.db.orm.DBUserRoomAssignment;
 import de.rwth.seilgraben.seilnet.util.Func;
 import de.rwth.seilgraben.seilnet.util.MacAddress;
-import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.SneakyThrows;
@@ -49,57 +51,87 @@ import lombok.Synchronized;
  */
 public class User extends DatabaseObject<DBUser>
 {
-	@Getter(AccessLevel.PACKAGE)
-	private final Set<Group>		groups			= new HashSet<>();
-	private volatile RoomAssignment	assignment		= null;
-	private final List<Device>		assignedDevices	= new ArrayList<>();
-	private final List<Device>		previousDevices	= new ArrayList<>();
+	/*
+	 * These fields are only accessed while holding dbLock. Readers use the snapshot instead.
+	 */
+	private final Set<Group>			groups			= new HashSet<>();
+	private RoomAssignment				assignment		= null;
+	private final List<Device>			assignedDevices	= new ArrayList<>();
+	private final List<Device>			previousDevices	= new ArrayList<>();
+	
+	private volatile UserSnapshot		snapshot;
 	
-	private final Object			dbLock;
+	private final Object				dbLock;
 	
 	User(Database db, @NonNull DBUser dbObject)
+	{
+		this(db, dbObject, queryGroups(db, dbObject.getId()), queryDevices(db, dbObject.getId()));
+	}
+	
+	/**
+	 * Creates a user whose groups and devices have already been loaded, see {@link UserGraphLoader}.
+	 */
+	User(Database db, @NonNull DBUser dbObject, @NonNull Collection<Group> groups,
+			@NonNull Collection<DBUserDevice> devices)
 	{
 		super(db, db.userDao, dbObject);
-		dbLock = db;
+		dbLock = db.getLocks().forUser(dbObject.getId());
 		
 		if (dbObject.getRoomAssignment() != null)
 		{
 			assignment = new RoomAssignment(db, this, dbObject.getRoomAssignment());
 		}
 		
-		synchronized (db)
+		this.groups.addAll(groups);
+		for (DBUserDevice device : devices)
 		{
-			try
+			Device deviceObj = new Device(db, this, device);
+			if (device.getAssignedTo() == null)
 			{
-				for (DBUserGroupAssignment assignment : db.userGroupDao.queryForEq("User_ID", getId()))
-				{
-					groups.add(db.getGroupByID(assignment.getGroup().getId()));
-				}
-				for (DBUserDevice device : db.userDeviceDao.queryForEq("User_ID", getId()))
-				{
-					Device deviceObj = new Device(db, this, device);
-					if (device.getAssignedTo() == null)
-					{
-						assignedDevices.add(deviceObj);
-					}
-					else
-					{
-						previousDevices.add(deviceObj);
-					}
-				}
+				assignedDevices.add(deviceObj);
 			}
-			catch (SQLException e)
+			else
 			{
-				throw new RuntimeException(e);
+				previousDevices.add(deviceObj);
 			}
 		}
+		// Not added to the search index, since it already contains all users that exist in the database
+		snapshot = createSnapshot();
+	}
+	
+	private static List<Group> queryGroups(Database db, int userId)
+	{
+		try
+		{
+			List<Group> groups = new ArrayList<>();
+			for (DBUserGroupAssignment assignment : db.userGroupDao.queryForEq("User_ID", userId))
+			{
+				groups.add(db.getGroupByID(assignment.getGroup().getId()));
+			}
+			return groups;
+		}
+		catch (SQLException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static List<DBUserDevice> queryDevices(Database db, int userId)
+	{
+		try
+		{
+			return db.userDeviceDao.queryForEq("User_ID", userId);
+		}
+		catch (SQLException e)
+		{
+			throw new RuntimeException(e);
+		}
 	}
 	
 	User(Database db, @NonNull String firstName, @NonNull String lastName, @NonNull String email,
 			@NonNull Locale locale) throws EMailInUseException
 	{
 		super(db, db.userDao, new DBUser());
-		dbLock = db;
 		
 		dbObject.setFirstName(firstName);
 		dbObject.setLastName(lastName);
@@ -122,6 +154,9 @@ public class User extends DatabaseObject<DBUser>
 				throw new RuntimeException(e);
 			}
 		}
+		// The ID (and therefore the lock stripe) is only known once the user has been created
+		dbLock = db.getLocks().forUser(dbObject.getId());
+		publishSnapshot();
 	}
 
 	@Override
@@ -130,28 +165,92 @@ public class User extends DatabaseObject<DBUser>
 		return dbObject.getId();
 	}
 	
+	@Override
+	protected Object getLock()
+	{
+		return dbLock;
+	}
+	
+	/**
+	 * @return The current state of this user. Use this instead of several getters if the values need
+	 *         to be consistent with each other, e.g. when computing firewall rules.
+	 */
+	public UserSnapshot getSnapshot()
+	{
+		return snapshot;
+	}
+	
+	/**
+	 * Replaces the snapshot with one of the current state, and updates this user's entry in the
+	 * search index. Must be called while holding this user's lock after every modification.
+	 * Modifications of the ORM object that go through {@link #update(String...)} publish a new
+	 * snapshot automatically.
+	 */
+	void publishSnapshot()
+	{
+		UserSnapshot snapshot = createSnapshot();
+		this.snapshot = snapshot;
+		db.searchIndex.update(getId(), UserSearchIndex.document(snapshot.getFirstName(), snapshot.getLastName(),
+				snapshot.getEmail(), snapshot.getPhone(), snapshot.getMatriculationNumber(), snapshot.getTimUsername(),
+				assignment == null ? null : assignment.getRoom().getRoomNumber(),
+				snapshot.getAssignedDevices().stream().map(Device::getName).collect(Collectors.toList()),
+				snapshot.getAssignedMacAddresses()));
+	}
+	
+	private UserSnapshot createSnapshot()
+	{
+		return new UserSnapshot(dbObject, groups, assignment, assignedDevices, previousDevices);
+	}
+	
+	/**
+	 * Publishes a new snapshot after something it depends on has changed outside of this user, e.g.
+	 * the permissions of one of the user's groups or the number of the user's room. Must not be
+	 * called while holding a group lock, see {@link LockManager}.
+	 */
+	void refreshSnapshot()
+	{
+		synchronized (dbLock)
+		{
+			publishSnapshot();
+		}
+	}
+	
+	@Override
+	protected void update()
+	{
+		super.update();
+		publishSnapshot();
+	}
+	
+	@Override
+	protected void update(String... fieldNames)
+	{
+		super.update(fieldNames);
+		publishSnapshot();
+	}
+	
 	public String getFirstName()
 	{
-		return dbObject.getFirstName();
+		return snapshot.getFirstName();
 	}
 	
 	@Synchronized("dbLock")
 	public void setFirstName(@NonNull String firstName)
 	{
 		dbObject.setFirstName(firstName);
-		update();
+		update("firstName");
 	}
 	
 	public String getLastName()
 	{
-		return dbObject.getLastName();
+		return snapshot.getLastName();
 	}
 	
 	@Synchronized("dbLock")
 	public void setLastName(@NonNull String lastName)
 	{
 		dbObject.setLastName(lastName);
-		update();
+		update("lastName");
 	}
 	
 	/**
@@ -159,94 +258,94 @@ public class User extends DatabaseObject<DBUser>
 	 */
 	public String getFullName()
 	{
-		return getFirstName() + " " + getLastName();
+		return snapshot.getFullName();
 	}
 	
 	public LocalDate getBirthday()
 	{
-		return dbObject.getBirthday();
+		return snapshot.getBirthday();
 	}
 	
 	@Synchronized("dbLock")
 	public void setBirthday(LocalDate birthday)
 	{
 		dbObject.setBirthday(birthday);
-		update();
+		update("birthday");
 	}
 	
 	public String getPhone()
 	{
-		return dbObject.getPhone();
+		return snapshot.getPhone();
 	}
 	
 	@Synchronized("dbLock")
 	public void setPhone(String phone)
 	{
 		dbObject.setPhone(phone);
-		update();
+		update("phone");
 	}
 	
 	public String getEmail()
 	{
-		return dbObject.getEmail();
+		return snapshot.getEmail();
 	}
 	
 	@Synchronized("dbLock")
 	public void setEmail(@NonNull String email)
 	{
 		dbObject.setEmail(email);
-		update();
+		update("email");
 	}
 	
 	public Locale getLocale()
 	{
-		return Locale.forLanguageTag(dbObject.getLocale());
+		return snapshot.getLocale();
 	}
 	
 	@Synchronized("dbLock")
 	public void setLocale(@NonNull Locale locale)
 	{
 		dbObject.setLocale(locale.toLanguageTag());
-		update();
+		update("locale");
 	}
 
-	public String getMatriculationNumber() { return dbObject.getMatriculationNumber(); }
+	public String getMatriculationNumber() { return snapshot.getMatriculationNumber(); }
 
 	@Synchronized("dbLock")
 	public void setMatriculationNumber(String matriculationNumber)
 	{
 		dbObject.setMatriculationNumber(matriculationNumber);
-		update();
+		update("matriculationNumber");
 	}
 
-	public String getTimUsername() { return dbObject.getTimUsername(); }
+	public String getTimUsername() { return snapshot.getTimUsername(); }
 
 	@Synchronized("dbLock")
 	public void setTimUsername(String timUsername)
 	{
 		dbObject.setTimUsername(timUsername);
-		update();
+		update("timUsername");
 	}
 
-	public String getComments() { return dbObject.getComments(); }
+	public String getComments() { return snapshot.getComments(); }
 
 	@Synchronized("dbLock")
 	public void setComments(String comments)
 	{
 		dbObject.setComments(comments);
-		update();
+		update("comments");
 	}
 	
 	public String getWlanPassword()
 	{
-		return dbObject.getWlanPassword();
+		return snapshot.getWlanPassword();
 	}
 	
 	@Synchronized("dbLock")
 	public void setWlanPassword(String wlanPassword)
 	{
 		dbObject.setWlanPassword(wlanPassword);
-		update();
+		update("wlanPassword");
 	}
 	
 	public boolean verifyWebPassword(@NonNull String passwordToVerify)
@@ -263,10 +362,10 @@ public class User extends DatabaseObject<DBUser>
 			return;
 		}
 		String pwCrypt = SCryptUtil.scrypt(webPassword, Constants.SCRYPT_N, Constants.SCRYPT_R, Constants.SCRYPT_P);
-		synchronized (db)
+		synchronized (dbLock)
 		{
 			dbObject.setWebPasswordHash(pwCrypt);
-			update();
+			update("webPasswordHash");
 		}
 	}
 	
@@ -280,95 +379,103 @@ public class User extends DatabaseObject<DBUser>
 	{
 		String token = Func.generateRandomString(32, Constants.PASSWORD_RESET_TOKEN_CHARSET);
 		dbObject.setWebPasswordResetToken(token);
-		update();
+		update("webPasswordResetToken");
 		return token;
 	}
 	
+	@Synchronized("dbLock")
 	public void deactivateWebPasswordResetToken()
 	{
 		dbObject.setWebPasswordResetToken(null);
-		update();
+		update("webPasswordResetToken");
 	}
 	
 	public boolean isDeactivated()
 	{
-		return dbObject.isDeactivated();
+		return snapshot.isDeactivated();
 	}
 	
-	@Synchronized("dbLock")
 	public void setDeactivated(boolean deactivated)
 	{
-		dbObject.setDeactivated(deactivated);
-		update();
+		synchronized (dbLock)
+		{
+			dbObject.setDeactivated(deactivated);
+			update("deactivated");
+		}
 		updateFirewallRules();
 	}
 	
 	public boolean isDeleted()
 	{
-		return dbObject.isDeleted();
+		return snapshot.isDeleted();
 	}
 	
-	@Synchronized("dbLock")
 	public void setDeleted(boolean deleted)
 	{
-		dbObject.setDeleted(deleted);
-		update();
+		synchronized (dbLock)
+		{
+			dbObject.setDeleted(deleted);
+			update("deleted");
+		}
 		updateFirewallRules();
 	}
 	
-	@Synchronized("dbLock")
 	public void addToGroup(Group group)
 	{
-		if (group.isDeleted()) { throw new Database.DatabaseObjectDeletedException(); }
-		if (groups.contains(group)) { return; }
-		
-		DBUserGroupAssignment assignment = new DBUserGroupAssignment();
-		assignment.setGroup(group.getDbGroup());
-		assignment.setUser(dbObject);
-		try
+		synchronized (dbLock)
 		{
-			db.userGroupDao.create(assignment);
-		}
-		catch (SQLException e)
-		{
-			throw new RuntimeException(e);
+			if (group.isDeleted()) { throw new Database.DatabaseObjectDeletedException(); }
+			if (groups.contains(group)) { return; }
+			
+			DBUserGroupAssignment assignment = new DBUserGroupAssignment();
+			assignment.setGroup(group.getDbGroup());
+			assignment.setUser(dbObject);
+			try
+			{
+				db.userGroupDao.create(assignment);
+			}
+			catch (SQLException e)
+			{
+				throw new RuntimeException(e);
+			}
+			groups.add(group);
+			publishSnapshot();
 		}
-		groups.add(group);
 		updateFirewallRules();
 	}
 	
-	@Synchronized("dbLock")
 	@SneakyThrows
 	public boolean removeFromGroup(Group group)
 	{
-		if (!groups.remove(group)) { return false; }
-		DeleteBuilder<DBUserGroupAssignment, Integer> deleteBuilder = db.userGroupDao.deleteBuilder();
-		deleteBuilder.where().eq("User_ID", getId()).and().eq("Group_ID", group.getId());
-		if (deleteBuilder.delete() < 1)
+		synchronized (dbLock)
 		{
-			Log.warn(LogCategory.DB,
-					new SQLException("Removed user from group, but no group membership was stored in SQL DB"));
+			if (!groups.remove(group)) { return false; }
+			publishSnapshot();
+			DeleteBuilder<DBUserGroupAssignment, Integer> deleteBuilder = db.userGroupDao.deleteBuilder();
+			deleteBuilder.where().eq("User_ID", getId()).and().eq("Group_ID", group.getId());
+			if (deleteBuilder.delete() < 1)
+			{
+				Log.warn(LogCategory.DB,
+						new SQLException("Removed user from group, but no group membership was stored in SQL DB"));
+			}
 		}
 		updateFirewallRules();
 		return true;
 	}
 	
-	@Synchronized("dbLock")
+	/**
+	 * @return An unmodifiable set of this user's groups.
+	 */
 	public Set<Group> listGroups()
 	{
-		return new HashSet<>(groups);
+		return snapshot.getGroups();
 	}
 	
-	@Synchronized("dbLock")
 	public boolean hasPermission(Permission p)
 	{
-		if (dbObject.getPermissions().contains(p)) { return true; }
-		for (Group g : groups)
-		{
-			if (g.getPermissions().contains(p)) { return true; }
-		}
-		return false;
+		return snapshot.hasPermission(p);
 	}
+
 	
 	/**
 	 * *******************************************
@@ -376,42 +483,48 @@ public class User extends DatabaseObject<DBUser>
 	 * *******************************************
 	 */
 	
-	@Synchronized("dbLock")
 	public RoomAssignment getRoomAssignment()
 	{
-		return assignment;
+		return snapshot.getRoomAssignment();
 	}
 	
 	/**
 	 * Atomically assigns this user to a room and gives him an IP address.
 	 */
-	@Synchronized("dbLock")
 	public void assignRoom(@NonNull Room room, Instant leaseExpiration, boolean subtenant)
 			throws UserAlreadyAssignedException, RoomAlreadyAssignedException, RoomWithoutMainTenantException,
 			SubTenantExpiresAfterMainTenantException, NoFreeIPv4Exception
 	{
-		if (assignment != null) { throw new UserAlreadyAssignedException(); }
-		if (db.getFreeIPv4() == null) { throw new NoFreeIPv4Exception(); }
-		
-		User currentUser = room.getCurrentUser();
-		if ((currentUser != null && currentUser.getRoomAssignment().isSubtenant())
-				|| (currentUser != null && !subtenant)) { throw new RoomAlreadyAssignedException(room, currentUser); }
-		if (currentUser == null && subtenant) { throw new RoomWithoutMainTenantException(room); }
-		if (subtenant)
+		synchronized (db.getLocks().forRoom(room.getId()))
 		{
-			User mainTenant = room.getMainTenant();
-			Instant mainTenantExpiration = room.getMainTenant().getRoomAssignment().getExpiration();
-			if (mainTenantExpiration
-					.compareTo(leaseExpiration) <= 0) { throw new SubTenantExpiresAfterMainTenantException(room,
-							mainTenant, mainTenantExpiration); }
+			synchronized (dbLock)
+			{
+				if (assignment != null) { throw new UserAlreadyAssignedException(); }
+				if (!db.hasFreeIPv4()) { throw new NoFreeIPv4Exception(); }
+				
+				User currentUser = room.getCurrentUser();
+				if ((currentUser != null && currentUser.getRoomAssignment().isSubtenant())
+						|| (currentUser != null && !subtenant)) { throw new RoomAlreadyAssignedException(room,
+								currentUser); }
+				if (currentUser == null && subtenant) { throw new RoomWithoutMainTenantException(room); }
+				if (subtenant)
+				{
+					User mainTenant = room.getMainTenant();
+					Instant mainTenantExpiration = room.getMainTenant().getRoomAssignment().getExpiration();
+					if (mainTenantExpiration
+							.compareTo(leaseExpiration) <= 0) { throw new SubTenantExpiresAfterMainTenantException(
+									room, mainTenant, mainTenantExpiration); }
+				}
+				
+				assignment = new RoomAssignment(db, room, this, leaseExpiration, subtenant);
+				dbObject.setRoomAssignment(assignment.dbObject);
+				update("roomAssignment");
+				db.roomOccupancy.assign(room.getId(), getId(), subtenant);
+				assignNatIPv4(false);
+				db.roomExpiryService.schedule(dbObject.getId(), leaseExpiration);
+			}
+			updateFirewallRules();
 		}
-		
-		assignment = new RoomAssignment(db, room, this, leaseExpiration, subtenant);
-		dbObject.setRoomAssignment(assignment.dbObject);
-		update();
-		assignNatIPv4();
-		db.roomExpiryService.schedule(dbObject.getId(), leaseExpiration);
-		updateFirewallRules();
 	}
 
 	public static class UserAlreadyAssignedException extends Exception
@@ -484,33 +597,53 @@ public class User extends DatabaseObject<DBUser>
 			dbObject.setExpiration(expiration);
 			dbObject.setSubtenant(subtenant);
 			
-			synchronized (db)
+			// The caller holds the room's and the user's lock
+			try
 			{
-				try
-				{
-					dao.create(dbObject);
-					dao.refresh(dbObject); // Workaround to load the DB-generated AssignedFrom
-				}
-				catch (SQLException e)
-				{
-					throw new RuntimeException(e);
-				}
+				dao.create(dbObject);
+				dao.refresh(dbObject); // Workaround to load the DB-generated AssignedFrom
+			}
+			catch (SQLException e)
+			{
+				throw new RuntimeException(e);
 			}
 		}
 		
-		@Synchronized("dbLockInt")
+		private Object roomLock()
+		{
+			return db.getLocks().forRoom(dbObject.getRoom().getId());
+		}
+		
 		public void endNow() throws AssignmentAlreadyEndedException, RoomHasSubTenantException
 		{
-			// Room currently has a subtenant? Can't remove the main tenant's lease then.
-			if (!getRoom().getCurrentUser().equals(user)) { throw new RoomHasSubTenantException(); }
-			
-			dbObject.setExpiration(Instant.now());
-			cleanup();
+			synchronized (roomLock())
+			{
+				synchronized (dbLockInt)
+				{
+					// Room currently has a subtenant? Can't remove the main tenant's lease then.
+					if (!getRoom().getCurrentUser().equals(user)) { throw new RoomHasSubTenantException(); }
+					
+					dbObject.setExpiration(Instant.now());
+					update("expiration");
+				}
+				cleanup();
+			}
 		}
 		
-		@Synchronized("dbLockInt")
 		public void setExpiration(Instant newExpiration) throws AssignmentAlreadyEndedException,
 				SubTenantExpiresAfterMainTenantException, EarlyLeaseExpirationException
+		{
+			synchronized (roomLock())
+			{
+				synchronized (dbLockInt)
+				{
+					setExpirationLocked(newExpiration);
+				}
+			}
+		}
+		
+		private void setExpirationLocked(Instant newExpiration) throws AssignmentAlreadyEndedException,
+				SubTenantExpiresAfterMainTenantException, EarlyLeaseExpirationException
 		{
 			if (isExpirationComplete()) { throw new AssignmentAlreadyEndedException(); }
 			if (isSubtenant())
@@ -534,10 +667,9 @@ public class User extends DatabaseObject<DBUser>
 			if (newExpiration != null
 					&& newExpiration.compareTo(Instant.now()) <= 0) { throw new EarlyLeaseExpirationException(); }
 			dbObject.setExpiration(newExpiration);
-			update();
+			update("expiration");
 		}
 		
-		@Synchronized("dbLockInt")
 		public boolean isExpirationComplete()
 		{
 			return dbObject.getAssignedTo() != null;
@@ -577,22 +709,28 @@ public class User extends DatabaseObject<DBUser>
 		 * @return The expiration date if it is in the future (in this case, the assignment has not
 		 *         been ended yet), <code>null</code> otherwise.
 		 */
-		@Synchronized("dbLockInt")
 		public Instant cleanup()
 		{
-			if (!isExpirationComplete() && dbObject.getExpiration().compareTo(Instant.now()) <= 0)
+			Room room = getRoom();
+			synchronized (roomLock())
 			{
-				assignment = null;
-				user.dbObject.setRoomAssignment(null);
-				user.update();
-				dbObject.setAssignedTo(Instant.now());
-				update();
-				user.unassignNatIPv4();
-				
-				SeilnetMain.getFirewallManager().updateRules(getRoom());
+				synchronized (dbLockInt)
+				{
+					if (isExpirationComplete() || dbObject.getExpiration().compareTo(Instant.now()) > 0)
+					{
+						return dbObject.getExpiration();
+					}
+					assignment = null;
+					user.dbObject.setRoomAssignment(null);
+					user.update("roomAssignment");
+					dbObject.setAssignedTo(Instant.now());
+					update("assignedTo");
+					db.roomOccupancy.unassign(room.getId(), user.getId());
+					user.unassignNatIPv4(false);
+				}
+				SeilnetMain.getFirewallManager().updateRules(room);
 				return null;
 			}
-			return dbObject.getExpiration();
 		}
 		
 		@Override
@@ -600,6 +738,12 @@ public class User extends DatabaseObject<DBUser>
 		{
 			return dbObject.getId();
 		}
+		
+		@Override
+		protected Object getLock()
+		{
+			return dbLockInt;
+		}
 	}
 	
 	public static class AssignmentAlreadyEndedException extends Exception
@@ -642,33 +786,42 @@ public class User extends DatabaseObject<DBUser>
 	 * **********************************
 	 */
 	
-	@Synchronized("dbLock")
+	/**
+	 * @return An unmodifiable list of this user's currently assigned devices.
+	 */
 	public List<Device> getAssignedDevices()
 	{
-		return new ArrayList<Device>(assignedDevices);
+		return snapshot.getAssignedDevices();
 	}
 	
-	@Synchronized("dbLock")
+	/**
+	 * @return An unmodifiable list of the devices that were assigned to this user in the past.
+	 */
 	public List<Device> getPreviousDevices()
 	{
-		return new ArrayList<Device>(previousDevices);
+		return snapshot.getPreviousDevices();
 	}
 	
-	@Synchronized("dbLock")
 	@SneakyThrows
 	public Device assignDevice(@NonNull String name, @NonNull MacAddress macAddress) throws MacAlreadyAssignedException
 	{
-		for (DBUserDevice device :
-				db.userDeviceDao.queryBuilder()
-						.where().eq("MAC_Address", macAddress)
-						.and().isNull("Assigned_To")
-						.and().eq("User_ID", this.getId())
-						.query())
+		Device device;
+		synchronized (dbLock)
 		{
-			throw new MacAlreadyAssignedException(db.getUserByID(device.getUser().getId()), macAddress);
+			for (DBUserDevice existingDevice :
+					db.userDeviceDao.queryBuilder()
+							.where().eq("MAC_Address", macAddress)
+							.and().isNull("Assigned_To")
+							.and().eq("User_ID", this.getId())
+							.query())
+			{
+				throw new MacAlreadyAssignedException(db.getUserByID(existingDevice.getUser().getId()), macAddress);
+			}
+			device = new Device(db, this, name, macAddress);
+			assignedDevices.add(device);
+			publishSnapshot();
+			db.macAddressIndex.add(macAddress, device.getId(), getId());
 		}
-		Device device = new Device(db, this, name, macAddress);
-		assignedDevices.add(device);
 		updateFirewallRules();
 		return device;
 	}
@@ -712,17 +865,15 @@ public class User extends DatabaseObject<DBUser>
 			dbObject.setMacAddress(macAddress);
 			dbObject.setUser(user.dbObject);
 			
-			synchronized (db)
+			// The caller holds the user's lock
+			try
 			{
-				try
-				{
-					dao.create(dbObject);
-					dao.refresh(dbObject); // Workaround to load the DB-generated AssignedFrom
-				}
-				catch (SQLException e)
-				{
-					throw new RuntimeException(e);
-				}
+				dao.create(dbObject);
+				dao.refresh(dbObject); // Workaround to load the DB-generated AssignedFrom
+			}
+			catch (SQLException e)
+			{
+				throw new RuntimeException(e);
 			}
 		}
 		
@@ -736,10 +887,12 @@ public class User extends DatabaseObject<DBUser>
 			return dbObject.getName();
 		}
 		
+		@Synchronized("dbLockInt")
 		public void setName(@NonNull String name)
 		{
 			dbObject.setName(name);
-			update();
+			update("name");
+			publishSnapshot();
 		}
 		
 		public Instant getAssignedFrom()
@@ -757,14 +910,18 @@ public class User extends DatabaseObject<DBUser>
 			return dbObject.getAssignedTo() == null;
 		}
 		
-		@Synchronized("dbLockInt")
 		public void unassign()
 		{
-			if (!isAssigned()) { return; }
-			dbObject.setAssignedTo(Instant.now());
-			update();
-			assignedDevices.remove(this);
-			previousDevices.add(this);
+			synchronized (dbLockInt)
+			{
+				if (!isAssigned()) { return; }
+				dbObject.setAssignedTo(Instant.now());
+				update("assignedTo");
+				assignedDevices.remove(this);
+				previousDevices.add(this);
+				publishSnapshot();
+				db.macAddressIndex.remove(getMacAddress(), getId());
+			}
 			updateFirewallRules();
 		}
 		
@@ -773,6 +930,12 @@ public class User extends DatabaseObject<DBUser>
 		{
 			return dbObject.getId();
 		}
+		
+		@Override
+		protected Object getLock()
+		{
+			return dbLockInt;
+		}
 	}
 	
 	/**
@@ -781,23 +944,25 @@ public class User extends DatabaseObject<DBUser>
 	 * ******************************************
 	 */
 
-	public boolean isAdblock() { return dbObject.isAdblock();	}
+	public boolean isAdblock() { return snapshot.isAdblock(); }
 
-	@Synchronized("dbLock")
 	public void setAdblock(boolean adblock)
 	{
-		dbObject.setAdblock(adblock);
-		update();
+		synchronized (dbLock)
+		{
+			dbObject.setAdblock(adblock);
+			update("adblock");
+		}
 		updateFirewallRules();
 	}
 
-	public boolean isNatIPv4Dynamic() { return dbObject.isNatIPv4Dynamic();	}
+	public boolean isNatIPv4Dynamic() { return snapshot.isNatIPv4Dynamic(); }
 
 	@Synchronized("dbLock")
 	public void setNatIPv4Dynamic(boolean natIPv4Dynamic)
 	{
 		dbObject.setNatIPv4Dynamic(natIPv4Dynamic);
-		update();
+		update("natIPv4Dynamic");
 	}
 	
 	/**
@@ -805,13 +970,12 @@ public class User extends DatabaseObject<DBUser>
 	 */
 	public Inet4Address getAssignedNatIPv4()
 	{
-		return getAssignedNatIPv4DB() == null ? null : getAssignedNatIPv4DB().getAddress();
+		return snapshot.getNatIPv4();
 	}
 
 	/**
 	 * @return The NAT IPv4 assigned to this user, or <code>null</code> if none is assigned.
 	 */
-	@Synchronized("dbLock")
 	DBIPv4Address getAssignedNatIPv4DB()
 	{
 		if (dbObject.getNatIPv4Assignment() == null) { return null; }
@@ -826,61 +990,104 @@ public class User extends DatabaseObject<DBUser>
 	 * @throws NoFreeIPv4Exception
 	 *             If no free IPv4 is available.
 	 */
-	@SneakyThrows(IPAlreadyAssignedException.class)
-	public Inet4Address assignNatIPv4() throws NoFreeIPv4Exception {
-		DBIPv4Address newNatIPv4 = db.getFreeIPv4();
-		if (newNatIPv4 == null) { throw new NoFreeIPv4Exception(); }
-		assignNatIPv4(newNatIPv4, true);
-		return newNatIPv4.getAddress();
+	public Inet4Address assignNatIPv4() throws NoFreeIPv4Exception
+	{
+		Inet4Address address = assignNatIPv4(false);
+		updateFirewallRules();
+		return address;
 	}
-
-	@Synchronized("dbLock")
+	
 	@SneakyThrows(SQLException.class)
-	void assignNatIPv4(@NonNull DBIPv4Address newNatIPv4, boolean updateFirewallRules) throws IPAlreadyAssignedException
+	private Inet4Address assignNatIPv4(boolean updateFirewallRules) throws NoFreeIPv4Exception
 	{
-		if(newNatIPv4.getAssignment() != null) { throw new IPAlreadyAssignedException(); }
-		if (getAssignedNatIPv4() != null)
+		Inet4Address address;
+		synchronized (dbLock)
+		{
+			while (true)
+			{
+				IPv4Pool.Reservation reservation = db.reserveIPv4();
+				if (reservation == null) { throw new NoFreeIPv4Exception(); }
+				DBIPv4Address newNatIPv4 = db.IPv4Dao.queryForId(reservation.getId());
+				if (newNatIPv4 == null || newNatIPv4.isDeleted() || newNatIPv4.getAssignment() != null)
+				{
+					// The database was modified behind the pool's back, try another address
+					Log.warn(LogCategory.DB, "IPv4 pool out of sync: address ID " + reservation.getId()
+							+ " is not actually free");
+					reservation.discard();
+					continue;
+				}
+				assignReservedNatIPv4(newNatIPv4, reservation);
+				address = newNatIPv4.getAddress();
+				break;
+			}
+		}
+		if (updateFirewallRules)
 		{
-			unassignNatIPv4();
+			updateFirewallRules();
 		}
+		return address;
+	}
 
-		// Create the assignment between the IPv4 and this user
-		DBUserIPv4Assignment assignment = new DBUserIPv4Assignment();
-		assignment.setAddress(newNatIPv4);
-		assignment.setUser(dbObject);
-		db.userIPv4Dao.create(assignment);
-		db.userIPv4Dao.refresh(assignment); // Workaround to load the DB-generated AssignedFrom
-		// Create the link in this user's profile to his IPv4 assignment
-		dbObject.setNatIPv4Assignment(assignment);
-		update();
-		// And let the IPv4 itself know that it has an active assignment
-		newNatIPv4.setAssignment(assignment);
-		db.IPv4Dao.update(newNatIPv4);
-		
-		if(updateFirewallRules)
+	/**
+	 * Assigns an address that has been reserved in the IPv4 pool, and commits the reservation. If
+	 * the assignment fails, the reservation is cancelled. Must be called while holding this user's
+	 * lock.
+	 */
+	@SneakyThrows(SQLException.class)
+	private void assignReservedNatIPv4(DBIPv4Address newNatIPv4, IPv4Pool.Reservation reservation)
+	{
+		try
 		{
-			updateFirewallRules();
+			if (getAssignedNatIPv4() != null)
+			{
+				unassignNatIPv4(false);
+			}
+	
+			// Create the assignment between the IPv4 and this user
+			DBUserIPv4Assignment assignment = new DBUserIPv4Assignment();
+			assignment.setAddress(newNatIPv4);
+			assignment.setUser(dbObject);
+			db.userIPv4Dao.create(assignment);
+			db.userIPv4Dao.refresh(assignment); // Workaround to load the DB-generated AssignedFrom
+			// Create the link in this user's profile to his IPv4 assignment
+			dbObject.setNatIPv4Assignment(assignment);
+			update("natIPv4Assignment");
+			// And let the IPv4 itself know that it has an active assignment
+			newNatIPv4.setAssignment(assignment);
+			db.IPv4Dao.update(newNatIPv4);
+		}
+		catch (SQLException | RuntimeException e)
+		{
+			reservation.cancel();
+			throw e;
 		}
+		reservation.commit();
 	}
 	
 	public void unassignNatIPv4() { unassignNatIPv4(true); }
 
-	@Synchronized("dbLock")
+	/**
+	 * If <code>updateFirewallRules</code> is set, the caller must not hold this user's lock.
+	 */
 	@SneakyThrows
 	void unassignNatIPv4(boolean updateFirewallRules)
 	{
-		if (getAssignedNatIPv4() == null) { return; }
-		// Store the time at which the assignment ended
-		DBUserIPv4Assignment assignment = dbObject.getNatIPv4Assignment();
-		assignment.setAssignedTo(Instant.now());
-		db.userIPv4Dao.update(assignment);
-		// This user no longer has a NAT IPv4 assigned to him
-		dbObject.setNatIPv4Assignment(null);
-		update();
-		// And the ipv4 no longer has an active assignment
-		DBIPv4Address ipv4 = assignment.getAddress();
-		ipv4.setAssignment(null);
-		db.IPv4Dao.update(ipv4);
+		synchronized (dbLock)
+		{
+			if (getAssignedNatIPv4() == null) { return; }
+			// Store the time at which the assignment ended
+			DBUserIPv4Assignment assignment = dbObject.getNatIPv4Assignment();
+			assignment.setAssignedTo(Instant.now());
+			db.userIPv4Dao.update(assignment);
+			// This user no longer has a NAT IPv4 assigned to him
+			dbObject.setNatIPv4Assignment(null);
+			update("natIPv4Assignment");
+			// And the ipv4 no longer has an active assignment
+			DBIPv4Address ipv4 = assignment.getAddress();
+			ipv4.setAssignment(null);
+			db.IPv4Dao.update(ipv4);
+			db.ipv4Pool.release(ipv4.getId());
+		}
 		if(updateFirewallRules)
 		{
 			updateFirewallRules();
@@ -891,11 +1098,6 @@ public class User extends DatabaseObject<DBUser>
 	{
 		private static final long serialVersionUID = -5366222931762776625L;
 	}
-
-	public static class IPAlreadyAssignedException extends Exception
-	{
-		private static final long serialVersionUID = -5366222931762776525L;
-	}
 	
 	/**
 	 * *******************************************
@@ -916,12 +1118,23 @@ public class User extends DatabaseObject<DBUser>
 	{
 		if (limit < 0) { throw new IllegalArgumentException("limit must not be negative"); }
 		if (limit == 0) { return new ArrayList<AuthenticationEvent>(); }
-		// Retrieving Authentication Events does not require synchronization, since it only performs a single SQL statement.
-		QueryBuilder<DBAuthenticationEvent, Integer> qb = db.authEventDao.queryBuilder();
-		qb.where().eq("User_ID", getId());
-		qb.orderBy("Time", false);
-		qb.limit((long) limit);
-		return qb.query().stream().map(dbAuthEvent -> new AuthenticationEvent(db, dbAuthEvent))
+		// Events that are still queued for writing are merged in. Rows with a higher ID than the snapshot's last
+		// written ID were written after the snapshot was taken, so they are either contained in the snapshot already
+		// or newer than it, and are left out. A read replica might not have all rows up to that ID yet, so the primary
+		// is queried.
+		PendingEvents pending = db.getAuthEventWriter().snapshotPending(
+				event -> event.getUser() != null && event.getUser().getId() == getId());
+		List<DBAuthenticationEvent> events = pending.getEvents();
+		Collections.reverse(events);
+		if (events.size() < limit)
+		{
+			QueryBuilder<DBAuthenticationEvent, Integer> qb = db.authEventDao.queryBuilder();
+			qb.where().eq("User_ID", getId()).and().le("id", pending.getLastWrittenId());
+			qb.orderBy("Time", false);
+			qb.limit((long) (limit - events.size()));
+			events.addAll(qb.query());
+		}
+		return events.stream().limit(limit).map(dbAuthEvent -> new AuthenticationEvent(db, dbAuthEvent))
 				.collect(Collectors.toList());
 	}
 	
@@ -939,35 +1152,26 @@ public class User extends DatabaseObject<DBUser>
 	 */
 	public AuthResult canLogin()
 	{
-		if (this.isDeleted())
-		{
-			return AuthResult.UNKNOWN_USER;
-		}
-		else if (this.isDeactivated())
-		{
-			return AuthResult.ACCOUNT_DEACTIVATED;
-		}
-		else if (this.getRoomAssignment() == null && !this.hasPermission(Permission.LOGIN_WITHOUT_LEASE))
-		{
-			return AuthResult.NO_LEASE;
-		}
-		else
-		{
-			return AuthResult.OK;
-		}
+		return snapshot.canLogin();
 	}
 	
-	@Synchronized("dbLock")
+	/**
+	 * Must not be called while holding this user's lock, see {@link LockManager}. If this thread has
+	 * an open change scope on this user, the update is deferred until the scope is committed.
+	 */
 	private void updateFirewallRules()
 	{
-		if (this.getRoomAssignment() != null)
-		{
-			Room room = this.getRoomAssignment().getRoom();
-			if (room.getCurrentUser().equals(this))
+		updateFirewallRulesAfterCommit(() -> {
+			RoomAssignment assignment = getRoomAssignment();
+			if (assignment != null)
 			{
-				SeilnetMain.getFirewallManager().updateRules(room);
+				Room room = assignment.getRoom();
+				if (room.getCurrentUser().equals(this))
+				{
+					SeilnetMain.getFirewallManager().updateRules(room);
+				}
 			}
-		}
+		});
 	}
 	
 	@Override
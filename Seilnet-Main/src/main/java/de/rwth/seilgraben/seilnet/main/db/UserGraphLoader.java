@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import com.j256.ormlite.dao.BaseDaoImpl;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.table.TableInfo;
+
+import de.rwth.seilgraben.seilnet.main.db.orm.DBIPv4Address;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBRoom;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBUser;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBUserDevice;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBUserGroupAssignment;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBUserIPv4Assignment;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBUserRoomAssignment;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Loads many {@link User}s at once, together with their room assignments, NAT IPv4 assignments,
+ * groups and devices. Loading a single user via ORMLite costs several queries, since every
+ * <code>foreignAutoRefresh</code> field is refreshed with a query of its own. This class instead
+ * performs a fixed number of set-based queries per batch of users, which bypass ORMLite's automatic
+ * refreshing, and links the loaded objects by hand.
+ *
+ * @author Felix Kirchmann
+ */
+class UserGraphLoader
+{
+	/**
+	 * Maximum number of IDs in a single <code>IN (...)</code> clause.
+	 */
+	private static final int	BATCH_SIZE	= 500;
+
+	private final Database		db;
+
+	UserGraphLoader(Database db)
+	{
+		this.db = db;
+	}
+
+	/**
+	 * Loads the given users. Users that do not exist are skipped.
+	 *
+	 * @return The loaded users by ID.
+	 */
+	Map<Integer, User> load(Collection<Integer> userIds) throws SQLException
+	{
+		List<Integer> ids = new ArrayList<>(new HashSet<>(userIds));
+		Map<Integer, User> users = new HashMap<>();
+		for (int i = 0; i < ids.size(); i += BATCH_SIZE)
+		{
+			users.putAll(loadBatch(ids.subList(i, Math.min(ids.size(), i + BATCH_SIZE))));
+		}
+		return users;
+	}
+
+	private Map<Integer, User> loadBatch(Collection<Integer> userIds) throws SQLException
+	{
+		Map<Integer, Row<DBUser>> users = byId(query(db.userDao, "ID", userIds), DBUser::getId);
+		Map<Integer, Row<DBUserRoomAssignment>> roomAssignments = byId(
+				query(db.userRoomDao, "ID", foreignIds(users.values(), "Room_Assignment_ID")),
+				DBUserRoomAssignment::getId);
+		Map<Integer, Row<DBUserIPv4Assignment>> ipv4Assignments = byId(
+				query(db.userIPv4Dao, "ID", foreignIds(users.values(), "NAT_IPv4_Assignment_ID")),
+				DBUserIPv4Assignment::getId);
+		Map<Integer, Row<DBIPv4Address>> addresses = byId(
+				query(db.IPv4Dao, "ID", foreignIds(ipv4Assignments.values(), "IP_ID")), DBIPv4Address::getId);
+		List<Row<DBUserGroupAssignment>> groupAssignments = query(db.userGroupDao, "User_ID", users.keySet());
+		List<Row<DBUserDevice>> devices = query(db.userDeviceDao, "User_ID", users.keySet());
+
+		Map<Integer, List<Group>> groupsByUser = new HashMap<>();
+		for (Row<DBUserGroupAssignment> row : groupAssignments)
+		{
+			Group group = db.getGroupByID(row.getForeignId("Group_ID"));
+			if (group != null)
+			{
+				groupsByUser.computeIfAbsent(row.getForeignId("User_ID"), id -> new ArrayList<>()).add(group);
+			}
+		}
+		Map<Integer, List<DBUserDevice>> devicesByUser = new HashMap<>();
+		for (Row<DBUserDevice> row : devices)
+		{
+			DBUserDevice device = row.object;
+			device.setUser(users.get(row.getForeignId("User_ID")).object);
+			devicesByUser.computeIfAbsent(device.getUser().getId(), id -> new ArrayList<>()).add(device);
+		}
+
+		Map<Integer, User> result = new HashMap<>();
+		for (Row<DBUser> row : users.values())
+		{
+			DBUser dbUser = row.object;
+			Row<DBUserRoomAssignment> roomAssignment = roomAssignments.get(row.getForeignId("Room_Assignment_ID"));
+			if (roomAssignment != null)
+			{
+				roomAssignment.object.setUser(dbUser);
+				roomAssignment.object.setRoom(getRoom(roomAssignment.getForeignId("Room_ID")));
+				dbUser.setRoomAssignment(roomAssignment.object);
+			}
+			Row<DBUserIPv4Assignment> ipv4Assignment = ipv4Assignments.get(row.getForeignId("NAT_IPv4_Assignment_ID"));
+			if (ipv4Assignment != null)
+			{
+				ipv4Assignment.object.setUser(dbUser);
+				Row<DBIPv4Address> address = addresses.get(ipv4Assignment.getForeignId("IP_ID"));
+				if (address != null)
+				{
+					Integer currentAssignmentId = address.getForeignId("Current_Assignment_ID");
+					if (currentAssignmentId != null && currentAssignmentId == ipv4Assignment.object.getId())
+					{
+						address.object.setAssignment(ipv4Assignment.object);
+					}
+					else if (currentAssignmentId != null)
+					{
+						address.object.setAssignment(db.userIPv4Dao.queryForId(currentAssignmentId));
+					}
+					ipv4Assignment.object.setAddress(address.object);
+				}
+				dbUser.setNatIPv4Assignment(ipv4Assignment.object);
+			}
+			result.put(dbUser.getId(), new User(db, dbUser,
+					groupsByUser.getOrDefault(dbUser.getId(), Collections.emptyList()),
+					devicesByUser.getOrDefault(dbUser.getId(), Collections.emptyList())));
+		}
+		return result;
+	}
+
+	private DBRoom getRoom(int roomId) throws SQLException
+	{
+		Room room = db.getRoomByID(roomId);
+		return room != null ? room.dbObject : db.roomDao.queryForId(roomId);
+	}
+
+	/**
+	 * Reads all rows whose <code>column</code> is one of the given <code>ids</code>. Foreign fields
+	 * are left <code>null</code>, the IDs they refer to are returned in {@link Row#foreignIds}
+	 * instead.
+	 */
+	static <T> List<Row<T>> query(Dao<T, Integer> dao, String column, Collection<Integer> ids)
+			throws SQLException
+	{
+		if (ids.isEmpty()) { return Collections.emptyList(); }
+		TableInfo<T, Integer> tableInfo = ((BaseDaoImpl<T, Integer>) dao).getTableInfo();
+		// The IDs are integers, so they can safely be inlined
+		String sql = "SELECT * FROM " + tableInfo.getTableName() + " WHERE " + column + " IN ("
+				+ ids.stream().map(String::valueOf).collect(Collectors.joining(",")) + ")";
+		Map<String, Integer> columnPositions = new HashMap<>();
+		try (GenericRawResults<Row<T>> results = dao.queryRaw(sql, databaseResults -> {
+			Row<T> row = new Row<>(tableInfo.createObject());
+			for (FieldType fieldType : tableInfo.getFieldTypes())
+			{
+				if (fieldType.isForeign())
+				{
+					int position = databaseResults.findColumn(fieldType.getColumnName());
+					int foreignId = databaseResults.getInt(position);
+					if (!databaseResults.wasNull(position))
+					{
+						row.foreignIds.put(fieldType.getColumnName(), foreignId);
+					}
+				}
+				else
+				{
+					fieldType.assignField(row.object, fieldType.resultToJava(databaseResults, columnPositions), false,
+							null);
+				}
+			}
+			return row;
+		}))
+		{
+			return results.getResults();
+		}
+		catch (IOException e)
+		{
+			throw new SQLException(e);
+		}
+	}
+
+	private static <T> Map<Integer, Row<T>> byId(List<Row<T>> rows, ToIntFunction<T> getId)
+	{
+		Map<Integer, Row<T>> map = new HashMap<>();
+		for (Row<T> row : rows)
+		{
+			map.put(getId.applyAsInt(row.object), row);
+		}
+		return map;
+	}
+
+	private static Set<Integer> foreignIds(Collection<? extends Row<?>> rows, String column)
+	{
+		Set<Integer> ids = new HashSet<>();
+		for (Row<?> row : rows)
+		{
+			Integer id = row.getForeignId(column);
+			if (id != null)
+			{
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	@RequiredArgsConstructor
+	static class Row<T>
+	{
+		@Getter
+		private final T						object;
+		private final Map<String, Integer>	foreignIds	= new HashMap<>();
+
+		Integer getForeignId(String column)
+		{
+			return foreignIds.get(column);
+		}
+	}
+}
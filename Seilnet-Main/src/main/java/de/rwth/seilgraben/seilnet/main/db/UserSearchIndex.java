@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+import lombok.EqualsAndHashCode;
+
+/**
+ * In-memory full text index of all users, so that searching for a user (e.g. while an admin types
+ * into the search box) does not require an SQL query. Users can be found by their name, room
+ * number, e-mail address, phone number, matriculation number, TIM username, and the names and MAC
+ * addresses of their devices.
+ * <p>
+ * Every word of a search query must be found in a user. A word matches a token of the user if it is
+ * equal to the token, a prefix of it, or (if it has at least {@value #NGRAM_LENGTH} characters)
+ * contained in it. Infix matches are found through an index of the tokens' n-grams. Results are
+ * ranked by the kind of match and by the field the token came from, e.g. an exact room number match
+ * ranks higher than a prefix of a device name.
+ * <p>
+ * Tokens are case- and accent-insensitive. Besides the single words of a field, the field with all
+ * separators removed is a token, too, so that e.g. <code>00:1a:2b</code>, <code>001A2B</code>,
+ * <code>A-101</code> and <code>a101</code> all work as expected.
+ * <p>
+ * The index is updated whenever a user's snapshot is published (see {@link User#publishSnapshot()})
+ * and is thread-safe. Its monitor is a leaf in the lock order, see {@link LockManager}.
+ *
+ * @author Felix Kirchmann
+ */
+class UserSearchIndex
+{
+	static final int								NGRAM_LENGTH	= 3;
+
+	private static final Pattern					SEPARATORS		= Pattern.compile("[^\\p{L}\\p{N}]+");
+	private static final Pattern					DIACRITICS		= Pattern.compile("\\p{M}+");
+	private static final Pattern					WHITESPACE		= Pattern.compile("\\s+");
+
+	/**
+	 * Each field's weight is multiplied with the score of the match kind.
+	 */
+	enum Field
+	{
+		ROOM(4), NAME(3), EMAIL(2), MAC(2), OTHER(1);
+
+		private final int weight;
+
+		private Field(int weight)
+		{
+			this.weight = weight;
+		}
+	}
+
+	private static final int						SCORE_EXACT		= 3;
+	private static final int						SCORE_PREFIX	= 2;
+	private static final int						SCORE_INFIX		= 1;
+
+	private final Map<Integer, Document>			documents		= new HashMap<>();
+	/**
+	 * Token -&gt; user ID -&gt; weight of the heaviest field the user has the token in. Sorted, so
+	 * that all tokens with a given prefix can be found.
+	 */
+	private final TreeMap<String, Map<Integer, Integer>>	tokens	= new TreeMap<>();
+	/**
+	 * N-gram -&gt; all tokens that contain it, with the same user maps as in {@link #tokens}.
+	 */
+	private final Map<String, Map<String, Map<Integer, Integer>>>	ngrams	= new HashMap<>();
+
+	/**
+	 * Builds the searchable content of a user. All arguments may be <code>null</code>.
+	 */
+	static Document document(String firstName, String lastName, String email, String phone,
+			String matriculationNumber, String timUsername, String roomNumber, Collection<String> deviceNames,
+			Collection<MacAddress> macAddresses)
+	{
+		Document document = new Document(firstName + " " + lastName);
+		document.add(Field.NAME, firstName);
+		document.add(Field.NAME, lastName);
+		document.add(Field.EMAIL, email);
+		document.add(Field.OTHER, phone);
+		document.add(Field.OTHER, matriculationNumber);
+		document.add(Field.OTHER, timUsername);
+		document.add(Field.ROOM, roomNumber);
+		if (deviceNames != null)
+		{
+			deviceNames.forEach(name -> document.add(Field.OTHER, name));
+		}
+		if (macAddresses != null)
+		{
+			macAddresses.forEach(mac -> document.add(Field.MAC, mac.toString()));
+		}
+		return document;
+	}
+
+	/**
+	 * Adds the given user to the index, or replaces the user's previous document.
+	 */
+	synchronized void update(int userId, Document document)
+	{
+		Document previous = documents.put(userId, document);
+		if (document.equals(previous)) { return; }
+		if (previous != null)
+		{
+			previous.tokens.keySet().forEach(token -> removeToken(token, userId));
+		}
+		document.tokens.forEach((token, weight) -> tokens.computeIfAbsent(token, this::addNgrams).put(userId, weight));
+	}
+
+	/**
+	 * Like {@link #update(int, Document)}, but keeps the user's current document if there already is
+	 * one. Used to fill the index at startup without overwriting newer data.
+	 */
+	synchronized void addIfAbsent(int userId, Document document)
+	{
+		if (!documents.containsKey(userId))
+		{
+			update(userId, document);
+		}
+	}
+
+	synchronized int size()
+	{
+		return documents.size();
+	}
+
+	/**
+	 * @param limit
+	 *            The maximum number of results.
+	 * @return The IDs and full names of the best matching users, best match first.
+	 */
+	synchronized Map<Integer, String> search(String query, int limit)
+	{
+		List<String> terms = new ArrayList<>();
+		for (String word : WHITESPACE.split(query))
+		{
+			String term = compact(word);
+			if (!term.isEmpty())
+			{
+				terms.add(term);
+			}
+		}
+		// Longer terms usually match fewer users, and later terms only need to check those
+		terms.sort(Comparator.comparingInt(String::length).reversed());
+		Map<Integer, Integer> scores = null;
+		for (String term : terms)
+		{
+			Map<Integer, Integer> previous = scores;
+			scores = match(term, previous);
+			if (previous != null)
+			{
+				scores.replaceAll((userId, score) -> score + previous.get(userId));
+			}
+			if (scores.isEmpty())
+			{
+				break;
+			}
+		}
+		Map<Integer, String> results = new LinkedHashMap<>();
+		if (scores == null || limit <= 0) { return results; }
+
+		// Best match first, ties by name. Only the best results are kept, instead of sorting all.
+		Comparator<Map.Entry<Integer, Integer>> ranking = Comparator
+				.comparing((Map.Entry<Integer, Integer> entry) -> entry.getValue()).reversed()
+				.thenComparing(entry -> documents.get(entry.getKey()).sortKey);
+		PriorityQueue<Map.Entry<Integer, Integer>> best = new PriorityQueue<>(limit + 1, ranking.reversed());
+		for (Map.Entry<Integer, Integer> entry : scores.entrySet())
+		{
+			best.add(entry);
+			if (best.size() > limit)
+			{
+				best.poll();
+			}
+		}
+		List<Map.Entry<Integer, Integer>> ranked = new ArrayList<>(best);
+		ranked.sort(ranking);
+		for (Map.Entry<Integer, Integer> entry : ranked)
+		{
+			results.put(entry.getKey(), documents.get(entry.getKey()).fullName);
+		}
+		return results;
+	}
+
+	/**
+	 * @param candidates
+	 *            If not <code>null</code>, only these user IDs are considered.
+	 * @return User ID -&gt; best score of the term in that user's tokens.
+	 */
+	private Map<Integer, Integer> match(String term, Map<Integer, Integer> candidates)
+	{
+		Map<Integer, Integer> scores = new HashMap<>();
+		for (Map.Entry<String, Map<Integer, Integer>> entry : tokens.subMap(term, term + Character.MAX_VALUE)
+				.entrySet())
+		{
+			score(scores, candidates, entry.getValue(),
+					entry.getKey().length() == term.length() ? SCORE_EXACT : SCORE_PREFIX);
+		}
+		if (term.length() >= NGRAM_LENGTH)
+		{
+			for (Map.Entry<String, Map<Integer, Integer>> entry : tokensContaining(term))
+			{
+				if (!entry.getKey().startsWith(term))
+				{
+					score(scores, candidates, entry.getValue(), SCORE_INFIX);
+				}
+			}
+		}
+		return scores;
+	}
+
+	private static void score(Map<Integer, Integer> scores, Map<Integer, Integer> candidates,
+			Map<Integer, Integer> weights, int matchScore)
+	{
+		if (candidates != null && candidates.size() < weights.size())
+		{
+			for (Integer userId : candidates.keySet())
+			{
+				Integer weight = weights.get(userId);
+				if (weight != null)
+				{
+					scores.merge(userId, matchScore * weight, Math::max);
+				}
+			}
+			return;
+		}
+		weights.forEach((userId, weight) -> {
+			if (candidates == null || candidates.containsKey(userId))
+			{
+				scores.merge(userId, matchScore * weight, Math::max);
+			}
+		});
+	}
+
+	private List<Map.Entry<String, Map<Integer, Integer>>> tokensContaining(String term)
+	{
+		// Start with the rarest n-gram, then check the candidates directly
+		Map<String, Map<Integer, Integer>> candidates = null;
+		for (int i = 0; i + NGRAM_LENGTH <= term.length(); i++)
+		{
+			Map<String, Map<Integer, Integer>> containing = ngrams.get(term.substring(i, i + NGRAM_LENGTH));
+			if (containing == null) { return Collections.emptyList(); }
+			if (candidates == null || containing.size() < candidates.size())
+			{
+				candidates = containing;
+			}
+		}
+		List<Map.Entry<String, Map<Integer, Integer>>> result = new ArrayList<>();
+		for (Map.Entry<String, Map<Integer, Integer>> entry : candidates.entrySet())
+		{
+			if (entry.getKey().contains(term))
+			{
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	private Map<Integer, Integer> addNgrams(String token)
+	{
+		Map<Integer, Integer> users = new HashMap<>(2);
+		for (int i = 0; i + NGRAM_LENGTH <= token.length(); i++)
+		{
+			ngrams.computeIfAbsent(token.substring(i, i + NGRAM_LENGTH), ngram -> new HashMap<>()).put(token, users);
+		}
+		return users;
+	}
+
+	private void removeToken(String token, int userId)
+	{
+		Map<Integer, Integer> users = tokens.get(token);
+		users.remove(userId);
+		if (!users.isEmpty()) { return; }
+		tokens.remove(token);
+		for (int i = 0; i + NGRAM_LENGTH <= token.length(); i++)
+		{
+			String ngram = token.substring(i, i + NGRAM_LENGTH);
+			Map<String, Map<Integer, Integer>> containing = ngrams.get(ngram);
+			containing.remove(token);
+			if (containing.isEmpty())
+			{
+				ngrams.remove(ngram);
+			}
+		}
+	}
+
+	/**
+	 * Lower case, without accents and separators, e.g. "Müller-Lüdenscheidt" becomes
+	 * "mullerludenscheidt".
+	 */
+	private static String compact(String text)
+	{
+		return SEPARATORS.matcher(normalize(text)).replaceAll("");
+	}
+
+	private static String normalize(String text)
+	{
+		return DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+				.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * The searchable content of one user.
+	 */
+	@EqualsAndHashCode
+	static final class Document
+	{
+		private final String				fullName;
+		private final String				sortKey;
+		/**
+		 * Token -&gt; weight of the heaviest field it occurs in.
+		 */
+		private final Map<String, Integer>	tokens	= new HashMap<>();
+
+		private Document(String fullName)
+		{
+			this.fullName = fullName;
+			this.sortKey = normalize(fullName);
+		}
+
+		private void add(Field field, String value)
+		{
+			if (value == null) { return; }
+			String normalized = normalize(value);
+			for (String word : SEPARATORS.split(normalized))
+			{
+				addToken(field, word);
+			}
+			addToken(field, SEPARATORS.matcher(normalized).replaceAll(""));
+		}
+
+		private void addToken(Field field, String token)
+		{
+			if (!token.isEmpty())
+			{
+				tokens.merge(token, field.weight, Math::max);
+			}
+		}
+	}
+}
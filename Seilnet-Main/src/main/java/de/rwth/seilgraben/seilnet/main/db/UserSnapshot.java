@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.net.Inet4Address;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import de.rwth.seilgraben.seilnet.main.config.Permission;
+import de.rwth.seilgraben.seilnet.main.db.User.Device;
+import de.rwth.seilgraben.seilnet.main.db.User.RoomAssignment;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent.AuthResult;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBUser;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+import lombok.Getter;
+
+/**
+ * An immutable view of a {@link User} at one point in time, see {@link User#getSnapshot()}.
+ * <p>
+ * A new snapshot is published whenever the user is modified, so reading several values from the
+ * same snapshot always gives a consistent result, e.g. the devices and permissions that were valid
+ * at the same time. Reading a snapshot never locks or allocates. The {@link Device}s and the
+ * {@link RoomAssignment} are the live objects, only the user's set of them is fixed.
+ *
+ * @author Felix Kirchmann
+ */
+@Getter
+public final class UserSnapshot
+{
+	private final String			firstName;
+	private final String			lastName;
+	private final String			email;
+	private final String			phone;
+	private final LocalDate			birthday;
+	private final Locale			locale;
+	private final String			matriculationNumber;
+	private final String			timUsername;
+	private final String			comments;
+	private final String			wlanPassword;
+	private final boolean			deleted;
+	private final boolean			deactivated;
+	private final boolean			adblock;
+	private final boolean			natIPv4Dynamic;
+	/**
+	 * The permissions given to the user directly or through a group, as a bitmask (see
+	 * {@link Permission#bit}).
+	 */
+	private final long				permissionMask;
+	private final Set<Group>		groups;
+	private final RoomAssignment	roomAssignment;
+	private final List<Device>		assignedDevices;
+	private final List<Device>		previousDevices;
+	/**
+	 * The MAC addresses of the {@link #getAssignedDevices() assigned devices}.
+	 */
+	private final Set<MacAddress>	assignedMacAddresses;
+	/**
+	 * The NAT IPv4 assigned to the user, or <code>null</code> if none is assigned.
+	 */
+	private final Inet4Address		natIPv4;
+
+	/**
+	 * Must be called while holding the user's lock.
+	 */
+	UserSnapshot(DBUser dbUser, Collection<Group> groups, RoomAssignment roomAssignment,
+			Collection<Device> assignedDevices, Collection<Device> previousDevices)
+	{
+		firstName = dbUser.getFirstName();
+		lastName = dbUser.getLastName();
+		email = dbUser.getEmail();
+		phone = dbUser.getPhone();
+		birthday = dbUser.getBirthday();
+		locale = Locale.forLanguageTag(dbUser.getLocale());
+		matriculationNumber = dbUser.getMatriculationNumber();
+		timUsername = dbUser.getTimUsername();
+		comments = dbUser.getComments();
+		wlanPassword = dbUser.getWlanPassword();
+		deleted = dbUser.isDeleted();
+		deactivated = dbUser.isDeactivated();
+		adblock = dbUser.isAdblock();
+		natIPv4Dynamic = dbUser.isNatIPv4Dynamic();
+		long mask = dbUser.getPermissions() == null ? 0 : Permission.encodeBitmask(dbUser.getPermissions());
+		for (Group group : groups)
+		{
+			mask |= group.getPermissionMask();
+		}
+		permissionMask = mask;
+		this.groups = Collections.unmodifiableSet(new HashSet<>(groups));
+		this.roomAssignment = roomAssignment;
+		this.assignedDevices = Collections.unmodifiableList(new ArrayList<>(assignedDevices));
+		this.previousDevices = Collections.unmodifiableList(new ArrayList<>(previousDevices));
+		Set<MacAddress> macAddresses = new HashSet<>();
+		for (Device device : assignedDevices)
+		{
+			macAddresses.add(device.getMacAddress());
+		}
+		assignedMacAddresses = Collections.unmodifiableSet(macAddresses);
+		natIPv4 = dbUser.getNatIPv4Assignment() == null ? null
+				: dbUser.getNatIPv4Assignment().getAddress().getAddress();
+	}
+
+	/**
+	 * @return First and last name, separated by a space, e.g. "John Doe"
+	 */
+	public String getFullName()
+	{
+		return firstName + " " + lastName;
+	}
+
+	public boolean hasPermission(Permission p)
+	{
+		return (permissionMask & p.bit) != 0;
+	}
+
+	/**
+	 * @see User#canLogin()
+	 */
+	public AuthResult canLogin()
+	{
+		if (deleted)
+		{
+			return AuthResult.UNKNOWN_USER;
+		}
+		else if (deactivated)
+		{
+			return AuthResult.ACCOUNT_DEACTIVATED;
+		}
+		else if (roomAssignment == null && !hasPermission(Permission.LOGIN_WITHOUT_LEASE))
+		{
+			return AuthResult.NO_LEASE;
+		}
+		else
+		{
+			return AuthResult.OK;
+		}
+	}
+}
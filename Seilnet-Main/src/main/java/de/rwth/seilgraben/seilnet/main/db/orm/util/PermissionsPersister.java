@@ -5,7 +5,7 @@
 
 package de.rwth.seilgraben.seilnet.main.db.orm.util;
 
-import java.util.HashSet;
+import java.util.EnumSet;
 import java.util.Set;
 
 import com.j256.ormlite.field.FieldType;
@@ -44,7 +44,7 @@ public class PermissionsPersister extends LongType
 	@Override
 	public Object sqlArgToJava(FieldType fieldType, Object sqlArg, int columnPos)
 	{
-		if (sqlArg == null) { return new HashSet<Permission>(); }
+		if (sqlArg == null) { return EnumSet.noneOf(Permission.class); }
 		
 		return Permission.decodeBitmask((long) sqlArg);
 	}
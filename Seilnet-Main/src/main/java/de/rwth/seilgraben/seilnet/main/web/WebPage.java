@@ -74,7 +74,8 @@ public abstract class WebPage
 		new NetworkSettings(), new DeviceList(), new DeviceRegistration(),
 		
 		// APIs
-		new RadiusRestApi(), new HostsApi(), new ExternalAuthApi()
+		new RadiusRestApi(), new HostsApi(), new ExternalAuthApi(), new RoomOccupancyCheckApi(),
+		new StatusApi()
 	};
 	// ---------------------------------------------------------------------------------------------
 	
@@ -17,7 +17,6 @@ import de.rwth.seilgraben.seilnet.main.config.Permission;
 import de.rwth.seilgraben.seilnet.main.db.Room;
 import de.rwth.seilgraben.seilnet.main.db.User;
 import de.rwth.seilgraben.seilnet.main.web.WebPage;
-import de.rwth.seilgraben.seilnet.util.Func;
 import spark.Route;
 import spark.Spark;
 
@@ -43,7 +42,7 @@ public class ActiveUsers extends WebPage
 		Map<String, Object> args = new HashMap<>();
 		List<Map<String, Object>> rooms = new ArrayList<>();
 		
-		for (Room room : Func.asSortedList(getDb().listRooms()))
+		for (Room room : getDb().listRooms())
 		{
 			User user = room.getCurrentUser();
 			Map<String, Object> roomInfo = new HashMap<>();
@@ -18,6 +18,7 @@ import de.rwth.seilgraben.seilnet.main.config.Constants;
 import de.rwth.seilgraben.seilnet.main.config.Constants.SupportedLanguage;
 import de.rwth.seilgraben.seilnet.main.MailSender;
 import de.rwth.seilgraben.seilnet.main.db.Database.EMailInUseException;
+import de.rwth.seilgraben.seilnet.main.db.Database.DatabaseObject.ChangeScope;
 import de.rwth.seilgraben.seilnet.main.config.Permission;
 import de.rwth.seilgraben.seilnet.main.db.Room;
 import de.rwth.seilgraben.seilnet.main.db.User;
@@ -88,13 +89,10 @@ public class CreateUser extends WebPage
 			}
 			catch (SubTenantExpiresAfterMainTenantException e)
 			{
-				synchronized(getDb())
-				{
-					User mainTenant = e.getRoom().getMainTenant();
-					msgs.addError("strings", "earlySubLeaseExpirationInfo")
-						.addParam(ViewUser.getLink(mainTenant))
-						.addParam(Constants.DATE_FORMATTER.format(mainTenant.getRoomAssignment().getExpiration()));
-				}
+				User mainTenant = e.getRoom().getMainTenant();
+				msgs.addError("strings", "earlySubLeaseExpirationInfo")
+					.addParam(ViewUser.getLink(mainTenant))
+					.addParam(Constants.DATE_FORMATTER.format(mainTenant.getRoomAssignment().getExpiration()));
 			}
 			catch (RoomAlreadyAssignedException e)
 			{
@@ -151,6 +149,7 @@ public class CreateUser extends WebPage
 	};
 	// @formatter:on
 	
+	@SuppressWarnings("try") // The change scope is only opened and closed
 	private User createUser(Request request)
 			throws MissingFieldException, InvalidFieldValueException, EMailInUseException, RoomAlreadyAssignedException,
 			RoomWithoutMainTenantException, SubTenantExpiresAfterMainTenantException, NoFreeIPv4Exception
@@ -220,18 +219,19 @@ public class CreateUser extends WebPage
 		 */
 		boolean subtenantBool = Boolean.parseBoolean(subtenant);
 		
-		synchronized (getDb())
+		/*
+		 * Check room number
+		 */
+		Room room = getDb().getRoomByNumber(roomNumber);
+		if (room == null) { throw new InvalidFieldValueException("unknownRoomNumber"); }
+		/*
+		 * Everything ok, create user.
+		 */
+		User user = getDb().createUser(firstName, lastName, email, lang.locale, room, leaseExpirationInstant,
+				subtenantBool);
+		// Write the optional fields with a single UPDATE
+		try (ChangeScope changes = user.beginChanges())
 		{
-			/*
-			 * Check room number
-			 */
-			Room room = getDb().getRoomByNumber(roomNumber);
-			if (room == null) { throw new InvalidFieldValueException("unknownRoomNumber"); }
-			/*
-			 * Everything ok, create user.
-			 */
-			User user = getDb().createUser(firstName, lastName, email, lang.locale, room, leaseExpirationInstant,
-					subtenantBool);
 			user.setBirthday(birthdayDate);
 			if (phone != null && phone.trim().length() > 0)
 			{
@@ -241,8 +241,8 @@ public class CreateUser extends WebPage
 			{
 				user.setMatriculationNumber(matriculationNumber);
 			}
-			return user;
 		}
+		return user;
 	}
 	
 }
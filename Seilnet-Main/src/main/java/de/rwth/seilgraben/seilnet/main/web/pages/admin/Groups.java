@@ -57,31 +57,28 @@ public class Groups extends WebPage
 			processFormData(request, msgs, args);
 		}
 		
-		synchronized (getDb())
+		List<Group> groups = getDb().listGroups();
+		List<Map<String, Object>> groupsData = new ArrayList<>(groups.size());
+		// Sort Groups by group name
+		Collections.sort(groups, new Comparator<Group>()
 		{
-			List<Group> groups = getDb().listGroups();
-			List<Map<String, Object>> groupsData = new ArrayList<>(groups.size());
-			// Sort Groups by group name
-			Collections.sort(groups, new Comparator<Group>()
+			@Override
+			public int compare(Group g1, Group g2)
 			{
-				@Override
-				public int compare(Group g1, Group g2)
-				{
-					return g1.getName().compareTo(g2.getName());
-				}
-			});
-			for (Group group : groups)
-			{
-				Map<String, Object> groupData = new HashMap<>();
-				groupData.put("link", ViewGroup.getLink(group));
-				groupData.put("name", group.getName());
-				groupData.put("id", group.getId());
-				groupData.put("members",
-						group.listMembers().stream().map(member -> member.getFullName()).collect(Collectors.toList()));
-				groupsData.add(groupData);
+				return g1.getName().compareTo(g2.getName());
 			}
-			args.put("groups", groupsData);
+		});
+		for (Group group : groups)
+		{
+			Map<String, Object> groupData = new HashMap<>();
+			groupData.put("link", ViewGroup.getLink(group));
+			groupData.put("name", group.getName());
+			groupData.put("id", group.getId());
+			groupData.put("members",
+					group.listMembers(true).stream().map(member -> member.getFullName()).collect(Collectors.toList()));
+			groupsData.add(groupData);
 		}
+		args.put("groups", groupsData);
 		
 		msgs.addToTemplateArgs(args);
 		return runTemplate(template, args, request);
@@ -98,7 +98,7 @@ public class ViewGroup extends WebPage
 		 */
 		args.put("name", group.getName());
 		args.put("email", group.getEmail());
-		args.put("members", group.listMembers());
+		args.put("members", group.listMembers(true));
 		args.put("permissions",
 				group.getPermissions().stream().map(permission -> permission.id).collect(Collectors.toList()));
 		args.put("availablePermissions", Permission.valuesInDisplayOrder());
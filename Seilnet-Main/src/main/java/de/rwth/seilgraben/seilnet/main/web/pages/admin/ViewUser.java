@@ -138,7 +138,7 @@ public class ViewUser extends WebPage
 			args.put("roomInfo", roomInfo);
 
 			// Lists all hosts in the network and then removes those that have already been registered
-			args.put("unregisteredDevices", SeilnetMain.getFirewallClient().getHosts()
+			args.put("unregisteredDevices", SeilnetMain.getFirewallClient()
 					.listVlanHosts(assignment.getRoom().getVlan()).stream()
 					.filter(networkHost -> user.getAssignedDevices().stream().noneMatch(device ->
 							device.getMacAddress().equals(networkHost.getMacAddress())))
@@ -239,13 +239,10 @@ public class ViewUser extends WebPage
 				}
 				catch (SubTenantExpiresAfterMainTenantException e)
 				{
-					synchronized (getDb())
-					{
-						User mainTenant = e.getRoom().getMainTenant();
-						msgs.addError("strings", "earlySubLeaseExpirationInfo").addParam(ViewUser.getLink(mainTenant))
-								.addParam(Constants.DATE_FORMATTER
-										.format(mainTenant.getRoomAssignment().getExpiration()));
-					}
+					User mainTenant = e.getRoom().getMainTenant();
+					msgs.addError("strings", "earlySubLeaseExpirationInfo").addParam(ViewUser.getLink(mainTenant))
+							.addParam(Constants.DATE_FORMATTER
+									.format(mainTenant.getRoomAssignment().getExpiration()));
 				}
 				catch (RoomAlreadyAssignedException e)
 				{
@@ -303,16 +300,12 @@ public class ViewUser extends WebPage
 			}
 			case "toggleDynamicIPv4":
 			{
-				synchronized (getDb()) {
-					user.setNatIPv4Dynamic(!user.isNatIPv4Dynamic());
-				}
+				user.setNatIPv4Dynamic(!user.isNatIPv4Dynamic());
 				break;
 			}
 			case "toggleAdblock":
 			{
-				synchronized (getDb()) {
-					user.setAdblock(!user.isAdblock());
-				}
+				user.setAdblock(!user.isAdblock());
 				break;
 			}
 			case "addDevice":
@@ -451,16 +444,13 @@ public class ViewUser extends WebPage
 					// The lease expiration date must be after the current date
 					if (leaseExpirationDate.compareTo(LocalDate.now()) <= 0) { return i18n("strings",
 							"earlyLeaseExpiration", getLocale(request)); }
-					synchronized (getDb())
+					try
+					{
+						user.getRoomAssignment().setExpiration(leaseExpiration);
+					}
+					catch (SubTenantExpiresAfterMainTenantException e)
 					{
-						try
-						{
-							user.getRoomAssignment().setExpiration(leaseExpiration);
-						}
-						catch (SubTenantExpiresAfterMainTenantException e)
-						{
-							return i18n("strings", "earlySubLeaseExpiration", getLocale(request));
-						}
+						return i18n("strings", "earlySubLeaseExpiration", getLocale(request));
 					}
 					break;
 				}
@@ -473,14 +463,11 @@ public class ViewUser extends WebPage
 				{
 					String deviceId = request.queryParams("pk");
 
-					synchronized (getDb())
-					{
-						Optional<Device> deviceOptional = user.getAssignedDevices().stream()
-								.filter(device -> Integer.toString(device.getId()).equals(deviceId))
-								.findFirst();
-						if(!deviceOptional.isPresent()) { return i18n("strings", "deviceNotFound", getLocale(request)); }
-						deviceOptional.get().setName(value);
-					}
+					Optional<Device> deviceOptional = user.getAssignedDevices().stream()
+							.filter(device -> Integer.toString(device.getId()).equals(deviceId))
+							.findFirst();
+					if(!deviceOptional.isPresent()) { return i18n("strings", "deviceNotFound", getLocale(request)); }
+					deviceOptional.get().setName(value);
 					break;
 				}
 				default:
@@ -534,14 +521,11 @@ public class ViewUser extends WebPage
 		 */
 		boolean subtenantBool = Boolean.parseBoolean(subtenant);
 		
-		synchronized (getDb())
-		{
-			/*
-			 * Check room number
-			 */
-			Room room = getDb().getRoomByNumber(roomNumber);
-			if (room == null) { throw new InvalidFieldValueException("unknownRoomNumber"); }
-			user.assignRoom(room, leaseExpirationInstant, subtenantBool);
-		}
+		/*
+		 * Check room number
+		 */
+		Room room = getDb().getRoomByNumber(roomNumber);
+		if (room == null) { throw new InvalidFieldValueException("unknownRoomNumber"); }
+		user.assignRoom(room, leaseExpirationInstant, subtenantBool);
 	}
 }
@@ -5,11 +5,18 @@
 
 package de.rwth.seilgraben.seilnet.main.web.pages.api;
 
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
 import org.eclipse.jetty.http.HttpStatus;
 
 import com.google.gson.Gson;
 
 import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList;
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHost;
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostListUpdate;
 import de.rwth.seilgraben.seilnet.main.config.Constants;
 import de.rwth.seilgraben.seilnet.main.SeilnetMain;
 import de.rwth.seilgraben.seilnet.main.web.WebPage;
@@ -25,6 +32,7 @@ public class HostsApi extends WebPage
 	protected void initialize()
 	{
 		Spark.post(Constants.PATH_PREFIX + Constants.API_PATH_PREFIX + "/hosts", updateHosts);
+		Spark.post(Constants.PATH_PREFIX + Constants.API_PATH_PREFIX + "/hosts/delta", updateHostsDelta);
 	}
 	
 	Route updateHosts = (request, response) -> {
@@ -41,4 +49,40 @@ public class HostsApi extends WebPage
 		response.status(200);
 		return "OK";
 	};
+	
+	/**
+	 * Receives a {@link NetworkHostListUpdate}, usually gzip-compressed. Responds with 409 if an
+	 * earlier update is missing, so that the firewall sends a full update.
+	 */
+	Route updateHostsDelta = (request, response) -> {
+		if (!SeilnetMain.getConfig().getFirewallApiKey().equals(request.headers("Key")))
+		{
+			Spark.halt(HttpStatus.FORBIDDEN_403);
+		}
+		
+		InputStream body = request.raw().getInputStream();
+		if ("gzip".equalsIgnoreCase(request.headers("Content-Encoding")))
+		{
+			body = new GZIPInputStream(body);
+		}
+		NetworkHostListUpdate update = GSON.fromJson(Func.readInputStream(body), NetworkHostListUpdate.class);
+		// Gson bypasses the constructor, so the @NonNull fields may be missing
+		if (update == null || !isValid(update.getAddedHosts()) || !isValid(update.getRemovedHosts()))
+		{
+			Spark.halt(HttpStatus.BAD_REQUEST_400);
+		}
+		
+		if (!SeilnetMain.getFirewallClient().updateHosts(update))
+		{
+			response.status(HttpStatus.CONFLICT_409);
+			return "Missing earlier update";
+		}
+		response.status(200);
+		return "OK";
+	};
+	
+	private static boolean isValid(Map<Integer, Set<NetworkHost>> vlanHosts)
+	{
+		return vlanHosts != null && !vlanHosts.containsValue(null);
+	}
 }
@@ -186,69 +186,69 @@ public class RadiusRestApi extends WebPage
 		Log.trace(LogCategory.RADIUS, "--- MODE: Auth START ---");
 		User user = null;
 		Map<String, String> jsonResponse = new HashMap<>();
-		synchronized(getDb())
-		{
-			boolean roomVlanOnlyMode = request.attribute(REQUEST_AP_SSID_ROOM) != null;
+		// No lock required: room occupancy and user fields are read atomically by the database objects
+		boolean roomVlanOnlyMode = request.attribute(REQUEST_AP_SSID_ROOM) != null;
 
-			Room room = roomVlanOnlyMode ? request.attribute(REQUEST_AP_SSID_ROOM)
-					: getDb().getRoomByNumber(request.attribute(REQUEST_USER_NAME));
+		Room room = roomVlanOnlyMode ? request.attribute(REQUEST_AP_SSID_ROOM)
+				: getDb().getRoomByNumber(request.attribute(REQUEST_USER_NAME));
 
-			if(room != null)
+		if(room != null)
+		{
+			if((user = room.getCurrentUser()) == null)
 			{
-				if((user = room.getCurrentUser()) == null)
-				{
-					Log.trace(LogCategory.RADIUS, "Room found, but does not have a tenant");
-					getDb().logAuthEvent(null, getClientInfo(request), AuthType.WLAN, AuthResult.NO_LEASE);
-					Spark.halt(HttpStatus.UNAUTHORIZED_401);
-				}
+				Log.trace(LogCategory.RADIUS, "Room found, but does not have a tenant");
+				getDb().logAuthEvent(null, getClientInfo(request), AuthType.WLAN, AuthResult.NO_LEASE);
+				Spark.halt(HttpStatus.UNAUTHORIZED_401);
 			}
-			else
+		}
+		else
+		{
+			user = getDb().getUserByEmail(request.attribute(REQUEST_USER_NAME));
+			if(user == null)
 			{
-				user = getDb().getUserByEmail(request.attribute(REQUEST_USER_NAME));
-				if(user == null)
-				{
-					Log.trace(LogCategory.RADIUS, "User EMail or room not found");
-					getDb().logAuthEvent(null, getClientInfo(request), AuthType.WLAN, AuthResult.UNKNOWN_USER);
-					Spark.halt(HttpStatus.UNAUTHORIZED_401);
-				}
-				if(user.getRoomAssignment() == null)
-				{
-					Log.trace(LogCategory.RADIUS, "User does not have an active room assignment");
-					getDb().logAuthEvent(user, getClientInfo(request), AuthType.WLAN, AuthResult.NO_LEASE);
-					Spark.halt(HttpStatus.UNAUTHORIZED_401);
-				}
-				room = user.getRoomAssignment().getRoom();
+				Log.trace(LogCategory.RADIUS, "User EMail or room not found");
+				getDb().logAuthEvent(null, getClientInfo(request), AuthType.WLAN, AuthResult.UNKNOWN_USER);
+				Spark.halt(HttpStatus.UNAUTHORIZED_401);
 			}
-			
-			AuthResult result = user.canLogin();
-			if(result != AuthResult.OK)
+			// Read only once, the lease may end in between
+			User.RoomAssignment roomAssignment = user.getRoomAssignment();
+			if(roomAssignment == null)
 			{
-				Log.trace(LogCategory.RADIUS, "User is not currently able to login, reason: " + result.name());
-				getDb().logAuthEvent(null, getClientInfo(request), AuthType.WLAN, result);
+				Log.trace(LogCategory.RADIUS, "User does not have an active room assignment");
+				getDb().logAuthEvent(user, getClientInfo(request), AuthType.WLAN, AuthResult.NO_LEASE);
 				Spark.halt(HttpStatus.UNAUTHORIZED_401);
 			}
-			if(roomVlanOnlyMode) {
-				jsonResponse.put("control:Cleartext-Password", request.attribute(REQUEST_USER_NAME));
-			} else {
-				if (user.getWlanPassword() == null) {
-					Log.trace(LogCategory.RADIUS, "User does not have a WiFi password specified");
-					getDb().logAuthEvent(null, getClientInfo(request), AuthType.WLAN, AuthResult.WRONG_PASSWORD);
-					Spark.halt(HttpStatus.UNAUTHORIZED_401);
-				}
-				if (request.attribute(REQUEST_SET_TUNNEL_AUTHENTICATED)){
-					// prepare response for UidIot
-					// See https://mistererwin.github.io/UniFiPPSK/ for details
-					jsonResponse.put("Tunnel-Password", user.getWlanPassword());
-					jsonResponse.put("request:User-Password", user.getWlanPassword());
-				}
-				jsonResponse.put("control:Cleartext-Password", user.getWlanPassword());
+			room = roomAssignment.getRoom();
+		}
+		
+		AuthResult result = user.canLogin();
+		if(result != AuthResult.OK)
+		{
+			Log.trace(LogCategory.RADIUS, "User is not currently able to login, reason: " + result.name());
+			getDb().logAuthEvent(null, getClientInfo(request), AuthType.WLAN, result);
+			Spark.halt(HttpStatus.UNAUTHORIZED_401);
+		}
+		if(roomVlanOnlyMode) {
+			jsonResponse.put("control:Cleartext-Password", request.attribute(REQUEST_USER_NAME));
+		} else {
+			if (user.getWlanPassword() == null) {
+				Log.trace(LogCategory.RADIUS, "User does not have a WiFi password specified");
+				getDb().logAuthEvent(null, getClientInfo(request), AuthType.WLAN, AuthResult.WRONG_PASSWORD);
+				Spark.halt(HttpStatus.UNAUTHORIZED_401);
 			}
-			if(room.getVlan() != null)
-			{
-				jsonResponse.put("Tunnel-Type", "VLAN");
-				jsonResponse.put("Tunnel-Medium-Type", "IEEE-802");
-				jsonResponse.put("Tunnel-Private-Group-Id", room.getVlan().toString());
+			if (request.attribute(REQUEST_SET_TUNNEL_AUTHENTICATED)){
+				// prepare response for UidIot
+				// See https://mistererwin.github.io/UniFiPPSK/ for details
+				jsonResponse.put("Tunnel-Password", user.getWlanPassword());
+				jsonResponse.put("request:User-Password", user.getWlanPassword());
 			}
+			jsonResponse.put("control:Cleartext-Password", user.getWlanPassword());
+		}
+		if(room.getVlan() != null)
+		{
+			jsonResponse.put("Tunnel-Type", "VLAN");
+			jsonResponse.put("Tunnel-Medium-Type", "IEEE-802");
+			jsonResponse.put("Tunnel-Private-Group-Id", room.getVlan().toString());
 		}
 		String json = GSON.toJson(jsonResponse);
 		Log.trace(LogCategory.RADIUS, "OK, returning JSON response: " + json);
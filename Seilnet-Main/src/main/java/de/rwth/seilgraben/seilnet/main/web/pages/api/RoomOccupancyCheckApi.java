@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.web.pages.api;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+import de.rwth.seilgraben.seilnet.main.config.Constants;
+import de.rwth.seilgraben.seilnet.main.config.Permission;
+import de.rwth.seilgraben.seilnet.main.web.WebPage;
+import spark.Route;
+import spark.Spark;
+
+/**
+ * Lets admins compare the in-memory room occupancy index against the database. A GET request only
+ * reports mismatches, a POST request also repairs them.
+ *
+ * @author Felix Kirchmann
+ */
+public class RoomOccupancyCheckApi extends WebPage
+{
+	private static Gson GSON = new Gson();
+	
+	@Override
+	protected void initialize()
+	{
+		String path = Constants.PATH_PREFIX + Constants.API_PATH_PREFIX + "/admin/room_occupancy_check";
+		Spark.get(path, route);
+		Spark.post(path, route);
+	}
+	
+	Route route = (request, response) -> {
+		if (!authorizeAllPermissions(request, response, Permission.ADMIN)) { return ""; }
+		
+		boolean repair = request.requestMethod().equals("POST");
+		List<String> mismatches = getDb().checkRoomOccupancies(repair);
+		
+		Map<String, Object> result = new HashMap<>();
+		result.put("consistent", mismatches.isEmpty());
+		result.put("repaired", repair && !mismatches.isEmpty());
+		result.put("mismatches", mismatches);
+		return GSON.toJson(result);
+	};
+}
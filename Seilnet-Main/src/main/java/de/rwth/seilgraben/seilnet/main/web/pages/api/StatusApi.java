@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.web.pages.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+import de.rwth.seilgraben.seilnet.main.config.Constants;
+import de.rwth.seilgraben.seilnet.main.config.Permission;
+import de.rwth.seilgraben.seilnet.main.db.AuthEventWriter;
+import de.rwth.seilgraben.seilnet.main.db.IPv4Pool;
+import de.rwth.seilgraben.seilnet.main.db.PoolMetrics;
+import de.rwth.seilgraben.seilnet.main.db.ReadReplica;
+import de.rwth.seilgraben.seilnet.main.web.WebPage;
+import spark.Route;
+import spark.Spark;
+
+/**
+ * Reports internal metrics (e.g. how full the NAT IPv4 pool is, how many authentication events are
+ * waiting to be written, how busy the database connection pool is, or how far the read replica
+ * lags behind) to admins as JSON.
+ *
+ * @author Felix Kirchmann
+ */
+public class StatusApi extends WebPage
+{
+	private static Gson GSON = new Gson();
+	
+	@Override
+	protected void initialize()
+	{
+		Spark.get(Constants.PATH_PREFIX + Constants.API_PATH_PREFIX + "/admin/status", route);
+	}
+	
+	Route route = (request, response) -> {
+		if (!authorizeAllPermissions(request, response, Permission.ADMIN)) { return ""; }
+		
+		Map<String, Object> status = new LinkedHashMap<>();
+		
+		IPv4Pool ipv4Pool = getDb().getIPv4Pool();
+		Map<String, Object> ipv4PoolStatus = new LinkedHashMap<>();
+		ipv4PoolStatus.put("size", ipv4Pool.getSize());
+		ipv4PoolStatus.put("free", ipv4Pool.getFreeCount());
+		ipv4PoolStatus.put("reserved", ipv4Pool.getReservedCount());
+		ipv4PoolStatus.put("utilization", ipv4Pool.getUtilization());
+		status.put("ipv4Pool", ipv4PoolStatus);
+		
+		AuthEventWriter authEventWriter = getDb().getAuthEventWriter();
+		Map<String, Object> authEventStatus = new LinkedHashMap<>();
+		authEventStatus.put("queued", authEventWriter.getQueued());
+		authEventStatus.put("enqueued", authEventWriter.getEnqueued());
+		authEventStatus.put("flushed", authEventWriter.getFlushed());
+		authEventStatus.put("dropped", authEventWriter.getDropped());
+		authEventStatus.put("failed", authEventWriter.getFailed());
+		status.put("authEvents", authEventStatus);
+		
+		PoolMetrics poolMetrics = getDb().getPoolMetrics();
+		Map<String, Object> poolStatus = new LinkedHashMap<>();
+		poolStatus.put("active", poolMetrics.getActiveConnections());
+		poolStatus.put("idle", poolMetrics.getIdleConnections());
+		poolStatus.put("total", poolMetrics.getTotalConnections());
+		poolStatus.put("max", poolMetrics.getMaximumPoolSize());
+		poolStatus.put("pendingThreads", poolMetrics.getThreadsAwaitingConnection());
+		poolStatus.put("timeouts", poolMetrics.getConnectionTimeouts());
+		poolStatus.put("created", poolMetrics.getConnectionsCreated());
+		poolStatus.put("acquireTime", poolMetrics.getAcquireTimeHistogram());
+		status.put("connectionPool", poolStatus);
+		
+		ReadReplica readReplica = getDb().getReadReplica();
+		Map<String, Object> replicaStatus = new LinkedHashMap<>();
+		replicaStatus.put("configured", readReplica != null);
+		if (readReplica != null)
+		{
+			replicaStatus.put("usable", readReplica.isUsable());
+			replicaStatus.put("lagMs", readReplica.getLagMillis());
+			replicaStatus.put("maxLagMs", readReplica.getMaxLagMillis());
+		}
+		status.put("readReplica", replicaStatus);
+		
+		return GSON.toJson(status);
+	};
+}
@@ -5,28 +5,29 @@
 
 package de.rwth.seilgraben.seilnet.main.web.pages.api;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Map.Entry;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 
 import de.rwth.seilgraben.seilnet.main.config.Constants;
 import de.rwth.seilgraben.seilnet.main.config.Permission;
+import de.rwth.seilgraben.seilnet.main.web.MimeType;
 import de.rwth.seilgraben.seilnet.main.web.WebPage;
 import spark.Route;
 import spark.Spark;
 
 /**
+ * Searches for users as the admin types, see {@link de.rwth.seilgraben.seilnet.main.db.Database#searchUsers(String, int)}.
+ * Returns at most {@link Constants#USER_SEARCH_MAX_RESULTS} results, best match first. The results
+ * are written to the response as they are serialized, without building the whole JSON document in
+ * memory first.
  *
  * @author Felix Kirchmann
  */
 public class UserSearch extends WebPage
 {
-	private static Gson GSON = new Gson();
-	
 	@Override
 	protected void initialize()
 	{
@@ -37,17 +38,23 @@ public class UserSearch extends WebPage
 		if (!authorizeAnyPermission(request, response, Permission.ADMIN, Permission.MAIL)) { return ""; }
 		
 		String query = request.queryParams("searchQuery");
-		List<Map<String, String>> results = new ArrayList<>();
+		response.type(MimeType.JSON);
+		JsonWriter json = new JsonWriter(
+				new OutputStreamWriter(response.raw().getOutputStream(), StandardCharsets.UTF_8));
+		json.beginArray();
 		if (query != null)
 		{
-			for (Entry<Integer, String> entry : getDb().searchUsers(query).entrySet())
+			for (Entry<Integer, String> entry : getDb().searchUsers(query, Constants.USER_SEARCH_MAX_RESULTS)
+					.entrySet())
 			{
-								Map<String, String> resultMap = new HashMap<>();
-				resultMap.put("id", Integer.toString(entry.getKey()));
-				resultMap.put("text", entry.getValue());
-				results.add(resultMap);
+				json.beginObject();
+				json.name("id").value(Integer.toString(entry.getKey()));
+				json.name("text").value(entry.getValue());
+				json.endObject();
 			}
 		}
-		return GSON.toJson(results);
+		json.endArray();
+		json.flush();
+		return "";
 	};
 }
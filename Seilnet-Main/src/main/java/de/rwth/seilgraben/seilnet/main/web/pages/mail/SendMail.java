@@ -162,7 +162,7 @@ public class SendMail extends WebPage
 						msgs.addError("strings", "mailGroupError");
 						return false;
 					}
-					recipients.addAll(group.listMembers());
+					recipients.addAll(group.listMembers(true));
 					recipientGroupNames.add(group.getName());
 				}
 				else if (queryParam.startsWith("group_custom_"))
@@ -229,25 +229,22 @@ public class SendMail extends WebPage
 		{
 			try
 			{
-				synchronized (getDb())
+				User user = getUser(request);
+				if (replyTo == -1)
 				{
-					User user = getUser(request);
-					if (replyTo == -1)
-					{
-						mail.from(user.getFullName());
-						mail.addReplyTo(user.getEmail());
-					}
-					else
+					mail.from(user.getFullName());
+					mail.addReplyTo(user.getEmail());
+				}
+				else
+				{
+					Group group = getDb().getGroupByID(replyTo);
+					if (group == null || !user.listGroups().contains(group) || group.getEmail() == null)
 					{
-						Group group = getDb().getGroupByID(replyTo);
-						if (group == null || !user.listGroups().contains(group) || group.getEmail() == null)
-						{
-							msgs.addError("strings", "mailInvalidSender");
-							return false;
-						}
-						mail.from(Constants.NEWSLETTER_GROUP_PREFIX + group.getName());
-						mail.addReplyTo(group.getEmail());
+						msgs.addError("strings", "mailInvalidSender");
+						return false;
 					}
+					mail.from(Constants.NEWSLETTER_GROUP_PREFIX + group.getName());
+					mail.addReplyTo(group.getEmail());
 				}
 			}
 			catch (EmailException e)
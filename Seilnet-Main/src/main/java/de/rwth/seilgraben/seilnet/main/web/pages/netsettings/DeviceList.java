@@ -85,14 +85,11 @@ public class DeviceList extends WebPage {
         if(request.queryParams("name").equals("deviceName")) {
             String deviceId = request.queryParams("pk");
 
-            synchronized (getDb())
-            {
-                Optional<User.Device> deviceOptional = user.getAssignedDevices().stream()
-                        .filter(device -> Integer.toString(device.getId()).equals(deviceId))
-                        .findFirst();
-                if(!deviceOptional.isPresent()) { return i18n("strings", "deviceNotFound", getLocale(request)); }
-                deviceOptional.get().setName(value);
-            }
+            Optional<User.Device> deviceOptional = user.getAssignedDevices().stream()
+                    .filter(device -> Integer.toString(device.getId()).equals(deviceId))
+                    .findFirst();
+            if(!deviceOptional.isPresent()) { return i18n("strings", "deviceNotFound", getLocale(request)); }
+            deviceOptional.get().setName(value);
         }
 
         response.status(200);
@@ -53,7 +53,7 @@ public class DeviceRegistration extends WebPage {
 
         if(user.getRoomAssignment().getRoom().getCurrentUser().equals(user)) {
             // The user is the currently active tenant of the room? Okay, show him the available devices
-            args.put("unregisteredDevices", SeilnetMain.getFirewallClient().getHosts()
+            args.put("unregisteredDevices", SeilnetMain.getFirewallClient()
                     .listVlanHosts(user.getRoomAssignment().getRoom().getVlan()).stream()
                     .filter(networkHost -> user.getAssignedDevices().stream().noneMatch(device ->
                             device.getMacAddress().equals(networkHost.getMacAddress())))
@@ -70,15 +70,11 @@ public class NetworkSettings extends WebPage {
         switch (form)
         {
             case "toggleDynamicIPv4": {
-                synchronized (getDb()) {
-                    user.setNatIPv4Dynamic(!user.isNatIPv4Dynamic());
-                }
+                user.setNatIPv4Dynamic(!user.isNatIPv4Dynamic());
                 break;
             }
             case "toggleAdblock": {
-                synchronized (getDb()) {
-                    user.setAdblock(!user.isAdblock());
-                }
+                user.setAdblock(!user.isAdblock());
                 break;
             }
         }
@@ -146,4 +146,25 @@ ALTER TABLE Users
 INSERT INTO Rooms (Room_Nr, VLAN) SELECT '1001', 101 FROM dual WHERE NOT EXISTS (SELECT * FROM Rooms);
 INSERT INTO IPv4_Addresses (Address) SELECT '10.0.0.100' FROM dual WHERE NOT EXISTS (SELECT * FROM IPv4_Addresses);
 INSERT INTO Groups (Name, Email, Show_Mailing_List) SELECT 'Example Group', 'group@example.com', TRUE
-                                                    FROM dual WHERE NOT EXISTS (SELECT * FROM Groups);
\ No newline at end of file
+                                                    FROM dual WHERE NOT EXISTS (SELECT * FROM Groups);
+
+--changeset fkirchmann:6
+--comment Speeds up looking up the user a MAC address is assigned to.
+CREATE INDEX Ix_MAC_Address_Assigned_To ON User_Devices (MAC_Address, Assigned_To);
+
+--changeset fkirchmann:7
+--comment Speeds up listing a user's most recent authentication events.
+CREATE INDEX Ix_User_ID_Time ON Authentication_Events (User_ID, Time);
+
+--changeset fkirchmann:8
+--comment Heartbeat for measuring the replication lag of read replicas.
+CREATE TABLE Replication_Heartbeat (ID INTEGER NOT NULL, Time TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), PRIMARY KEY (ID));
+INSERT INTO Replication_Heartbeat (ID, Time) VALUES (1, CURRENT_TIMESTAMP(3));
+
+--changeset fkirchmann:9
+--comment Users are searched in memory now (see UserSearchIndex), so the fulltext index only slows down writes.
+DROP INDEX Fx_Full_Name ON Users;
+
+--changeset fkirchmann:10
+--comment Lets the retention of authentication events find the expired events of each result without a table scan.
+CREATE INDEX Ix_Auth_Result_Time ON Authentication_Events (Auth_Result, Time);
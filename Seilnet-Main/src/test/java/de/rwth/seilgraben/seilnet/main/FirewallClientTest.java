@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiFunction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset;
+import de.rwth.seilgraben.seilnet.firewall.shared.FirewallRuleset.FirewallVlanRuleset;
+import de.rwth.seilgraben.seilnet.firewall.shared.SharedXStream;
+
+/**
+ * @author Felix Kirchmann
+ */
+public class FirewallClientTest
+{
+	private TestEnvironment	env;
+	private FirewallClient	client;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		env = new TestEnvironment();
+		client = env.getFirewallClient();
+	}
+
+	@After
+	public void tearDown()
+	{
+		env.close();
+	}
+
+	private static FirewallVlanRuleset ruleset(int vlan)
+	{
+		return new FirewallVlanRuleset(vlan, false, null, null, false, Collections.emptySet());
+	}
+
+	/**
+	 * Gives the client thread time to send anything that is not held back.
+	 */
+	private int settledRequests() throws InterruptedException
+	{
+		Thread.sleep(300);
+		return env.getFirewallRequests().get();
+	}
+
+	private int awaitRequests(int count) throws InterruptedException
+	{
+		for (int i = 0; i < 100 && env.getFirewallRequests().get() < count; i++)
+		{
+			Thread.sleep(50);
+		}
+		return env.getFirewallRequests().get();
+	}
+
+	@Test
+	public void testNestedBatches() throws Exception
+	{
+		int before = settledRequests();
+		client.startBatch();
+		client.startBatch();
+		client.activate(ruleset(101));
+		client.finishBatch();
+		client.activate(ruleset(102));
+		// The outer batch is still running
+		assertEquals(before, settledRequests());
+		client.finishBatch();
+		assertEquals(before + 1, awaitRequests(before + 1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFinishWithoutStart()
+	{
+		client.finishBatch();
+	}
+
+	/**
+	 * The first submission fails for VLAN 102, so only its ruleset is sent again.
+	 */
+	@Test(timeout = 30000)
+	public void testFailedVlanSentAgain() throws Exception
+	{
+		List<Set<Integer>> submissions = activateAsync((submission, poll) -> {
+			if (poll == 0) { return "{\"state\":\"PENDING\",\"failures\":{}}"; }
+			if (submission == 0) { return "{\"state\":\"FAILED\",\"failures\":{\"102\":\"exit code 1\"}}"; }
+			return "{\"state\":\"DONE\",\"failures\":{}}";
+		}, 2);
+		assertEquals("[[101, 102], [102]]", submissions.toString());
+	}
+
+	@Test(timeout = 30000)
+	public void testFailedVlanGivenUp() throws Exception
+	{
+		List<Set<Integer>> submissions = activateAsync(
+				(submission, poll) -> "{\"state\":\"FAILED\",\"failures\":{\"101\":\"exit code 1\"}}",
+				1 + FirewallClient.RULESET_RETRIES);
+		assertEquals(1 + FirewallClient.RULESET_RETRIES, submissions.size());
+	}
+
+	/**
+	 * Activates the rulesets of VLANs 101 and 102 on a stub firewall that accepts them with "202
+	 * Accepted".
+	 *
+	 * @param status
+	 *            Returns the status of a submission for the given submission and poll number.
+	 * @return The VLANs of each submission, once there are as many as expected and no further one
+	 *         follows.
+	 */
+	private List<Set<Integer>> activateAsync(BiFunction<Integer, Integer, String> status, int expectedSubmissions)
+			throws Exception
+	{
+		List<Set<Integer>> submissions = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> polls = Collections.synchronizedList(new ArrayList<>());
+		HttpServer firewall = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		firewall.createContext("/api/firewall/hosts", exchange -> respond(exchange, 200, "{\"hosts\":{}}"));
+		firewall.createContext("/api/firewall/rules", exchange -> {
+			if (exchange.getRequestMethod().equals("POST"))
+			{
+				Set<Integer> vlans = new TreeSet<>();
+				try (InputStream in = exchange.getRequestBody())
+				{
+					for (FirewallRuleset ruleset : (FirewallRuleset[]) SharedXStream.INSTANCE.fromXML(in))
+					{
+						vlans.add(((FirewallVlanRuleset) ruleset).getVlan());
+					}
+				}
+				submissions.add(vlans);
+				polls.add(0);
+				respond(exchange, 202, Integer.toString(submissions.size() - 1));
+			}
+			else
+			{
+				String path = exchange.getRequestURI().getPath();
+				int submission = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+				int poll = polls.set(submission, polls.get(submission) + 1);
+				respond(exchange, 200, status.apply(submission, poll));
+			}
+		});
+		firewall.start();
+		FirewallClient asyncClient = new FirewallClient("127.0.0.1", firewall.getAddress().getPort(), "key");
+		try
+		{
+			asyncClient.activate(ruleset(101), ruleset(102));
+			while (submissions.size() < expectedSubmissions)
+			{
+				Thread.sleep(50);
+			}
+			Thread.sleep(FirewallClient.STATUS_POLL_MS * 3);
+			return new ArrayList<>(submissions);
+		}
+		finally
+		{
+			asyncClient.stop();
+			firewall.stop(0);
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException
+	{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(bytes);
+		}
+	}
+}
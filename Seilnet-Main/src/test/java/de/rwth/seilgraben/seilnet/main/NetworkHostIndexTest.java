@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList;
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHost;
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostListUpdate;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+
+/**
+ * @author Felix Kirchmann
+ */
+public class NetworkHostIndexTest
+{
+	private static final long		EPOCH	= 42;
+
+	private static final NetworkHost	ALICE	= host("alice", 1);
+	private static final NetworkHost	BOB		= host("bob", 2);
+	private static final NetworkHost	CAROL	= host("carol", 3);
+
+	private final NetworkHostIndex	index	= new NetworkHostIndex();
+
+	@Test
+	public void testDeltasInOrder()
+	{
+		assertTrue(index.apply(full(EPOCH, 1, hosts(101, ALICE, BOB))));
+		assertEquals("[101:alice, 101:bob]", hosts(index));
+		assertTrue(index.apply(delta(EPOCH, 2, hosts(102, CAROL), hosts(101, ALICE))));
+		assertEquals("[101:bob, 102:carol]", hosts(index));
+		assertTrue(index.apply(delta(EPOCH, 3, hosts(101, ALICE), hosts(101, BOB))));
+		assertEquals("[101:alice, 102:carol]", hosts(index));
+		assertEquals(Collections.singleton(ALICE), index.listVlanHosts(101));
+		assertTrue(index.apply(delta(EPOCH, 4, Collections.emptyMap(), hosts(102, CAROL))));
+		assertTrue(index.listVlanHosts(102).isEmpty());
+		assertEquals(Collections.singleton(101), index.toHostList().listHosts().keySet());
+	}
+
+	@Test
+	public void testSequenceGap()
+	{
+		assertTrue(index.apply(full(EPOCH, 1, hosts(101, ALICE))));
+		// Update 2 was lost, so update 3 is rejected until the next full update
+		assertFalse(index.apply(delta(EPOCH, 3, hosts(101, BOB), Collections.emptyMap())));
+		assertFalse(index.apply(delta(EPOCH, 1, hosts(101, BOB), Collections.emptyMap())));
+		assertEquals("[101:alice]", hosts(index));
+		assertTrue(index.apply(full(EPOCH, 4, hosts(101, ALICE, CAROL))));
+		assertEquals("[101:alice, 101:carol]", hosts(index));
+		assertTrue(index.apply(delta(EPOCH, 5, hosts(101, BOB), Collections.emptyMap())));
+		assertEquals("[101:alice, 101:bob, 101:carol]", hosts(index));
+	}
+
+	/**
+	 * The firewall daemon was restarted, so its sequence numbers start over in a new epoch.
+	 */
+	@Test
+	public void testEpochChange()
+	{
+		assertTrue(index.apply(full(EPOCH, 1, hosts(101, ALICE))));
+		assertFalse(index.apply(delta(EPOCH + 1, 2, hosts(101, BOB), Collections.emptyMap())));
+		assertEquals("[101:alice]", hosts(index));
+		assertTrue(index.apply(full(EPOCH + 1, 1, hosts(102, BOB))));
+		assertEquals("[102:bob]", hosts(index));
+		assertFalse(index.apply(delta(EPOCH, 2, hosts(101, CAROL), Collections.emptyMap())));
+		assertTrue(index.apply(delta(EPOCH + 1, 2, hosts(101, CAROL), Collections.emptyMap())));
+		assertEquals("[101:carol, 102:bob]", hosts(index));
+	}
+
+	/**
+	 * A host list that was fetched instead of pushed replaces all hosts, and is not part of the
+	 * update sequence.
+	 */
+	@Test
+	public void testReplace()
+	{
+		assertFalse(index.apply(delta(EPOCH, 1, hosts(101, ALICE), Collections.emptyMap())));
+		assertTrue(index.apply(full(EPOCH, 1, hosts(101, ALICE))));
+		index.replace(NetworkHostList.builder().vlanHosts(102, BOB).vlanHosts(103, CAROL).build());
+		assertEquals("[102:bob, 103:carol]", hosts(index));
+		assertTrue(index.listVlanHosts(101).isEmpty());
+		assertFalse(index.apply(delta(EPOCH, 2, hosts(101, ALICE), Collections.emptyMap())));
+		assertEquals("[102:bob, 103:carol]", hosts(index));
+		assertTrue(index.apply(full(EPOCH, 3, hosts(101, ALICE))));
+		assertEquals("[101:alice]", hosts(index));
+	}
+
+	private static NetworkHostListUpdate full(long epoch, long sequence, Map<Integer, Set<NetworkHost>> hosts)
+	{
+		return new NetworkHostListUpdate(epoch, sequence, true, hosts, Collections.emptyMap());
+	}
+
+	private static NetworkHostListUpdate delta(long epoch, long sequence, Map<Integer, Set<NetworkHost>> added,
+			Map<Integer, Set<NetworkHost>> removed)
+	{
+		return new NetworkHostListUpdate(epoch, sequence, false, added, removed);
+	}
+
+	private static Map<Integer, Set<NetworkHost>> hosts(int vlan, NetworkHost... hosts)
+	{
+		Map<Integer, Set<NetworkHost>> vlanHosts = new HashMap<>();
+		vlanHosts.put(vlan, new HashSet<>(Arrays.asList(hosts)));
+		return vlanHosts;
+	}
+
+	/**
+	 * @return The hosts of the index's host list as "VLAN:name", sorted.
+	 */
+	private static String hosts(NetworkHostIndex index)
+	{
+		Set<String> names = new TreeSet<>();
+		index.toHostList().listHosts()
+				.forEach((vlan, vlanHosts) -> vlanHosts.forEach(host -> names.add(vlan + ":" + host.getName())));
+		return names.toString();
+	}
+
+	private static NetworkHost host(String name, int id)
+	{
+		return new NetworkHost(name, new MacAddress(new byte[] { 2, 0, 0, 0, 0, (byte) id }));
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.esotericsoftware.minlog.Log;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.rwth.seilgraben.seilnet.main.db.Database;
+import lombok.Getter;
+
+/**
+ * Boots a {@link Database} on a new in-memory H2 database, with the configuration from
+ * <code>seilnet-test-config.properties</code>, and a stub firewall that accepts all rulesets. The
+ * environment is installed in {@link SeilnetMain}, so only one can be used at a time.
+ *
+ * @author Felix Kirchmann
+ */
+public class TestEnvironment implements AutoCloseable
+{
+	private static final AtomicInteger		DATABASE_COUNTER	= new AtomicInteger();
+
+	private final Class<? extends Database>	databaseClass;
+	private final SeilnetConfig				config;
+	@Getter
+	private Database						database;
+	@Getter
+	private final FirewallClient			firewallClient;
+	@Getter
+	private FirewallManager					firewallManager;
+	/**
+	 * The number of rule requests the stub firewall received.
+	 */
+	@Getter
+	private final AtomicInteger				firewallRequests	= new AtomicInteger();
+	private final HttpServer				firewall;
+
+	public TestEnvironment() throws Exception
+	{
+		this(Database.class);
+	}
+
+	/**
+	 * @param databaseClass
+	 *            {@link Database} or a subclass with the same constructor.
+	 * @param configOverrides
+	 *            Pairs of option name and value that replace the test configuration.
+	 */
+	public TestEnvironment(Class<? extends Database> databaseClass, String... configOverrides) throws Exception
+	{
+		this.databaseClass = databaseClass;
+		firewall = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		firewall.createContext("/api/firewall/hosts", exchange -> respond(exchange, "{\"hosts\":{}}"));
+		firewall.createContext("/api/firewall/rules", exchange -> {
+			try (InputStream in = exchange.getRequestBody())
+			{
+				while (in.read(new byte[8192]) >= 0)
+				{}
+			}
+			firewallRequests.incrementAndGet();
+			respond(exchange, "OK");
+		});
+		firewall.start();
+
+		Properties properties = new Properties();
+		try (InputStream in = TestEnvironment.class.getResourceAsStream("/seilnet-test-config.properties"))
+		{
+			properties.load(in);
+		}
+		properties.setProperty("mysql_database", "mem:test" + DATABASE_COUNTER.incrementAndGet());
+		properties.setProperty("firewall_port", Integer.toString(firewall.getAddress().getPort()));
+		for (int i = 0; i < configOverrides.length; i += 2)
+		{
+			properties.setProperty(configOverrides[i], configOverrides[i + 1]);
+		}
+		File configFile = File.createTempFile("seilnet-test", ".properties");
+		configFile.deleteOnExit();
+		try (OutputStream out = Files.newOutputStream(configFile.toPath()))
+		{
+			properties.store(out, null);
+		}
+		config = new SeilnetConfig(configFile, new ByteArrayInputStream(new byte[0]));
+		Log.set(config.getLogLevel());
+		SeilnetMain.setConfig(config);
+
+		firewallClient = new FirewallClient(config.getFirewallAddr(), config.getFirewallPort(),
+				config.getFirewallApiKey());
+		SeilnetMain.setFirewallClient(firewallClient);
+		openDatabase();
+	}
+
+	private void openDatabase() throws Exception
+	{
+		database = databaseClass.getConstructor(String.class, String.class, String.class, String.class).newInstance(
+				config.getMysqlHost(), config.getMysqlDatabase(), config.getMysqlUser(), config.getMysqlPass());
+		firewallManager = new FirewallManager(firewallClient, database);
+		SeilnetMain.setFirewallManager(firewallManager);
+	}
+
+	/**
+	 * Closes the database and opens it again, e.g. to load data that was inserted with SQL.
+	 */
+	public void reopenDatabase() throws Exception
+	{
+		database.close();
+		openDatabase();
+	}
+
+	private static void respond(HttpExchange exchange, String body) throws IOException
+	{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(bytes);
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		firewallClient.stop();
+		database.close();
+		firewall.stop(0);
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.rwth.seilgraben.seilnet.main.TestEnvironment;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent.AuthResult;
+
+/**
+ * @author Felix Kirchmann
+ */
+public class AuthEventRetentionTest
+{
+	/**
+	 * More than two chunks, all with the same time, so that the chunks can only be told apart by ID.
+	 */
+	private static final int	EXPIRED	= 12_345;
+
+	private TestEnvironment		env;
+	private File				archiveDirectory;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		env = new TestEnvironment();
+		archiveDirectory = Files.createTempDirectory("seilnet-auth-events").toFile();
+	}
+
+	@After
+	public void tearDown()
+	{
+		env.close();
+		for (File file : archiveDirectory.listFiles())
+		{
+			file.delete();
+		}
+		archiveDirectory.delete();
+	}
+
+	@Test
+	public void testDeleteAndArchive() throws Exception
+	{
+		Instant old = Instant.now().minus(40, ChronoUnit.DAYS).truncatedTo(ChronoUnit.SECONDS);
+		insert(AuthResult.WRONG_PASSWORD, old, EXPIRED);
+		insert(AuthResult.WRONG_PASSWORD, Instant.now().minus(10, ChronoUnit.DAYS), 10);
+		insert(AuthResult.OK, old, 20);
+
+		Map<AuthResult, Integer> retentionDays = new EnumMap<>(AuthResult.class);
+		retentionDays.put(AuthResult.WRONG_PASSWORD, 30);
+		new AuthEventRetention(env.getDatabase().dataSource, retentionDays, archiveDirectory).run();
+
+		assertEquals(10, count("SELECT COUNT(*) FROM Authentication_Events WHERE Auth_Result = 'WRONG_PASSWORD'"));
+		assertEquals(20, count("SELECT COUNT(*) FROM Authentication_Events WHERE Auth_Result = 'OK'"));
+
+		File[] archives = archiveDirectory.listFiles();
+		assertEquals(1, archives.length);
+		Set<Long> archivedIds = new HashSet<>();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new FileInputStream(archives[0])), StandardCharsets.UTF_8)))
+		{
+			for (String line; (line = in.readLine()) != null;)
+			{
+				assertTrue(line, line.endsWith(",WLAN,WRONG_PASSWORD,\"info\""));
+				assertTrue(line, archivedIds.add(Long.parseLong(line.substring(0, line.indexOf(',')))));
+			}
+		}
+		assertEquals(EXPIRED, archivedIds.size());
+	}
+
+	@Test
+	public void testUsesIndex() throws Exception
+	{
+		try (Connection connection = env.getDatabase().dataSource.getConnection();
+				Statement statement = connection.createStatement();
+				ResultSet plan = statement.executeQuery("EXPLAIN SELECT ID FROM Authentication_Events"
+						+ " WHERE Auth_Result = 'OK' AND Time < CURRENT_TIMESTAMP"
+						+ " AND (Time > CURRENT_TIMESTAMP OR (Time = CURRENT_TIMESTAMP AND ID > 0))"
+						+ " ORDER BY Time, ID LIMIT 5000"))
+		{
+			plan.next();
+			assertTrue(plan.getString(1), plan.getString(1).toUpperCase().contains("IX_AUTH_RESULT_TIME"));
+		}
+	}
+
+	private void insert(AuthResult result, Instant time, int count) throws SQLException
+	{
+		try (Connection connection = env.getDatabase().dataSource.getConnection();
+				PreparedStatement insert = connection.prepareStatement("INSERT INTO Authentication_Events"
+						+ " (Time, Client_Info, Auth_Type, Auth_Result) VALUES (?, 'info', 'WLAN', ?)"))
+		{
+			for (int i = 0; i < count; i++)
+			{
+				insert.setTimestamp(1, Timestamp.from(time));
+				insert.setString(2, result.name());
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		}
+	}
+
+	private int count(String sql) throws SQLException
+	{
+		try (Connection connection = env.getDatabase().dataSource.getConnection();
+				Statement statement = connection.createStatement(); ResultSet result = statement.executeQuery(sql))
+		{
+			result.next();
+			return result.getInt(1);
+		}
+	}
+}
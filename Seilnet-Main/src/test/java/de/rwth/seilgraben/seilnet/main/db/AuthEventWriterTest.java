@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.rwth.seilgraben.seilnet.main.TestEnvironment;
+import de.rwth.seilgraben.seilnet.main.db.AuthEventWriter.BackpressurePolicy;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent.AuthResult;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent.AuthType;
+
+/**
+ * @author Felix Kirchmann
+ */
+public class AuthEventWriterTest
+{
+	private static final int	EVENTS	= 2000;
+
+	private TestEnvironment		env;
+
+	@After
+	public void tearDown()
+	{
+		env.close();
+	}
+
+	/**
+	 * While events are logged and written one by one, every listing must contain each event
+	 * exactly once, up to the most recent one at the time of the listing.
+	 */
+	@Test(timeout = 60000)
+	public void testListWhileWriting() throws Exception
+	{
+		env = new TestEnvironment(Database.class, "auth_event_batch_size", "1", "auth_event_flush_interval_ms", "1");
+		Database db = env.getDatabase();
+		User user = db.createUser("Jo", "Doe", "jo@example.com", Locale.GERMAN);
+		Thread logger = new Thread(() -> {
+			for (int i = 0; i < EVENTS; i++)
+			{
+				db.logAuthEvent(user, "event " + i, AuthType.WLAN, AuthResult.OK);
+			}
+		});
+		logger.start();
+		int previous = 0;
+		while (previous < EVENTS)
+		{
+			List<String> events = user.listAuthEvent(EVENTS * 2).stream().map(AuthenticationEvent::getClientInfo)
+					.collect(Collectors.toList());
+			for (int i = 0; i < events.size(); i++)
+			{
+				assertEquals("event " + (events.size() - 1 - i), events.get(i));
+			}
+			assertTrue(events.size() >= previous);
+			previous = events.size();
+		}
+		logger.join();
+	}
+
+	private AuthEventWriter idleWriter(BackpressurePolicy policy, int sampleRate) throws Exception
+	{
+		env = new TestEnvironment();
+		// The queue is never full enough for a batch, and the flush interval never passes
+		return new AuthEventWriter(env.getDatabase().dataSource, 10, 100, 3_600_000, policy, sampleRate);
+	}
+
+	private static DBAuthenticationEvent event(int i)
+	{
+		DBAuthenticationEvent event = new DBAuthenticationEvent();
+		event.setTime(Instant.now());
+		event.setClientInfo(Integer.toString(i));
+		event.setAuthType(AuthType.WLAN);
+		event.setAuthResult(AuthResult.OK);
+		return event;
+	}
+
+	private static List<String> pending(AuthEventWriter writer)
+	{
+		return writer.snapshotPending(event -> true).getEvents().stream().map(DBAuthenticationEvent::getClientInfo)
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	public void testDropOldest() throws Exception
+	{
+		AuthEventWriter writer = idleWriter(BackpressurePolicy.DROP_OLDEST, 1);
+		for (int i = 0; i < 15; i++)
+		{
+			writer.write(event(i));
+		}
+		assertEquals("[5, 6, 7, 8, 9, 10, 11, 12, 13, 14]", pending(writer).toString());
+		assertEquals(5, writer.getDropped());
+		writer.close();
+		assertEquals(10, writer.getFlushed());
+	}
+
+	@Test
+	public void testSample() throws Exception
+	{
+		AuthEventWriter writer = idleWriter(BackpressurePolicy.SAMPLE, 3);
+		for (int i = 0; i < 16; i++)
+		{
+			writer.write(event(i));
+		}
+		// Of the 6 overflowing events, the 1st and the 4th are kept, each replacing the oldest one
+		assertEquals("[2, 3, 4, 5, 6, 7, 8, 9, 10, 13]", pending(writer).toString());
+		assertEquals(6, writer.getDropped());
+		writer.close();
+		assertEquals(10, writer.getFlushed());
+	}
+}
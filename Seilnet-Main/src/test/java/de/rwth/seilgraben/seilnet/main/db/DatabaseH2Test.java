@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Inet4Address;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.rwth.seilgraben.seilnet.main.SeilnetMain;
+import de.rwth.seilgraben.seilnet.main.TestEnvironment;
+import de.rwth.seilgraben.seilnet.main.config.Permission;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+
+/**
+ * Boots {@link Database} on H2, to check the changelog and the SQL of {@link DatabaseDialect#H2}.
+ *
+ * @author Felix Kirchmann
+ */
+public class DatabaseH2Test
+{
+	private TestEnvironment	env;
+	private Database		db;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		env = new TestEnvironment();
+		db = env.getDatabase();
+	}
+
+	@After
+	public void tearDown()
+	{
+		env.close();
+	}
+
+	@Test
+	public void testChangelog() throws Exception
+	{
+		assertEquals(DatabaseDialect.H2, db.getDialect());
+		// The demo data of the changelog
+		assertEquals("1001", db.getRoomByVlan(101).getRoomNumber());
+		assertTrue(db.hasFreeIPv4());
+
+		User user = db.createUser("Jo", "Doe", "jo@example.com", Locale.GERMAN);
+		// Opening the database again must not change it, nor fail because of changed checksums
+		Database reopened = new Database("ignored", SeilnetMain.getConfig().getMysqlDatabase(), "sa", null);
+		assertEquals("jo@example.com", reopened.getUserByID(user.getId()).getEmail());
+		reopened.close();
+	}
+
+	@Test
+	public void testUsers() throws Exception
+	{
+		User user = db.createUser("Hans", "Müller", "hans@example.com", Locale.GERMAN);
+		user.assignDevice("Laptop", new MacAddress("00:1A:2B:3C:4D:5E"));
+		assertSame(user, db.getUserByEmail("hans@example.com"));
+		assertSame(user, db.getUserByMacAddress(new MacAddress("00:1a:2b:3c:4d:5e")));
+		assertTrue(db.searchUsers("müller", 10).containsKey(user.getId()));
+		assertTrue(db.searchUsers("4d:5e", 10).containsKey(user.getId()));
+
+		Inet4Address address = user.assignNatIPv4();
+		assertEquals("10.0.0.100", address.getHostAddress());
+		assertEquals(address, user.getAssignedNatIPv4());
+	}
+
+	@Test
+	public void testDynamicIPv4Rotation() throws Exception
+	{
+		addIPv4Addresses(4);
+		List<User> users = new ArrayList<>();
+		List<Inet4Address> before = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+		{
+			User user = db.createUser("User", Integer.toString(i), "user" + i + "@example.com", Locale.GERMAN);
+			user.assignRoom(db.createRoom("R" + i), Instant.now().plus(30, ChronoUnit.DAYS), false);
+			user.setNatIPv4Dynamic(true);
+			before.add(user.assignNatIPv4());
+			users.add(user);
+		}
+
+		db.reassignDynamicNatIpv4s();
+
+		HashSet<Inet4Address> after = new HashSet<>();
+		for (int i = 0; i < users.size(); i++)
+		{
+			Inet4Address address = users.get(i).getAssignedNatIPv4();
+			assertNotNull(address);
+			assertNotEquals(before.get(i), address);
+			after.add(address);
+		}
+		assertEquals(users.size(), after.size());
+
+		// The new assignments must have been linked in the database, not only in memory
+		Database reopened = new Database("ignored", SeilnetMain.getConfig().getMysqlDatabase(), "sa", null);
+		for (User user : users)
+		{
+			assertEquals(user.getAssignedNatIPv4(), reopened.getUserByID(user.getId()).getAssignedNatIPv4());
+		}
+		reopened.close();
+	}
+
+	@Test
+	public void testCleanup() throws Exception
+	{
+		User user = db.createUser("Old", "User", "old@example.com", Locale.GERMAN);
+		User retained = db.createUser("Retained", "User", "retained@example.com", Locale.GERMAN);
+		Group group = db.createGroup("Retention");
+		group.setPermissions(EnumSet.of(Permission.UNLIMITED_DATA_RETENTION));
+		retained.addToGroup(group);
+		addIPv4Addresses(1);
+		for (User u : new User[] { user, retained })
+		{
+			u.assignNatIPv4();
+			u.unassignNatIPv4();
+		}
+		execute("UPDATE User_IPv4_Assignments SET Assigned_To = '"
+				+ Timestamp.from(Instant.now().minus(30, ChronoUnit.DAYS)) + "'");
+
+		db.cleanup();
+
+		assertEquals(0, count("SELECT COUNT(*) FROM User_IPv4_Assignments WHERE User_ID = " + user.getId()));
+		assertEquals(1, count("SELECT COUNT(*) FROM User_IPv4_Assignments WHERE User_ID = " + retained.getId()));
+	}
+
+	@Test
+	public void testEndLeaseNow() throws Exception
+	{
+		User user = db.createUser("Jo", "Doe", "jo@example.com", Locale.GERMAN, db.createRoom("R1"),
+				Instant.now().plus(30, ChronoUnit.DAYS), false);
+		Instant before = Instant.now();
+		user.getRoomAssignment().endNow();
+		Instant after = Instant.now();
+
+		env.reopenDatabase();
+		assertEquals(null, env.getDatabase().getUserByID(user.getId()).getRoomAssignment());
+		try (Connection connection = env.getDatabase().dataSource.getConnection();
+				Statement statement = connection.createStatement(); ResultSet result = statement.executeQuery(
+						"SELECT Expiration, Assigned_To FROM User_Room_Assignments WHERE User_ID = " + user.getId()))
+		{
+			assertTrue(result.next());
+			for (int column = 1; column <= 2; column++)
+			{
+				Instant stored = result.getTimestamp(column).toInstant();
+				assertTrue(column + ": " + stored, !stored.isBefore(before.truncatedTo(ChronoUnit.SECONDS))
+						&& !stored.isAfter(after.plusSeconds(1)));
+			}
+		}
+	}
+
+	private void addIPv4Addresses(int count) throws SQLException
+	{
+		for (int i = 1; i <= count; i++)
+		{
+			execute("INSERT INTO IPv4_Addresses (Address) VALUES ('10.0.0." + (100 + i) + "')");
+		}
+		db.reloadIPv4Pool();
+	}
+
+	private void execute(String sql) throws SQLException
+	{
+		try (Connection connection = db.dataSource.getConnection(); Statement statement = connection.createStatement())
+		{
+			statement.executeUpdate(sql);
+		}
+	}
+
+	private int count(String sql) throws SQLException
+	{
+		try (Connection connection = db.dataSource.getConnection(); Statement statement = connection.createStatement();
+				ResultSet result = statement.executeQuery(sql))
+		{
+			result.next();
+			return result.getInt(1);
+		}
+	}
+}
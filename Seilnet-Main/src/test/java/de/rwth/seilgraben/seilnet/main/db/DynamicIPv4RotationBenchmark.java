@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.net.Inet4Address;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.rwth.seilgraben.seilnet.main.TestEnvironment;
+
+/**
+ * Measures the daily dynamic NAT IPv4 rotation of 2,000 users on H2, with no, one and 50 free
+ * addresses. Not part of the regular test run, start it with
+ * <code>mvn test -Dtest=DynamicIPv4RotationBenchmark</code>.
+ *
+ * @author Felix Kirchmann
+ */
+public class DynamicIPv4RotationBenchmark
+{
+	private static final int	USERS		= 2000;
+	private static final int	WARMUP		= 5;
+	private static final int	ROTATIONS	= 20;
+
+	private TestEnvironment		env;
+	private Database			db;
+	private int					addresses;
+	private List<User>			users;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		env = new TestEnvironment();
+		db = env.getDatabase();
+		addIPv4Addresses(USERS);
+		users = new ArrayList<>(USERS);
+		for (int i = 0; i < USERS; i++)
+		{
+			User user = db.createUser("User", Integer.toString(i), "user" + i + "@example.com", Locale.GERMAN,
+					db.createRoom("R" + i), Instant.now().plus(30, ChronoUnit.DAYS), false);
+			user.setNatIPv4Dynamic(true);
+			user.assignNatIPv4();
+			users.add(user);
+		}
+	}
+
+	@After
+	public void tearDown()
+	{
+		env.close();
+	}
+
+	@Test
+	public void benchmark() throws Exception
+	{
+		measure(0);
+		addIPv4Addresses(1);
+		measure(1);
+		addIPv4Addresses(49);
+		measure(50);
+	}
+
+	private void measure(int free)
+	{
+		int[] currentIds = new int[USERS], freeIds = new int[free];
+		for (int i = 0; i < USERS; i++)
+		{
+			currentIds[i] = i;
+		}
+		for (int i = 0; i < free; i++)
+		{
+			freeIds[i] = USERS + i;
+		}
+		Random random = new Random();
+		for (int i = 0; i < 10_000; i++) // Warm-up
+		{
+			IPv4Rotation.rotate(currentIds, freeIds, random);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < 10_000; i++)
+		{
+			IPv4Rotation.rotate(currentIds, freeIds, random);
+		}
+		double computeMicros = (System.nanoTime() - start) / 10_000 / 1000.0;
+
+		for (int i = 0; i < WARMUP; i++)
+		{
+			db.reassignDynamicNatIpv4s();
+		}
+		long[] millis = new long[ROTATIONS];
+		for (int i = 0; i < ROTATIONS; i++)
+		{
+			List<Inet4Address> before = currentAddresses();
+			start = System.nanoTime();
+			db.reassignDynamicNatIpv4s();
+			millis[i] = (System.nanoTime() - start) / 1_000_000;
+			verify(before);
+		}
+		Arrays.sort(millis);
+		System.out.println("Rotating " + USERS + " users with " + free + " free addresses: computing "
+				+ computeMicros + " us, reassignDynamicNatIpv4s() incl. the firewall update median "
+				+ millis[ROTATIONS / 2] + " ms, max " + millis[ROTATIONS - 1] + " ms");
+	}
+
+	private List<Inet4Address> currentAddresses()
+	{
+		List<Inet4Address> addresses = new ArrayList<>(USERS);
+		users.forEach(user -> addresses.add(user.getAssignedNatIPv4()));
+		return addresses;
+	}
+
+	/**
+	 * Checks that every user got a different, unique address.
+	 */
+	private void verify(List<Inet4Address> before)
+	{
+		Set<Inet4Address> after = new HashSet<>();
+		for (int i = 0; i < USERS; i++)
+		{
+			Inet4Address address = users.get(i).getAssignedNatIPv4();
+			assertNotEquals(before.get(i), address);
+			after.add(address);
+		}
+		assertEquals(USERS, after.size());
+	}
+
+	private void addIPv4Addresses(int count) throws SQLException
+	{
+		try (Connection connection = db.dataSource.getConnection();
+				PreparedStatement insert = connection.prepareStatement("INSERT INTO IPv4_Addresses (Address) VALUES (?)"))
+		{
+			for (int i = addresses; i < addresses + count; i++)
+			{
+				insert.setString(1, "10.1." + (i / 250) + "." + (i % 250 + 1));
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		}
+		addresses += count;
+		db.reloadIPv4Pool();
+	}
+}
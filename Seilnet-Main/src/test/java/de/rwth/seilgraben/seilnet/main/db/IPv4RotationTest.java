@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * @author Felix Kirchmann
+ */
+public class IPv4RotationTest
+{
+	@Test
+	public void testRotation()
+	{
+		Random random = new Random(42);
+		for (int free = 0; free <= 3; free++)
+		{
+			for (int users = 1 + (free == 0 ? 1 : 0); users <= 50; users++)
+			{
+				int[] currentIds = new int[users], freeIds = new int[free];
+				for (int i = 0; i < users; i++)
+				{
+					currentIds[i] = i * 2;
+				}
+				for (int i = 0; i < free; i++)
+				{
+					freeIds[i] = i * 2 + 1;
+				}
+				int[] newIds = IPv4Rotation.rotate(currentIds, freeIds, random);
+				Set<Integer> distinct = new HashSet<>();
+				for (int i = 0; i < users; i++)
+				{
+					assertNotEquals(currentIds[i], newIds[i]);
+					distinct.add(newIds[i]);
+				}
+				assertEquals(users, distinct.size());
+			}
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testSingleUserWithoutFreeAddress()
+	{
+		IPv4Rotation.rotate(new int[] { 1 }, new int[0], new Random());
+	}
+}
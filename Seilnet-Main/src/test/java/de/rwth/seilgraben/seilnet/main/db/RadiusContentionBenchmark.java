@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.rwth.seilgraben.seilnet.main.TestEnvironment;
+
+/**
+ * Measures the RADIUS authentications per second of one thread, with nothing else running and while
+ * the dynamic IPv4 addresses of 200 users are reassigned and all firewall rules are recomputed in a
+ * loop. Not part of the regular test run, start it with
+ * <code>mvn test -Dtest=RadiusContentionBenchmark</code>.
+ *
+ * @author Felix Kirchmann
+ */
+public class RadiusContentionBenchmark
+{
+	private static final long	MEASUREMENT_MS	= 2000;
+
+	private TestEnvironment		env;
+	private Database			db;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		env = new TestEnvironment();
+		RadiusContentionTest.createUsers(env.getDatabase());
+		env.reopenDatabase();
+		db = env.getDatabase();
+	}
+
+	@After
+	public void tearDown()
+	{
+		env.close();
+	}
+
+	@Test
+	public void benchmark() throws Exception
+	{
+		authenticateFor(MEASUREMENT_MS / 2); // Warm-up
+		int uncontended = authenticateFor(MEASUREMENT_MS);
+
+		AtomicBoolean run = new AtomicBoolean(true);
+		AtomicInteger reassignments = new AtomicInteger();
+		Thread reassignment = new Thread(() -> {
+			while (run.get())
+			{
+				db.reassignDynamicNatIpv4s();
+				env.getFirewallManager().updateAllRules();
+				reassignments.incrementAndGet();
+			}
+		});
+		reassignment.start();
+		int contended;
+		try
+		{
+			contended = authenticateFor(MEASUREMENT_MS);
+		}
+		finally
+		{
+			run.set(false);
+			reassignment.join();
+		}
+		assertTrue("No reassignment finished during the measurement", reassignments.get() > 0);
+
+		System.out.println("RADIUS authentications per second: " + uncontended * 1000 / MEASUREMENT_MS
+				+ " uncontended, " + contended * 1000 / MEASUREMENT_MS + " during " + reassignments.get()
+				+ " reassignments of " + RadiusContentionTest.USERS + " users");
+	}
+
+	private int authenticateFor(long millis)
+	{
+		long end = System.currentTimeMillis() + millis;
+		int count = 0;
+		while (System.currentTimeMillis() < end)
+		{
+			RadiusContentionTest.authenticate(db, count++);
+		}
+		return count;
+	}
+}
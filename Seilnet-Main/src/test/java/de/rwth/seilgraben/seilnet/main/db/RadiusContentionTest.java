@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.rwth.seilgraben.seilnet.main.TestEnvironment;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent.AuthResult;
+import de.rwth.seilgraben.seilnet.main.db.orm.DBAuthenticationEvent.AuthType;
+
+/**
+ * Checks that RADIUS authentications, which only read immutable snapshots, do not wait for the user
+ * locks that are held while the dynamic IPv4 addresses are reassigned. The throughput during a
+ * reassignment is measured by {@link RadiusContentionBenchmark}.
+ *
+ * @author Felix Kirchmann
+ */
+public class RadiusContentionTest
+{
+	static final int			USERS	= 200;
+
+	private TestEnvironment		env;
+	private Database			db;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		env = new TestEnvironment();
+		createUsers(env.getDatabase());
+		env.reopenDatabase();
+		db = env.getDatabase();
+	}
+
+	@After
+	public void tearDown()
+	{
+		env.close();
+	}
+
+	/**
+	 * Creates {@link #USERS} users with a room, a VLAN, a WLAN password and a dynamic IPv4 address.
+	 * The database must be reopened afterwards, to load the VLANs.
+	 */
+	static void createUsers(Database db) throws Exception
+	{
+		try (Connection connection = db.dataSource.getConnection();
+				PreparedStatement insert = connection.prepareStatement("INSERT INTO IPv4_Addresses (Address) VALUES (?)"))
+		{
+			for (int i = 0; i < USERS * 2; i++)
+			{
+				insert.setString(1, "10.1." + (i / 250) + "." + (i % 250 + 1));
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		}
+		db.reloadIPv4Pool();
+		for (int i = 0; i < USERS; i++)
+		{
+			User user = db.createUser("User", Integer.toString(i), email(i), Locale.GERMAN,
+					db.createRoom(roomNumber(i)), Instant.now().plus(30, ChronoUnit.DAYS), false);
+			user.setWlanPassword("password" + i);
+			user.setNatIPv4Dynamic(true);
+		}
+		// Rooms only get a VLAN in the database, and only rooms with a VLAN have firewall rules
+		try (Connection connection = db.dataSource.getConnection(); Statement statement = connection.createStatement())
+		{
+			statement.executeUpdate("UPDATE Rooms SET VLAN = 1000 + ID WHERE VLAN IS NULL");
+		}
+	}
+
+	private static String email(int i)
+	{
+		return "user" + i + "@example.com";
+	}
+
+	private static String roomNumber(int i)
+	{
+		return "R" + i;
+	}
+
+	/**
+	 * Does the same lookups as the RADIUS auth request, alternating between logging in with the
+	 * room number and with the e-mail address.
+	 */
+	static void authenticate(Database db, int i)
+	{
+		int userIndex = i % USERS;
+		User user;
+		Room room;
+		if (i % 2 == 0)
+		{
+			room = db.getRoomByNumber(roomNumber(userIndex));
+			user = room.getCurrentUser();
+		}
+		else
+		{
+			user = db.getUserByEmail(email(userIndex));
+			room = user.getRoomAssignment().getRoom();
+		}
+		assertEquals(AuthResult.OK, user.canLogin());
+		assertEquals("password" + userIndex, user.getWlanPassword());
+		assertTrue(room.getVlan() != null);
+		db.logAuthEvent(user, "Client: test", AuthType.WLAN, AuthResult.OK);
+	}
+
+	@Test(timeout = 30000)
+	public void testAuthenticationWhileUsersLocked() throws Exception
+	{
+		CountDownLatch locked = new CountDownLatch(1), release = new CountDownLatch(1);
+		Thread reassignment = new Thread(() -> db.getLocks().runWithAllUserLocks(() -> {
+			locked.countDown();
+			try
+			{
+				release.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}));
+		reassignment.start();
+		locked.await();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			// Would block until the locks are released if authentication needed any of them
+			Future<?> authentications = executor.submit(() -> {
+				for (int i = 0; i < USERS * 2; i++)
+				{
+					authenticate(db, i);
+				}
+			});
+			authentications.get(10, TimeUnit.SECONDS);
+		}
+		finally
+		{
+			release.countDown();
+			executor.shutdownNow();
+			reassignment.join();
+		}
+	}
+}
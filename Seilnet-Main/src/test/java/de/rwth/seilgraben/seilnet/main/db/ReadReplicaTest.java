@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.rwth.seilgraben.seilnet.main.TestEnvironment;
+
+/**
+ * Routes the reads of {@link Group#listMembers(boolean)} through a read replica, which is a second
+ * in-memory H2 database. The replica's group memberships differ from the primary's, so that the
+ * result shows which database was read.
+ *
+ * @author Felix Kirchmann
+ */
+public class ReadReplicaTest
+{
+	private static final AtomicInteger	REPLICA_COUNTER	= new AtomicInteger();
+	private static final long			MAX_LAG_MS		= 600_000;
+	private static final long			TIMEOUT_MS		= 10_000;
+
+	private TestEnvironment				env;
+
+	@After
+	public void tearDown()
+	{
+		if (env != null)
+		{
+			env.close();
+		}
+	}
+
+	@Test
+	public void testReadsFromReplica() throws Exception
+	{
+		Group group = boot(Instant.now());
+		assertTrue(env.getDatabase().getReadReplica().isUsable());
+		assertEquals("Replica", members(group, true));
+		assertEquals("Primary", members(group, false));
+	}
+
+	@Test
+	public void testLaggingReplicaNotUsed() throws Exception
+	{
+		Group group = boot(Instant.now().minus(1, ChronoUnit.HOURS));
+		assertFalse(env.getDatabase().getReadReplica().isUsable());
+		assertEquals("Primary", members(group, true));
+	}
+
+	/**
+	 * Creates the replica with the given heartbeat, which is never updated since nothing replicates
+	 * to it, then boots the database and waits for the first heartbeat.
+	 *
+	 * @return A group whose only member is "Primary" on the primary and "Replica" on the replica.
+	 */
+	private Group boot(Instant replicatedHeartbeat) throws Exception
+	{
+		String replicaDatabase = "mem:replica" + REPLICA_COUNTER.incrementAndGet();
+		Connection replica = DriverManager.getConnection(
+				DatabaseDialect.H2.jdbcUrl(null, replicaDatabase), "sa", "");
+		try (Statement statement = replica.createStatement())
+		{
+			statement.execute("CREATE TABLE Replication_Heartbeat (ID INTEGER NOT NULL, Time TIMESTAMP(3) NOT NULL, "
+					+ "PRIMARY KEY (ID))");
+			statement.execute("CREATE TABLE User_Groups (User_ID INTEGER NOT NULL, Group_ID INTEGER NOT NULL)");
+		}
+		try (PreparedStatement insert = replica
+				.prepareStatement("INSERT INTO Replication_Heartbeat (ID, Time) VALUES (1, ?)"))
+		{
+			insert.setTimestamp(1, Timestamp.from(replicatedHeartbeat));
+			insert.executeUpdate();
+		}
+
+		env = new TestEnvironment(Database.class, "mysql_replica_host", "ignored", "mysql_replica_database",
+				replicaDatabase, "mysql_replica_max_lag_ms", Long.toString(MAX_LAG_MS));
+		Database db = env.getDatabase();
+		User primaryMember = db.createUser("Primary", "Member", "primary@example.com", Locale.GERMAN);
+		User replicaMember = db.createUser("Replica", "Member", "replica@example.com", Locale.GERMAN);
+		Group group = db.createGroup("Replicated");
+		primaryMember.addToGroup(group);
+		try (PreparedStatement insert = replica
+				.prepareStatement("INSERT INTO User_Groups (User_ID, Group_ID) VALUES (?, ?)"))
+		{
+			insert.setInt(1, replicaMember.getId());
+			insert.setInt(2, group.getId());
+			insert.executeUpdate();
+		}
+		replica.close();
+
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (db.getReadReplica().getLagMillis() < 0 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		return group;
+	}
+
+	private static String members(Group group, boolean allowStale)
+	{
+		return String.join(",", group.listMembers(allowStale).stream().map(User::getFirstName).sorted()
+				.toArray(String[]::new));
+	}
+}
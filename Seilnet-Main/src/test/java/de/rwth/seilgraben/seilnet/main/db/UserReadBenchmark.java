@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.main.db;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.rwth.seilgraben.seilnet.main.TestEnvironment;
+import de.rwth.seilgraben.seilnet.main.config.Permission;
+import de.rwth.seilgraben.seilnet.util.MacAddress;
+
+/**
+ * JMH benchmark of the {@link User} getters that RADIUS authentication, the web interface and the
+ * firewall rules use, alone and while another thread keeps modifying the user. Not part of the
+ * regular test run, start it with <code>mvn test -Dtest=UserReadBenchmark</code>.
+ *
+ * @author Felix Kirchmann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserReadBenchmark
+{
+	private TestEnvironment	env;
+	private User			user;
+	private int				writes;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		env = new TestEnvironment();
+		Database db = env.getDatabase();
+		try (Connection connection = db.dataSource.getConnection(); Statement statement = connection.createStatement())
+		{
+			statement.executeUpdate("INSERT INTO IPv4_Addresses (Address) VALUES ('10.0.0.100')");
+		}
+		db.reloadIPv4Pool();
+		user = db.createUser("Jo", "Doe", "jo@example.com", Locale.GERMAN, db.createRoom("R1"),
+				Instant.now().plus(30, ChronoUnit.DAYS), false);
+		for (int i = 0; i < 4; i++)
+		{
+			user.assignDevice("Device " + i, new MacAddress("00:11:22:33:44:5" + i));
+		}
+		Group group = db.createGroup("Group");
+		group.setPermissions(EnumSet.of(Permission.MAIL));
+		user.addToGroup(group);
+		user.assignNatIPv4();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		env.close();
+	}
+
+	@Benchmark
+	public void read(Blackhole blackhole)
+	{
+		blackhole.consume(user.hasPermission(Permission.ACCESS_ADMIN_NET));
+		blackhole.consume(user.getAssignedDevices().size());
+		blackhole.consume(user.listGroups().size());
+		blackhole.consume(user.canLogin());
+		blackhole.consume(user.getRoomAssignment());
+		blackhole.consume(user.getAssignedNatIPv4());
+	}
+
+	@Benchmark
+	@org.openjdk.jmh.annotations.Group("readWhileWriting")
+	@GroupThreads(3)
+	public void readWhileWriting(Blackhole blackhole)
+	{
+		read(blackhole);
+	}
+
+	@Benchmark
+	@org.openjdk.jmh.annotations.Group("readWhileWriting")
+	@GroupThreads(1)
+	public void write()
+	{
+		user.setComments(Integer.toString(writes++));
+	}
+
+	@Test
+	public void benchmark() throws Exception
+	{
+		new Runner(new OptionsBuilder().include(UserReadBenchmark.class.getName())
+				// The forked JVM needs the same options as the tests, e.g. --add-opens
+				.jvmArgsAppend(ManagementFactory.getRuntimeMXBean().getInputArguments().toArray(new String[0]))
+				.build()).run();
+	}
+}
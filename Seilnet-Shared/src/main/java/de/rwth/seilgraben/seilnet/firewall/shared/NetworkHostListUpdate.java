@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016-2023 Felix Kirchmann.
+ * Distributed under the MIT License (license terms are at http://opensource.org/licenses/MIT).
+ */
+
+package de.rwth.seilgraben.seilnet.firewall.shared;
+
+import java.util.Map;
+import java.util.Set;
+
+import de.rwth.seilgraben.seilnet.firewall.shared.NetworkHostList.NetworkHost;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A change of the network host list, pushed from the firewall to the master daemon. Updates are
+ * numbered consecutively, so the receiver can tell whether it missed one. In that case, it rejects
+ * the update and the firewall sends a full snapshot instead, i.e. an update with <code>full</code>
+ * set, whose <code>addedHosts</code> contain all hosts.
+ *
+ * @author Felix Kirchmann
+ */
+@Getter
+@RequiredArgsConstructor
+public class NetworkHostListUpdate
+{
+	/**
+	 * Chosen randomly whenever the firewall daemon starts, since its sequence numbers start over.
+	 */
+	private final long								epoch;
+	private final long								sequence;
+	private final boolean							full;
+	/**
+	 * VLAN ID -&gt; the hosts that appeared in the VLAN.
+	 */
+	@NonNull
+	private final Map<Integer, Set<NetworkHost>>	addedHosts;
+	/**
+	 * VLAN ID -&gt; the hosts that disappeared from the VLAN. Empty if <code>full</code> is set.
+	 */
+	@NonNull
+	private final Map<Integer, Set<NetworkHost>>	removedHosts;
+}
@@ -63,6 +63,20 @@ public class MacAddress
 		return mac.clone();
 	}
 	
+	/**
+	 * @return The MAC address packed into the lower 48 bits of a long, e.g. for use as a compact map
+	 *         key.
+	 */
+	public long toLong()
+	{
+		long value = 0;
+		for (byte b : mac)
+		{
+			value = (value << 8) | (b & 0xff);
+		}
+		return value;
+	}
+	
 	/**
 	 * Returns the MAC in textual representation, e.g. 00:11:22:33:44:55
 	 * 